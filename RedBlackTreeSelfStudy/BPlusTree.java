@@ -0,0 +1,516 @@
+import java.util.NoSuchElementException;
+
+/**
+ *  The <tt>BPlusTree</tt> class represents an ordered symbol table of
+ *  <tt>int</tt> keys and <tt>int</tt> values, with the same ordered
+ *  operations as {@link CompactRedBlackBST}.
+ *  <p>
+ *  A red-black tree is a binary encoding of a 2-3 or 2-3-4 tree, and it reads
+ *  one node, usually one cache miss, per binary level. This implementation
+ *  stores the wide nodes directly instead. It is a B+ tree with up to
+ *  <tt>M</tt> = 64 keys per leaf and 64 children per inner node, all in
+ *  primitive arrays. Leaves hold the key-value pairs and are chained in key
+ *  order, so a range is a scan along consecutive leaves. Inner nodes hold the
+ *  separating keys and the number of keys under each child, for
+ *  <em>rank</em> and <em>select</em>. A node is searched by counting the keys
+ *  smaller than the search key, a loop with no data-dependent branch that the
+ *  JIT compiler can unroll or vectorize.
+ *  <p>
+ *  A deletion does not merge nodes that become less than half full. It only
+ *  removes a node once it is empty, and the root once it has a single child.
+ *  Every leaf stays at the same depth, so the height is still logarithmic in the
+ *  largest size the tree has reached. <em>put</em>, <em>get</em>, <em>delete</em>,
+ *  <em>rank</em> and <em>select</em> read one node per level of a tree of height
+ *  log<sub>32</sub> <em>N</em> to log<sub>64</sub> <em>N</em>.
+ */
+public class BPlusTree {
+
+    private static final int M = 64;   // most keys in a leaf, most children of an inner node
+
+    private static class Node {
+        int n;   // number of keys in a leaf, number of children of an inner node
+    }
+
+    // room for one extra entry, so a node can overflow before it splits
+    private static final class Leaf extends Node {
+        final int[] keys = new int[M + 1];
+        final int[] vals = new int[M + 1];
+        Leaf prev, next;   // neighbours in key order
+    }
+
+    // child i holds the keys k with keys[i-1] <= k < keys[i]
+    private static final class Inner extends Node {
+        final int[] keys = new int[M];
+        final Node[] children = new Node[M + 1];
+        final int[] counts = new int[M + 1];   // number of keys under each child
+    }
+
+    private Node root = new Leaf();
+    private int height;    // number of inner levels
+    private int size;      // number of key-value pairs
+
+    private int splitKey;  // separator of the last split, passed up from put
+    private boolean grew;  // whether the last put added a key
+
+    /**
+     * Initializes an empty symbol table.
+     */
+    public BPlusTree() {
+    }
+
+    /**
+     * Returns the number of key-value pairs in this symbol table.
+     * @return the number of key-value pairs in this symbol table
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Is this symbol table empty?
+     * @return <tt>true</tt> if this symbol table is empty and <tt>false</tt> otherwise
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the number of inner levels (for debugging).
+     * @return the height of the tree (a tree with a single leaf has height 0)
+     */
+    public int height() {
+        return height;
+    }
+
+   /***************************************************************************
+    *  Searching inside a node.
+    ***************************************************************************/
+
+    // number of keys among the first n that are less than key
+    private static int countLess(int[] keys, int n, int key) {
+        int count = 0;
+        for (int i = 0; i < n; i++)
+            count += (keys[i] < key) ? 1 : 0;
+        return count;
+    }
+
+    // number of keys among the first n that are less than or equal to key
+    private static int countAtMost(int[] keys, int n, int key) {
+        int count = 0;
+        for (int i = 0; i < n; i++)
+            count += (keys[i] <= key) ? 1 : 0;
+        return count;
+    }
+
+    // the leaf whose range contains key
+    private Leaf leaf(int key) {
+        Node x = root;
+        for (int h = height; h > 0; h--) {
+            Inner inner = (Inner) x;
+            x = inner.children[countAtMost(inner.keys, inner.n - 1, key)];
+        }
+        return (Leaf) x;
+    }
+
+    // the number of keys under x
+    private static int count(Node x) {
+        if (x instanceof Leaf) return x.n;
+        Inner inner = (Inner) x;
+        int count = 0;
+        for (int i = 0; i < inner.n; i++) count += inner.counts[i];
+        return count;
+    }
+
+   /***************************************************************************
+    *  Search.
+    ***************************************************************************/
+
+    /**
+     * Returns the value associated with the given key.
+     * @param key the key
+     * @param defaultValue the value to return if the key is not in the symbol table
+     * @return the value associated with the given key, or <tt>defaultValue</tt> if there is none
+     */
+    public int get(int key, int defaultValue) {
+        Leaf leaf = leaf(key);
+        int i = countLess(leaf.keys, leaf.n, key);
+        return (i < leaf.n && leaf.keys[i] == key) ? leaf.vals[i] : defaultValue;
+    }
+
+    /**
+     * Does this symbol table contain the given key?
+     * @param key the key
+     * @return <tt>true</tt> if this symbol table contains <tt>key</tt> and
+     *     <tt>false</tt> otherwise
+     */
+    public boolean contains(int key) {
+        Leaf leaf = leaf(key);
+        int i = countLess(leaf.keys, leaf.n, key);
+        return i < leaf.n && leaf.keys[i] == key;
+    }
+
+   /***************************************************************************
+    *  Insertion.
+    ***************************************************************************/
+
+    /**
+     * Inserts the key-value pair into the symbol table, overwriting the old value
+     * with the new value if the key is already in the symbol table.
+     * @param key the key
+     * @param val the value
+     */
+    public void put(int key, int val) {
+        Node split = put(root, key, val, height);
+        if (grew) size++;
+        if (split == null) return;
+
+        // grow a new root above the old one and its new sibling
+        Inner inner = new Inner();
+        inner.n = 2;
+        inner.children[0] = root;
+        inner.children[1] = split;
+        inner.keys[0] = splitKey;
+        inner.counts[0] = count(root);
+        inner.counts[1] = count(split);
+        root = inner;
+        height++;
+    }
+
+    // insert into the subtree rooted at x of height h; return the new right sibling if x split
+    private Node put(Node x, int key, int val, int h) {
+        if (h == 0) {
+            Leaf leaf = (Leaf) x;
+            int i = countLess(leaf.keys, leaf.n, key);
+            if (i < leaf.n && leaf.keys[i] == key) {
+                leaf.vals[i] = val;
+                grew = false;
+                return null;
+            }
+            System.arraycopy(leaf.keys, i, leaf.keys, i + 1, leaf.n - i);
+            System.arraycopy(leaf.vals, i, leaf.vals, i + 1, leaf.n - i);
+            leaf.keys[i] = key;
+            leaf.vals[i] = val;
+            leaf.n++;
+            grew = true;
+            return (leaf.n > M) ? split(leaf) : null;
+        }
+
+        Inner inner = (Inner) x;
+        int j = countAtMost(inner.keys, inner.n - 1, key);
+        Node split = put(inner.children[j], key, val, h - 1);
+        if (grew) inner.counts[j]++;
+        if (split == null) return null;
+
+        // add the new sibling to the right of child j
+        System.arraycopy(inner.children, j + 1, inner.children, j + 2, inner.n - j - 1);
+        System.arraycopy(inner.counts, j + 1, inner.counts, j + 2, inner.n - j - 1);
+        System.arraycopy(inner.keys, j, inner.keys, j + 1, inner.n - j - 1);
+        inner.children[j + 1] = split;
+        inner.keys[j] = splitKey;
+        inner.counts[j] = count(inner.children[j]);
+        inner.counts[j + 1] = count(split);
+        inner.n++;
+        return (inner.n > M) ? split(inner) : null;
+    }
+
+    // move the upper half of a full leaf to a new leaf after it
+    private Leaf split(Leaf leaf) {
+        Leaf right = new Leaf();
+        int half = leaf.n / 2;
+        right.n = leaf.n - half;
+        System.arraycopy(leaf.keys, half, right.keys, 0, right.n);
+        System.arraycopy(leaf.vals, half, right.vals, 0, right.n);
+        leaf.n = half;
+        right.next = leaf.next;
+        right.prev = leaf;
+        if (leaf.next != null) leaf.next.prev = right;
+        leaf.next = right;
+        splitKey = right.keys[0];
+        return right;
+    }
+
+    // move the upper half of a full inner node to a new node; the middle separator moves up
+    private Inner split(Inner inner) {
+        Inner right = new Inner();
+        int half = inner.n / 2;
+        right.n = inner.n - half;
+        System.arraycopy(inner.children, half, right.children, 0, right.n);
+        System.arraycopy(inner.counts, half, right.counts, 0, right.n);
+        System.arraycopy(inner.keys, half, right.keys, 0, right.n - 1);
+        splitKey = inner.keys[half - 1];
+        for (int i = half; i < inner.n; i++) inner.children[i] = null;
+        inner.n = half;
+        return right;
+    }
+
+   /***************************************************************************
+    *  Deletion.
+    ***************************************************************************/
+
+    /**
+     * Removes the key and associated value from the symbol table
+     * (if the key is in the symbol table).
+     * @param key the key
+     */
+    public void delete(int key) {
+        if (!delete(root, key, height)) return;
+        size--;
+        while (height > 0 && root.n == 1) {
+            root = ((Inner) root).children[0];
+            height--;
+        }
+        if (root.n == 0) {
+            root = new Leaf();
+            height = 0;
+        }
+    }
+
+    // delete from the subtree rooted at x of height h; return whether the key was there
+    private boolean delete(Node x, int key, int h) {
+        if (h == 0) {
+            Leaf leaf = (Leaf) x;
+            int i = countLess(leaf.keys, leaf.n, key);
+            if (i == leaf.n || leaf.keys[i] != key) return false;
+            System.arraycopy(leaf.keys, i + 1, leaf.keys, i, leaf.n - i - 1);
+            System.arraycopy(leaf.vals, i + 1, leaf.vals, i, leaf.n - i - 1);
+            leaf.n--;
+            if (leaf.n == 0) {
+                // the parent drops the leaf; unchain it
+                if (leaf.prev != null) leaf.prev.next = leaf.next;
+                if (leaf.next != null) leaf.next.prev = leaf.prev;
+            }
+            return true;
+        }
+
+        Inner inner = (Inner) x;
+        int j = countAtMost(inner.keys, inner.n - 1, key);
+        if (!delete(inner.children[j], key, h - 1)) return false;
+        inner.counts[j]--;
+        if (inner.children[j].n == 0) {
+            // drop the empty child with the separator on one of its sides
+            System.arraycopy(inner.children, j + 1, inner.children, j, inner.n - j - 1);
+            System.arraycopy(inner.counts, j + 1, inner.counts, j, inner.n - j - 1);
+            int k = (j == 0) ? 0 : j - 1;
+            if (inner.n > 1) System.arraycopy(inner.keys, k + 1, inner.keys, k, inner.n - k - 2);
+            inner.n--;
+            inner.children[inner.n] = null;
+        }
+        return true;
+    }
+
+   /***************************************************************************
+    *  Ordered symbol table methods.
+    ***************************************************************************/
+
+    /**
+     * Returns the smallest key in the symbol table.
+     * @return the smallest key in the symbol table
+     * @throws NoSuchElementException if the symbol table is empty
+     */
+    public int min() {
+        if (isEmpty()) throw new NoSuchElementException("called min() with empty symbol table");
+        Node x = root;
+        for (int h = height; h > 0; h--) x = ((Inner) x).children[0];
+        return ((Leaf) x).keys[0];
+    }
+
+    /**
+     * Returns the largest key in the symbol table.
+     * @return the largest key in the symbol table
+     * @throws NoSuchElementException if the symbol table is empty
+     */
+    public int max() {
+        if (isEmpty()) throw new NoSuchElementException("called max() with empty symbol table");
+        Node x = root;
+        for (int h = height; h > 0; h--) x = ((Inner) x).children[x.n - 1];
+        return ((Leaf) x).keys[x.n - 1];
+    }
+
+    /**
+     * Returns the largest key in the symbol table less than or equal to <tt>key</tt>.
+     * @param key the key
+     * @return the largest key in the symbol table less than or equal to <tt>key</tt>
+     * @throws NoSuchElementException if there is no such key
+     */
+    public int floor(int key) {
+        Leaf leaf = leaf(key);
+        int i = countAtMost(leaf.keys, leaf.n, key);
+        if (i > 0) return leaf.keys[i - 1];
+        // every key in the leaves before this one is below its range
+        if (leaf.prev == null) throw new NoSuchElementException("no key less than or equal to " + key);
+        return leaf.prev.keys[leaf.prev.n - 1];
+    }
+
+    /**
+     * Returns the smallest key in the symbol table greater than or equal to <tt>key</tt>.
+     * @param key the key
+     * @return the smallest key in the symbol table greater than or equal to <tt>key</tt>
+     * @throws NoSuchElementException if there is no such key
+     */
+    public int ceiling(int key) {
+        Leaf leaf = leaf(key);
+        int i = countLess(leaf.keys, leaf.n, key);
+        if (i < leaf.n) return leaf.keys[i];
+        if (leaf.next == null) throw new NoSuchElementException("no key greater than or equal to " + key);
+        return leaf.next.keys[0];
+    }
+
+    /**
+     * Return the kth smallest key in the symbol table.
+     * @param k the order statistic
+     * @return the kth smallest key in the symbol table
+     * @throws IllegalArgumentException unless <tt>k</tt> is between 0 and
+     *     <em>N</em> &minus; 1
+     */
+    public int select(int k) {
+        if (k < 0 || k >= size()) throw new IllegalArgumentException();
+        Node x = root;
+        for (int h = height; h > 0; h--) {
+            Inner inner = (Inner) x;
+            int j = 0;
+            while (k >= inner.counts[j]) k -= inner.counts[j++];
+            x = inner.children[j];
+        }
+        return ((Leaf) x).keys[k];
+    }
+
+    /**
+     * Return the number of keys in the symbol table strictly less than <tt>key</tt>.
+     * @param key the key
+     * @return the number of keys in the symbol table strictly less than <tt>key</tt>
+     */
+    public int rank(int key) {
+        Node x = root;
+        int rank = 0;
+        for (int h = height; h > 0; h--) {
+            Inner inner = (Inner) x;
+            int j = countAtMost(inner.keys, inner.n - 1, key);
+            for (int i = 0; i < j; i++) rank += inner.counts[i];
+            x = inner.children[j];
+        }
+        return rank + countLess(((Leaf) x).keys, x.n, key);
+    }
+
+   /***************************************************************************
+    *  Range count and range search.
+    ***************************************************************************/
+
+    /**
+     * Returns the number of keys in the symbol table in the given range.
+     * @param lo minimum endpoint
+     * @param hi maximum endpoint
+     * @return the number of keys in the sybol table between <tt>lo</tt>
+     *    (inclusive) and <tt>hi</tt> (inclusive)
+     */
+    public int size(int lo, int hi) {
+        if (lo > hi) return 0;
+        if (contains(hi)) return rank(hi) - rank(lo) + 1;
+        else              return rank(hi) - rank(lo);
+    }
+
+    /**
+     * Returns the keys in the symbol table in the given range, in ascending order.
+     * The keys are read by one descent to <tt>lo</tt> and a scan along the leaves.
+     * @param lo minimum endpoint
+     * @param hi maximum endpoint
+     * @return the keys between <tt>lo</tt> (inclusive) and <tt>hi</tt> (inclusive)
+     */
+    public int[] keys(int lo, int hi) {
+        int[] keys = new int[size(lo, hi)];
+        if (keys.length == 0) return keys;
+        Leaf leaf = leaf(lo);
+        int i = countLess(leaf.keys, leaf.n, lo);
+        for (int k = 0; k < keys.length; k++, i++) {
+            if (i == leaf.n) {
+                leaf = leaf.next;
+                i = 0;
+            }
+            keys[k] = leaf.keys[i];
+        }
+        return keys;
+    }
+
+   /***************************************************************************
+    *  Check integrity of the B+ tree.
+    ***************************************************************************/
+    boolean check() {
+        if (!isOrdered())        System.out.println("Not in symmetric order");
+        if (!isCountConsistent()) System.out.println("Child counts not consistent");
+        if (!isChained())        System.out.println("Leaf chain not consistent");
+        return isOrdered() && isCountConsistent() && isChained();
+    }
+
+    // are the keys of every node within the bounds of its separators, and no node empty?
+    private boolean isOrdered() {
+        return isOrdered(root, height, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    private boolean isOrdered(Node x, int h, long lo, long hi) {
+        if (x.n == 0) return x == root && size == 0;
+        if (h == 0) {
+            Leaf leaf = (Leaf) x;
+            for (int i = 0; i < leaf.n; i++) {
+                if (leaf.keys[i] < lo || leaf.keys[i] >= hi) return false;
+                if (i > 0 && leaf.keys[i - 1] >= leaf.keys[i]) return false;
+            }
+            return true;
+        }
+        Inner inner = (Inner) x;
+        for (int i = 0; i < inner.n; i++) {
+            long childLo = (i == 0) ? lo : inner.keys[i - 1];
+            long childHi = (i == inner.n - 1) ? hi : inner.keys[i];
+            if (childLo >= childHi) return false;
+            if (!isOrdered(inner.children[i], h - 1, childLo, childHi)) return false;
+        }
+        return true;
+    }
+
+    // does every count match the number of keys under its child?
+    private boolean isCountConsistent() {
+        return countKeys(root, height) == size;
+    }
+
+    // number of keys under x, or -1 if a count is wrong
+    private int countKeys(Node x, int h) {
+        if (h == 0) return x.n;
+        Inner inner = (Inner) x;
+        int total = 0;
+        for (int i = 0; i < inner.n; i++) {
+            int count = countKeys(inner.children[i], h - 1);
+            if (count != inner.counts[i]) return -1;
+            total += count;
+        }
+        return total;
+    }
+
+    // does the leaf chain visit every key in order, with matching back links?
+    private boolean isChained() {
+        Node x = root;
+        for (int h = height; h > 0; h--) x = ((Inner) x).children[0];
+        Leaf leaf = (Leaf) x;
+        if (leaf.prev != null) return false;
+        int seen = 0;
+        for (; leaf != null; leaf = leaf.next) {
+            if (leaf.next != null && leaf.next.prev != leaf) return false;
+            for (int i = 0; i < leaf.n; i++) {
+                if (seen < size && select(seen) != leaf.keys[i]) return false;
+                seen++;
+            }
+        }
+        return seen == size;
+    }
+
+
+    /**
+     * Unit tests the <tt>BPlusTree</tt> data type.
+     */
+    public static void main(String[] args) {
+        BPlusTree st = new BPlusTree();
+        for (int i = 0; i < 1000; i++) st.put(i * 7 % 1000, i);
+        for (int i = 0; i < 1000; i += 3) st.delete(i);
+        int[] range = st.keys(100, 110);
+        System.out.print("size " + st.size() + ", height " + st.height() + ", keys(100, 110):");
+        for (int key : range) System.out.print(" " + key);
+        System.out.println(", rank(500) " + st.rank(500) + ", consistent " + st.check());
+    }
+}
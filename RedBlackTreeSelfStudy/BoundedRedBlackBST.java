@@ -0,0 +1,264 @@
+/**
+ *  The <tt>BoundedRedBlackBST</tt> class represents a sorted cache: an ordered
+ *  symbol table that holds at most <em>capacity</em> key-value pairs and evicts
+ *  one pair whenever a new key would exceed that capacity.
+ *  It supports <em>put</em>, <em>get</em>, <em>contains</em>, <em>delete</em>,
+ *  <em>floor</em> and <em>ceiling</em>, and counts hits, misses and evictions.
+ *  <p>
+ *  The pair to evict is chosen by a {@link Policy}: the least recently used key,
+ *  the least frequently used key (ties broken by recency), or the smallest or
+ *  largest key. Only <em>get</em> and <em>put</em> count as uses of a key;
+ *  <em>contains</em>, <em>floor</em> and <em>ceiling</em> leave the eviction
+ *  order alone.
+ *  <p>
+ *  This implementation keeps the pairs in a {@link RedBlackBST}. For the LRU and
+ *  LFU policies a second <tt>RedBlackBST</tt>, keyed by use stamp, orders the
+ *  keys for eviction. Every operation takes logarithmic time in the worst case.
+ */
+public class BoundedRedBlackBST<Key extends Comparable<Key>, Value> {
+
+    /**
+     * The ways of choosing the key to evict.
+     */
+    public enum Policy {
+        /** evict the least recently used key */
+        LRU,
+        /** evict the least frequently used key, the least recently used first on ties */
+        LFU,
+        /** evict the smallest key */
+        MIN,
+        /** evict the largest key */
+        MAX
+    }
+
+    private final int capacity;
+    private final Policy policy;
+    private final RedBlackBST<Key, Entry> st = new RedBlackBST<Key, Entry>();
+    private final RedBlackBST<Stamp, Key> uses;   // eviction order; null unless LRU or LFU
+
+    private long clock;                 // incremented on every use of a key
+    private long hits, misses, evictions;
+
+    // value of a key together with its latest use
+    private class Entry {
+        private Value val;
+        private Stamp stamp;
+
+        public Entry(Value val) {
+            this.val = val;
+        }
+    }
+
+    // when and how often a key was used; orders keys from first to last to evict
+    private static final class Stamp implements Comparable<Stamp> {
+        private final long count;   // number of uses, always 0 under LRU
+        private final long time;    // clock value of the latest use
+
+        public Stamp(long count, long time) {
+            this.count = count;
+            this.time = time;
+        }
+
+        public int compareTo(Stamp that) {
+            if (this.count != that.count) return Long.compare(this.count, that.count);
+            return Long.compare(this.time, that.time);
+        }
+    }
+
+    /**
+     * Initializes an empty cache.
+     * @param capacity the largest number of key-value pairs to hold
+     * @param policy how to choose the key to evict
+     * @throws IllegalArgumentException if <tt>capacity</tt> is not positive
+     */
+    public BoundedRedBlackBST(int capacity, Policy policy) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive");
+        this.capacity = capacity;
+        this.policy = policy;
+        this.uses = (policy == Policy.LRU || policy == Policy.LFU) ? new RedBlackBST<Stamp, Key>() : null;
+    }
+
+    /**
+     * Returns the number of key-value pairs in this cache.
+     * @return the number of key-value pairs in this cache
+     */
+    public int size() {
+        return st.size();
+    }
+
+    /**
+     * Returns the largest number of key-value pairs this cache holds.
+     * @return the capacity of this cache
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Is this cache empty?
+     * @return <tt>true</tt> if this cache is empty and <tt>false</tt> otherwise
+     */
+    public boolean isEmpty() {
+        return st.isEmpty();
+    }
+
+    /**
+     * Returns the value associated with the given key, counting a hit or a miss.
+     * @param key the key
+     * @return the value associated with the given key if the key is in the cache
+     *     and <tt>null</tt> if the key is not in the cache
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public Value get(Key key) {
+        Entry e = st.get(key);
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        touch(key, e);
+        return e.val;
+    }
+
+    /**
+     * Does this cache contain the given key? This is not counted as a use.
+     * @param key the key
+     * @return <tt>true</tt> if this cache contains <tt>key</tt> and
+     *     <tt>false</tt> otherwise
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public boolean contains(Key key) {
+        return st.contains(key);
+    }
+
+    /**
+     * Inserts the key-value pair into the cache, overwriting the old value
+     * if the key is already in the cache. If the key is new and the cache is
+     * full, one key is evicted first. A <tt>null</tt> value deletes the key.
+     * @param key the key
+     * @param val the value
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public void put(Key key, Value val) {
+        if (val == null) {
+            delete(key);
+            return;
+        }
+        Entry e = st.get(key);
+        if (e == null) {
+            if (st.size() == capacity) evict();
+            e = new Entry(val);
+            st.put(key, e);
+        }
+        else e.val = val;
+        touch(key, e);
+    }
+
+    /**
+     * Removes the key and associated value from the cache
+     * (if the key is in the cache). This is not counted as an eviction.
+     * @param key the key
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public void delete(Key key) {
+        Entry e = st.get(key);
+        if (e == null) return;
+        if (uses != null) uses.delete(e.stamp);
+        st.delete(key);
+    }
+
+    /**
+     * Returns the largest key in the cache less than or equal to <tt>key</tt>.
+     * @param key the key
+     * @return the largest key in the cache less than or equal to <tt>key</tt>,
+     *     or <tt>null</tt> if there is no such key
+     * @throws java.util.NoSuchElementException if the cache is empty
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public Key floor(Key key) {
+        return st.floor(key);
+    }
+
+    /**
+     * Returns the smallest key in the cache greater than or equal to <tt>key</tt>.
+     * @param key the key
+     * @return the smallest key in the cache greater than or equal to <tt>key</tt>,
+     *     or <tt>null</tt> if there is no such key
+     * @throws java.util.NoSuchElementException if the cache is empty
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public Key ceiling(Key key) {
+        return st.ceiling(key);
+    }
+
+    /**
+     * Returns the number of calls to <tt>get</tt> that found their key.
+     * @return the number of hits
+     */
+    public long hits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of calls to <tt>get</tt> that did not find their key.
+     * @return the number of misses
+     */
+    public long misses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of keys evicted to make room for new keys.
+     * @return the number of evictions
+     */
+    public long evictions() {
+        return evictions;
+    }
+
+    // record a use of key, moving it to the back of the eviction order
+    private void touch(Key key, Entry e) {
+        if (uses == null) return;
+        long count = 0;
+        if (e.stamp != null) {
+            uses.delete(e.stamp);
+            if (policy == Policy.LFU) count = e.stamp.count;
+        }
+        if (policy == Policy.LFU) count++;
+        e.stamp = new Stamp(count, clock++);
+        uses.put(e.stamp, key);
+    }
+
+    // remove one key according to the eviction policy
+    private void evict() {
+        switch (policy) {
+            case MIN:
+                st.deleteMin();
+                break;
+            case MAX:
+                st.deleteMax();
+                break;
+            default:
+                Stamp first = uses.min();
+                Key key = uses.get(first);
+                uses.deleteMin();
+                st.delete(key);
+        }
+        evictions++;
+    }
+
+
+    /**
+     * Unit tests the <tt>BoundedRedBlackBST</tt> data type.
+     */
+    public static void main(String[] args) {
+        BoundedRedBlackBST<String, Integer> cache = new BoundedRedBlackBST<String, Integer>(3, Policy.LRU);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.put("c", 3);
+        cache.get("a");
+        cache.put("d", 4);       // evicts b
+        System.out.println("contains b: " + cache.contains("b"));
+        System.out.println("floor(bb): " + cache.floor("bb"));
+        System.out.println("hits " + cache.hits() + " misses " + cache.misses() + " evictions " + cache.evictions());
+    }
+}
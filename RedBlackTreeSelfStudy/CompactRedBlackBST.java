@@ -0,0 +1,728 @@
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ *  The <tt>CompactRedBlackBST</tt> class represents an ordered symbol table
+ *  of <tt>int</tt> keys and <tt>int</tt> values, laid out to use as little
+ *  memory per entry as possible.
+ *  It supports <em>put</em>, <em>get</em>, <em>contains</em>, <em>delete</em>,
+ *  <em>size</em>, <em>min</em>, <em>max</em>, <em>floor</em>, <em>ceiling</em>,
+ *  <em>rank</em>, <em>select</em> and range <em>keys</em>, and it can
+ *  <em>defragment</em> itself a few nodes at a time.
+ *  <p>
+ *  This implementation is the left-leaning red-black BST of {@link RedBlackBST},
+ *  but without node objects. A node is an index into five parallel <tt>int</tt>
+ *  arrays holding its key, value, left link, right link and subtree count.
+ *  Index 0 stands for <tt>null</tt>. The color of a node is the low bit of its
+ *  left link, and the link itself is stored shifted left by one. An entry costs
+ *  20 bytes. With <tt>RedBlackBST&lt;Integer, Integer&gt;</tt> it costs a 40-byte
+ *  node plus two 16-byte boxes, on a 64-bit JVM with compressed references.
+ *  <p>
+ *  The nodes always occupy indices 1 through <em>N</em>. A deletion moves the
+ *  node at index <em>N</em> into the hole it leaves, so the arrays never have
+ *  gaps. The arrays grow by doubling and never shrink.
+ *  A new node goes at index <em>N</em>, so after random insertions and
+ *  deletions, nodes that are next to each other in key order sit at unrelated
+ *  indices, and an in-order scan misses the cache on almost every node.
+ *  <em>defragment</em> moves nodes until the node of rank <em>i</em> is at
+ *  index <em>i</em> + 1, so that a scan reads the arrays from left to right.
+ *  Each call does a bounded amount of work, and the table can be modified
+ *  between calls.
+ *  The <em>put</em>, <em>get</em>, <em>delete</em>, <em>rank</em> and
+ *  <em>select</em> operations take logarithmic time in the worst case,
+ *  apart from the occasional copy when the arrays grow.
+ */
+public class CompactRedBlackBST {
+
+    private static final int RED   = 1;
+    private static final int BLACK = 0;
+    private static final int GROUP = 16;   // descents interleaved by getAll
+
+    private int[] keys, vals;
+    private int[] lefts;     // left link << 1 | color of the node
+    private int[] rights;    // right link
+    private int[] sizes;     // subtree count
+    private int root;        // index of the root, 0 if the tree is empty
+    private int n;           // nodes occupy indices 1 to n
+    private int freed;       // index unlinked by the deletion in progress
+    private int ordered;     // indices 1 to ordered hold the nodes of ranks 0 to ordered - 1
+
+    /**
+     * Initializes an empty symbol table.
+     */
+    public CompactRedBlackBST() {
+        this(16);
+    }
+
+    /**
+     * Initializes an empty symbol table with room for the given number of keys.
+     * @param capacity the number of keys to make room for
+     */
+    public CompactRedBlackBST(int capacity) {
+        int length = Math.max(capacity + 1, 2);
+        keys = new int[length];
+        vals = new int[length];
+        lefts = new int[length];
+        rights = new int[length];
+        sizes = new int[length];
+    }
+
+   /***************************************************************************
+    *  Node helper methods.
+    ***************************************************************************/
+    private int left(int x)  { return lefts[x] >>> 1; }
+    private int right(int x) { return rights[x]; }
+
+    private void setLeft(int x, int link)  { lefts[x] = (link << 1) | (lefts[x] & 1); }
+    private void setRight(int x, int link) { rights[x] = link; }
+
+    // is node x red; false if x is null ?
+    private boolean isRed(int x) {
+        return x != 0 && (lefts[x] & 1) == RED;
+    }
+
+    private void setColor(int x, int color) {
+        lefts[x] = (lefts[x] & ~1) | color;
+    }
+
+    // number of node in subtree rooted at x; 0 if x is null
+    private int size(int x) {
+        return (x == 0) ? 0 : sizes[x];
+    }
+
+    // a new red leaf at index n + 1; the arrays must have room for it
+    private int newNode(int key, int val) {
+        n++;
+        keys[n] = key;
+        vals[n] = val;
+        lefts[n] = RED;
+        rights[n] = 0;
+        sizes[n] = 1;
+        return n;
+    }
+
+    // make room for one more node
+    private void ensureCapacity() {
+        if (n + 1 < keys.length) return;
+        int length = 2 * keys.length;
+        keys = Arrays.copyOf(keys, length);
+        vals = Arrays.copyOf(vals, length);
+        lefts = Arrays.copyOf(lefts, length);
+        rights = Arrays.copyOf(rights, length);
+        sizes = Arrays.copyOf(sizes, length);
+    }
+
+    /**
+     * Returns the number of key-value pairs in this symbol table.
+     * @return the number of key-value pairs in this symbol table
+     */
+    public int size() {
+        return n;
+    }
+
+    /**
+     * Is this symbol table empty?
+     * @return <tt>true</tt> if this symbol table is empty and <tt>false</tt> otherwise
+     */
+    public boolean isEmpty() {
+        return n == 0;
+    }
+
+    /**
+     * Returns the number of bytes the arrays take, headers included,
+     * on a 64-bit JVM with compressed references.
+     * @return the number of bytes used by the arrays
+     */
+    public long arrayBytes() {
+        long perArray = 16 + 4L * keys.length;
+        return 5 * ((perArray + 7) / 8 * 8);
+    }
+
+   /***************************************************************************
+    *  Standard BST search.
+    ***************************************************************************/
+
+    /**
+     * Returns the value associated with the given key.
+     * @param key the key
+     * @param defaultValue the value to return if the key is not in the symbol table
+     * @return the value associated with the given key, or <tt>defaultValue</tt> if there is none
+     */
+    public int get(int key, int defaultValue) {
+        int x = find(key);
+        return (x == 0) ? defaultValue : vals[x];
+    }
+
+    /**
+     * Does this symbol table contain the given key?
+     * @param key the key
+     * @return <tt>true</tt> if this symbol table contains <tt>key</tt> and
+     *     <tt>false</tt> otherwise
+     */
+    public boolean contains(int key) {
+        return find(key) != 0;
+    }
+
+    /**
+     * Looks up a batch of keys. The keys are searched in groups of 16
+     * descents that advance one level at a time in turn. The loads of the
+     * different descents do not depend on each other, so the processor can
+     * have the cache misses of a whole group outstanding at once. Calling
+     * <tt>get</tt> per key waits for each miss before it issues the next.
+     * @param probes the keys to look up
+     * @param results receives the value associated with <tt>probes[i]</tt> in <tt>results[i]</tt>
+     * @param defaultValue the value for keys that are not in the symbol table
+     * @throws IllegalArgumentException if <tt>results</tt> is shorter than <tt>probes</tt>
+     */
+    public void getAll(int[] probes, int[] results, int defaultValue) {
+        if (results.length < probes.length) throw new IllegalArgumentException("results is shorter than probes");
+        int[] node = new int[GROUP];   // current node of each descent in the group; 0 once it is done
+        for (int base = 0; base < probes.length; base += GROUP) {
+            int g = Math.min(GROUP, probes.length - base);
+            for (int j = 0; j < g; j++) {
+                node[j] = root;
+                results[base + j] = defaultValue;
+            }
+            for (int active = g; active > 0; ) {
+                active = 0;
+                for (int j = 0; j < g; j++) {
+                    int x = node[j];
+                    if (x == 0) continue;
+                    int key = probes[base + j], k = keys[x];
+                    if      (key < k) x = lefts[x] >>> 1;
+                    else if (key > k) x = rights[x];
+                    else {
+                        results[base + j] = vals[x];
+                        x = 0;
+                    }
+                    node[j] = x;
+                    if (x != 0) active++;
+                }
+            }
+        }
+    }
+
+    // index of the node with the given key; 0 if no such key
+    private int find(int key) {
+        int x = root;
+        while (x != 0) {
+            int k = keys[x];
+            if      (key < k) x = lefts[x] >>> 1;
+            else if (key > k) x = rights[x];
+            else              return x;
+        }
+        return 0;
+    }
+
+   /***************************************************************************
+    *  Red-black tree insertion.
+    ***************************************************************************/
+
+    /**
+     * Inserts the key-value pair into the symbol table, overwriting the old value
+     * with the new value if the key is already in the symbol table.
+     * @param key the key
+     * @param val the value
+     */
+    public void put(int key, int val) {
+        // a new key shifts the ranks of the larger keys
+        if (ordered > 0) ordered = Math.min(ordered, rank(key));
+        ensureCapacity();
+        root = put(root, key, val);
+        setColor(root, BLACK);
+    }
+
+    // insert the key-value pair in the subtree rooted at h
+    private int put(int h, int key, int val) {
+        if (h == 0) return newNode(key, val);
+
+        if      (key < keys[h]) setLeft(h, put(left(h), key, val));
+        else if (key > keys[h]) setRight(h, put(right(h), key, val));
+        else                    vals[h] = val;
+
+        // fix-up any right-leaning links
+        if (isRed(right(h)) && !isRed(left(h)))     h = rotateLeft(h);
+        if (isRed(left(h)) && isRed(left(left(h)))) h = rotateRight(h);
+        if (isRed(left(h)) && isRed(right(h)))      flipColors(h);
+        sizes[h] = size(left(h)) + size(right(h)) + 1;
+
+        return h;
+    }
+
+   /***************************************************************************
+    *  Red-black tree deletion.
+    ***************************************************************************/
+
+    /**
+     * Removes the smallest key and associated value from the symbol table.
+     * @throws NoSuchElementException if the symbol table is empty
+     */
+    public void deleteMin() {
+        if (isEmpty()) throw new NoSuchElementException("BST underflow");
+        ordered = 0;
+
+        // if both children of root are black, set root to red
+        if (!isRed(left(root)) && !isRed(right(root)))
+            setColor(root, RED);
+
+        root = deleteMin(root);
+        if (!isEmpty()) setColor(root, BLACK);
+        fill(freed);
+    }
+
+    // delete the key-value pair with the minimum key rooted at h
+    private int deleteMin(int h) {
+        if (left(h) == 0) {
+            freed = h;
+            return 0;
+        }
+
+        if (!isRed(left(h)) && !isRed(left(left(h))))
+            h = moveRedLeft(h);
+
+        setLeft(h, deleteMin(left(h)));
+        return balance(h);
+    }
+
+    /**
+     * Removes the key and associated value from the symbol table
+     * (if the key is in the symbol table).
+     * @param key the key
+     */
+    public void delete(int key) {
+        if (!contains(key)) return;
+        if (ordered > 0) ordered = Math.min(ordered, rank(key));
+
+        // if both children of root are black, set root to red
+        if (!isRed(left(root)) && !isRed(right(root)))
+            setColor(root, RED);
+
+        root = delete(root, key);
+        if (root != 0) setColor(root, BLACK);
+        fill(freed);
+    }
+
+    // delete the key-value pair with the given key rooted at h
+    private int delete(int h, int key) {
+        if (key < keys[h])  {
+            if (!isRed(left(h)) && !isRed(left(left(h))))
+                h = moveRedLeft(h);
+            setLeft(h, delete(left(h), key));
+        }
+        else {
+            if (isRed(left(h)))
+                h = rotateRight(h);
+            if (key == keys[h] && right(h) == 0) {
+                freed = h;
+                return 0;
+            }
+            if (!isRed(right(h)) && !isRed(left(right(h))))
+                h = moveRedRight(h);
+            if (key == keys[h]) {
+                int x = min(right(h));
+                keys[h] = keys[x];
+                vals[h] = vals[x];
+                setRight(h, deleteMin(right(h)));
+            }
+            else setRight(h, delete(right(h), key));
+        }
+        return balance(h);
+    }
+
+    // move the node at index n into the unlinked index d, so that indices stay dense
+    private void fill(int d) {
+        if (d != n) {
+            // find the parent of n by its key; n is still linked in the tree
+            int parent = 0, x = root, key = keys[n];
+            while (x != n) {
+                parent = x;
+                x = (key < keys[x]) ? left(x) : right(x);
+            }
+            if      (parent == 0)       root = d;
+            else if (left(parent) == n) setLeft(parent, d);
+            else                        setRight(parent, d);
+            keys[d] = keys[n];
+            vals[d] = vals[n];
+            lefts[d] = lefts[n];
+            rights[d] = rights[n];
+            sizes[d] = sizes[n];
+        }
+        n--;
+    }
+
+   /***************************************************************************
+    *  Red-black tree helper functions.
+    ***************************************************************************/
+
+    // make a left-leaning link lean to the right
+    private int rotateRight(int h) {
+        int x = left(h);
+        setLeft(h, right(x));
+        setRight(x, h);
+        setColor(x, lefts[h] & 1);
+        setColor(h, RED);
+        sizes[x] = sizes[h];
+        sizes[h] = size(left(h)) + size(right(h)) + 1;
+        return x;
+    }
+
+    // make a right-leaning link lean to the left
+    private int rotateLeft(int h) {
+        int x = right(h);
+        setRight(h, left(x));
+        setLeft(x, h);
+        setColor(x, lefts[h] & 1);
+        setColor(h, RED);
+        sizes[x] = sizes[h];
+        sizes[h] = size(left(h)) + size(right(h)) + 1;
+        return x;
+    }
+
+    // flip the colors of a node and its two children
+    private void flipColors(int h) {
+        lefts[h] ^= 1;
+        lefts[left(h)] ^= 1;
+        lefts[right(h)] ^= 1;
+    }
+
+    // Assuming that h is red and both h.left and h.left.left
+    // are black, make h.left or one of its children red.
+    private int moveRedLeft(int h) {
+        flipColors(h);
+        if (isRed(left(right(h)))) {
+            setRight(h, rotateRight(right(h)));
+            h = rotateLeft(h);
+            flipColors(h);
+        }
+        return h;
+    }
+
+    // Assuming that h is red and both h.right and h.right.left
+    // are black, make h.right or one of its children red.
+    private int moveRedRight(int h) {
+        flipColors(h);
+        if (isRed(left(left(h)))) {
+            h = rotateRight(h);
+            flipColors(h);
+        }
+        return h;
+    }
+
+    // restore red-black tree invariant
+    private int balance(int h) {
+        if (isRed(right(h)))                        h = rotateLeft(h);
+        if (isRed(left(h)) && isRed(left(left(h)))) h = rotateRight(h);
+        if (isRed(left(h)) && isRed(right(h)))      flipColors(h);
+
+        sizes[h] = size(left(h)) + size(right(h)) + 1;
+        return h;
+    }
+
+   /***************************************************************************
+    *  Ordered symbol table methods.
+    ***************************************************************************/
+
+    /**
+     * Returns the height of the BST (for debugging).
+     * @return the height of the BST (a 1-node tree has height 0)
+     */
+    public int height() {
+        return height(root);
+    }
+    private int height(int x) {
+        if (x == 0) return -1;
+        return 1 + Math.max(height(left(x)), height(right(x)));
+    }
+
+    /**
+     * Returns the smallest key in the symbol table.
+     * @return the smallest key in the symbol table
+     * @throws NoSuchElementException if the symbol table is empty
+     */
+    public int min() {
+        if (isEmpty()) throw new NoSuchElementException("called min() with empty symbol table");
+        return keys[min(root)];
+    }
+
+    // the node with the smallest key in the subtree rooted at x
+    private int min(int x) {
+        while (left(x) != 0) x = left(x);
+        return x;
+    }
+
+    /**
+     * Returns the largest key in the symbol table.
+     * @return the largest key in the symbol table
+     * @throws NoSuchElementException if the symbol table is empty
+     */
+    public int max() {
+        if (isEmpty()) throw new NoSuchElementException("called max() with empty symbol table");
+        int x = root;
+        while (right(x) != 0) x = right(x);
+        return keys[x];
+    }
+
+    /**
+     * Returns the largest key in the symbol table less than or equal to <tt>key</tt>.
+     * @param key the key
+     * @return the largest key in the symbol table less than or equal to <tt>key</tt>
+     * @throws NoSuchElementException if there is no such key
+     */
+    public int floor(int key) {
+        int x = root, best = 0;
+        while (x != 0) {
+            if      (key < keys[x]) x = left(x);
+            else if (key > keys[x]) { best = x; x = right(x); }
+            else                    return key;
+        }
+        if (best == 0) throw new NoSuchElementException("no key less than or equal to " + key);
+        return keys[best];
+    }
+
+    /**
+     * Returns the smallest key in the symbol table greater than or equal to <tt>key</tt>.
+     * @param key the key
+     * @return the smallest key in the symbol table greater than or equal to <tt>key</tt>
+     * @throws NoSuchElementException if there is no such key
+     */
+    public int ceiling(int key) {
+        int x = root, best = 0;
+        while (x != 0) {
+            if      (key > keys[x]) x = right(x);
+            else if (key < keys[x]) { best = x; x = left(x); }
+            else                    return key;
+        }
+        if (best == 0) throw new NoSuchElementException("no key greater than or equal to " + key);
+        return keys[best];
+    }
+
+    /**
+     * Return the kth smallest key in the symbol table.
+     * @param k the order statistic
+     * @return the kth smallest key in the symbol table
+     * @throws IllegalArgumentException unless <tt>k</tt> is between 0 and
+     *     <em>N</em> &minus; 1
+     */
+    public int select(int k) {
+        if (k < 0 || k >= size()) throw new IllegalArgumentException();
+        return keys[selectNode(k)];
+    }
+
+    /**
+     * Return the number of keys in the symbol table strictly less than <tt>key</tt>.
+     * @param key the key
+     * @return the number of keys in the symbol table strictly less than <tt>key</tt>
+     */
+    public int rank(int key) {
+        int x = root, rank = 0;
+        while (x != 0) {
+            if      (key < keys[x]) x = left(x);
+            else if (key > keys[x]) { rank += size(left(x)) + 1; x = right(x); }
+            else                    return rank + size(left(x));
+        }
+        return rank;
+    }
+
+    /**
+     * Copies the keys between <tt>lo</tt> and <tt>hi</tt>, both inclusive,
+     * into <tt>dst</tt> in ascending order, stopping when <tt>dst</tt> is full.
+     * @param lo the smallest key of the range
+     * @param hi the largest key of the range
+     * @param dst receives the keys
+     * @return the number of keys copied
+     */
+    public int keys(int lo, int hi, int[] dst) {
+        return keys(root, lo, hi, dst, 0);
+    }
+
+    // copy the keys of subtree x in [lo, hi] into dst from index count; returns the new count
+    private int keys(int x, int lo, int hi, int[] dst, int count) {
+        if (x == 0 || count == dst.length) return count;
+        int k = keys[x];
+        if (lo < k) count = keys(left(x), lo, hi, dst, count);
+        if (lo <= k && hi >= k && count < dst.length) dst[count++] = k;
+        if (hi > k) count = keys(right(x), lo, hi, dst, count);
+        return count;
+    }
+
+   /***************************************************************************
+    *  Defragmentation.
+    ***************************************************************************/
+
+    /**
+     * Moves nodes toward in-order layout, in which the node of rank <em>i</em>
+     * is at index <em>i</em> + 1. Each step finds the node that belongs at the
+     * next index and swaps it with the node there, in logarithmic time. The
+     * work picks up where the last call stopped. An insertion or deletion of a
+     * key of rank <em>r</em> undoes the work above index <em>r</em>.
+     * @param steps the largest number of indices to fill in this call
+     * @return <tt>true</tt> if the layout is now fully in order
+     * @throws IllegalArgumentException if <tt>steps</tt> is negative
+     */
+    public boolean defragment(int steps) {
+        if (steps < 0) throw new IllegalArgumentException("negative steps");
+        for (; steps > 0 && ordered < n; steps--) {
+            int t = ordered + 1;
+            int x = selectNode(ordered);
+            if (x != t) swap(x, t);
+            ordered++;
+        }
+        return ordered == n;
+    }
+
+    /**
+     * Returns the fraction of steps of an in-order scan that stay within one
+     * 64-byte cache line of each array, that is, that move to a node at most
+     * 15 indices away. It is 1 for in-order layout and close to 0 when the
+     * nodes are scattered.
+     * @return the fraction of in-order steps that stay within a cache line
+     */
+    public double scanLocality() {
+        if (n < 2) return 1;
+        int near = 0, prev = 0;
+        // in-order walk with an explicit stack
+        int[] stack = new int[2 * height() + 2];
+        int depth = 0, x = root;
+        while (x != 0 || depth > 0) {
+            while (x != 0) {
+                stack[depth++] = x;
+                x = left(x);
+            }
+            x = stack[--depth];
+            if (prev != 0 && Math.abs(x - prev) < 16) near++;
+            prev = x;
+            x = right(x);
+        }
+        return (double) near / (n - 1);
+    }
+
+    // the node of rank k
+    private int selectNode(int k) {
+        int x = root;
+        while (true) {
+            int t = size(left(x));
+            if      (t > k) x = left(x);
+            else if (t < k) { k -= t + 1; x = right(x); }
+            else            return x;
+        }
+    }
+
+    // the parent of node x; 0 if x is the root
+    private int parent(int x) {
+        int parent = 0, y = root, key = keys[x];
+        while (y != x) {
+            parent = y;
+            y = (key < keys[y]) ? left(y) : right(y);
+        }
+        return parent;
+    }
+
+    // exchange the indices of nodes a and b, and update the links to and from them
+    private void swap(int a, int b) {
+        int pa = parent(a), pb = parent(b);
+        swap(keys, a, b);
+        swap(vals, a, b);
+        swap(lefts, a, b);
+        swap(rights, a, b);
+        swap(sizes, a, b);
+        // only the two nodes and their parents can link to a or b;
+        // each of them has moved if it was a or b itself
+        pa = moved(pa, a, b);
+        pb = moved(pb, a, b);
+        relink(a, a, b);
+        relink(b, a, b);
+        if (pa != 0 && pa != a && pa != b)             relink(pa, a, b);
+        if (pb != 0 && pb != a && pb != b && pb != pa) relink(pb, a, b);
+        root = moved(root, a, b);
+    }
+
+    private static void swap(int[] array, int a, int b) {
+        int t = array[a];
+        array[a] = array[b];
+        array[b] = t;
+    }
+
+    // the index that x has after a and b are exchanged
+    private static int moved(int x, int a, int b) {
+        if (x == a) return b;
+        if (x == b) return a;
+        return x;
+    }
+
+    // point the links of x that refer to a or b at the other one
+    private void relink(int x, int a, int b) {
+        setLeft(x, moved(left(x), a, b));
+        setRight(x, moved(right(x), a, b));
+    }
+
+   /***************************************************************************
+    *  Check integrity of red-black tree data structure.
+    ***************************************************************************/
+    boolean check() {
+        if (!isBST())            System.out.println("Not in symmetric order");
+        if (!isSizeConsistent()) System.out.println("Subtree counts not consistent");
+        if (!is23())             System.out.println("Not a 2-3 tree");
+        if (!isBalanced())       System.out.println("Not balanced");
+        return isBST() && isSizeConsistent() && is23() && isBalanced();
+    }
+
+    // is the tree a BST, and does it hold exactly the nodes at indices 1 to n?
+    private boolean isBST() {
+        return isBST(root, Long.MIN_VALUE, Long.MAX_VALUE) && size(root) == n;
+    }
+
+    // is the tree rooted at x a BST with all keys strictly between min and max?
+    private boolean isBST(int x, long min, long max) {
+        if (x == 0) return true;
+        if (x > n || keys[x] <= min || keys[x] >= max) return false;
+        return isBST(left(x), min, keys[x]) && isBST(right(x), keys[x], max);
+    }
+
+    // are the size fields correct?
+    private boolean isSizeConsistent() { return isSizeConsistent(root); }
+    private boolean isSizeConsistent(int x) {
+        if (x == 0) return true;
+        if (sizes[x] != size(left(x)) + size(right(x)) + 1) return false;
+        return isSizeConsistent(left(x)) && isSizeConsistent(right(x));
+    }
+
+    // Does the tree have no red right links, and at most one (left)
+    // red links in a row on any path?
+    private boolean is23() { return is23(root); }
+    private boolean is23(int x) {
+        if (x == 0) return true;
+        if (isRed(right(x))) return false;
+        if (x != root && isRed(x) && isRed(left(x)))
+            return false;
+        return is23(left(x)) && is23(right(x));
+    }
+
+    // do all paths from root to leaf have same number of black edges?
+    private boolean isBalanced() {
+        int black = 0;     // number of black links on path from root to min
+        for (int x = root; x != 0; x = left(x))
+            if (!isRed(x)) black++;
+        return isBalanced(root, black);
+    }
+
+    // does every path from the root to a leaf have the given number of black links?
+    private boolean isBalanced(int x, int black) {
+        if (x == 0) return black == 0;
+        if (!isRed(x)) black--;
+        return isBalanced(left(x), black) && isBalanced(right(x), black);
+    }
+
+
+    /**
+     * Unit tests the <tt>CompactRedBlackBST</tt> data type.
+     */
+    public static void main(String[] args) {
+        CompactRedBlackBST st = new CompactRedBlackBST();
+        for (int i = 0; i < 20; i++) st.put(i * 7 % 20, i);
+        for (int i = 0; i < 20; i += 3) st.delete(i);
+        System.out.println("size " + st.size() + ", min " + st.min() + ", max " + st.max()
+                + ", rank(10) " + st.rank(10) + ", select(5) " + st.select(5)
+                + ", get(7) " + st.get(7, -1) + ", get(9) " + st.get(9, -1)
+                + ", consistent " + st.check());
+    }
+}
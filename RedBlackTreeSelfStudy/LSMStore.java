@@ -0,0 +1,661 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ *  The <tt>LSMStore</tt> class is a persistent ordered map from <tt>int</tt>
+ *  keys to <tt>long</tt> values, organized as a log-structured merge tree.
+ *  <p>
+ *  Writes go to a {@link RedBlackBST} in memory, the <em>memtable</em>.
+ *  A deletion writes the reserved value {@link #TOMBSTONE}. Once the memtable
+ *  holds enough keys, it is frozen and a new one takes its place. A background
+ *  thread then writes the frozen memtable, in key order and with large
+ *  sequential writes, to an immutable sorted <em>run</em> file.
+ *  <p>
+ *  Compaction is size-tiered. A run belongs to tier <em>t</em> if it holds
+ *  about <em>T</em><sup><em>t</em></sup> memtables, where <em>T</em> is the
+ *  compaction trigger. Once <em>T</em> consecutive runs are in the same tier, a
+ *  second background thread merges just those into one run of the next tier,
+ *  keeping only the newest value of each key. An entry is rewritten once per
+ *  tier, so the write amplification grows with the logarithm of the data size
+ *  rather than with the data size. Tombstones are dropped only when the oldest
+ *  run takes part, since otherwise they may still hide an older value.
+ *  Flushes go on while a compaction runs, so a writer never waits for a merge.
+ *  <p>
+ *  A lookup reads the memtable, then the frozen memtable, then the runs from
+ *  newest to oldest, and stops at the first one that has the key. For each run
+ *  the store keeps two small structures in memory. A Bloom filter rules out most
+ *  runs that do not have the key without reading them. A sparse index holds the
+ *  first key of every block of 128 entries, so a lookup that gets past the
+ *  filter reads a single block.
+ *  <p>
+ *  There is no write-ahead log: writes still in memory are lost if the process
+ *  stops without calling {@link #close()}. Reopening a directory reloads its
+ *  runs. All public methods are synchronized. A writer waits when the memtable
+ *  fills up before the previous one has been written out.
+ */
+public class LSMStore implements AutoCloseable {
+
+    /**
+     * The value that marks a deleted key; it cannot be stored.
+     */
+    public static final long TOMBSTONE = Long.MIN_VALUE;
+
+    private static final int ENTRY = 12;            // bytes per entry in a run: int key, long value
+    private static final int BLOCK = 128;           // entries per block, one index key per block
+    private static final int BITS_PER_KEY = 10;     // Bloom filter size
+    private static final int HASHES = 7;            // Bloom filter probes, about 1% false positives
+    private static final int IO_BUFFER = 1 << 16;   // bytes per sequential read or write
+
+    private final Path dir;
+    private final int memtableLimit;
+    private final int compactionTrigger;
+
+    private RedBlackBST<Integer, Long> memtable = new RedBlackBST<Integer, Long>();
+    private RedBlackBST<Integer, Long> frozen;                // being written out, or null
+    private final List<Run> runs = new ArrayList<Run>();      // newest first
+    private long nextSeq;                                     // sequence number of the next run
+    private final ByteBuffer block = ByteBuffer.allocateDirect(BLOCK * ENTRY);
+    private final Thread worker, compactor;
+    private boolean compacting;                               // a merge is in progress
+    private boolean closed;
+    private IOException failure;                              // of a background thread, reported to callers
+    private long flushes, compactions;
+    private long written;                                     // entries written to runs by flushes and merges
+
+    /**
+     * Opens a store in the given directory with a memtable of up to 1M keys
+     * that merges runs 4 at a time.
+     * @param dir the directory; it is created if it does not exist
+     * @throws IOException if the directory or its runs cannot be read
+     */
+    public LSMStore(Path dir) throws IOException {
+        this(dir, 1 << 20, 4);
+    }
+
+    /**
+     * Opens a store in the given directory, loading any runs already in it.
+     * @param dir the directory; it is created if it does not exist
+     * @param memtableLimit the number of keys at which the memtable is frozen
+     * @param compactionTrigger the number of consecutive runs of the same tier at which
+     *     they are merged into one, and the size ratio between tiers
+     * @throws IOException if the directory or its runs cannot be read
+     * @throws IllegalArgumentException unless <tt>memtableLimit</tt> is positive and
+     *     <tt>compactionTrigger</tt> is at least 2
+     */
+    public LSMStore(Path dir, int memtableLimit, int compactionTrigger) throws IOException {
+        if (memtableLimit <= 0) throw new IllegalArgumentException("memtableLimit must be positive");
+        if (compactionTrigger < 2) throw new IllegalArgumentException("compactionTrigger must be at least 2");
+        this.dir = dir;
+        this.memtableLimit = memtableLimit;
+        this.compactionTrigger = compactionTrigger;
+        Files.createDirectories(dir);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "run-*.dat")) {
+            for (Path file : files) runs.add(Run.load(file, seq(file)));
+        }
+        Collections.sort(runs);
+        if (!runs.isEmpty()) nextSeq = runs.get(0).seq + 1;
+        worker = new Thread(new Runnable() {
+            public void run() {
+                work();
+            }
+        }, "lsm-worker");
+        worker.setDaemon(true);
+        worker.start();
+        compactor = new Thread(new Runnable() {
+            public void run() {
+                compactAll();
+            }
+        }, "lsm-compactor");
+        compactor.setDaemon(true);
+        compactor.start();
+    }
+
+    // the sequence number in the name of a run file
+    private static long seq(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(4, name.length() - 4));
+    }
+
+    private Path path(long seq) {
+        return dir.resolve("run-" + seq + ".dat");
+    }
+
+   /***************************************************************************
+    *  Reads and writes.
+    ***************************************************************************/
+
+    /**
+     * Maps the key to the value, replacing any previous value.
+     * @param key the key
+     * @param value the value
+     * @throws IllegalArgumentException if <tt>value</tt> is {@link #TOMBSTONE}
+     * @throws IOException if writing a run in the background failed
+     */
+    public synchronized void put(int key, long value) throws IOException {
+        if (value == TOMBSTONE) throw new IllegalArgumentException("value is the tombstone");
+        write(key, value);
+    }
+
+    /**
+     * Removes the key, if it is in the store.
+     * @param key the key
+     * @throws IOException if writing a run in the background failed
+     */
+    public synchronized void delete(int key) throws IOException {
+        write(key, TOMBSTONE);
+    }
+
+    private void write(int key, long value) throws IOException {
+        checkOpen();
+        memtable.put(key, value);
+        if (memtable.size() >= memtableLimit) freeze();
+    }
+
+    // hand the memtable to the worker, waiting for it to finish the previous one
+    private void freeze() throws IOException {
+        while (frozen != null) {
+            awaitWorker();
+            if (failure != null) throw failure;
+        }
+        if (memtable.isEmpty()) return;
+        frozen = memtable;
+        memtable = new RedBlackBST<Integer, Long>();
+        notifyAll();
+    }
+
+    /**
+     * Returns the value associated with the given key.
+     * @param key the key
+     * @return the value, or <tt>null</tt> if the key is not in the store
+     * @throws IOException if a run cannot be read
+     */
+    public synchronized Long get(int key) throws IOException {
+        checkOpen();
+        Long value = memtable.get(key);
+        if (value == null && frozen != null) value = frozen.get(key);
+        for (int i = 0; value == null && i < runs.size(); i++)
+            value = runs.get(i).get(key, block);
+        return (value == null || value == TOMBSTONE) ? null : value;
+    }
+
+    /**
+     * Does the store contain the given key?
+     * @param key the key
+     * @return <tt>true</tt> if the store contains <tt>key</tt> and <tt>false</tt> otherwise
+     * @throws IOException if a run cannot be read
+     */
+    public boolean contains(int key) throws IOException {
+        return get(key) != null;
+    }
+
+    /**
+     * Returns the number of run files.
+     * @return the number of runs
+     */
+    public synchronized int runs() {
+        return runs.size();
+    }
+
+    /**
+     * Returns the number of memtables written out to runs so far.
+     * @return the number of flushes
+     */
+    public synchronized long flushes() {
+        return flushes;
+    }
+
+    /**
+     * Returns the number of times runs have been merged so far.
+     * @return the number of compactions
+     */
+    public synchronized long compactions() {
+        return compactions;
+    }
+
+    /**
+     * Returns the number of entries written to run files so far, by flushes and
+     * by merges. Divided by the number of writes, this is the write amplification.
+     * @return the number of entries written
+     */
+    public synchronized long entriesWritten() {
+        return written;
+    }
+
+    /**
+     * Writes the memtable out and waits until no merge is due or running,
+     * so that every write so far is in a run.
+     * @throws IOException if writing a run failed
+     */
+    public synchronized void flush() throws IOException {
+        checkOpen();
+        freeze();
+        while (frozen != null || compacting || victims() != null) {
+            awaitWorker();
+            if (failure != null) throw failure;
+        }
+    }
+
+    /**
+     * Writes the memtable out, stops the background threads and closes the runs.
+     * Closing a closed store has no effect.
+     * @throws IOException if writing a run failed
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) return;
+            flush();
+            closed = true;
+            notifyAll();
+        }
+        try {
+            worker.join();
+            compactor.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            for (Run run : runs) run.channel.close();
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) throw new IllegalStateException("store is closed");
+        if (failure != null) throw failure;
+    }
+
+    private void awaitWorker() throws IOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for the worker", e);
+        }
+    }
+
+   /***************************************************************************
+    *  The background threads: flushes and compactions.
+    ***************************************************************************/
+
+    private void work() {
+        while (true) {
+            RedBlackBST<Integer, Long> toFlush;
+            long seq;
+            synchronized (this) {
+                while (frozen == null && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (frozen == null) return;
+                toFlush = frozen;
+                seq = nextSeq++;
+            }
+            try {
+                Run run = flush(toFlush, seq);
+                synchronized (this) {
+                    runs.add(0, run);
+                    frozen = null;
+                    flushes++;
+                    written += run.n;
+                    notifyAll();
+                }
+            } catch (IOException e) {
+                fail(e);
+                return;
+            }
+        }
+    }
+
+    private void compactAll() {
+        while (true) {
+            List<Run> victims;
+            boolean oldest;
+            synchronized (this) {
+                while ((victims = victims()) == null && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (victims == null) return;
+                oldest = victims.get(victims.size() - 1) == runs.get(runs.size() - 1);
+                compacting = true;
+            }
+            try {
+                // the merged run takes the place, and the sequence number, of the newest victim
+                Run newest = victims.get(0);
+                Run merged = compact(victims, newest.seq, oldest);
+                synchronized (this) {
+                    // flushes only add newer runs in front, so the victims are still consecutive
+                    int at = runs.indexOf(newest);
+                    runs.subList(at, at + victims.size()).clear();
+                    runs.add(at, merged);
+                    for (Run victim : victims) {
+                        victim.channel.close();
+                        if (victim != newest) Files.delete(victim.path);
+                    }
+                    compacting = false;
+                    compactions++;
+                    written += merged.n;
+                    notifyAll();
+                }
+            } catch (IOException e) {
+                fail(e);
+                return;
+            }
+        }
+    }
+
+    private synchronized void fail(IOException e) {
+        failure = e;
+        notifyAll();
+    }
+
+    // tier of a run: about compactionTrigger^tier memtables
+    private int tier(Run run) {
+        int t = 0;
+        for (long size = (long) memtableLimit * compactionTrigger; run.n >= size; size *= compactionTrigger) t++;
+        return t;
+    }
+
+    // the newest compactionTrigger consecutive runs of one tier, newest first, or null.
+    // If merges that shrank runs leave the tiers interleaved, and there are more runs
+    // than a store of this size has with clean tiers, the window holding the fewest
+    // entries is merged instead, so the number of runs stays bounded
+    private List<Run> victims() {
+        if (compacting || runs.size() < compactionTrigger) return null;
+        int k = compactionTrigger;
+        for (int i = 0, same = 1; i + 1 < runs.size(); i++) {
+            same = (tier(runs.get(i + 1)) == tier(runs.get(i))) ? same + 1 : 1;
+            if (same == k) return new ArrayList<Run>(runs.subList(i + 2 - k, i + 2));
+        }
+        int top = tier(runs.get(runs.size() - 1));
+        for (Run run : runs) top = Math.max(top, tier(run));
+        if (runs.size() <= (k - 1) * (top + 1)) return null;
+        int best = 0;
+        long bestSize = Long.MAX_VALUE;
+        for (int i = 0; i + k <= runs.size(); i++) {
+            long size = 0;
+            for (int j = i; j < i + k; j++) size += runs.get(j).n;
+            if (size < bestSize) {
+                best = i;
+                bestSize = size;
+            }
+        }
+        return new ArrayList<Run>(runs.subList(best, best + k));
+    }
+
+    // write a frozen memtable to a new run, by an in-order scan
+    private Run flush(RedBlackBST<Integer, Long> table, long seq) throws IOException {
+        RunWriter writer = new RunWriter(dir.resolve("run-" + seq + ".tmp"), table.size());
+        for (int key : table.keys()) writer.add(key, table.get(key));
+        return writer.finish(path(seq), seq);
+    }
+
+    // merge the given consecutive runs into a new one, keeping the newest value of
+    // each key; tombstones are kept unless the oldest run of the store is merged
+    private Run compact(List<Run> victims, long seq, boolean oldest) throws IOException {
+        int expected = 0;
+        Scanner[] scanners = new Scanner[victims.size()];   // newest first, like the runs
+        for (int i = 0; i < scanners.length; i++) {
+            scanners[i] = new Scanner(victims.get(i));
+            expected += victims.get(i).n;
+        }
+        RunWriter writer = new RunWriter(dir.resolve("run-" + seq + ".tmp"), expected);
+        while (true) {
+            int newest = -1;
+            for (int i = 0; i < scanners.length; i++)
+                if (scanners[i].hasNext() && (newest < 0 || scanners[i].key < scanners[newest].key))
+                    newest = i;
+            if (newest < 0) break;
+            int key = scanners[newest].key;
+            long value = scanners[newest].value;
+            for (Scanner scanner : scanners)
+                if (scanner.hasNext() && scanner.key == key) scanner.advance();
+            // with the oldest run merged, nothing older can hide behind a tombstone
+            if (value != TOMBSTONE || !oldest) writer.add(key, value);
+        }
+        // replaces the file of the newest victim, which has the same sequence number
+        return writer.finish(path(seq), seq);
+    }
+
+   /***************************************************************************
+    *  Runs.
+    ***************************************************************************/
+
+    // an immutable sorted run file with its Bloom filter and sparse index
+    private static final class Run implements Comparable<Run> {
+        private final Path path;
+        private final long seq;
+        private final FileChannel channel;
+        private final int n;              // number of entries
+        private final int[] index;        // first key of each block
+        private final long[] bloom;
+
+        private Run(Path path, long seq, FileChannel channel, int n, int[] index, long[] bloom) {
+            this.path = path;
+            this.seq = seq;
+            this.channel = channel;
+            this.n = n;
+            this.index = index;
+            this.bloom = bloom;
+        }
+
+        // open an existing run, rebuilding its index and filter with one sequential scan
+        static Run load(Path path, long seq) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            int n = (int) (channel.size() / ENTRY);
+            int[] index = new int[(n + BLOCK - 1) / BLOCK];
+            long[] bloom = newBloom(n);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(IO_BUFFER / ENTRY * ENTRY);
+            long position = 0;
+            for (int i = 0; i < n; ) {
+                buffer.clear();
+                readFully(channel, buffer, position);
+                position += buffer.limit();
+                while (buffer.remaining() >= ENTRY) {
+                    int key = buffer.getInt();
+                    buffer.getLong();
+                    if (i % BLOCK == 0) index[i / BLOCK] = key;
+                    addToBloom(bloom, key);
+                    i++;
+                }
+            }
+            return new Run(path, seq, channel, n, index, bloom);
+        }
+
+        // the value of key in this run, or null; block is a buffer of one block
+        Long get(int key, ByteBuffer block) throws IOException {
+            if (n == 0 || !mightContain(bloom, key)) return null;
+            // the last block whose first key is not greater than key
+            int lo = 0, hi = index.length - 1;
+            if (key < index[0]) return null;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (index[mid] <= key) lo = mid;
+                else                   hi = mid - 1;
+            }
+            int count = Math.min(BLOCK, n - lo * BLOCK);
+            block.clear().limit(count * ENTRY);
+            readFully(channel, block, (long) lo * BLOCK * ENTRY);
+            for (int l = 0, h = count - 1; l <= h; ) {
+                int mid = (l + h) >>> 1;
+                int k = block.getInt(mid * ENTRY);
+                if      (key < k) h = mid - 1;
+                else if (key > k) l = mid + 1;
+                else              return block.getLong(mid * ENTRY + 4);
+            }
+            return null;
+        }
+
+        // newest first
+        public int compareTo(Run that) {
+            return Long.compare(that.seq, this.seq);
+        }
+    }
+
+    // writes a new run sequentially, building its index and filter on the way
+    private static final class RunWriter {
+        private final Path path;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(IO_BUFFER / ENTRY * ENTRY);
+        private int[] index = new int[16];
+        private final long[] bloom;
+        private int n;
+
+        RunWriter(Path path, int expected) throws IOException {
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            this.bloom = newBloom(expected);
+        }
+
+        void add(int key, long value) throws IOException {
+            if (n % BLOCK == 0) {
+                if (n / BLOCK == index.length) index = Arrays.copyOf(index, 2 * index.length);
+                index[n / BLOCK] = key;
+            }
+            addToBloom(bloom, key);
+            buffer.putInt(key).putLong(value);
+            n++;
+            if (!buffer.hasRemaining()) drain();
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+
+        void close() throws IOException {
+            drain();
+            channel.force(false);
+            channel.close();
+        }
+
+        // make the run durable under its final name and open it for reading
+        Run finish(Path target, long seq) throws IOException {
+            close();
+            Files.move(path, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            FileChannel reader = FileChannel.open(target, StandardOpenOption.READ);
+            return new Run(target, seq, reader, n,
+                    Arrays.copyOf(index, (n + BLOCK - 1) / BLOCK), bloom);
+        }
+    }
+
+    // reads a run sequentially, one entry at a time
+    private static final class Scanner {
+        private final Run run;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(IO_BUFFER / ENTRY * ENTRY);
+        private long position;
+        private int read;        // entries consumed
+        private int key;
+        private long value;
+
+        Scanner(Run run) throws IOException {
+            this.run = run;
+            buffer.limit(0);
+            advance();
+        }
+
+        boolean hasNext() {
+            return read <= run.n;
+        }
+
+        // move to the next entry; hasNext turns false once the last one is consumed
+        void advance() throws IOException {
+            read++;
+            if (read > run.n) return;
+            if (!buffer.hasRemaining()) {
+                buffer.clear();
+                long remaining = (long) (run.n - read + 1) * ENTRY;
+                if (remaining < buffer.capacity()) buffer.limit((int) remaining);
+                readFully(run.channel, buffer, position);
+                position += buffer.limit();
+            }
+            key = buffer.getInt();
+            value = buffer.getLong();
+        }
+    }
+
+    // fill the buffer from the channel at the given position, or up to the end of the file
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            int r = channel.read(buffer, position + buffer.position() - start);
+            if (r < 0) break;
+        }
+        buffer.flip();
+        buffer.position(start);
+    }
+
+   /***************************************************************************
+    *  Bloom filters.
+    ***************************************************************************/
+
+    private static long[] newBloom(int keys) {
+        long bits = Math.max(64, (long) keys * BITS_PER_KEY);
+        return new long[(int) ((bits + 63) / 64)];
+    }
+
+    // the two hashes combined for the probes (Kirsch and Mitzenmacher)
+    private static long hash(int key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        h *= 0xD6E8FEB86659FD93L;
+        return h ^ (h >>> 32);
+    }
+
+    private static void addToBloom(long[] bloom, int key) {
+        long h = hash(key), bits = 64L * bloom.length;
+        int h1 = (int) h, h2 = (int) (h >>> 32);
+        for (int i = 0; i < HASHES; i++) {
+            long bit = ((h1 + i * h2) & 0xFFFFFFFFL) % bits;
+            bloom[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    private static boolean mightContain(long[] bloom, int key) {
+        long h = hash(key), bits = 64L * bloom.length;
+        int h1 = (int) h, h2 = (int) (h >>> 32);
+        for (int i = 0; i < HASHES; i++) {
+            long bit = ((h1 + i * h2) & 0xFFFFFFFFL) % bits;
+            if ((bloom[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * Unit tests the <tt>LSMStore</tt> data type in the directory given as the
+     * first argument, <tt>lsm-test</tt> by default.
+     */
+    public static void main(String[] args) throws IOException {
+        Path dir = Paths.get(args.length > 0 ? args[0] : "lsm-test");
+        try (LSMStore store = new LSMStore(dir, 1000, 3)) {
+            for (int i = 0; i < 10000; i++) store.put(i, i * 10L);
+            for (int i = 0; i < 10000; i += 2) store.delete(i);
+            store.flush();
+            System.out.println("runs " + store.runs() + ", flushes " + store.flushes()
+                    + ", compactions " + store.compactions()
+                    + ", get(7) " + store.get(7) + ", get(8) " + store.get(8));
+        }
+        try (LSMStore store = new LSMStore(dir)) {
+            System.out.println("reopened: runs " + store.runs() + ", get(9999) " + store.get(9999));
+        }
+    }
+}
@@ -0,0 +1,434 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * A non-blocking concurrent set of <tt>int</tt> values with the same insert, delete and
+ * lookup operations as the red black tree.
+ *
+ * This is the external binary search tree of Ellen, Fatourou, Ruppert and van Breugel
+ * (Non-blocking binary search trees, PODC 2010). Values are stored in the leaves and
+ * internal nodes only route searches. An update first flags the internal node it is
+ * going to change with a descriptor of the change, using a single compare-and-set.
+ * Any thread that finds a flagged node completes the pending change before it retries
+ * its own. So no thread ever waits for another, and lookups never write at all.
+ *
+ * Rebalancing is relaxed: it is deferred until after an update, and no update ever
+ * waits for it. Each internal node keeps a hint of its height. After an insertion or
+ * deletion succeeds, the thread walks back up its search path, refreshing the hints,
+ * and rotates wherever the heights of two siblings differ by more than one, as in an
+ * AVL tree. A rotation replaces a node and its child with new copies, using the same
+ * protocol as a deletion: it flags the parent, marks the node and then the child, and
+ * swings the parent's child pointer to the copies. Any thread that finds one of these
+ * flags helps finish the rotation. If a rotation cannot flag or mark its nodes, it is
+ * skipped, and a later update that passes by retries it. Without contention this is
+ * AVL rebalancing, so sorted input builds a tree of logarithmic height.
+ * @author HuyNguyen
+ *
+ */
+public class LockFreeBST {
+	// states of an internal node
+	private static final int CLEAN = 0, IFLAG = 1, DFLAG = 2, MARK = 3, RFLAG = 4;
+
+	// keys of the two sentinel leaves, larger than any int value
+	private static final long INFINITY_1 = Long.MAX_VALUE - 1, INFINITY_2 = Long.MAX_VALUE;
+
+	private static final VarHandle LEFT, RIGHT, UPDATE;
+	static {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			LEFT = lookup.findVarHandle(Internal.class, "left", Node.class);
+			RIGHT = lookup.findVarHandle(Internal.class, "right", Node.class);
+			UPDATE = lookup.findVarHandle(Internal.class, "update", Update.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private final Internal root = new Internal(INFINITY_2, new Leaf(INFINITY_1), new Leaf(INFINITY_2));
+
+	private static class Node {
+		final long key;
+
+		Node(long key) {
+			this.key = key;
+		}
+	}
+
+	private static final class Leaf extends Node {
+		Leaf(long key) {
+			super(key);
+		}
+	}
+
+	private static final class Internal extends Node {
+		volatile Node left, right;
+		volatile Update update = new Update(CLEAN, null);
+		int height;   // hint only: written without synchronization, may be stale
+
+		Internal(long key, Node left, Node right) {
+			super(key);
+			this.left = left;
+			this.right = right;
+			this.height = Math.max(height(left), height(right)) + 1;
+		}
+	}
+
+	// the state of an internal node together with the change it is flagged for
+	private static final class Update {
+		final int state;
+		final Info info;
+
+		Update(int state, Info info) {
+			this.state = state;
+			this.info = info;
+		}
+	}
+
+	private static class Info {
+	}
+
+	// replace leaf l, a child of p, with newInternal
+	private static final class InsertInfo extends Info {
+		final Internal p, newInternal;
+		final Leaf l;
+
+		InsertInfo(Internal p, Leaf l, Internal newInternal) {
+			this.p = p;
+			this.l = l;
+			this.newInternal = newInternal;
+		}
+	}
+
+	// remove leaf l and its parent p, a child of gp, whose update was pupdate
+	private static final class DeleteInfo extends Info {
+		final Internal gp, p;
+		final Leaf l;
+		final Update pupdate;
+
+		DeleteInfo(Internal gp, Internal p, Leaf l, Update pupdate) {
+			this.gp = gp;
+			this.p = p;
+			this.l = l;
+			this.pupdate = pupdate;
+		}
+	}
+
+	// replace internal node n, a child of q, and its child on the rising side with copies
+	// rotated to the right (the left child rises) or to the left; nupdate was n's update
+	private static final class RotateInfo extends Info {
+		final Internal q, n;
+		final boolean right;
+		final Update nupdate;
+
+		RotateInfo(Internal q, Internal n, boolean right, Update nupdate) {
+			this.q = q;
+			this.n = n;
+			this.right = right;
+			this.nupdate = nupdate;
+		}
+	}
+
+	// the result of a search: the leaf reached, its parent and grandparent, their updates,
+	// and every internal node on the way, from the root to the parent
+	private static final class Search {
+		Internal gp, p;
+		Leaf l;
+		Update pupdate, gpupdate;
+		Internal[] path = new Internal[32];
+		int depth;
+	}
+
+	/**
+	 * Search for a value from the root down to a leaf.
+	 * @param key the value.
+	 * @return the leaf, its ancestors and their updates as they were read.
+	 */
+	private Search search(long key) {
+		Search s = new Search();
+		Node l = root;
+		while (l instanceof Internal) {
+			s.gp = s.p;
+			s.p = (Internal) l;
+			if (s.depth == s.path.length) s.path = Arrays.copyOf(s.path, 2 * s.depth);
+			s.path[s.depth++] = s.p;
+			s.gpupdate = s.pupdate;
+			s.pupdate = s.p.update;
+			l = (key < l.key) ? s.p.left : s.p.right;
+		}
+		s.l = (Leaf) l;
+		return s;
+	}
+
+	/**
+	 * Check whether the set contains the specified value.
+	 * @param value the value.
+	 * @return <tt>true</tt> if the value is in the set.
+	 */
+	public boolean contains(int value) {
+		Node l = root;
+		while (l instanceof Internal)
+			l = (value < l.key) ? ((Internal) l).left : ((Internal) l).right;
+		return l.key == value;
+	}
+
+	/**
+	 * Insert the specified value.
+	 * @param value the value.
+	 * @return <tt>false</tt> if the value was already in the set.
+	 */
+	public boolean insert(int value) {
+		Leaf newLeaf = new Leaf(value);
+		while (true) {
+			Search s = search(value);
+			if (s.l.key == value) return false;
+			if (s.pupdate.state != CLEAN) {
+				help(s.pupdate);
+				continue;
+			}
+			Leaf sibling = new Leaf(s.l.key);
+			Internal newInternal = (value < s.l.key)
+					? new Internal(s.l.key, newLeaf, sibling)
+					: new Internal(value, sibling, newLeaf);
+			Update flag = new Update(IFLAG, new InsertInfo(s.p, s.l, newInternal));
+			Update result = (Update) UPDATE.compareAndExchange(s.p, s.pupdate, flag);
+			if (result == s.pupdate) {
+				helpInsert(flag);
+				rebalance(s.path, s.depth);
+				return true;
+			}
+			help(result);
+		}
+	}
+
+	/**
+	 * Delete the specified value.
+	 * @param value the value.
+	 * @return <tt>false</tt> if the value was not in the set.
+	 */
+	public boolean delete(int value) {
+		while (true) {
+			Search s = search(value);
+			if (s.l.key != value) return false;
+			if (s.gpupdate.state != CLEAN) {
+				help(s.gpupdate);
+				continue;
+			}
+			if (s.pupdate.state != CLEAN) {
+				help(s.pupdate);
+				continue;
+			}
+			Update flag = new Update(DFLAG, new DeleteInfo(s.gp, s.p, s.l, s.pupdate));
+			Update result = (Update) UPDATE.compareAndExchange(s.gp, s.gpupdate, flag);
+			if (result == s.gpupdate) {
+				if (helpDelete(flag)) {
+					// the parent is gone; rebalance from the grandparent up
+					rebalance(s.path, s.depth - 1);
+					return true;
+				}
+			}
+			else help(result);
+		}
+	}
+
+	/**
+	 * Complete the change an internal node is flagged or marked for.
+	 * @param u the node's update.
+	 */
+	private void help(Update u) {
+		if (u.state == IFLAG) helpInsert(u);
+		else if (u.state == MARK && u.info instanceof RotateInfo) helpRotateMarked((RotateInfo) u.info);
+		else if (u.state == MARK) helpMarked((DeleteInfo) u.info);
+		else if (u.state == DFLAG) helpDelete(u);
+		else if (u.state == RFLAG) helpRotate(u);
+	}
+
+	/**
+	 * Swing the parent's child pointer from the old leaf to the new subtree, then unflag the parent.
+	 * @param flag the parent's <tt>IFLAG</tt> update.
+	 */
+	private void helpInsert(Update flag) {
+		InsertInfo op = (InsertInfo) flag.info;
+		casChild(op.p, op.l, op.newInternal);
+		UPDATE.compareAndSet(op.p, flag, new Update(CLEAN, op));
+	}
+
+	/**
+	 * Mark the parent of the leaf being deleted so nothing else can change it, then
+	 * remove it. If another change got to the parent first, undo the grandparent's flag.
+	 * @param flag the grandparent's <tt>DFLAG</tt> update.
+	 * @return <tt>true</tt> if the deletion happened.
+	 */
+	private boolean helpDelete(Update flag) {
+		DeleteInfo op = (DeleteInfo) flag.info;
+		Update result = (Update) UPDATE.compareAndExchange(op.p, op.pupdate, new Update(MARK, op));
+		if (result == op.pupdate || (result.state == MARK && result.info == op)) {
+			helpMarked(op);
+			return true;
+		}
+		help(result);
+		UPDATE.compareAndSet(op.gp, flag, new Update(CLEAN, op));
+		return false;
+	}
+
+	/**
+	 * Replace the marked parent with the leaf's sibling, then unflag the grandparent.
+	 * @param op the deletion.
+	 */
+	private void helpMarked(DeleteInfo op) {
+		Node other = (op.p.right == op.l) ? op.p.left : op.p.right;
+		casChild(op.gp, op.p, other);
+		Update u = op.gp.update;
+		if (u.state == DFLAG && u.info == op) UPDATE.compareAndSet(op.gp, u, new Update(CLEAN, op));
+	}
+
+	/**
+	 * Refresh the height hints on a search path from the bottom up, rotating where the
+	 * heights of two siblings differ by more than one. Stops once a hint is already
+	 * right and nothing was rotated, since nothing above can have changed.
+	 * @param path the internal nodes from the root down.
+	 * @param depth the number of nodes on the path to rebalance.
+	 */
+	private void rebalance(Internal[] path, int depth) {
+		// the root is a sentinel and never rotates
+		for (int i = depth - 1; i >= 1; i--) {
+			Internal n = path[i];
+			int hl = height(n.left), hr = height(n.right);
+			boolean rotated = false;
+			if (hl > hr + 1 || hr > hl + 1) {
+				Internal top = fix(path[i - 1], n, hl > hr);
+				if (top != null) {
+					n = top;
+					rotated = true;
+					hl = height(n.left);
+					hr = height(n.right);
+				}
+			}
+			int h = Math.max(hl, hr) + 1;
+			if (h == n.height && !rotated) return;
+			n.height = h;
+		}
+	}
+
+	/**
+	 * Restore the balance of an internal node with a single or double rotation.
+	 * @param q the node's parent.
+	 * @param n the node, whose heavy child is internal.
+	 * @param leftHeavy whether the left child is the higher one.
+	 * @return the new root of the subtree, or <tt>null</tt> if a rotation was skipped.
+	 */
+	private Internal fix(Internal q, Internal n, boolean leftHeavy) {
+		Node c = leftHeavy ? n.left : n.right;
+		if (!(c instanceof Internal)) return null;
+		Internal ci = (Internal) c;
+		// a child leaning the other way is turned first, or the rotation only moves the excess
+		int outer = height(leftHeavy ? ci.left : ci.right), inner = height(leftHeavy ? ci.right : ci.left);
+		if (inner > outer && rotate(n, ci, !leftHeavy) == null) return null;
+		return rotate(q, n, leftHeavy);
+	}
+
+	/**
+	 * Rotate an internal node and its child, by flagging the parent and marking the node,
+	 * unless another change is already under way at either of them.
+	 * @param q the parent.
+	 * @param n the node.
+	 * @param right <tt>true</tt> to let the left child rise, <tt>false</tt> for the right child.
+	 * @return the new root of the subtree, or <tt>null</tt> if the rotation was skipped.
+	 */
+	private Internal rotate(Internal q, Internal n, boolean right) {
+		Update qupdate = q.update;
+		if (qupdate.state != CLEAN || (q.left != n && q.right != n)) return null;
+		Update nupdate = n.update;
+		if (nupdate.state != CLEAN || !((right ? n.left : n.right) instanceof Internal)) return null;
+		RotateInfo op = new RotateInfo(q, n, right, nupdate);
+		Update flag = new Update(RFLAG, op);
+		if (!UPDATE.compareAndSet(q, qupdate, flag)) return null;
+		if (!helpRotate(flag)) return null;
+		Node top = q.left == n || q.right == n ? null : (n.key < q.key ? q.left : q.right);
+		return (top instanceof Internal) ? (Internal) top : null;
+	}
+
+	/**
+	 * Mark the node being rotated so nothing else can change it, then rotate. If another
+	 * change got to the node first, undo the parent's flag, as a deletion does.
+	 * @param flag the parent's <tt>RFLAG</tt> update.
+	 * @return <tt>true</tt> if the rotation happened.
+	 */
+	private boolean helpRotate(Update flag) {
+		RotateInfo op = (RotateInfo) flag.info;
+		Update result = (Update) UPDATE.compareAndExchange(op.n, op.nupdate, new Update(MARK, op));
+		if (result == op.nupdate || (result.state == MARK && result.info == op)) {
+			helpRotateMarked(op);
+			return true;
+		}
+		help(result);
+		UPDATE.compareAndSet(op.q, flag, new Update(CLEAN, op));
+		return false;
+	}
+
+	/**
+	 * Mark the rising child too, helping any change under way at it first, then replace
+	 * the node with the rotated copies and unflag the parent. Once the node is marked the
+	 * rotation always finishes: the node's children are frozen, so every helper builds the
+	 * same copies and only the first one swings the parent's pointer.
+	 * @param op the rotation.
+	 */
+	private void helpRotateMarked(RotateInfo op) {
+		Internal n = op.n;
+		Node c = op.right ? n.left : n.right;
+		Node top;
+		if (c instanceof Internal) {
+			Internal ci = (Internal) c;
+			while (true) {
+				Update u = ci.update;
+				if (u.state == MARK && u.info == op) break;
+				if (u.state == CLEAN) {
+					if (UPDATE.compareAndSet(ci, u, new Update(MARK, op))) break;
+				}
+				else help(u);
+			}
+			if (op.right) top = new Internal(ci.key, ci.left, new Internal(n.key, ci.right, n.right));
+			else          top = new Internal(ci.key, new Internal(n.key, n.left, ci.left), ci.right);
+		}
+		// not reached: rotate() only flags a node whose rising child is internal
+		else top = new Internal(n.key, n.left, n.right);
+		casChild(op.q, n, top);
+		Update u = op.q.update;
+		if (u.state == RFLAG && u.info == op) UPDATE.compareAndSet(op.q, u, new Update(CLEAN, op));
+	}
+
+	/**
+	 * Get the height hint of a node.
+	 * @param x the node.
+	 * @return 0 for a leaf, the hint for an internal node.
+	 */
+	private static int height(Node x) {
+		return (x instanceof Internal) ? ((Internal) x).height : 0;
+	}
+
+	/**
+	 * Get the height of the tree below the sentinel root, by a full traversal. It is only
+	 * exact when no update runs at the same time.
+	 * @return the number of internal nodes on the longest path from the root's left child
+	 *     to a leaf.
+	 */
+	public int height() {
+		return depth(root.left);
+	}
+
+	private static int depth(Node x) {
+		if (!(x instanceof Internal)) return 0;
+		return Math.max(depth(((Internal) x).left), depth(((Internal) x).right)) + 1;
+	}
+
+	/**
+	 * Replace a child of the parent, on the side the new child belongs to.
+	 * @param parent the parent.
+	 * @param old the expected child.
+	 * @param child the new child.
+	 */
+	private void casChild(Internal parent, Node old, Node child) {
+		if (child.key < parent.key) LEFT.compareAndSet(parent, old, child);
+		else RIGHT.compareAndSet(parent, old, child);
+	}
+}
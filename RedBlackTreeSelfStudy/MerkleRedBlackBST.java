@@ -0,0 +1,803 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+
+/**
+ *  The <tt>MerkleRedBlackBST</tt> class represents an ordered symbol table
+ *  whose replicas can be compared and synchronized in time proportional to
+ *  the number of keys on which they differ.
+ *  It supports the usual <em>put</em>, <em>get</em>, <em>contains</em>,
+ *  <em>delete</em>, <em>size</em>, <em>rank</em> and <em>select</em>
+ *  operations, plus <em>hash</em> and <em>range-hash</em>, <em>diff</em>
+ *  against another table in the same process, and a pull-based
+ *  <em>sync</em> protocol between two processes.
+ *  <p>
+ *  This implementation is the left-leaning red-black BST of {@link RedBlackBST}.
+ *  Each node also stores the hash of its subtree. That field is maintained by
+ *  the rotations and by <em>balance</em> in the same way as the subtree count.
+ *  A subtree hash is the sum, modulo 2<sup>64</sup>, of one 64-bit hash per
+ *  key-value pair, not a hash of the two child hashes. Two replicas hold the
+ *  same pairs in different tree shapes when they were built in different
+ *  orders, and a sum does not depend on the shape. Because it is a sum, the
+ *  hash of any key range is a difference of two prefix sums, each found on
+ *  one root-to-leaf path. So <em>range-hash</em> takes logarithmic time, and
+ *  so do <em>put</em>, <em>get</em> and <em>delete</em>, in the worst case.
+ *  <p>
+ *  The pair hash is a 64-bit hash of the key and value as Java serialization
+ *  writes them, which is also how the sync protocol sends them. So keys and
+ *  values must be serializable, and pairs that differ in content hash
+ *  differently even when their <tt>hashCode()</tt> values are equal. Each
+ *  node keeps its pair hash, so a pair is serialized once per <em>put</em>,
+ *  not on every rotation. Two tables with different contents but equal
+ *  range hashes are reported as equal, which happens with probability about
+ *  2<sup>-64</sup> per range for non-adversarial data.
+ *  Neither side may be modified while a sync is in progress.
+ */
+public class MerkleRedBlackBST<Key extends Comparable<Key>, Value> {
+
+    private static final boolean RED   = true;
+    private static final boolean BLACK = false;
+
+    // a range with at most this many keys on the serving side is sent whole
+    private static final int LEAF = 16;
+
+    // sync replies
+    private static final byte MATCH = 0, SPLIT = 1, ITEMS = 2;
+
+    private Node root;     // root of the BST
+
+    // BST helper node data type
+    private class Node {
+        private Key key;           // key
+        private Value val;         // associated data
+        private Node left, right;  // links to left and right subtrees
+        private boolean color;     // color of parent link
+        private int N;             // subtree count
+        private long pair;         // hash of this key-value pair
+        private long hash;         // sum of the pair hashes in subtree
+
+        public Node(Key key, Value val, boolean color, int N) {
+            this.key = key;
+            this.val = val;
+            this.color = color;
+            this.N = N;
+            this.pair = pairHash(key, val);
+            this.hash = pair;
+        }
+    }
+
+    /**
+     * Initializes an empty symbol table.
+     */
+    public MerkleRedBlackBST() {
+    }
+
+   /***************************************************************************
+    *  Node helper methods.
+    ***************************************************************************/
+    // is node x red; false if x is null ?
+    private boolean isRed(Node x) {
+        if (x == null) return false;
+        return x.color == RED;
+    }
+
+    // number of node in subtree rooted at x; 0 if x is null
+    private int size(Node x) {
+        if (x == null) return 0;
+        return x.N;
+    }
+
+    // hash of subtree rooted at x; 0 if x is null
+    private long hash(Node x) {
+        if (x == null) return 0;
+        return x.hash;
+    }
+
+    // recompute the subtree count and hash of h from its children
+    private void update(Node h) {
+        h.N = size(h.left) + size(h.right) + 1;
+        h.hash = h.pair + hash(h.left) + hash(h.right);
+    }
+
+    // hash of one key-value pair: 64-bit FNV-1a of the serialized key and
+    // value, then mixed so that every input bit reaches every output bit
+    private static long pairHash(Object key, Object val) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try {
+            ObjectOutputStream oos = new ObjectOutputStream(bytes);
+            oos.writeObject(key);
+            oos.writeObject(val);
+            oos.close();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("key and value must be serializable", e);
+        }
+        long z = 0xcbf29ce484222325L;
+        for (byte b : bytes.toByteArray()) z = (z ^ (b & 0xff)) * 0x100000001b3L;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Returns the number of key-value pairs in this symbol table.
+     * @return the number of key-value pairs in this symbol table
+     */
+    public int size() {
+        return size(root);
+    }
+
+   /**
+     * Is this symbol table empty?
+     * @return <tt>true</tt> if this symbol table is empty and <tt>false</tt> otherwise
+     */
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+
+   /***************************************************************************
+    *  Standard BST search.
+    ***************************************************************************/
+
+    /**
+     * Returns the value associated with the given key.
+     * @param key the key
+     * @return the value associated with the given key if the key is in the symbol table
+     *     and <tt>null</tt> if the key is not in the symbol table
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public Value get(Key key) {
+        Node x = root;
+        while (x != null) {
+            int cmp = key.compareTo(x.key);
+            if      (cmp < 0) x = x.left;
+            else if (cmp > 0) x = x.right;
+            else              return x.val;
+        }
+        return null;
+    }
+
+    /**
+     * Does this symbol table contain the given key?
+     * @param key the key
+     * @return <tt>true</tt> if this symbol table contains <tt>key</tt> and
+     *     <tt>false</tt> otherwise
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public boolean contains(Key key) {
+        return get(key) != null;
+    }
+
+   /***************************************************************************
+    *  Red-black tree insertion.
+    ***************************************************************************/
+
+    /**
+     * Inserts the key-value pair into the symbol table, overwriting the old value
+     * with the new value if the key is already in the symbol table.
+     * If the value is <tt>null</tt>, this effectively deletes the key from the symbol table.
+     * @param key the key
+     * @param val the value
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     * @throws IllegalArgumentException if <tt>key</tt> or <tt>val</tt> is not serializable
+     */
+    public void put(Key key, Value val) {
+        if (val == null) {
+            delete(key);
+            return;
+        }
+        root = put(root, key, val);
+        root.color = BLACK;
+        // assert check();
+    }
+
+    // insert the key-value pair in the subtree rooted at h
+    private Node put(Node h, Key key, Value val) {
+        if (h == null) return new Node(key, val, RED, 1);
+
+        int cmp = key.compareTo(h.key);
+        if      (cmp < 0) h.left  = put(h.left,  key, val);
+        else if (cmp > 0) h.right = put(h.right, key, val);
+        else {
+            h.val  = val;
+            h.pair = pairHash(h.key, val);
+        }
+
+        // fix-up any right-leaning links
+        if (isRed(h.right) && !isRed(h.left))      h = rotateLeft(h);
+        if (isRed(h.left)  &&  isRed(h.left.left)) h = rotateRight(h);
+        if (isRed(h.left)  &&  isRed(h.right))     flipColors(h);
+        update(h);
+
+        return h;
+    }
+
+   /***************************************************************************
+    *  Red-black tree deletion.
+    ***************************************************************************/
+
+    /**
+     * Removes the specified key and its associated value from this symbol table
+     * (if the key is in this symbol table).
+     * @param key the key
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public void delete(Key key) {
+        if (!contains(key)) return;
+
+        // if both children of root are black, set root to red
+        if (!isRed(root.left) && !isRed(root.right))
+            root.color = RED;
+
+        root = delete(root, key);
+        if (!isEmpty()) root.color = BLACK;
+        // assert check();
+    }
+
+    // delete the key-value pair with the given key rooted at h
+    private Node delete(Node h, Key key) {
+        if (key.compareTo(h.key) < 0)  {
+            if (!isRed(h.left) && !isRed(h.left.left))
+                h = moveRedLeft(h);
+            h.left = delete(h.left, key);
+        }
+        else {
+            if (isRed(h.left))
+                h = rotateRight(h);
+            if (key.compareTo(h.key) == 0 && (h.right == null))
+                return null;
+            if (!isRed(h.right) && !isRed(h.right.left))
+                h = moveRedRight(h);
+            if (key.compareTo(h.key) == 0) {
+                Node x = min(h.right);
+                h.key = x.key;
+                h.val = x.val;
+                h.pair = x.pair;
+                h.right = deleteMin(h.right);
+            }
+            else h.right = delete(h.right, key);
+        }
+        return balance(h);
+    }
+
+    // delete the key-value pair with the minimum key rooted at h
+    private Node deleteMin(Node h) {
+        if (h.left == null)
+            return null;
+
+        if (!isRed(h.left) && !isRed(h.left.left))
+            h = moveRedLeft(h);
+
+        h.left = deleteMin(h.left);
+        return balance(h);
+    }
+
+   /***************************************************************************
+    *  Red-black tree helper functions.
+    ***************************************************************************/
+
+    // make a left-leaning link lean to the right
+    private Node rotateRight(Node h) {
+        Node x = h.left;
+        h.left = x.right;
+        x.right = h;
+        x.color = x.right.color;
+        x.right.color = RED;
+        x.N = h.N;
+        x.hash = h.hash;
+        update(h);
+        return x;
+    }
+
+    // make a right-leaning link lean to the left
+    private Node rotateLeft(Node h) {
+        Node x = h.right;
+        h.right = x.left;
+        x.left = h;
+        x.color = x.left.color;
+        x.left.color = RED;
+        x.N = h.N;
+        x.hash = h.hash;
+        update(h);
+        return x;
+    }
+
+    // flip the colors of a node and its two children
+    private void flipColors(Node h) {
+        h.color = !h.color;
+        h.left.color = !h.left.color;
+        h.right.color = !h.right.color;
+    }
+
+    // Assuming that h is red and both h.left and h.left.left
+    // are black, make h.left or one of its children red.
+    private Node moveRedLeft(Node h) {
+        flipColors(h);
+        if (isRed(h.right.left)) {
+            h.right = rotateRight(h.right);
+            h = rotateLeft(h);
+            flipColors(h);
+        }
+        return h;
+    }
+
+    // Assuming that h is red and both h.right and h.right.left
+    // are black, make h.right or one of its children red.
+    private Node moveRedRight(Node h) {
+        flipColors(h);
+        if (isRed(h.left.left)) {
+            h = rotateRight(h);
+            flipColors(h);
+        }
+        return h;
+    }
+
+    // restore red-black tree invariant
+    private Node balance(Node h) {
+        if (isRed(h.right))                      h = rotateLeft(h);
+        if (isRed(h.left) && isRed(h.left.left)) h = rotateRight(h);
+        if (isRed(h.left) && isRed(h.right))     flipColors(h);
+
+        update(h);
+        return h;
+    }
+
+   /***************************************************************************
+    *  Ordered symbol table methods.
+    ***************************************************************************/
+
+    /**
+     * Returns the smallest key in the symbol table.
+     * @return the smallest key in the symbol table
+     * @throws NoSuchElementException if the symbol table is empty
+     */
+    public Key min() {
+        if (isEmpty()) throw new java.util.NoSuchElementException("called min() with empty symbol table");
+        return min(root).key;
+    }
+
+    // the smallest key in subtree rooted at x
+    private Node min(Node x) {
+        while (x.left != null) x = x.left;
+        return x;
+    }
+
+    /**
+     * Return the kth smallest key in the symbol table.
+     * @param k the order statistic
+     * @return the kth smallest key in the symbol table
+     * @throws IllegalArgumentException unless <tt>k</tt> is between 0 and
+     *     <em>N</em> &minus; 1
+     */
+    public Key select(int k) {
+        if (k < 0 || k >= size()) throw new IllegalArgumentException();
+        Node x = root;
+        while (true) {
+            int t = size(x.left);
+            if      (t > k) x = x.left;
+            else if (t < k) { k = k - t - 1; x = x.right; }
+            else            return x.key;
+        }
+    }
+
+    /**
+     * Return the number of keys in the symbol table strictly less than <tt>key</tt>.
+     * @param key the key
+     * @return the number of keys in the symbol table strictly less than <tt>key</tt>
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public int rank(Key key) {
+        return countBelow(key, false);
+    }
+
+    /**
+     * Returns all keys in the symbol table in order, as an <tt>Iterable</tt>.
+     * @return all keys in the symbol table as an <tt>Iterable</tt>
+     */
+    public Iterable<Key> keys() {
+        ArrayList<Key> list = new ArrayList<Key>();
+        collect(root, null, false, null, list, null);
+        return list;
+    }
+
+   /***************************************************************************
+    *  Range hashes.
+    ***************************************************************************/
+
+    /**
+     * Returns the hash of the whole table. Two tables with the same key-value
+     * pairs have the same hash, whatever the shapes of their trees.
+     * @return the hash of the whole table
+     */
+    public long hash() {
+        return hash(root);
+    }
+
+    /**
+     * Returns the hash of the key-value pairs with keys between <tt>lo</tt>
+     * and <tt>hi</tt>, both inclusive.
+     * @param lo the smallest key of the range
+     * @param hi the largest key of the range
+     * @return the hash of the pairs in the range; 0 if the range is empty
+     * @throws NullPointerException if <tt>lo</tt> or <tt>hi</tt> is <tt>null</tt>
+     */
+    public long rangeHash(Key lo, Key hi) {
+        if (lo.compareTo(hi) > 0) return 0;
+        return hashBelow(hi, true) - hashBelow(lo, false);
+    }
+
+    /**
+     * Returns the number of keys between <tt>lo</tt> and <tt>hi</tt>, both inclusive.
+     * @param lo the smallest key of the range
+     * @param hi the largest key of the range
+     * @return the number of keys in the range
+     * @throws NullPointerException if <tt>lo</tt> or <tt>hi</tt> is <tt>null</tt>
+     */
+    public int size(Key lo, Key hi) {
+        if (lo.compareTo(hi) > 0) return 0;
+        return countBelow(hi, true) - countBelow(lo, false);
+    }
+
+    // sum of the pair hashes of keys less than key, or less than or equal if orEqual
+    private long hashBelow(Key key, boolean orEqual) {
+        long sum = 0;
+        Node x = root;
+        while (x != null) {
+            int cmp = key.compareTo(x.key);
+            if      (cmp < 0) x = x.left;
+            else if (cmp > 0) {
+                sum += hash(x.left) + x.pair;
+                x = x.right;
+            }
+            else {
+                sum += hash(x.left);
+                if (orEqual) sum += x.pair;
+                break;
+            }
+        }
+        return sum;
+    }
+
+    // number of keys less than key, or less than or equal if orEqual
+    private int countBelow(Key key, boolean orEqual) {
+        int count = 0;
+        Node x = root;
+        while (x != null) {
+            int cmp = key.compareTo(x.key);
+            if      (cmp < 0) x = x.left;
+            else if (cmp > 0) {
+                count += size(x.left) + 1;
+                x = x.right;
+            }
+            else {
+                count += size(x.left);
+                if (orEqual) count++;
+                break;
+            }
+        }
+        return count;
+    }
+
+    // hash of the keys in [lo, hi); a null bound is unbounded
+    private long hashFrom(Key lo, Key hi) {
+        long above = (hi == null) ? hash(root) : hashBelow(hi, false);
+        long below = (lo == null) ? 0 : hashBelow(lo, false);
+        return above - below;
+    }
+
+    // number of keys in [lo, hi); a null bound is unbounded
+    private int countFrom(Key lo, Key hi) {
+        int above = (hi == null) ? size(root) : countBelow(hi, false);
+        int below = (lo == null) ? 0 : countBelow(lo, false);
+        return above - below;
+    }
+
+    // add the keys (and values, if vals is not null) of subtree x that are
+    // greater than lo, or equal if loInclusive, and less than hi;
+    // a null bound is unbounded
+    private void collect(Node x, Key lo, boolean loInclusive, Key hi, ArrayList<Key> keys, ArrayList<Value> vals) {
+        if (x == null) return;
+        int cmplo = (lo == null) ? 1 : x.key.compareTo(lo);
+        int cmphi = (hi == null) ? -1 : x.key.compareTo(hi);
+        if (cmplo > 0) collect(x.left, lo, loInclusive, hi, keys, vals);
+        if ((cmplo > 0 || (cmplo == 0 && loInclusive)) && cmphi < 0) {
+            keys.add(x.key);
+            if (vals != null) vals.add(x.val);
+        }
+        if (cmphi < 0) collect(x.right, lo, loInclusive, hi, keys, vals);
+    }
+
+   /***************************************************************************
+    *  Diff.
+    ***************************************************************************/
+
+    /**
+     * Returns, in order, the keys on which this table and <tt>that</tt> differ:
+     * keys in only one of them, and keys whose values are not equal.
+     * Every subtree of this table whose hash and size match the same key
+     * range of <tt>that</tt> is skipped, so the time taken is proportional
+     * to the number of differences times the square of the height.
+     * @param that the other table
+     * @return the keys on which the tables differ as an <tt>Iterable</tt>
+     */
+    public Iterable<Key> diff(MerkleRedBlackBST<Key, Value> that) {
+        ArrayList<Key> list = new ArrayList<Key>();
+        diff(root, null, null, that, list);
+        return list;
+    }
+
+    // add the differences between subtree x and the keys of that in the
+    // open range (lo, hi) to list; a null bound is unbounded
+    private void diff(Node x, Key lo, Key hi, MerkleRedBlackBST<Key, Value> that, ArrayList<Key> list) {
+        if (x == null) {
+            // every key of that in the range is missing here
+            that.collect(that.root, lo, false, hi, list, null);
+            return;
+        }
+        long h = (hi == null) ? that.hash() : that.hashBelow(hi, false);
+        int n  = (hi == null) ? that.size() : that.countBelow(hi, false);
+        if (lo != null) {
+            h -= that.hashBelow(lo, true);
+            n -= that.countBelow(lo, true);
+        }
+        if (h == x.hash && n == x.N) return;
+
+        diff(x.left, lo, x.key, that, list);
+        Value val = that.get(x.key);
+        if (val == null || !val.equals(x.val)) list.add(x.key);
+        diff(x.right, x.key, hi, that, list);
+    }
+
+   /***************************************************************************
+    *  Sync.
+    ***************************************************************************/
+
+    /**
+     * Serves one sync to a peer calling {@link #pull}: answers its range
+     * queries from this table until the peer is done.
+     * @param in the stream from the peer
+     * @param out the stream to the peer
+     * @throws IOException if the streams fail or the peer breaks the protocol
+     */
+    @SuppressWarnings("unchecked")
+    public void serve(InputStream in, OutputStream out) throws IOException {
+        ObjectOutputStream oos = new ObjectOutputStream(out);
+        oos.flush();
+        ObjectInputStream ois = new ObjectInputStream(in);
+        ArrayList<Key> bounds = new ArrayList<Key>();
+        ArrayList<Long> sums = new ArrayList<Long>();     // count and hash of each range
+        ArrayList<Key> keys = new ArrayList<Key>();
+        ArrayList<Value> vals = new ArrayList<Value>();
+        try {
+            while (true) {
+                int ranges = ois.readInt();
+                if (ranges == 0) break;
+                // read the whole round first: the peer reads nothing until it has
+                // sent it, so replying early could fill both streams and deadlock
+                bounds.clear();
+                sums.clear();
+                for (int i = 0; i < ranges; i++) {
+                    bounds.add((Key) ois.readObject());
+                    bounds.add((Key) ois.readObject());
+                    sums.add((long) ois.readInt());
+                    sums.add(ois.readLong());
+                }
+                for (int i = 0; i < ranges; i++) {
+                    Key lo = bounds.get(2*i), hi = bounds.get(2*i+1);
+                    long theirs = sums.get(2*i), hash = sums.get(2*i+1);
+                    int n = countFrom(lo, hi);
+                    if (n == theirs && hashFrom(lo, hi) == hash) {
+                        oos.writeByte(MATCH);
+                    }
+                    else if (n <= LEAF || theirs == 0) {
+                        keys.clear();
+                        vals.clear();
+                        collect(root, lo, true, hi, keys, vals);
+                        oos.writeByte(ITEMS);
+                        oos.writeInt(n);
+                        for (int j = 0; j < n; j++) {
+                            oos.writeObject(keys.get(j));
+                            oos.writeObject(vals.get(j));
+                        }
+                    }
+                    else {
+                        // the middle key splits the range into two non-empty halves here
+                        int base = (lo == null) ? 0 : rank(lo);
+                        oos.writeByte(SPLIT);
+                        oos.writeObject(select(base + n/2));
+                    }
+                }
+                oos.flush();
+                oos.reset();
+            }
+        }
+        catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Makes this table equal to the table of a peer calling {@link #serve}.
+     * Starting from the whole key space, each round sends the hash and size
+     * of every unsettled range. The peer either confirms a range, sends its
+     * pairs if it holds few of them, or splits it at its middle key. So a
+     * sync takes about lg <em>N</em> rounds, and the number of ranges sent
+     * is proportional to the number of differing keys times lg <em>N</em>.
+     * @param in the stream from the peer
+     * @param out the stream to the peer
+     * @return the number of ranges sent to the peer
+     * @throws IOException if the streams fail or the peer breaks the protocol
+     */
+    @SuppressWarnings("unchecked")
+    public int pull(InputStream in, OutputStream out) throws IOException {
+        ObjectOutputStream oos = new ObjectOutputStream(out);
+        oos.flush();
+        ObjectInputStream ois = new ObjectInputStream(in);
+        ArrayList<Key> bounds = new ArrayList<Key>();    // lo and hi of each unsettled range
+        ArrayList<Key> pending = new ArrayList<Key>();   // ranges for the next round
+        ArrayList<Key> local = new ArrayList<Key>();
+        int sent = 0;
+        bounds.add(null);
+        bounds.add(null);
+        try {
+            while (!bounds.isEmpty()) {
+                int ranges = bounds.size() / 2;
+                oos.writeInt(ranges);
+                for (int i = 0; i < bounds.size(); i += 2) {
+                    Key lo = bounds.get(i), hi = bounds.get(i+1);
+                    oos.writeObject(lo);
+                    oos.writeObject(hi);
+                    oos.writeInt(countFrom(lo, hi));
+                    oos.writeLong(hashFrom(lo, hi));
+                }
+                oos.flush();
+                oos.reset();
+                sent += ranges;
+
+                for (int i = 0; i < bounds.size(); i += 2) {
+                    Key lo = bounds.get(i), hi = bounds.get(i+1);
+                    byte reply = ois.readByte();
+                    if (reply == SPLIT) {
+                        Key mid = (Key) ois.readObject();
+                        pending.add(lo);
+                        pending.add(mid);
+                        pending.add(mid);
+                        pending.add(hi);
+                    }
+                    else if (reply == ITEMS) {
+                        local.clear();
+                        collect(root, lo, true, hi, local, null);
+                        int n = ois.readInt();
+                        int j = 0;
+                        for (int k = 0; k < n; k++) {
+                            Key key = (Key) ois.readObject();
+                            Value val = (Value) ois.readObject();
+                            // drop the local keys that the peer does not have
+                            while (j < local.size() && local.get(j).compareTo(key) < 0)
+                                delete(local.get(j++));
+                            if (j < local.size() && local.get(j).compareTo(key) == 0) j++;
+                            if (!val.equals(get(key))) put(key, val);
+                        }
+                        while (j < local.size()) delete(local.get(j++));
+                    }
+                    else if (reply != MATCH) throw new IOException("bad reply " + reply);
+                }
+                bounds.clear();
+                bounds.addAll(pending);
+                pending.clear();
+            }
+            oos.writeInt(0);
+            oos.flush();
+        }
+        catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+        return sent;
+    }
+
+
+   /***************************************************************************
+    *  Check integrity of red-black tree data structure.
+    ***************************************************************************/
+    private boolean check() {
+        if (!isBST())            System.out.println("Not in symmetric order");
+        if (!isSizeConsistent()) System.out.println("Subtree counts not consistent");
+        if (!isHashConsistent()) System.out.println("Subtree hashes not consistent");
+        if (!is23())             System.out.println("Not a 2-3 tree");
+        if (!isBalanced())       System.out.println("Not balanced");
+        return isBST() && isSizeConsistent() && isHashConsistent() && is23() && isBalanced();
+    }
+
+    // does this binary tree satisfy symmetric order?
+    private boolean isBST() {
+        return isBST(root, null, null);
+    }
+
+    // is the tree rooted at x a BST with all keys strictly between min and max
+    private boolean isBST(Node x, Key min, Key max) {
+        if (x == null) return true;
+        if (min != null && x.key.compareTo(min) <= 0) return false;
+        if (max != null && x.key.compareTo(max) >= 0) return false;
+        return isBST(x.left, min, x.key) && isBST(x.right, x.key, max);
+    }
+
+    // are the size fields correct?
+    private boolean isSizeConsistent() { return isSizeConsistent(root); }
+    private boolean isSizeConsistent(Node x) {
+        if (x == null) return true;
+        if (x.N != size(x.left) + size(x.right) + 1) return false;
+        return isSizeConsistent(x.left) && isSizeConsistent(x.right);
+    }
+
+    // are the hash fields correct?
+    private boolean isHashConsistent() { return isHashConsistent(root); }
+    private boolean isHashConsistent(Node x) {
+        if (x == null) return true;
+        if (x.pair != pairHash(x.key, x.val)) return false;
+        if (x.hash != x.pair + hash(x.left) + hash(x.right)) return false;
+        return isHashConsistent(x.left) && isHashConsistent(x.right);
+    }
+
+    // Does the tree have no red right links, and at most one (left)
+    // red links in a row on any path?
+    private boolean is23() { return is23(root); }
+    private boolean is23(Node x) {
+        if (x == null) return true;
+        if (isRed(x.right)) return false;
+        if (x != root && isRed(x) && isRed(x.left))
+            return false;
+        return is23(x.left) && is23(x.right);
+    }
+
+    // do all paths from root to leaf have same number of black edges?
+    private boolean isBalanced() {
+        int black = 0;     // number of black links on path from root to min
+        Node x = root;
+        while (x != null) {
+            if (!isRed(x)) black++;
+            x = x.left;
+        }
+        return isBalanced(root, black);
+    }
+
+    // does every path from the root to a leaf have the given number of black links?
+    private boolean isBalanced(Node x, int black) {
+        if (x == null) return black == 0;
+        if (!isRed(x)) black--;
+        return isBalanced(x.left, black) && isBalanced(x.right, black);
+    }
+
+
+    /**
+     * Unit tests the <tt>MerkleRedBlackBST</tt> data type.
+     */
+    public static void main(String[] args) {
+        MerkleRedBlackBST<String, Integer> a = new MerkleRedBlackBST<String, Integer>();
+        MerkleRedBlackBST<String, Integer> b = new MerkleRedBlackBST<String, Integer>();
+        String[] keys = "S E A R C H E X A M P L E".split(" ");
+        for (int i = 0; i < keys.length; i++) a.put(keys[i], i);
+        for (int i = keys.length - 1; i >= 0; i--) if (!b.contains(keys[i])) b.put(keys[i], a.get(keys[i]));
+        System.out.println("same hash:  " + (a.hash() == b.hash()));
+        b.put("C", 99);
+        b.delete("X");
+        b.put("Z", 26);
+        System.out.print("diff:");
+        for (String s : a.diff(b)) System.out.print(" " + s);
+        System.out.println();
+
+        // "Aa" and "BB" have the same hashCode(), but not the same content
+        MerkleRedBlackBST<String, String> c = new MerkleRedBlackBST<String, String>();
+        MerkleRedBlackBST<String, String> d = new MerkleRedBlackBST<String, String>();
+        c.put("Aa", "x");
+        d.put("BB", "x");
+        c.put("k", "Aa");
+        d.put("k", "BB");
+        System.out.print("colliding hash codes, diff:");
+        for (String s : c.diff(d)) System.out.print(" " + s);
+        System.out.println();
+    }
+}
@@ -1,5 +1,6 @@
 import java.util.Random;
 import java.util.HashSet;
+import java.util.NoSuchElementException;
 
 /**
  * The red black tree class
@@ -8,8 +9,53 @@ import java.util.HashSet;
  */
 public class RBTree {
 	static final boolean INSERTION = true, DELETION = false;
+	static final boolean TOP_DOWN = false, BOTTOM_UP = true;
 	Node root;	
 	
+	// whether insert and delete restore the red black properties bottom-up
+	private boolean bottomUp;
+	
+	// number of nodes in the tree
+	private int size;
+	
+	// number of deletions so far; a cursor's node may have been recycled once this changes
+	private int removals;
+	
+	// the sentinel root, reused by every deletion
+	private final Node sentinel = new Node(Integer.MIN_VALUE);
+	
+	// removed nodes waiting to be reused, chained through their left pointers
+	private Node free;
+	
+	// rotations done by insertions and by deletions, and the number of each
+	private long insertRotations, deleteRotations, insertions, deletions;
+	
+	// color, link and value stores into nodes that are already in the tree
+	private long writes;
+	
+	/**
+	 * Create an empty tree that inserts and deletes top-down.
+	 */
+	public RBTree() {
+	}
+	
+	/**
+	 * Create an empty tree that inserts and deletes in the specified mode.
+	 * @param bottomUp <tt>BOTTOM_UP</tt> or <tt>TOP_DOWN</tt>.
+	 */
+	public RBTree(boolean bottomUp) {
+		this.bottomUp = bottomUp;
+	}
+	
+	/**
+	 * Switch between top-down and bottom-up insertion and deletion. Both modes keep
+	 * the same invariants, so the mode can be changed at any time.
+	 * @param bottomUp <tt>BOTTOM_UP</tt> or <tt>TOP_DOWN</tt>.
+	 */
+	public void setBottomUp(boolean bottomUp) {
+		this.bottomUp = bottomUp;
+	}
+	
 	/*****************************************************
 	 * 	============== INSERTION TIPS ====================
 	 * 
@@ -26,10 +72,15 @@ public class RBTree {
 	 *****************************************************/
 	
 	/**
-	 * Insert a new node containing the specified value to the tree.
+	 * Insert a new node containing the specified value to the tree, top-down
+	 * unless the tree is in bottom-up mode.
 	 * @param value the specified value
 	 */
 	public void insert(int value){
+		if (bottomUp) {
+			insertBottomUp(value);
+			return;
+		}
 		// the current node
 		Node current = root;
 		Node parent = null;
@@ -53,11 +104,14 @@ public class RBTree {
 		
 		// if value is already present, print out error message
 		if (current != null) {
-			System.out.println("Duplicate value! Program will terminate");
+			System.out.println("Duplicate value!");
+			return;
 		}
 		
 		// create a new leaf node at the current position
-		current = new Node(value);
+		current = newNode(value);
+		size++;
+		insertions++;
 		if (root == null) root = current;
 		
 		// update the parent and child pointer
@@ -65,13 +119,14 @@ public class RBTree {
 		if (parent != null) {
 			if (value < parent.value) parent.left = current;
 			else parent.right = current;
+			writes++;
 		}
 		
 		// if current.p is red, perform rotation
 		if (getColor(current.p) == Node.RED) rotation(current, INSERTION);
 		
 		// color the root black
-		root.color = Node.BLACK;
+		paint(root, Node.BLACK);
 	}
 	
 	/**
@@ -80,9 +135,9 @@ public class RBTree {
 	 * @param current the current node
 	 */
 	private void colorFlipAndRotate(Node current){
-		current.color = Node.RED;
-		current.left.color = Node.BLACK;
-		current.right.color = Node.BLACK;
+		paint(current, Node.RED);
+		paint(current.left, Node.BLACK);
+		paint(current.right, Node.BLACK);
 		
 		// if current node's parent is Node.RED, do rotation
 		if (getColor(current.p) == Node.RED) rotation(current, INSERTION);
@@ -95,6 +150,8 @@ public class RBTree {
 	 */
 	private void rotation(Node current, boolean insertion){
 		Node grandparent = current.p.p, parent = current.p;
+		if (insertion) insertRotations++;
+		else deleteRotations++;
 		//outside rotation
 		if ((current.value < parent.value) == (parent.value < grandparent.value)){
 			if (current == parent.left) {
@@ -108,6 +165,8 @@ public class RBTree {
 		}
 		//inside rotation
 		else {
+			if (insertion) insertRotations++;
+			else deleteRotations++;
 			//double rotation: rotate left first, then rotate right
 			if (current == parent.right && parent == grandparent.left) {
 				rotateLeft(parent);
@@ -140,6 +199,7 @@ public class RBTree {
         child.right = parent;
         parent.p = child;
         if (parent == root) root = child;
+        writes += 4 + (parent.left != null ? 1 : 0) + (child.p != null ? 1 : 0);
     }
 	
 	/**
@@ -157,6 +217,7 @@ public class RBTree {
         child.left = parent;
         parent.p = child;
         if (parent == root) root = child;
+        writes += 4 + (parent.right != null ? 1 : 0) + (child.p != null ? 1 : 0);
     }
 	
 	/**
@@ -168,18 +229,18 @@ public class RBTree {
 	private void changeColor(Node parent, Node child, boolean insertion){
 		// change color for insertion
 		if (insertion) {
-			parent.color = Node.RED;
-			child.color = Node.BLACK;
+			paint(parent, Node.RED);
+			paint(child, Node.BLACK);
 		}
 		// change color for deletion
 		else {
 			Node sibling = (child == parent.left) ? parent.right : parent.left;
-			parent.color = Node.BLACK;
-			child.color = Node.RED;
+			paint(parent, Node.BLACK);
+			paint(child, Node.RED);
 			if (sibling != null) {
-				sibling.color = Node.RED;
+				paint(sibling, Node.RED);
 				Node outerChild = (sibling == parent.left) ? sibling.left : sibling.right;
-				if (outerChild != null) outerChild.color = Node.BLACK;
+				if (outerChild != null) paint(outerChild, Node.BLACK);
 			}
 			
 		}
@@ -205,169 +266,161 @@ public class RBTree {
 	 * 
 	 * If X is black and one of X's children is red:
 	 * 		Go down one level (so new X is old X's child, new P is old X, new T is old X's other child)
+	 * 		If the new X is black, T is red: rotate T with P, so that P becomes red.
+	 * 
+	 * If X holds the value to delete and has 2 children, copy its successor's value
+	 * into X and go on to delete the successor from X's right subtree.
+	 * Otherwise X is a red leaf, or a black node with a single red child, and can be
+	 * removed directly.
 	 * 			
 	 *****************************************************/
 	
 	/**
-	 * Delete the node with the specified value from the tree.
+	 * Delete the node with the specified value from the tree, top-down
+	 * unless the tree is in bottom-up mode.
 	 * @param value the value to be deleted.
 	 */
 	public void delete(int value){
-		// the sentinel root
-		final Node sentinel = new Node(Integer.MIN_VALUE);
 		if (root == null) {
 			System.out.println("Tree is empty");
 			return;
 		}
-		Node current = sentinel;
-		current.right = root;
-		root.p = sentinel;
-		Node nodeToDelete = null;
-		
-		while (!current.isLeaf()){
-			current = (value < current.value) ? current.left : current.right;
-			
-			// Modify the tree based on the current node
-			modifyTree(current);
-			
-			// If value is found
-			if (value == current.value){
-				nodeToDelete = current;
-				break;
-			}
-			
+		if (bottomUp) {
+			deleteBottomUp(value);
+			return;
 		}
+		// reset the sentinel root
+		sentinel.color = Node.RED;
+		sentinel.left = null;
+		sentinel.p = null;
+		sentinel.right = root;
+		root.p = sentinel;
+		writes += 5;
 		
-		// look for nodeToDelete's successor
-		if (nodeToDelete != null){
+		Node current = root;
+		int target = value;
+		boolean found = false;
+		while (current != null) {
+			// If current is black and has 2 black children, make it red
+			if (getColor(current) == Node.BLACK && 
+					getColor(current.left) == Node.BLACK && 
+					getColor(current.right) == Node.BLACK)
+				makeRed(current);
 			
-			// if nodeToDelete is a leaf
-			if (nodeToDelete.isLeaf()){
-				// remove all pointers to the leaf node
-				if (root == nodeToDelete) root = null;
-				else {
-					if (nodeToDelete == nodeToDelete.p.left) nodeToDelete.p.left = null;
-					else nodeToDelete.p.right = null;
+			Node next;
+			if (current.value == target) {
+				if (!found) {
+					found = true;
+					size--;
+					removals++;
+					deletions++;
+				}
+				// current has at most one child: remove it
+				if (current.left == null || current.right == null) {
+					remove(current);
+					break;
 				}
+				// otherwise replace its value with its successor's and delete the successor
+				Node successor = current.right;
+				while (successor.left != null) successor = successor.left;
+				current.value = successor.value;
+				writes++;
+				target = successor.value;
+				next = current.right;
 			}
+			else next = (target < current.value) ? current.left : current.right;
 			
-			// if nodeToDelete is non-leaf, look for its successor
-			else {
-				if (nodeToDelete.right == null){
-					// successor is nodeToDelete.left
-					nodeToDelete.value = nodeToDelete.left.value;
-					nodeToDelete.left = nodeToDelete.left.left;
-					if (nodeToDelete.left != null && nodeToDelete.left.left != null)
-						nodeToDelete.left.left.p = nodeToDelete;
+			// Go down one level
+			Node parent = current;
+			current = next;
+			if (current != null && getColor(current) == Node.BLACK) {
+				Node sibling = (current == parent.left) ? parent.right : parent.left;
+				// a black current with a red sibling: rotate the sibling with the parent
+				if (getColor(sibling) == Node.RED) {
+					if (sibling == parent.right) rotateLeft(parent);
+					else rotateRight(parent);
+					deleteRotations++;
+					paint(sibling, Node.BLACK);
+					paint(parent, Node.RED);
 				}
-				else {
-					// find the leftmost node of the right subtree
-					current = nodeToDelete.right;
-					modifyTree(current);
-					while (current.left != null){
-						current = current.left;
-						modifyTree(current);
-					}
-					
-					// current.left is now null
-					nodeToDelete.value = current.value;
-					if (current == current.p.left)
-						current.p.left = current.right;
-					else 
-						current.p.right = current.right;
-					if (current.right != null){
-						current.right.p = current.p;
-						current.right.color = current.color;
-					}
-
-				}			
 			}
 		}
 		
-		// if nodeToDelete is null, print error message
-		else System.out.println("Cannot find node with value " + value + " to delete");
+		// if the value was not found, print error message
+		if (!found) System.out.println("Cannot find node with value " + value + " to delete");
 		
-		// color the root black and delete sentinel root
+		// color the root black and detach the sentinel root
+		root = sentinel.right;
 		if (root != null) {
-			root.color = Node.BLACK;
+			paint(root, Node.BLACK);
 			root.p = null;
+			writes++;
 		}
+		sentinel.left = sentinel.right = null;
+		writes += 2;
 	}
 	
 	/**
-	 * Modify the current tree based on the current node (used in deletion).
+	 * Make a black node with 2 black children red (used in deletion).
+	 * The node's parent must be red, or the sentinel root.
 	 * @param current the current node.
 	 */
-	private void modifyTree(Node current) {
-		// if current.p is black and current is black, perform rotation
-		if (getColor(current.p) == Node.BLACK && getColor(current) == Node.BLACK) {
-			rotateWithBlackParent(current);
-		}
-		// If current is black and has 2 black children
-		if (getColor(current) == Node.BLACK &&  
-				getColor(current.left) == Node.BLACK && 
-				getColor(current.right) == Node.BLACK)
-		{
-			Node sibling = (current == root) ? null : ((current == current.p.left) ? current.p.right : current.p.left);
-			Node innerChild = null, outerChild = null;
-			
-			if (sibling != null){
-				outerChild = (sibling == sibling.p.left) ? sibling.left : sibling.right;
-				innerChild = (sibling == sibling.p.left) ? sibling.right : sibling.left;
-			}
-
-			// If sibling has 2 black children, color flip
-			boolean siblingHasTwoBlackChildren = (sibling != null) &&
-					getColor(sibling.left) == Node.BLACK && getColor(sibling.right) == Node.BLACK;
-			if (sibling == null || siblingHasTwoBlackChildren) {
-				// color flip
-				current.p.color = Node.BLACK;
-				current.color = Node.RED;
-				if (sibling != null)
-					sibling.color = Node.RED;
-			}
-
-			// If sibling has an outer red child
-			else if (getColor(outerChild) == Node.RED) {
-				changeColor(current.p, current, DELETION);
-				if (outerChild == sibling.left)
-					rotateRight(sibling.p);
-				else
-					rotateLeft(sibling.p);
+	private void makeRed(Node current) {
+		Node parent = current.p;
+		if (parent == sentinel) {
+			paint(current, Node.RED);
+			return;
+		}
+		Node sibling = (current == parent.left) ? parent.right : parent.left;
+		Node outerChild = (sibling == parent.left) ? sibling.left : sibling.right;
+		Node innerChild = (sibling == parent.left) ? sibling.right : sibling.left;
+		
+		// If sibling has 2 black children, color flip
+		if (getColor(outerChild) == Node.BLACK && getColor(innerChild) == Node.BLACK) {
+			paint(sibling, Node.RED);
+		}
+		
+		// If sibling has an outer red child, single rotation
+		else if (getColor(outerChild) == Node.RED) {
+			if (sibling == parent.right) rotateLeft(parent);
+			else rotateRight(parent);
+			deleteRotations++;
+			paint(sibling, Node.RED);
+			paint(outerChild, Node.BLACK);
+		}
+		
+		// If sibling has an inner red child, double rotation
+		else {
+			if (sibling == parent.right) {
+				rotateRight(sibling);
+				rotateLeft(parent);
 			}
-
-			// If sibling has an inner red child
-			else if (getColor(innerChild) == Node.RED) {
-				if (innerChild == sibling.left) {
-					changeColor(sibling, innerChild, DELETION);
-					rotateRight(sibling);
-					changeColor(current.p, innerChild, false);
-					rotateLeft(current.p);
-				} else if (innerChild == sibling.right) {
-					changeColor(sibling, innerChild, false);
-					rotateLeft(sibling);
-					changeColor(current.p, innerChild, false);
-					rotateRight(current.p);
-				}
+			else {
+				rotateLeft(sibling);
+				rotateRight(parent);
 			}
+			deleteRotations += 2;
 		}
+		paint(parent, Node.BLACK);
+		paint(current, Node.RED);
 	}
 	
 	/**
-	 * Perform rotation on the tree in case current and current.p are black.
-	 * @param current the current node.
+	 * Unlink a node with at most one child from the tree (used in deletion).
+	 * The node is either a red leaf or a black node with a single red child.
+	 * @param node the node to remove.
 	 */
-	private void rotateWithBlackParent(Node current){
-		// rotate sibling and parent
-		if (current == current.p.left) {
-			current.p.color = Node.RED;
-			current.p.right.color = Node.BLACK;
-			rotateLeft(current.p);
-		} else {
-			current.p.color = Node.RED;
-			current.p.left.color = Node.BLACK;
-			rotateRight(current.p);
+	private void remove(Node node) {
+		Node child = (node.left != null) ? node.left : node.right;
+		if (child != null) {
+			child.p = node.p;
+			paint(child, Node.BLACK);
+			writes++;
 		}
+		if (node == node.p.left) node.p.left = child;
+		else node.p.right = child;
+		writes++;
+		recycle(node);
 	}
 	
 	/**
@@ -375,6 +428,82 @@ public class RBTree {
 	 */
 	public void deleteAll(){
 		root = null;
+		size = 0;
+		removals++;
+	}
+	
+	/**
+	 * Get the number of nodes in the tree.
+	 * @return the number of nodes.
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Get the average number of rotations per insertion so far, by every insertion:
+	 * top-down, bottom-up or from a cursor.
+	 * @return the rotations per insertion, or 0 if there was no insertion.
+	 */
+	public double insertRotationRate() {
+		return (insertions == 0) ? 0 : (double) insertRotations / insertions;
+	}
+	
+	/**
+	 * Get the average number of rotations per deletion so far, top-down or bottom-up.
+	 * @return the rotations per deletion, or 0 if there was no deletion.
+	 */
+	public double deleteRotationRate() {
+		return (deletions == 0) ? 0 : (double) deleteRotations / deletions;
+	}
+	
+	/**
+	 * Get the number of color, link and value stores into nodes already in the tree
+	 * so far, by every insertion and deletion. Setting a node to the color it already
+	 * has is not a store.
+	 * @return the number of writes.
+	 */
+	public long writes() {
+		return writes;
+	}
+	
+	/**
+	 * Set the color of a node, counting the store if the color changes.
+	 * @param node the node.
+	 * @param color the new color.
+	 */
+	private void paint(Node node, boolean color) {
+		if (node.color != color) {
+			node.color = color;
+			writes++;
+		}
+	}
+	
+	/**
+	 * Get a red leaf node holding the specified value, reusing a removed node if one is available.
+	 * @param value the specified value.
+	 * @return the new node.
+	 */
+	private Node newNode(int value){
+		if (free == null) return new Node(value);
+		Node node = free;
+		free = node.left;
+		node.left = null;
+		node.value = value;
+		node.color = Node.RED;
+		return node;
+	}
+	
+	/**
+	 * Put a node that has been unlinked from the tree on the free list.
+	 * The free list never grows past the largest size the tree has reached.
+	 * @param node the removed node.
+	 */
+	private void recycle(Node node){
+		node.right = null;
+		node.p = null;
+		node.left = free;
+		free = node;
 	}
 	
 	/**
@@ -395,6 +524,452 @@ public class RBTree {
 		return this.root;
 	}
 	
+	/*****************************************************
+	 * 	============== BOTTOM-UP MODE ====================
+	 * 
+	 * Search down without changing anything, then repair on
+	 * the way back up, as in CLRS.
+	 * 
+	 * Insertion attaches a red leaf and runs insertFixup, the
+	 * same repair a cursor uses.
+	 * 
+	 * Deletion removes the node (or its successor, after copying
+	 * the successor's value into it) like an ordinary BST. If the
+	 * removed node was black, its place X is short one black node:
+	 * 		If X is red, color it black.
+	 * 		If X's sibling T is red, rotate T with the parent P so
+	 * 		that X gets a black sibling.
+	 * 		If T has 2 black children, color T red and move X up to P.
+	 * 		If T has an outer red child, single rotation and stop.
+	 * 		If T has only an inner red child, rotate it over T first.
+	 * At most three rotations per deletion, and two per insertion.
+	 * 
+	 *****************************************************/
+	
+	/**
+	 * Insert a value bottom-up: attach a red leaf, then recolor and rotate upwards.
+	 * @param value the specified value.
+	 */
+	private void insertBottomUp(int value) {
+		Node parent = null;
+		for (Node x = root; x != null; x = (value < x.value) ? x.left : x.right) {
+			if (value == x.value) {
+				System.out.println("Duplicate value!");
+				return;
+			}
+			parent = x;
+		}
+		Node node = newNode(value);
+		node.p = parent;
+		if (parent == null) root = node;
+		else {
+			if (value < parent.value) parent.left = node;
+			else parent.right = node;
+			writes++;
+		}
+		size++;
+		insertions++;
+		insertFixup(node);
+	}
+	
+	/**
+	 * Delete a value bottom-up: unlink it like an ordinary BST, then restore the black heights upwards.
+	 * @param value the value to be deleted.
+	 */
+	private void deleteBottomUp(int value) {
+		Node node = root;
+		while (node != null && node.value != value) node = (value < node.value) ? node.left : node.right;
+		if (node == null) {
+			System.out.println("Cannot find node with value " + value + " to delete");
+			return;
+		}
+		size--;
+		removals++;
+		deletions++;
+		
+		// a node with 2 children takes its successor's value, and the successor is removed instead
+		if (node.left != null && node.right != null) {
+			Node successor = node.right;
+			while (successor.left != null) successor = successor.left;
+			node.value = successor.value;
+			writes++;
+			node = successor;
+		}
+		Node child = (node.left != null) ? node.left : node.right, parent = node.p;
+		if (child != null) {
+			child.p = parent;
+			writes++;
+		}
+		if (parent == null) root = child;
+		else {
+			if (node == parent.left) parent.left = child;
+			else parent.right = child;
+			writes++;
+		}
+		if (node.color == Node.BLACK) deleteFixup(child, parent);
+		recycle(node);
+	}
+	
+	/**
+	 * Restore the black heights after a black node was removed from under the specified parent.
+	 * @param current the node that took the removed node's place, possibly <tt>null</tt>.
+	 * @param parent the parent of <tt>current</tt>.
+	 */
+	private void deleteFixup(Node current, Node parent) {
+		while (current != root && getColor(current) == Node.BLACK) {
+			// current is short one black node, so its sibling has a black node to spare
+			boolean left = (current == parent.left);
+			Node sibling = left ? parent.right : parent.left;
+			if (getColor(sibling) == Node.RED) {
+				paint(sibling, Node.BLACK);
+				paint(parent, Node.RED);
+				if (left) rotateLeft(parent);
+				else rotateRight(parent);
+				deleteRotations++;
+				sibling = left ? parent.right : parent.left;
+			}
+			Node outerChild = left ? sibling.right : sibling.left;
+			Node innerChild = left ? sibling.left : sibling.right;
+			if (getColor(outerChild) == Node.BLACK && getColor(innerChild) == Node.BLACK) {
+				paint(sibling, Node.RED);
+				current = parent;
+				parent = current.p;
+				continue;
+			}
+			if (getColor(outerChild) == Node.BLACK) {
+				// move the inner red child to the outside
+				paint(innerChild, Node.BLACK);
+				paint(sibling, Node.RED);
+				if (left) rotateRight(sibling);
+				else rotateLeft(sibling);
+				deleteRotations++;
+				outerChild = sibling;
+				sibling = innerChild;
+			}
+			paint(sibling, parent.color);
+			paint(parent, Node.BLACK);
+			paint(outerChild, Node.BLACK);
+			if (left) rotateLeft(parent);
+			else rotateRight(parent);
+			deleteRotations++;
+			current = root;
+		}
+		if (current != null) paint(current, Node.BLACK);
+	}
+	
+	/*****************************************************
+	 * 	============== FINGER SEARCH =====================
+	 * 
+	 * A cursor remembers the last node it visited (the finger).
+	 * To find value V from the finger F, climb from F until V is
+	 * inside the range of values of the current subtree, then
+	 * search down from there. Using the parent pointers, this
+	 * costs time logarithmic in the number of values between V
+	 * and F rather than in the size of the tree.
+	 * 
+	 * A cursor inserts bottom-up: the new red node is attached
+	 * where the search ended, then red uncles are color flipped
+	 * moving up the tree until a single or double rotation (the
+	 * same one the top-down insertion uses) fixes the violation.
+	 * 
+	 *****************************************************/
+	
+	/**
+	 * Get a new cursor on the tree, positioned before the first seek at the root.
+	 * @return the cursor.
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+	
+	/**
+	 * A finger into the tree for workloads where each value is close to the previous one.
+	 * A deletion from the tree resets every cursor to the root.
+	 */
+	public class Cursor {
+		private Node node;
+		private int expectedRemovals = removals;
+		
+		/**
+		 * Move the cursor to the node with the specified value, or to the node
+		 * where a search for the value ends if there is none.
+		 * @param value the specified value.
+		 * @return <tt>true</tt> if the value is in the tree.
+		 */
+		public boolean seek(int value) {
+			node = locate(value);
+			return node != null && node.value == value;
+		}
+		
+		/**
+		 * Insert the specified value, searching from the cursor, and move the cursor to its node.
+		 * @param value the specified value.
+		 * @return <tt>false</tt> if the value was already in the tree.
+		 */
+		public boolean insert(int value) {
+			Node parent = locate(value);
+			if (parent != null && parent.value == value) {
+				node = parent;
+				return false;
+			}
+			node = newNode(value);
+			node.p = parent;
+			if (parent == null) root = node;
+			else if (value < parent.value) parent.left = node;
+			else parent.right = node;
+			if (parent != null) writes++;
+			size++;
+			insertions++;
+			insertFixup(node);
+			return true;
+		}
+		
+		/**
+		 * Get the value at the cursor.
+		 * @return the value.
+		 * @throws IllegalStateException if the cursor is not on a node.
+		 */
+		public int value() {
+			if (current() == null) throw new IllegalStateException("cursor is not on a node");
+			return node.value;
+		}
+		
+		/**
+		 * Check whether there is a larger value than the one at the cursor.
+		 * @return <tt>true</tt> if there is a successor.
+		 */
+		public boolean hasNext() {
+			return current() != null && successor(node) != null;
+		}
+		
+		/**
+		 * Move the cursor to the next larger value.
+		 * @return the value.
+		 * @throws NoSuchElementException if there is no larger value.
+		 */
+		public int next() {
+			Node next = (current() == null) ? null : successor(node);
+			if (next == null) throw new NoSuchElementException();
+			node = next;
+			return node.value;
+		}
+		
+		/**
+		 * Check whether there is a smaller value than the one at the cursor.
+		 * @return <tt>true</tt> if there is a predecessor.
+		 */
+		public boolean hasPrevious() {
+			return current() != null && predecessor(node) != null;
+		}
+		
+		/**
+		 * Move the cursor to the next smaller value.
+		 * @return the value.
+		 * @throws NoSuchElementException if there is no smaller value.
+		 */
+		public int previous() {
+			Node previous = (current() == null) ? null : predecessor(node);
+			if (previous == null) throw new NoSuchElementException();
+			node = previous;
+			return node.value;
+		}
+		
+		/**
+		 * Get the node at the cursor, forgetting it if the tree has had deletions since.
+		 * @return the node, or <tt>null</tt>.
+		 */
+		private Node current() {
+			if (expectedRemovals != removals) {
+				expectedRemovals = removals;
+				node = null;
+			}
+			return node;
+		}
+		
+		/**
+		 * Find the node with the specified value, starting from the cursor.
+		 * @param value the specified value.
+		 * @return the node with the value, or the last node on the search path, or <tt>null</tt> if the tree is empty.
+		 */
+		private Node locate(int value) {
+			Node x = current();
+			if (x == null) x = root;
+			if (x == null) return null;
+			
+			// climb until value is inside the range of x's subtree
+			while (x.value != value) {
+				Node bound = x;
+				if (value > x.value) {
+					// the upper bound of x's subtree is the first ancestor holding it on the left
+					while (bound.p != null && bound == bound.p.right) bound = bound.p;
+					if (bound.p == null || value < bound.p.value) break;
+				}
+				else {
+					// the lower bound of x's subtree is the first ancestor holding it on the right
+					while (bound.p != null && bound == bound.p.left) bound = bound.p;
+					if (bound.p == null || value > bound.p.value) break;
+				}
+				x = bound.p;
+			}
+			
+			// search down
+			while (x.value != value) {
+				Node next = (value < x.value) ? x.left : x.right;
+				if (next == null) break;
+				x = next;
+			}
+			return x;
+		}
+	}
+	
+	/**
+	 * Restore the red black properties after a red leaf has been attached to the tree.
+	 * @param current the new node.
+	 */
+	private void insertFixup(Node current) {
+		while (getColor(current.p) == Node.RED) {
+			// a red parent is never the root, so the grandparent exists
+			Node parent = current.p, grandparent = parent.p;
+			Node uncle = (parent == grandparent.left) ? grandparent.right : grandparent.left;
+			if (getColor(uncle) == Node.RED) {
+				// color flip and continue from the grandparent
+				paint(grandparent, Node.RED);
+				paint(parent, Node.BLACK);
+				paint(uncle, Node.BLACK);
+				current = grandparent;
+			}
+			else {
+				rotation(current, INSERTION);
+				break;
+			}
+		}
+		paint(root, Node.BLACK);
+	}
+	
+	/**
+	 * Get the node with the next larger value.
+	 * @param node the node.
+	 * @return the successor, or <tt>null</tt> if the node has the largest value.
+	 */
+	private Node successor(Node node) {
+		if (node.right != null) {
+			node = node.right;
+			while (node.left != null) node = node.left;
+			return node;
+		}
+		while (node.p != null && node == node.p.right) node = node.p;
+		return node.p;
+	}
+	
+	/**
+	 * Get the node with the next smaller value.
+	 * @param node the node.
+	 * @return the predecessor, or <tt>null</tt> if the node has the smallest value.
+	 */
+	private Node predecessor(Node node) {
+		if (node.left != null) {
+			node = node.left;
+			while (node.right != null) node = node.right;
+			return node;
+		}
+		while (node.p != null && node == node.p.left) node = node.p;
+		return node.p;
+	}
+	
+	/*****************************************************
+	 * 	============== INTEGRITY CHECKS ==================
+	 * 
+	 * Ported from RedBlackBST, plus a check of the parent pointers,
+	 * which only this tree has.
+	 * 
+	 *****************************************************/
+	
+	/**
+	 * Check the integrity of the tree, printing every invariant that does not hold.
+	 * @return <tt>true</tt> if all invariants hold.
+	 */
+	boolean check() {
+		if (!isBST())               System.out.println("Not in symmetric order");
+		if (!isSizeConsistent())    System.out.println("Size not consistent");
+		if (!isParentConsistent())  System.out.println("Parent pointers not consistent");
+		if (!is234())               System.out.println("Not a 2-3-4 tree");
+		if (!isBalanced())          System.out.println("Not balanced");
+		return isBST() && isSizeConsistent() && isParentConsistent() && is234() && isBalanced();
+	}
+	
+	/**
+	 * Check that every value is strictly between the values of its ancestors on either side.
+	 * @return <tt>true</tt> if the tree is in symmetric order.
+	 */
+	boolean isBST() {
+		return isBST(root, Long.MIN_VALUE, Long.MAX_VALUE);
+	}
+	
+	private boolean isBST(Node x, long min, long max) {
+		if (x == null) return true;
+		if (x.value <= min || x.value >= max) return false;
+		return isBST(x.left, min, x.value) && isBST(x.right, x.value, max);
+	}
+	
+	/**
+	 * Check that the size of the tree matches the number of reachable nodes.
+	 * @return <tt>true</tt> if the size is consistent.
+	 */
+	boolean isSizeConsistent() {
+		return size == count(root);
+	}
+	
+	private int count(Node x) {
+		if (x == null) return 0;
+		return 1 + count(x.left) + count(x.right);
+	}
+	
+	/**
+	 * Check that the root has no parent and every other node's parent links down to it.
+	 * @return <tt>true</tt> if the parent pointers are consistent.
+	 */
+	boolean isParentConsistent() {
+		return root == null || (root.p == null && isParentConsistent(root));
+	}
+	
+	private boolean isParentConsistent(Node x) {
+		if (x.left != null && (x.left.p != x || !isParentConsistent(x.left))) return false;
+		if (x.right != null && (x.right.p != x || !isParentConsistent(x.right))) return false;
+		return true;
+	}
+	
+	/**
+	 * Check that the root is black and no red node has a red child.
+	 * @return <tt>true</tt> if the tree is the encoding of a 2-3-4 tree.
+	 */
+	boolean is234() {
+		return getColor(root) == Node.BLACK && is234(root);
+	}
+	
+	private boolean is234(Node x) {
+		if (x == null) return true;
+		if (x.color == Node.RED && (getColor(x.left) == Node.RED || getColor(x.right) == Node.RED))
+			return false;
+		return is234(x.left) && is234(x.right);
+	}
+	
+	/**
+	 * Check that every path from the root to a null link has the same number of black nodes.
+	 * @return <tt>true</tt> if the tree is balanced.
+	 */
+	boolean isBalanced() {
+		int black = 0;
+		for (Node x = root; x != null; x = x.left)
+			if (x.color == Node.BLACK) black++;
+		return isBalanced(root, black);
+	}
+	
+	private boolean isBalanced(Node x, int black) {
+		if (x == null) return black == 0;
+		if (x.color == Node.BLACK) black--;
+		return isBalanced(x.left, black) && isBalanced(x.right, black);
+	}
+	
 	/**
 	 * Insert all elements in an array to the tree.
 	 * @param a the array that contains all the elements to be inserted.
@@ -0,0 +1,209 @@
+import java.util.Iterator;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A differential fuzzer for the red black tree. It runs random sequences of insertions
+ * (from the root, or bottom-up from a cursor) and deletions on an <tt>RBTree</tt> and on a
+ * <tt>TreeSet</tt>, switching the tree between top-down and bottom-up mode now and then.
+ * After every operation it checks that the tree holds the same values as the
+ * <tt>TreeSet</tt> and that every invariant of {@link RBTree#check()} holds. Sequences
+ * are spread over several threads, and the first failing sequence is shrunk to a
+ * minimal one that still fails before it is printed.
+ *
+ * Usage: <tt>java RBTreeFuzzer [sequences] [length] [range] [threads]</tt>
+ * @author HuyNguyen
+ *
+ */
+public class RBTreeFuzzer {
+	// an operation is encoded as value * 4 + its kind
+	static final int INSERT = 0, DELETE = 1, CURSOR_INSERT = 2, MODE = 3;
+
+	public static void main(String[] args) {
+		long sequences = (args.length > 0) ? Long.parseLong(args[0]) : 100000;
+		int length = (args.length > 1) ? Integer.parseInt(args[1]) : 200;
+		int range = (args.length > 2) ? Integer.parseInt(args[2]) : 64;
+		int threads = (args.length > 3) ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+		long start = System.nanoTime();
+		int[] failure = fuzz(sequences, length, range, threads);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		if (failure == null) {
+			System.out.printf("%d sequences of %d operations passed in %.1f s%n", sequences, length, seconds);
+			return;
+		}
+		int[] minimal = shrink(failure);
+		System.out.println("Failing sequence, shrunk from " + failure.length + " to " + minimal.length + " operations:");
+		System.out.println(describe(minimal));
+		System.out.println(run(minimal));
+	}
+
+	/**
+	 * Run random sequences on several threads until one fails or all of them pass.
+	 * Sequence number i is generated from seed i, so any failure can be reproduced.
+	 * @param sequences the number of sequences to run.
+	 * @param length the number of operations in each sequence.
+	 * @param range values are drawn from 0 to range - 1.
+	 * @param threads the number of threads.
+	 * @return a failing sequence, or <tt>null</tt> if every sequence passed.
+	 */
+	static int[] fuzz(final long sequences, final int length, final int range, int threads) {
+		final AtomicLong next = new AtomicLong();
+		final AtomicReference<int[]> failure = new AtomicReference<int[]>();
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			workers[t] = new Thread() {
+				public void run() {
+					for (long seed = next.getAndIncrement(); seed < sequences && failure.get() == null;
+							seed = next.getAndIncrement()) {
+						int[] ops = randomSequence(seed, length, range);
+						if (RBTreeFuzzer.run(ops) != null) failure.compareAndSet(null, ops);
+					}
+				}
+			};
+			workers[t].start();
+		}
+		for (Thread worker : workers) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return failure.get();
+	}
+
+	/**
+	 * Generate a random sequence of operations. Each sequence has its own mix of insertions
+	 * and deletions, so that some trees grow and some stay small. About one operation in
+	 * 20 switches the mode, to bottom-up for an odd value and to top-down for an even one.
+	 * @param seed the random seed.
+	 * @param length the number of operations.
+	 * @param range values are drawn from 0 to range - 1.
+	 * @return the encoded operations.
+	 */
+	static int[] randomSequence(long seed, int length, int range) {
+		Random random = new Random(seed);
+		int insertPercent = 30 + random.nextInt(41);
+		int[] ops = new int[length];
+		for (int i = 0; i < length; i++) {
+			int kind = (random.nextInt(20) == 0) ? MODE
+					: (random.nextInt(100) < insertPercent) ? random.nextInt(2) * CURSOR_INSERT : DELETE;
+			ops[i] = random.nextInt(range) * 4 + kind;
+		}
+		return ops;
+	}
+
+	/**
+	 * Run a sequence of operations on a fresh tree, checking the tree after each one.
+	 * Insertions of values already present and deletions of values not present are skipped,
+	 * since the tree only reports those as errors.
+	 * @param ops the encoded operations.
+	 * @return a description of the first failure, or <tt>null</tt> if the sequence passes.
+	 */
+	static String run(int[] ops) {
+		RBTree tree = new RBTree();
+		RBTree.Cursor cursor = tree.cursor();
+		TreeSet<Integer> oracle = new TreeSet<Integer>();
+		for (int i = 0; i < ops.length; i++) {
+			int value = ops[i] >>> 2;
+			try {
+				if ((ops[i] & 3) == INSERT) {
+					if (!oracle.add(value)) continue;
+					tree.insert(value);
+				}
+				else if ((ops[i] & 3) == CURSOR_INSERT) {
+					if (!oracle.add(value)) continue;
+					if (!cursor.insert(value)) return "after operation " + i + ": cursor found " + value;
+				}
+				else if ((ops[i] & 3) == MODE) {
+					tree.setBottomUp((value & 1) == 1);
+					continue;
+				}
+				else {
+					if (!oracle.remove(value)) continue;
+					tree.delete(value);
+				}
+				String problem = compare(tree, oracle);
+				if (problem != null) return "after operation " + i + ": " + problem;
+			} catch (RuntimeException e) {
+				return "after operation " + i + ": " + e;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Compare a tree with the set it should hold and check the tree's invariants.
+	 * @param tree the tree.
+	 * @param oracle the values the tree should hold.
+	 * @return a description of the first difference, or <tt>null</tt> if there is none.
+	 */
+	static String compare(RBTree tree, TreeSet<Integer> oracle) {
+		if (!tree.isBST()) return "not in symmetric order";
+		if (!tree.isParentConsistent()) return "parent pointers not consistent";
+		if (!tree.isSizeConsistent()) return "size not consistent";
+		if (tree.size() != oracle.size()) return "size " + tree.size() + ", expected " + oracle.size();
+		if (!tree.is234()) return "red node with a red child, or red root";
+		if (!tree.isBalanced()) return "black heights differ";
+		if (tree.root() == null) return null;
+
+		final Iterator<Integer> expected = oracle.iterator();
+		final StringBuilder problem = new StringBuilder();
+		tree.root().traverseInorder(new Node.Visitor() {
+			public void visit(Node node) {
+				int value = expected.next();
+				if (problem.length() == 0 && node.value() != value)
+					problem.append("found " + node.value() + ", expected " + value);
+			}
+		});
+		return (problem.length() == 0) ? null : problem.toString();
+	}
+
+	/**
+	 * Shrink a failing sequence by removing chunks of operations, halving the chunk size
+	 * whenever no chunk can be removed, until no single operation can be removed.
+	 * @param ops a failing sequence.
+	 * @return a minimal failing sequence.
+	 */
+	static int[] shrink(int[] ops) {
+		for (int chunk = ops.length / 2; chunk >= 1; ) {
+			boolean removed = false;
+			for (int start = 0; start < ops.length; ) {
+				int end = Math.min(start + chunk, ops.length);
+				int[] candidate = new int[ops.length - (end - start)];
+				System.arraycopy(ops, 0, candidate, 0, start);
+				System.arraycopy(ops, end, candidate, start, ops.length - end);
+				if (run(candidate) != null) {
+					ops = candidate;
+					removed = true;
+				}
+				else start = end;
+			}
+			if (!removed) chunk /= 2;
+		}
+		return ops;
+	}
+
+	/**
+	 * Describe a sequence of operations as the calls that reproduce it.
+	 * @param ops the encoded operations.
+	 * @return one call per line.
+	 */
+	static String describe(int[] ops) {
+		StringBuilder s = new StringBuilder();
+		for (int op : ops) {
+			if ((op & 3) == INSERT) s.append("tree.insert(");
+			else if ((op & 3) == CURSOR_INSERT) s.append("cursor.insert(");
+			else if ((op & 3) == MODE) {
+				s.append("tree.setBottomUp(").append((op & 4) != 0).append(");\n");
+				continue;
+			}
+			else s.append("tree.delete(");
+			s.append(op >>> 2).append(");\n");
+		}
+		return s.toString();
+	}
+}
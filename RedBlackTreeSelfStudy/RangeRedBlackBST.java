@@ -0,0 +1,642 @@
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+
+/**
+ *  The <tt>RangeRedBlackBST</tt> class represents an ordered symbol table
+ *  of generic keys and <tt>long</tt> values that can update a whole key range
+ *  at once.
+ *  It supports <em>put</em>, <em>get</em>, <em>contains</em>, <em>delete</em>,
+ *  <em>size</em>, <em>min</em>, <em>max</em> and range <em>keys</em>, plus
+ *  <em>add-to-range</em>, which adds a delta to every value in a key range,
+ *  <em>assign-range</em>, which sets every value in a key range, and the
+ *  <em>range-sum</em> and <em>range-max</em> queries.
+ *  <p>
+ *  This implementation is the left-leaning red-black BST of {@link RedBlackBST}.
+ *  Each node also stores the sum and the maximum of the values in its subtree,
+ *  maintained by the rotations and by <em>balance</em> in the same way as the
+ *  subtree count. A range update changes the values of the nodes on the two
+ *  search paths to the ends of the range, and tags the roots of the subtrees
+ *  that lie wholly inside it instead of visiting them. A tag is an optional
+ *  assignment followed by an addition. The node's own value and aggregates
+ *  already include it, and it is pending for its children. Every operation
+ *  pushes the tags down one level at a time on the way down, before it reads
+ *  or restructures a node's children. So all of the operations, range updates
+ *  and range queries included, take logarithmic time in the worst case.
+ *  <p>
+ *  Arithmetic on values and sums wraps around on overflow, like <tt>long</tt>
+ *  arithmetic in Java.
+ */
+public class RangeRedBlackBST<Key extends Comparable<Key>> {
+
+    private static final boolean RED   = true;
+    private static final boolean BLACK = false;
+
+    private Node root;     // root of the BST
+
+    // BST helper node data type
+    private class Node {
+        private Key key;           // key
+        private long val;          // associated data
+        private Node left, right;  // links to left and right subtrees
+        private boolean color;     // color of parent link
+        private int N;             // subtree count
+        private long sum, max;     // sum and maximum of the values in subtree
+        private boolean assigned;  // whether the pending tag assigns
+        private long assign, add;  // pending tag for the children
+
+        public Node(Key key, long val, boolean color, int N) {
+            this.key = key;
+            this.val = val;
+            this.color = color;
+            this.N = N;
+            this.sum = val;
+            this.max = val;
+        }
+    }
+
+    /**
+     * Initializes an empty symbol table.
+     */
+    public RangeRedBlackBST() {
+    }
+
+   /***************************************************************************
+    *  Node helper methods.
+    ***************************************************************************/
+    // is node x red; false if x is null ?
+    private boolean isRed(Node x) {
+        if (x == null) return false;
+        return x.color == RED;
+    }
+
+    // number of node in subtree rooted at x; 0 if x is null
+    private int size(Node x) {
+        if (x == null) return 0;
+        return x.N;
+    }
+
+    // sum of the values in subtree rooted at x; 0 if x is null
+    private long sum(Node x) {
+        if (x == null) return 0;
+        return x.sum;
+    }
+
+    // largest value in subtree rooted at x; Long.MIN_VALUE if x is null
+    private long max(Node x) {
+        if (x == null) return Long.MIN_VALUE;
+        return x.max;
+    }
+
+    // recompute the subtree count, sum and maximum of h from its children;
+    // h must have no pending tag
+    private void update(Node h) {
+        h.N = size(h.left) + size(h.right) + 1;
+        h.sum = h.val + sum(h.left) + sum(h.right);
+        h.max = Math.max(h.val, Math.max(max(h.left), max(h.right)));
+    }
+
+    // apply a tag to every value in subtree x: set them to value if assign,
+    // or add value to them otherwise
+    private void apply(Node x, boolean assign, long value) {
+        if (x == null) return;
+        if (assign) {
+            x.val = value;
+            x.sum = value * x.N;
+            x.max = value;
+            x.assigned = true;
+            x.assign = value;
+            x.add = 0;
+        }
+        else {
+            x.val += value;
+            x.sum += value * x.N;
+            x.max += value;
+            x.add += value;
+        }
+    }
+
+    // pass the pending tag of x on to its children
+    private void push(Node x) {
+        if (x.assigned) {
+            apply(x.left,  true, x.assign);
+            apply(x.right, true, x.assign);
+            x.assigned = false;
+        }
+        if (x.add != 0) {
+            apply(x.left,  false, x.add);
+            apply(x.right, false, x.add);
+            x.add = 0;
+        }
+    }
+
+    /**
+     * Returns the number of key-value pairs in this symbol table.
+     * @return the number of key-value pairs in this symbol table
+     */
+    public int size() {
+        return size(root);
+    }
+
+   /**
+     * Is this symbol table empty?
+     * @return <tt>true</tt> if this symbol table is empty and <tt>false</tt> otherwise
+     */
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+
+   /***************************************************************************
+    *  Standard BST search.
+    ***************************************************************************/
+
+    /**
+     * Returns the value associated with the given key.
+     * @param key the key
+     * @return the value associated with the given key if the key is in the symbol table
+     *     and <tt>null</tt> if the key is not in the symbol table
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public Long get(Key key) {
+        Node x = root;
+        while (x != null) {
+            int cmp = key.compareTo(x.key);
+            if (cmp == 0) return x.val;
+            push(x);
+            x = (cmp < 0) ? x.left : x.right;
+        }
+        return null;
+    }
+
+    /**
+     * Does this symbol table contain the given key?
+     * @param key the key
+     * @return <tt>true</tt> if this symbol table contains <tt>key</tt> and
+     *     <tt>false</tt> otherwise
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public boolean contains(Key key) {
+        Node x = root;
+        while (x != null) {
+            int cmp = key.compareTo(x.key);
+            if      (cmp < 0) x = x.left;
+            else if (cmp > 0) x = x.right;
+            else              return true;
+        }
+        return false;
+    }
+
+   /***************************************************************************
+    *  Red-black tree insertion.
+    ***************************************************************************/
+
+    /**
+     * Inserts the key-value pair into the symbol table, overwriting the old value
+     * with the new value if the key is already in the symbol table.
+     * @param key the key
+     * @param val the value
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public void put(Key key, long val) {
+        root = put(root, key, val);
+        root.color = BLACK;
+        // assert check();
+    }
+
+    // insert the key-value pair in the subtree rooted at h
+    private Node put(Node h, Key key, long val) {
+        if (h == null) return new Node(key, val, RED, 1);
+
+        push(h);
+        int cmp = key.compareTo(h.key);
+        if      (cmp < 0) h.left  = put(h.left,  key, val);
+        else if (cmp > 0) h.right = put(h.right, key, val);
+        else              h.val   = val;
+
+        // fix-up any right-leaning links
+        if (isRed(h.right) && !isRed(h.left))      h = rotateLeft(h);
+        if (isRed(h.left)  &&  isRed(h.left.left)) h = rotateRight(h);
+        if (isRed(h.left)  &&  isRed(h.right))     flipColors(h);
+        update(h);
+
+        return h;
+    }
+
+   /***************************************************************************
+    *  Red-black tree deletion.
+    ***************************************************************************/
+
+    /**
+     * Removes the smallest key and associated value from the symbol table.
+     * @throws NoSuchElementException if the symbol table is empty
+     */
+    public void deleteMin() {
+        if (isEmpty()) throw new NoSuchElementException("BST underflow");
+
+        // if both children of root are black, set root to red
+        if (!isRed(root.left) && !isRed(root.right))
+            root.color = RED;
+
+        root = deleteMin(root);
+        if (!isEmpty()) root.color = BLACK;
+        // assert check();
+    }
+
+    // delete the key-value pair with the minimum key rooted at h
+    private Node deleteMin(Node h) {
+        if (h.left == null)
+            return null;
+
+        push(h);
+        if (!isRed(h.left) && !isRed(h.left.left))
+            h = moveRedLeft(h);
+
+        h.left = deleteMin(h.left);
+        return balance(h);
+    }
+
+    /**
+     * Removes the specified key and its associated value from this symbol table
+     * (if the key is in this symbol table).
+     * @param key the key
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public void delete(Key key) {
+        if (!contains(key)) return;
+
+        // if both children of root are black, set root to red
+        if (!isRed(root.left) && !isRed(root.right))
+            root.color = RED;
+
+        root = delete(root, key);
+        if (!isEmpty()) root.color = BLACK;
+        // assert check();
+    }
+
+    // delete the key-value pair with the given key rooted at h
+    private Node delete(Node h, Key key) {
+        push(h);
+        if (key.compareTo(h.key) < 0)  {
+            if (!isRed(h.left) && !isRed(h.left.left))
+                h = moveRedLeft(h);
+            h.left = delete(h.left, key);
+        }
+        else {
+            if (isRed(h.left))
+                h = rotateRight(h);
+            if (key.compareTo(h.key) == 0 && (h.right == null))
+                return null;
+            if (!isRed(h.right) && !isRed(h.right.left))
+                h = moveRedRight(h);
+            if (key.compareTo(h.key) == 0) {
+                Node x = min(h.right);
+                h.key = x.key;
+                h.val = x.val;
+                h.right = deleteMin(h.right);
+            }
+            else h.right = delete(h.right, key);
+        }
+        return balance(h);
+    }
+
+   /***************************************************************************
+    *  Red-black tree helper functions.
+    ***************************************************************************/
+
+    // make a left-leaning link lean to the right
+    private Node rotateRight(Node h) {
+        Node x = h.left;
+        push(h);
+        push(x);
+        h.left = x.right;
+        x.right = h;
+        x.color = x.right.color;
+        x.right.color = RED;
+        x.N = h.N;
+        x.sum = h.sum;
+        x.max = h.max;
+        update(h);
+        return x;
+    }
+
+    // make a right-leaning link lean to the left
+    private Node rotateLeft(Node h) {
+        Node x = h.right;
+        push(h);
+        push(x);
+        h.right = x.left;
+        x.left = h;
+        x.color = x.left.color;
+        x.left.color = RED;
+        x.N = h.N;
+        x.sum = h.sum;
+        x.max = h.max;
+        update(h);
+        return x;
+    }
+
+    // flip the colors of a node and its two children
+    private void flipColors(Node h) {
+        h.color = !h.color;
+        h.left.color = !h.left.color;
+        h.right.color = !h.right.color;
+    }
+
+    // Assuming that h is red and both h.left and h.left.left
+    // are black, make h.left or one of its children red.
+    private Node moveRedLeft(Node h) {
+        flipColors(h);
+        if (isRed(h.right.left)) {
+            h.right = rotateRight(h.right);
+            h = rotateLeft(h);
+            flipColors(h);
+        }
+        return h;
+    }
+
+    // Assuming that h is red and both h.right and h.right.left
+    // are black, make h.right or one of its children red.
+    private Node moveRedRight(Node h) {
+        flipColors(h);
+        if (isRed(h.left.left)) {
+            h = rotateRight(h);
+            flipColors(h);
+        }
+        return h;
+    }
+
+    // restore red-black tree invariant
+    private Node balance(Node h) {
+        if (isRed(h.right))                      h = rotateLeft(h);
+        if (isRed(h.left) && isRed(h.left.left)) h = rotateRight(h);
+        if (isRed(h.left) && isRed(h.right))     flipColors(h);
+
+        update(h);
+        return h;
+    }
+
+   /***************************************************************************
+    *  Ordered symbol table methods.
+    ***************************************************************************/
+
+    /**
+     * Returns the smallest key in the symbol table.
+     * @return the smallest key in the symbol table
+     * @throws NoSuchElementException if the symbol table is empty
+     */
+    public Key min() {
+        if (isEmpty()) throw new NoSuchElementException("called min() with empty symbol table");
+        return min(root).key;
+    }
+
+    // the smallest key in subtree rooted at x, with the tags above it pushed down
+    private Node min(Node x) {
+        while (x.left != null) {
+            push(x);
+            x = x.left;
+        }
+        return x;
+    }
+
+    /**
+     * Returns the largest key in the symbol table.
+     * @return the largest key in the symbol table
+     * @throws NoSuchElementException if the symbol table is empty
+     */
+    public Key max() {
+        if (isEmpty()) throw new NoSuchElementException("called max() with empty symbol table");
+        Node x = root;
+        while (x.right != null) x = x.right;
+        return x.key;
+    }
+
+    /**
+     * Returns the keys between <tt>lo</tt> and <tt>hi</tt>, both inclusive,
+     * in order, as an <tt>Iterable</tt>.
+     * @param lo the smallest key of the range
+     * @param hi the largest key of the range
+     * @return the keys in the range as an <tt>Iterable</tt>
+     * @throws NullPointerException if <tt>lo</tt> or <tt>hi</tt> is <tt>null</tt>
+     */
+    public Iterable<Key> keys(Key lo, Key hi) {
+        ArrayList<Key> list = new ArrayList<Key>();
+        keys(root, lo, hi, list);
+        return list;
+    }
+
+    // add the keys between lo and hi in the subtree rooted at x to the list
+    private void keys(Node x, Key lo, Key hi, ArrayList<Key> list) {
+        if (x == null) return;
+        int cmplo = lo.compareTo(x.key);
+        int cmphi = hi.compareTo(x.key);
+        if (cmplo < 0) keys(x.left, lo, hi, list);
+        if (cmplo <= 0 && cmphi >= 0) list.add(x.key);
+        if (cmphi > 0) keys(x.right, lo, hi, list);
+    }
+
+   /***************************************************************************
+    *  Range updates and range queries.
+    ***************************************************************************/
+
+    /**
+     * Adds <tt>delta</tt> to the value of every key between <tt>lo</tt> and
+     * <tt>hi</tt>, both inclusive.
+     * @param lo the smallest key of the range
+     * @param hi the largest key of the range
+     * @param delta the amount to add
+     * @throws NullPointerException if <tt>lo</tt> or <tt>hi</tt> is <tt>null</tt>
+     */
+    public void addToRange(Key lo, Key hi, long delta) {
+        if (lo.compareTo(hi) > 0) return;
+        applyRange(root, lo, hi, false, delta);
+    }
+
+    /**
+     * Sets the value of every key between <tt>lo</tt> and <tt>hi</tt>, both
+     * inclusive, to <tt>value</tt>.
+     * @param lo the smallest key of the range
+     * @param hi the largest key of the range
+     * @param value the new value
+     * @throws NullPointerException if <tt>lo</tt> or <tt>hi</tt> is <tt>null</tt>
+     */
+    public void assignRange(Key lo, Key hi, long value) {
+        if (lo.compareTo(hi) > 0) return;
+        applyRange(root, lo, hi, true, value);
+    }
+
+    // apply a tag to the keys of subtree x between lo and hi;
+    // a null bound is unbounded, since the subtree is known to be within it
+    private void applyRange(Node x, Key lo, Key hi, boolean assign, long value) {
+        if (x == null) return;
+        if (lo == null && hi == null) {
+            apply(x, assign, value);
+            return;
+        }
+        push(x);
+        if      (lo != null && x.key.compareTo(lo) < 0) applyRange(x.right, lo, hi, assign, value);
+        else if (hi != null && x.key.compareTo(hi) > 0) applyRange(x.left,  lo, hi, assign, value);
+        else {
+            // x is in the range, so the range covers its left subtree up to
+            // lo and its right subtree up to hi
+            x.val = assign ? value : x.val + value;
+            applyRange(x.left,  lo, null, assign, value);
+            applyRange(x.right, null, hi, assign, value);
+        }
+        update(x);
+    }
+
+    /**
+     * Returns the sum of the values of the keys between <tt>lo</tt> and
+     * <tt>hi</tt>, both inclusive.
+     * @param lo the smallest key of the range
+     * @param hi the largest key of the range
+     * @return the sum of the values in the range; 0 if the range is empty
+     * @throws NullPointerException if <tt>lo</tt> or <tt>hi</tt> is <tt>null</tt>
+     */
+    public long rangeSum(Key lo, Key hi) {
+        if (lo.compareTo(hi) > 0) return 0;
+        return rangeSum(root, lo, hi);
+    }
+
+    // sum of the values of the keys of subtree x between lo and hi; a null bound is unbounded
+    private long rangeSum(Node x, Key lo, Key hi) {
+        if (x == null) return 0;
+        if (lo == null && hi == null) return x.sum;
+        push(x);
+        if (lo != null && x.key.compareTo(lo) < 0) return rangeSum(x.right, lo, hi);
+        if (hi != null && x.key.compareTo(hi) > 0) return rangeSum(x.left,  lo, hi);
+        return rangeSum(x.left, lo, null) + x.val + rangeSum(x.right, null, hi);
+    }
+
+    /**
+     * Returns the largest value of the keys between <tt>lo</tt> and
+     * <tt>hi</tt>, both inclusive.
+     * @param lo the smallest key of the range
+     * @param hi the largest key of the range
+     * @return the largest value in the range
+     * @throws NoSuchElementException if no key is in the range
+     * @throws NullPointerException if <tt>lo</tt> or <tt>hi</tt> is <tt>null</tt>
+     */
+    public long rangeMax(Key lo, Key hi) {
+        if (lo.compareTo(hi) > 0 || !hasKey(root, lo, hi))
+            throw new NoSuchElementException("no key between " + lo + " and " + hi);
+        return rangeMax(root, lo, hi);
+    }
+
+    // is any key of subtree x between lo and hi?
+    private boolean hasKey(Node x, Key lo, Key hi) {
+        while (x != null) {
+            if      (x.key.compareTo(lo) < 0) x = x.right;
+            else if (x.key.compareTo(hi) > 0) x = x.left;
+            else                              return true;
+        }
+        return false;
+    }
+
+    // largest value of the keys of subtree x between lo and hi; a null bound is unbounded
+    private long rangeMax(Node x, Key lo, Key hi) {
+        if (x == null) return Long.MIN_VALUE;
+        if (lo == null && hi == null) return x.max;
+        push(x);
+        if (lo != null && x.key.compareTo(lo) < 0) return rangeMax(x.right, lo, hi);
+        if (hi != null && x.key.compareTo(hi) > 0) return rangeMax(x.left,  lo, hi);
+        return Math.max(x.val, Math.max(rangeMax(x.left, lo, null), rangeMax(x.right, null, hi)));
+    }
+
+
+   /***************************************************************************
+    *  Check integrity of red-black tree data structure.
+    ***************************************************************************/
+    private boolean check() {
+        pushAll(root);
+        if (!isBST())                 System.out.println("Not in symmetric order");
+        if (!isSizeConsistent())      System.out.println("Subtree counts not consistent");
+        if (!isAggregateConsistent()) System.out.println("Subtree sums or maximums not consistent");
+        if (!is23())                  System.out.println("Not a 2-3 tree");
+        if (!isBalanced())            System.out.println("Not balanced");
+        return isBST() && isSizeConsistent() && isAggregateConsistent() && is23() && isBalanced();
+    }
+
+    // push every pending tag down to the leaves
+    private void pushAll(Node x) {
+        if (x == null) return;
+        push(x);
+        pushAll(x.left);
+        pushAll(x.right);
+    }
+
+    // does this binary tree satisfy symmetric order?
+    private boolean isBST() {
+        return isBST(root, null, null);
+    }
+
+    // is the tree rooted at x a BST with all keys strictly between min and max
+    private boolean isBST(Node x, Key min, Key max) {
+        if (x == null) return true;
+        if (min != null && x.key.compareTo(min) <= 0) return false;
+        if (max != null && x.key.compareTo(max) >= 0) return false;
+        return isBST(x.left, min, x.key) && isBST(x.right, x.key, max);
+    }
+
+    // are the size fields correct?
+    private boolean isSizeConsistent() { return isSizeConsistent(root); }
+    private boolean isSizeConsistent(Node x) {
+        if (x == null) return true;
+        if (x.N != size(x.left) + size(x.right) + 1) return false;
+        return isSizeConsistent(x.left) && isSizeConsistent(x.right);
+    }
+
+    // are the sum and max fields correct, once every tag is pushed down?
+    private boolean isAggregateConsistent() { return isAggregateConsistent(root); }
+    private boolean isAggregateConsistent(Node x) {
+        if (x == null) return true;
+        if (x.sum != x.val + sum(x.left) + sum(x.right)) return false;
+        if (x.max != Math.max(x.val, Math.max(max(x.left), max(x.right)))) return false;
+        return isAggregateConsistent(x.left) && isAggregateConsistent(x.right);
+    }
+
+    // Does the tree have no red right links, and at most one (left)
+    // red links in a row on any path?
+    private boolean is23() { return is23(root); }
+    private boolean is23(Node x) {
+        if (x == null) return true;
+        if (isRed(x.right)) return false;
+        if (x != root && isRed(x) && isRed(x.left))
+            return false;
+        return is23(x.left) && is23(x.right);
+    }
+
+    // do all paths from root to leaf have same number of black edges?
+    private boolean isBalanced() {
+        int black = 0;     // number of black links on path from root to min
+        Node x = root;
+        while (x != null) {
+            if (!isRed(x)) black++;
+            x = x.left;
+        }
+        return isBalanced(root, black);
+    }
+
+    // does every path from the root to a leaf have the given number of black links?
+    private boolean isBalanced(Node x, int black) {
+        if (x == null) return black == 0;
+        if (!isRed(x)) black--;
+        return isBalanced(x.left, black) && isBalanced(x.right, black);
+    }
+
+
+    /**
+     * Unit tests the <tt>RangeRedBlackBST</tt> data type.
+     */
+    public static void main(String[] args) {
+        RangeRedBlackBST<Integer> st = new RangeRedBlackBST<Integer>();
+        for (int i = 0; i < 10; i++) st.put(i, i);
+        st.addToRange(2, 5, 10);
+        st.assignRange(4, 7, 1);
+        System.out.print("values:");
+        for (int key : st.keys(0, 9)) System.out.print(" " + st.get(key));
+        System.out.println();
+        System.out.println("sum [0, 9] = " + st.rangeSum(0, 9) + ", max [0, 5] = " + st.rangeMax(0, 5)
+                + ", consistent " + st.check());
+    }
+}
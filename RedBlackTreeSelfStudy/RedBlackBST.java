@@ -21,13 +21,21 @@ import java.util.NoSuchElementException;
  *  This implementation uses a left-leaning red-black BST. It requires that
  *  the key type implements the <tt>Comparable</tt> interface and calls the
  *  <tt>compareTo()</tt> and method to compare two keys. It does not call either
- *  <tt>equals()</tt> or <tt>hashCode()</tt>.
+ *  <tt>equals()</tt> or <tt>hashCode()</tt>, unless built with the hash index.
  *  The <em>put</em>, <em>contains</em>, <em>remove</em>, <em>minimum</em>,
  *  <em>maximum</em>, <em>ceiling</em>, and <em>floor</em> operations each take
  *  logarithmic time in the worst case, if the tree becomes unbalanced.
  *  The <em>size</em>, and <em>is-empty</em> operations take constant time.
  *  Construction takes constant time.
  *  <p>
+ *  A table built with {@link #RedBlackBST(boolean)} also keeps a hash index
+ *  from each key to its node, so <em>get</em> and <em>contains</em> take
+ *  constant expected time. The ordered methods still use the tree. Such a
+ *  table calls <tt>hashCode()</tt>, which must agree with <tt>compareTo()</tt>.
+ *  It gives up logarithmic eviction, though: every evicted key must also be
+ *  removed from the index, so {@link #evictBefore} takes time proportional to
+ *  the number of keys it removes.
+ *  <p>
  *  For additional documentation, see <a href="http://algs4.cs.princeton.edu/33balanced">Section 3.3</a> of
  *  <i>Algorithms, 4th Edition</i> by Robert Sedgewick and Kevin Wayne.
  *  For other implementations, see {@link ST}, {@link BinarySearchST},
@@ -40,9 +48,22 @@ public class RedBlackBST<Key extends Comparable<Key>, Value> {
 
     private static final boolean RED   = true;
     private static final boolean BLACK = false;
+    private static final int GROUP = 16;   // descents interleaved by getAll
 
     private Node root;     // root of the BST
 
+    // structure statistics, kept up to date by every update
+    private int reds;            // number of red nodes
+    private int blackHeight;     // number of black nodes on every path from the root to a null link
+    private long rotations;      // rotations so far
+    private long updates;        // puts, deletions and evictions so far
+    private int validateNext;    // rank of the next node validate() checks
+
+    // hash index from key to node, open addressing with linear probing; null unless enabled
+    private Node[] slots;
+    private int[] hashes;        // spread hash code of the key in each slot
+    private int indexed;         // number of full slots
+
     // BST helper node data type
     private class Node {
         private Key key;           // key
@@ -50,12 +71,14 @@ public class RedBlackBST<Key extends Comparable<Key>, Value> {
         private Node left, right;  // links to left and right subtrees
         private boolean color;     // color of parent link
         private int N;             // subtree count
+        private int R;             // red nodes in subtree
 
         public Node(Key key, Value val, boolean color, int N) {
             this.key = key;
             this.val = val;
             this.color = color;
             this.N = N;
+            this.R = (color == RED) ? 1 : 0;
         }
         
         public void traversal(Node parent){
@@ -71,6 +94,73 @@ public class RedBlackBST<Key extends Comparable<Key>, Value> {
     public RedBlackBST() {
     }
 
+    /**
+     * Initializes an empty symbol table, with or without a hash index for
+     * point lookups. The index is kept at most half full and costs 16 to 32
+     * bytes per key. With the index, eviction takes linear time in the number
+     * of keys evicted.
+     * @param hashIndex whether to keep the hash index
+     */
+    public RedBlackBST(boolean hashIndex) {
+        if (hashIndex) clearIndex();
+    }
+
+    /**
+     * Initializes a symbol table holding <tt>keys[lo]</tt> to <tt>keys[hi - 1]</tt>
+     * with their values, built bottom-up in linear time instead of by one
+     * <em>put</em> per key.
+     * @param keys the keys, in strictly increasing order from <tt>lo</tt> to <tt>hi</tt>
+     * @param vals <tt>vals[i]</tt> is the value associated with <tt>keys[i]</tt>
+     * @param lo the index of the first key
+     * @param hi one past the index of the last key
+     * @throws IllegalArgumentException if the keys are not strictly increasing
+     *     or a value is <tt>null</tt>
+     */
+    public RedBlackBST(Key[] keys, Value[] vals, int lo, int hi) {
+        for (int i = lo; i < hi; i++) {
+            if (vals[i] == null) throw new IllegalArgumentException("value is null");
+            if (i > lo && keys[i-1].compareTo(keys[i]) >= 0)
+                throw new IllegalArgumentException("keys must be strictly increasing");
+        }
+        // the largest black height such that the keys fill a perfect tree of that height
+        int black = 0;
+        while ((2L << black) - 1 <= hi - lo) black++;
+        root = build(keys, vals, lo, hi, black);
+        blackHeight = black;
+        reds = redsIn(root);
+    }
+
+    // build an LLRB tree of the given black height from keys[lo] to keys[hi - 1];
+    // their number must be between 2^black - 1 and 3^black - 1, the sizes of
+    // the smallest and the largest 2-3 tree of that height
+    private Node build(Key[] keys, Value[] vals, int lo, int hi, int black) {
+        int n = hi - lo;
+        if (n == 0) return null;
+        long largest = 1;   // 3^(black - 1), the largest children fit in
+        for (int i = 1; i < black; i++) largest *= 3;
+        if (n - 1 <= 2 * (largest - 1)) {
+            // a 2-node, with the remaining keys halved
+            int mid = lo + (n - 1) / 2;
+            Node h = new Node(keys[mid], vals[mid], BLACK, 1);
+            h.left  = build(keys, vals, lo, mid, black - 1);
+            h.right = build(keys, vals, mid + 1, hi, black - 1);
+            update(h);
+            return h;
+        }
+        // a 3-node, a black node leaning on a red left child, with the remaining keys in thirds
+        int a = lo + (n - 2) / 3;
+        int b = a + 1 + (n - 2 - (a - lo)) / 2;
+        Node x = new Node(keys[a], vals[a], RED, 1);
+        Node h = new Node(keys[b], vals[b], BLACK, 1);
+        x.left  = build(keys, vals, lo, a, black - 1);
+        x.right = build(keys, vals, a + 1, b, black - 1);
+        h.left  = x;
+        h.right = build(keys, vals, b + 1, hi, black - 1);
+        update(x);
+        update(h);
+        return h;
+    }
+
    /***************************************************************************
     *  Node helper methods.
     ***************************************************************************/
@@ -86,6 +176,36 @@ public class RedBlackBST<Key extends Comparable<Key>, Value> {
         return x.N;
     } 
 
+    // number of red nodes in subtree rooted at x; 0 if x is null
+    private int redsIn(Node x) {
+        if (x == null) return 0;
+        return x.R;
+    }
+
+    // recompute the subtree count and red count of h from its children
+    private void update(Node h) {
+        h.N = size(h.left) + size(h.right) + 1;
+        h.R = redsIn(h.left) + redsIn(h.right) + (isRed(h) ? 1 : 0);
+    }
+
+    // color a red root black, which adds one black node to every path
+    private void blackenRoot() {
+        if (isRed(root)) {
+            root.color = BLACK;
+            root.R--;
+            reds--;
+            blackHeight++;
+        }
+    }
+
+    // color the black root red, which takes one black node off every path
+    private void reddenRoot() {
+        root.color = RED;
+        root.R++;
+        reds++;
+        blackHeight--;
+    }
+
 
     /**
      * Returns the number of key-value pairs in this symbol table.
@@ -116,6 +236,10 @@ public class RedBlackBST<Key extends Comparable<Key>, Value> {
      * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
      */
     public Value get(Key key) {
+        if (slots != null) {
+            Node x = slots[find(key, spread(key.hashCode()))];
+            return (x == null) ? null : x.val;
+        }
         return get(root, key);
     }
 
@@ -141,6 +265,52 @@ public class RedBlackBST<Key extends Comparable<Key>, Value> {
         return get(key) != null;
     }
 
+    /**
+     * Looks up a batch of keys. The keys are searched in groups of 16
+     * descents that advance one level at a time in turn, as in
+     * {@link CompactRedBlackBST#getAll}. The loads of the different descents
+     * do not depend on each other, so the processor can have the cache misses
+     * of a whole group outstanding at once. Calling <tt>get</tt> per key waits
+     * for each miss before it issues the next.
+     * @param keys the keys to look up
+     * @param vals receives the value associated with <tt>keys[i]</tt> in <tt>vals[i]</tt>,
+     *     or <tt>null</tt> if that key is not in the symbol table
+     * @throws IllegalArgumentException if <tt>vals</tt> is shorter than <tt>keys</tt>
+     * @throws NullPointerException if any of the keys is <tt>null</tt>
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void getAll(Key[] keys, Value[] vals) {
+        if (vals.length < keys.length) throw new IllegalArgumentException("vals is shorter than keys");
+        if (slots != null) {
+            for (int i = 0; i < keys.length; i++) vals[i] = get(keys[i]);
+            return;
+        }
+        Node[] node = (Node[]) new RedBlackBST.Node[GROUP];   // current node of each descent; null once it is done
+        for (int base = 0; base < keys.length; base += GROUP) {
+            int g = Math.min(GROUP, keys.length - base);
+            for (int j = 0; j < g; j++) {
+                node[j] = root;
+                vals[base + j] = null;
+            }
+            for (int active = g; active > 0; ) {
+                active = 0;
+                for (int j = 0; j < g; j++) {
+                    Node x = node[j];
+                    if (x == null) continue;
+                    int cmp = keys[base + j].compareTo(x.key);
+                    if      (cmp < 0) x = x.left;
+                    else if (cmp > 0) x = x.right;
+                    else {
+                        vals[base + j] = x.val;
+                        x = null;
+                    }
+                    node[j] = x;
+                    if (x != null) active++;
+                }
+            }
+        }
+    }
+
    /***************************************************************************
     *  Red-black tree insertion.
     ***************************************************************************/
@@ -155,13 +325,19 @@ public class RedBlackBST<Key extends Comparable<Key>, Value> {
      */
     public void put(Key key, Value val) {
         root = put(root, key, val);
-        root.color = BLACK;
+        blackenRoot();
+        updates++;
         // assert check();
     }
 
     // insert the key-value pair in the subtree rooted at h
     private Node put(Node h, Key key, Value val) { 
-        if (h == null) return new Node(key, val, RED, 1);
+        if (h == null) {
+            reds++;
+            Node x = new Node(key, val, RED, 1);
+            if (slots != null) index(x);
+            return x;
+        }
 
         int cmp = key.compareTo(h.key);
         if      (cmp < 0) h.left  = put(h.left,  key, val); 
@@ -172,7 +348,7 @@ public class RedBlackBST<Key extends Comparable<Key>, Value> {
         if (isRed(h.right) && !isRed(h.left))      h = rotateLeft(h);
         if (isRed(h.left)  &&  isRed(h.left.left)) h = rotateRight(h);
         if (isRed(h.left)  &&  isRed(h.right))     flipColors(h);
-        h.N = size(h.left) + size(h.right) + 1;
+        update(h);
 
         return h;
     }
@@ -187,20 +363,24 @@ public class RedBlackBST<Key extends Comparable<Key>, Value> {
      */
     public void deleteMin() {
         if (isEmpty()) throw new NoSuchElementException("BST underflow");
+        if (slots != null) unindex(min());
 
         // if both children of root are black, set root to red
         if (!isRed(root.left) && !isRed(root.right))
-            root.color = RED;
+            reddenRoot();
 
         root = deleteMin(root);
-        if (!isEmpty()) root.color = BLACK;
+        blackenRoot();
+        updates++;
         // assert check();
     }
 
     // delete the key-value pair with the minimum key rooted at h
     private Node deleteMin(Node h) { 
-        if (h.left == null)
+        if (h.left == null) {
+            if (isRed(h)) reds--;
             return null;
+        }
 
         if (!isRed(h.left) && !isRed(h.left.left))
             h = moveRedLeft(h);
@@ -216,13 +396,15 @@ public class RedBlackBST<Key extends Comparable<Key>, Value> {
      */
     public void deleteMax() {
         if (isEmpty()) throw new NoSuchElementException("BST underflow");
+        if (slots != null) unindex(max());
 
         // if both children of root are black, set root to red
         if (!isRed(root.left) && !isRed(root.right))
-            root.color = RED;
+            reddenRoot();
 
         root = deleteMax(root);
-        if (!isEmpty()) root.color = BLACK;
+        blackenRoot();
+        updates++;
         // assert check();
     }
 
@@ -231,8 +413,10 @@ public class RedBlackBST<Key extends Comparable<Key>, Value> {
         if (isRed(h.left))
             h = rotateRight(h);
 
-        if (h.right == null)
+        if (h.right == null) {
+            if (isRed(h)) reds--;
             return null;
+        }
 
         if (!isRed(h.right) && !isRed(h.right.left))
             h = moveRedRight(h);
@@ -253,13 +437,15 @@ public class RedBlackBST<Key extends Comparable<Key>, Value> {
             System.err.println("symbol table does not contain " + key);
             return;
         }
+        if (slots != null) unindex(key);
 
         // if both children of root are black, set root to red
         if (!isRed(root.left) && !isRed(root.right))
-            root.color = RED;
+            reddenRoot();
 
         root = delete(root, key);
-        if (!isEmpty()) root.color = BLACK;
+        blackenRoot();
+        updates++;
         // assert check();
     }
 
@@ -275,14 +461,18 @@ public class RedBlackBST<Key extends Comparable<Key>, Value> {
         else {
             if (isRed(h.left))
                 h = rotateRight(h);
-            if (key.compareTo(h.key) == 0 && (h.right == null))
+            if (key.compareTo(h.key) == 0 && (h.right == null)) {
+                if (isRed(h)) reds--;
                 return null;
+            }
             if (!isRed(h.right) && !isRed(h.right.left))
                 h = moveRedRight(h);
             if (key.compareTo(h.key) == 0) {
                 Node x = min(h.right);
                 h.key = x.key;
                 h.val = x.val;
+                // the successor's key now lives in h, and deleteMin drops x
+                if (slots != null) reindex(x, h);
                 // h.val = get(h.right, min(h.right).key);
                 // h.key = min(h.right).key;
                 h.right = deleteMin(h.right);
@@ -292,6 +482,124 @@ public class RedBlackBST<Key extends Comparable<Key>, Value> {
         return balance(h);
     }
 
+   /***************************************************************************
+    *  Windowed eviction.
+    ***************************************************************************/
+
+    /**
+     * Removes every key strictly less than <tt>key</tt> from the symbol table.
+     * The smaller keys are split off as a whole instead of being deleted one
+     * at a time, so this takes logarithmic time however many keys are removed.
+     * If the table keeps a hash index, each removed key is also taken out of
+     * the index one at a time, which adds time proportional to the number of
+     * keys removed.
+     * @param key the key
+     * @return the number of keys removed
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public int evictBefore(Key key) {
+        if (isEmpty()) return 0;
+        int before = size();
+
+        // walk the search path of key, remembering the nodes that are kept
+        // and the black height of the right subtree that goes with each of them
+        int bh = blackHeight(root);
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Node[] kept = (Node[]) new RedBlackBST.Node[2 * bh + 1];
+        int[] heights = new int[kept.length];
+        int n = 0;
+        Node x = root;
+        while (x != null) {
+            if (!isRed(x)) bh--;
+            if (key.compareTo(x.key) <= 0) {
+                kept[n] = x;
+                heights[n++] = bh;
+                x = x.left;
+            }
+            else {
+                // x and its left subtree are evicted
+                reds -= (isRed(x) ? 1 : 0) + redsIn(x.left);
+                if (slots != null) {
+                    // the only part of eviction that visits every evicted key
+                    unindex(x.key);
+                    unindexAll(x.left);
+                }
+                x = x.right;
+            }
+        }
+
+        // join the kept nodes and their right subtrees back together, bottom-up
+        Node t = null;
+        int ht = 0;
+        for (int i = n - 1; i >= 0; i--) {
+            t = join(t, ht, kept[i], kept[i].right, heights[i]);
+            ht = Math.max(ht, heights[i]);
+            if (isRed(t)) {
+                t.color = BLACK;
+                t.R--;
+                reds--;
+                ht++;
+            }
+        }
+        root = t;
+        blackHeight = ht;
+        updates++;
+        // assert check();
+        return before - size();
+    }
+
+    /**
+     * Removes the <tt>n</tt> smallest keys from the symbol table, or every key
+     * if there are fewer than <tt>n</tt>.
+     * @param n the number of keys to remove
+     * @return the number of keys removed
+     * @throws IllegalArgumentException if <tt>n</tt> is negative
+     */
+    public int evictOldest(int n) {
+        if (n < 0) throw new IllegalArgumentException();
+        if (n >= size()) {
+            int removed = size();
+            root = null;
+            reds = 0;
+            blackHeight = 0;
+            if (slots != null) clearIndex();
+            updates++;
+            return removed;
+        }
+        if (n == 0) return 0;
+        return evictBefore(select(n));
+    }
+
+    // number of black nodes on any path from x down to a null link, counting x
+    private int blackHeight(Node x) {
+        int black = 0;
+        for (; x != null; x = x.left)
+            if (!isRed(x)) black++;
+        return black;
+    }
+
+    // join the trees l and r, whose roots are black and whose black heights are
+    // hl and hr, using m as the node between them; every key in l must be less
+    // than m.key and every key in r greater than m.key
+    private Node join(Node l, int hl, Node m, Node r, int hr) {
+        if (hl > hr) {
+            // right links are black, so each step down the right spine of l
+            // lowers the black height by one
+            l.right = join(l.right, hl - 1, m, r, hr);
+            return balance(l);
+        }
+        if (hl < hr || isRed(r)) {
+            r.left = join(l, hl, m, r.left, isRed(r) ? hr : hr - 1);
+            return balance(r);
+        }
+        m.left = l;
+        m.right = r;
+        if (!isRed(m)) reds++;
+        m.color = RED;
+        update(m);
+        return m;
+    }
+
    /***************************************************************************
     *  Red-black tree helper functions.
     ***************************************************************************/
@@ -302,10 +610,13 @@ public class RedBlackBST<Key extends Comparable<Key>, Value> {
         Node x = h.left;
         h.left = x.right;
         x.right = h;
+        rotations++;
         x.color = x.right.color;
         x.right.color = RED;
+        // the same nodes are red, so x takes over the counts of h
         x.N = h.N;
-        h.N = size(h.left) + size(h.right) + 1;
+        x.R = h.R;
+        update(h);
         return x;
     }
 
@@ -315,10 +626,13 @@ public class RedBlackBST<Key extends Comparable<Key>, Value> {
         Node x = h.right;
         h.right = x.left;
         x.left = h;
+        rotations++;
         x.color = x.left.color;
         x.left.color = RED;
+        // the same nodes are red, so x takes over the counts of h
         x.N = h.N;
-        h.N = size(h.left) + size(h.right) + 1;
+        x.R = h.R;
+        update(h);
         return x;
     }
 
@@ -331,6 +645,11 @@ public class RedBlackBST<Key extends Comparable<Key>, Value> {
         h.color = !h.color;
         h.left.color = !h.left.color;
         h.right.color = !h.right.color;
+        // each node that turned red adds one, each that turned black takes one away
+        reds += (h.color ? 1 : -1) + (h.left.color ? 1 : -1) + (h.right.color ? 1 : -1);
+        // the counts of h itself are recomputed on the way back up
+        h.left.R  += h.left.color  ? 1 : -1;
+        h.right.R += h.right.color ? 1 : -1;
     }
 
     // Assuming that h is red and both h.left and h.left.left
@@ -369,11 +688,107 @@ public class RedBlackBST<Key extends Comparable<Key>, Value> {
         if (isRed(h.left) && isRed(h.left.left)) h = rotateRight(h);
         if (isRed(h.left) && isRed(h.right))     flipColors(h);
 
-        h.N = size(h.left) + size(h.right) + 1;
+        update(h);
         return h;
     }
 
 
+   /***************************************************************************
+    *  Hash index.
+    ***************************************************************************/
+
+    // empty the index, back to its smallest capacity
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void clearIndex() {
+        slots = (Node[]) new RedBlackBST.Node[16];
+        hashes = new int[16];
+        indexed = 0;
+    }
+
+    // mix the bits of a hash code so that nearby codes land in different slots
+    private static int spread(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    // slot of the key, or the empty slot where it would go
+    private int find(Key key, int hash) {
+        int mask = slots.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            Node x = slots[i];
+            if (x == null || (hashes[i] == hash && key.compareTo(x.key) == 0)) return i;
+        }
+    }
+
+    // add a node whose key is not in the index yet
+    private void index(Node x) {
+        if (2 * (indexed + 1) > slots.length) resize(2 * slots.length);
+        int hash = spread(x.key.hashCode());
+        int i = find(x.key, hash);
+        slots[i] = x;
+        hashes[i] = hash;
+        indexed++;
+    }
+
+    // point the key of x at node h instead
+    private void reindex(Node x, Node h) {
+        slots[find(x.key, spread(x.key.hashCode()))] = h;
+    }
+
+    // remove the key, shifting back the keys of the same cluster that probed past it
+    private void unindex(Key key) {
+        int mask = slots.length - 1;
+        int i = find(key, spread(key.hashCode()));
+        if (slots[i] == null) return;
+        slots[i] = null;
+        indexed--;
+        for (int j = (i + 1) & mask; slots[j] != null; j = (j + 1) & mask) {
+            int home = hashes[j] & mask;
+            // move j into the hole at i unless its home lies in (i, j]
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                slots[i] = slots[j];
+                hashes[i] = hashes[j];
+                slots[j] = null;
+                i = j;
+            }
+        }
+    }
+
+    // remove every key in the subtree rooted at x
+    private void unindexAll(Node x) {
+        if (x == null) return;
+        unindex(x.key);
+        unindexAll(x.left);
+        unindexAll(x.right);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void resize(int capacity) {
+        Node[] oldSlots = slots;
+        int[] oldHashes = hashes;
+        slots = (Node[]) new RedBlackBST.Node[capacity];
+        hashes = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldSlots.length; i++) {
+            if (oldSlots[i] == null) continue;
+            int j = oldHashes[i] & mask;
+            while (slots[j] != null) j = (j + 1) & mask;
+            slots[j] = oldSlots[i];
+            hashes[j] = oldHashes[i];
+        }
+    }
+
+    /**
+     * Returns the bytes taken by the arrays of the hash index, not counting the
+     * nodes and keys the tree already holds.
+     * @return the bytes of the hash index, or 0 if this table has none
+     */
+    public long indexBytes() {
+        if (slots == null) return 0;
+        // a 4-byte (compressed) reference and a 4-byte hash per slot, plus the array headers
+        return 8L * slots.length + 32;
+    }
+
    /***************************************************************************
     *  Utility functions.
     ***************************************************************************/
@@ -525,6 +940,27 @@ public class RedBlackBST<Key extends Comparable<Key>, Value> {
     *  Range count and range search.
     ***************************************************************************/
 
+    /**
+     * Copies every key and its value into the arrays in ascending order of key,
+     * starting at index <tt>offset</tt>. Takes linear time.
+     * @param keys receives the keys
+     * @param vals receives the value associated with each key, at the same index
+     * @param offset the index of the smallest key
+     * @throws ArrayIndexOutOfBoundsException if an array is too short
+     */
+    public void toArrays(Key[] keys, Value[] vals, int offset) {
+        toArrays(root, keys, vals, offset);
+    }
+
+    // copy the subtree rooted at x in order from index i; returns the index after it
+    private int toArrays(Node x, Key[] keys, Value[] vals, int i) {
+        if (x == null) return i;
+        i = toArrays(x.left, keys, vals, i);
+        keys[i] = x.key;
+        vals[i] = x.val;
+        return toArrays(x.right, keys, vals, i + 1);
+    }
+
     /**
      * Returns all keys in the symbol table as an <tt>Iterable</tt>.
      * To iterate over all of the keys in the symbol table named <tt>st</tt>,
@@ -575,6 +1011,130 @@ public class RedBlackBST<Key extends Comparable<Key>, Value> {
     }
 
 
+   /***************************************************************************
+    *  Structure statistics.
+    ***************************************************************************/
+
+    /**
+     * Returns the number of red nodes. Takes constant time.
+     * @return the number of red nodes
+     */
+    public int redCount() {
+        return reds;
+    }
+
+    /**
+     * Returns the black height, the number of black nodes on every path from
+     * the root to a null link. Takes constant time.
+     * @return the black height (0 for an empty tree)
+     */
+    public int blackHeight() {
+        return blackHeight;
+    }
+
+    /**
+     * Returns an upper bound on {@link #height()} that takes constant time.
+     * No red node has a red child, so a path has at most as many red nodes
+     * as black ones.
+     * @return an upper bound on the height of the BST
+     */
+    public int heightBound() {
+        return 2 * blackHeight - 1;
+    }
+
+    /**
+     * Returns the number of rotations done so far by insertions, deletions and evictions.
+     * @return the number of rotations so far
+     */
+    public long rotations() {
+        return rotations;
+    }
+
+    /**
+     * Returns the number of updates so far: puts, deletions and evictions.
+     * @return the number of updates so far
+     */
+    public long updates() {
+        return updates;
+    }
+
+    /**
+     * Returns the average number of rotations per update so far.
+     * @return the number of rotations per update, or 0 if there was no update
+     */
+    public double rotationRate() {
+        return (updates == 0) ? 0 : (double) rotations / updates;
+    }
+
+    /**
+     * Checks part of the tree, so that a full check can be spread over many calls.
+     * Each sample descends to the node of the next rank, wrapping around at the
+     * end. On the way it checks the order, subtree counts and colors of every
+     * node it passes. If the node reached has a null link, it also checks the
+     * black height of that link. After <em>N</em> samples every node and null
+     * link has been checked. Each sample takes logarithmic time.
+     * This method does not change the tree, but like every other method it must
+     * not run concurrently with an update.
+     * @param samples the number of nodes to check
+     * @return <tt>true</tt> if no violation was found
+     */
+    public boolean validate(int samples) {
+        for (int i = 0; i < samples && !isEmpty(); i++) {
+            if (validateNext >= size()) validateNext = 0;
+            if (!validatePath(validateNext++)) return false;
+        }
+        return true;
+    }
+
+    // check every node on the path from the root to the node of rank k
+    private boolean validatePath(int k) {
+        Key lo = null, hi = null;
+        int black = 0;
+        if (isRed(root)) {
+            System.out.println("Red root");
+            return false;
+        }
+        for (Node x = root; ; ) {
+            if ((lo != null && x.key.compareTo(lo) <= 0) || (hi != null && x.key.compareTo(hi) >= 0)) {
+                System.out.println("Not in symmetric order at " + x.key);
+                return false;
+            }
+            if (x.N != size(x.left) + size(x.right) + 1
+                    || x.R != redsIn(x.left) + redsIn(x.right) + (isRed(x) ? 1 : 0)) {
+                System.out.println("Subtree count not consistent at " + x.key);
+                return false;
+            }
+            if (isRed(x.right) || (isRed(x) && isRed(x.left))) {
+                System.out.println("Not a 2-3 tree at " + x.key);
+                return false;
+            }
+            if (!isRed(x)) black++;
+            int t = size(x.left);
+            if (t == k) {
+                if ((x.left == null || x.right == null) && black != blackHeight) {
+                    System.out.println("Not balanced at " + x.key);
+                    return false;
+                }
+                return true;
+            }
+            if (t > k) {
+                hi = x.key;
+                x = x.left;
+            }
+            else {
+                lo = x.key;
+                k -= t + 1;
+                x = x.right;
+            }
+        }
+    }
+
+    // number of red nodes in the subtree rooted at x
+    private int countReds(Node x) {
+        if (x == null) return 0;
+        return (isRed(x) ? 1 : 0) + countReds(x.left) + countReds(x.right);
+    }
+
    /***************************************************************************
     *  Check integrity of red-black tree data structure.
     ***************************************************************************/
@@ -584,7 +1144,10 @@ public class RedBlackBST<Key extends Comparable<Key>, Value> {
         if (!isRankConsistent()) System.out.println("Ranks not consistent");
         if (!is23())             System.out.println("Not a 2-3 tree");
         if (!isBalanced())       System.out.println("Not balanced");
-        return isBST() && isSizeConsistent() && isRankConsistent() && is23() && isBalanced();
+        if (!areStatisticsConsistent()) System.out.println("Statistics not consistent");
+        if (!isIndexConsistent()) System.out.println("Hash index not consistent");
+        return isBST() && isSizeConsistent() && isRankConsistent() && is23() && isBalanced()
+            && areStatisticsConsistent() && isIndexConsistent();
     }
 
     // does this binary tree satisfy symmetric order?
@@ -608,6 +1171,7 @@ public class RedBlackBST<Key extends Comparable<Key>, Value> {
     private boolean isSizeConsistent(Node x) {
         if (x == null) return true;
         if (x.N != size(x.left) + size(x.right) + 1) return false;
+        if (x.R != redsIn(x.left) + redsIn(x.right) + (isRed(x) ? 1 : 0)) return false;
         return isSizeConsistent(x.left) && isSizeConsistent(x.right);
     } 
 
@@ -642,6 +1206,22 @@ public class RedBlackBST<Key extends Comparable<Key>, Value> {
         return isBalanced(root, black);
     }
 
+    // do the incremental statistics match the tree?
+    private boolean areStatisticsConsistent() {
+        return reds == countReds(root) && reds == redsIn(root) && blackHeight == blackHeight(root);
+    }
+
+    // does the hash index map exactly the keys in the tree to their nodes?
+    private boolean isIndexConsistent() {
+        if (slots == null) return true;
+        return indexed == size() && isIndexConsistent(root);
+    }
+    private boolean isIndexConsistent(Node x) {
+        if (x == null) return true;
+        if (slots[find(x.key, spread(x.key.hashCode()))] != x) return false;
+        return isIndexConsistent(x.left) && isIndexConsistent(x.right);
+    }
+
     // does every path from the root to a leaf have the given number of black links?
     private boolean isBalanced(Node x, int black) {
         if (x == null) return black == 0;
@@ -0,0 +1,203 @@
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+
+/**
+ *  The <tt>RedBlackDEPQ</tt> class represents a double-ended priority queue
+ *  of generic keys, which may repeat.
+ *  It supports <em>insert</em>, <em>min</em> and <em>max</em> peeks,
+ *  <em>delete-min</em> and <em>delete-max</em>, the batch operations
+ *  <em>poll-min</em> and <em>poll-max</em>, which remove the <em>k</em>
+ *  smallest or largest keys at once, and <em>size</em>.
+ *  <p>
+ *  This implementation is a facade over a {@link RedBlackMultiset}. It keeps
+ *  the smallest and the largest key and their numbers of occurrences, and
+ *  updates them on every change, so <em>min</em> and <em>max</em> take
+ *  constant time instead of a walk down a spine. While the extreme key has
+ *  more than one occurrence, a deletion only decrements counts on one search
+ *  path. Only the deletion of its last occurrence removes a node and looks up
+ *  the new extreme. <em>insert</em>, <em>delete-min</em> and <em>delete-max</em>
+ *  take logarithmic time in the number of distinct keys. A batch poll of
+ *  <em>k</em> keys splits them off the multiset in one pass, in time
+ *  proportional to <em>k</em> + log <em>n</em>.
+ */
+public class RedBlackDEPQ<Key extends Comparable<Key>> {
+
+    private final RedBlackMultiset<Key> set = new RedBlackMultiset<Key>();
+    private Key min, max;              // extreme keys; null if the queue is empty
+    private long minCount, maxCount;   // occurrences of min and max
+
+    /**
+     * Initializes an empty priority queue.
+     */
+    public RedBlackDEPQ() {
+    }
+
+    /**
+     * Returns the number of keys in this priority queue, counting repeats.
+     * @return the number of keys in this priority queue
+     */
+    public long size() {
+        return set.size();
+    }
+
+    /**
+     * Is this priority queue empty?
+     * @return <tt>true</tt> if this priority queue is empty and <tt>false</tt> otherwise
+     */
+    public boolean isEmpty() {
+        return min == null;
+    }
+
+    /**
+     * Adds the key to this priority queue.
+     * @param key the key
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public void insert(Key key) {
+        set.add(key);
+        if (min == null) {
+            min = max = key;
+            minCount = maxCount = 1;
+            return;
+        }
+        int cmp = key.compareTo(min);
+        if      (cmp < 0)  { min = key; minCount = 1; }
+        else if (cmp == 0) minCount++;
+        cmp = key.compareTo(max);
+        if      (cmp > 0)  { max = key; maxCount = 1; }
+        else if (cmp == 0) maxCount++;
+    }
+
+    /**
+     * Returns the smallest key, in constant time.
+     * @return the smallest key
+     * @throws NoSuchElementException if the priority queue is empty
+     */
+    public Key min() {
+        if (isEmpty()) throw new NoSuchElementException("Priority queue underflow");
+        return min;
+    }
+
+    /**
+     * Returns the largest key, in constant time.
+     * @return the largest key
+     * @throws NoSuchElementException if the priority queue is empty
+     */
+    public Key max() {
+        if (isEmpty()) throw new NoSuchElementException("Priority queue underflow");
+        return max;
+    }
+
+    /**
+     * Removes and returns one occurrence of the smallest key.
+     * @return the smallest key
+     * @throws NoSuchElementException if the priority queue is empty
+     */
+    public Key delMin() {
+        if (isEmpty()) throw new NoSuchElementException("Priority queue underflow");
+        Key key = min;
+        boolean alsoMax = key.compareTo(max) == 0;
+        if (minCount > 1) {
+            set.remove(key, 1);
+            minCount--;
+        }
+        else {
+            set.deleteMin();
+            refreshMin();
+        }
+        // with one distinct key, min and max are the same occurrences
+        if (alsoMax && !isEmpty()) maxCount--;
+        return key;
+    }
+
+    /**
+     * Removes and returns one occurrence of the largest key.
+     * @return the largest key
+     * @throws NoSuchElementException if the priority queue is empty
+     */
+    public Key delMax() {
+        if (isEmpty()) throw new NoSuchElementException("Priority queue underflow");
+        Key key = max;
+        boolean alsoMin = key.compareTo(min) == 0;
+        if (maxCount > 1) {
+            set.remove(key, 1);
+            maxCount--;
+        }
+        else {
+            set.deleteMax();
+            refreshMax();
+        }
+        if (alsoMin && !isEmpty()) minCount--;
+        return key;
+    }
+
+    /**
+     * Removes the <tt>k</tt> smallest keys, or every key if there are fewer,
+     * and returns them in ascending order. The keys are split off the
+     * multiset at once rather than deleted one at a time.
+     * @param k the number of keys to remove
+     * @return the removed keys in ascending order
+     * @throws IllegalArgumentException if <tt>k</tt> is negative
+     */
+    public ArrayList<Key> pollMin(int k) {
+        if (k < 0) throw new IllegalArgumentException("negative count");
+        ArrayList<Key> polled = new ArrayList<Key>((int) Math.min(k, size()));
+        set.removeFirst(k, polled);
+        refreshMin();
+        refreshMax();
+        return polled;
+    }
+
+    /**
+     * Removes the <tt>k</tt> largest keys, or every key if there are fewer,
+     * and returns them in descending order. The keys are split off the
+     * multiset at once rather than deleted one at a time.
+     * @param k the number of keys to remove
+     * @return the removed keys in descending order
+     * @throws IllegalArgumentException if <tt>k</tt> is negative
+     */
+    public ArrayList<Key> pollMax(int k) {
+        if (k < 0) throw new IllegalArgumentException("negative count");
+        ArrayList<Key> polled = new ArrayList<Key>((int) Math.min(k, size()));
+        set.removeLast(k, polled);
+        refreshMin();
+        refreshMax();
+        return polled;
+    }
+
+    // look up the smallest key and its count again
+    private void refreshMin() {
+        if (set.isEmpty()) {
+            min = max = null;
+            minCount = maxCount = 0;
+            return;
+        }
+        min = set.min();
+        minCount = set.count(min);
+    }
+
+    // look up the largest key and its count again
+    private void refreshMax() {
+        if (set.isEmpty()) {
+            min = max = null;
+            minCount = maxCount = 0;
+            return;
+        }
+        max = set.max();
+        maxCount = set.count(max);
+    }
+
+
+    /**
+     * Unit tests the <tt>RedBlackDEPQ</tt> data type.
+     */
+    public static void main(String[] args) {
+        RedBlackDEPQ<Integer> pq = new RedBlackDEPQ<Integer>();
+        int[] deadlines = { 30, 10, 50, 10, 20, 40, 50, 10 };
+        for (int deadline : deadlines) pq.insert(deadline);
+        System.out.println("min " + pq.min() + ", max " + pq.max() + ", size " + pq.size());
+        System.out.println("delMin " + pq.delMin() + ", delMax " + pq.delMax());
+        System.out.println("pollMin(3) " + pq.pollMin(3) + ", pollMax(2) " + pq.pollMax(2)
+                + ", left " + pq.size() + " from " + pq.min() + " to " + pq.max());
+    }
+}
@@ -0,0 +1,423 @@
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ *  The <tt>RedBlackIntervalST</tt> class represents a symbol table whose keys
+ *  are closed intervals [<em>lo</em>, <em>hi</em>].
+ *  It supports <em>put</em>, <em>get</em>, <em>contains</em>, <em>delete</em>,
+ *  <em>size</em> and <em>is-empty</em>, and two queries: <em>overlapping</em>,
+ *  which returns the values of all intervals that overlap a given interval,
+ *  and <em>stabbing</em>, which returns the values of all intervals that
+ *  contain a given point.
+ *  <p>
+ *  This implementation is the left-leaning red-black BST of {@link RedBlackBST},
+ *  ordered by left endpoint and then by right endpoint. Each node also stores
+ *  the largest right endpoint in its subtree. That field is maintained by the
+ *  rotations and by <em>balance</em> in the same way as the subtree count.
+ *  <em>put</em>, <em>get</em> and <em>delete</em> take logarithmic time in the
+ *  worst case. The queries return lazy iterators that skip every subtree whose
+ *  largest right endpoint is to the left of the query. They stop at the first
+ *  interval that starts to the right of the query, so each result takes at
+ *  most logarithmic time to reach.
+ */
+public class RedBlackIntervalST<Key extends Comparable<Key>, Value> {
+
+    private static final boolean RED   = true;
+    private static final boolean BLACK = false;
+
+    private Node root;     // root of the BST
+
+    // BST helper node data type
+    private class Node {
+        private Key lo, hi;        // interval
+        private Value val;         // associated data
+        private Node left, right;  // links to left and right subtrees
+        private boolean color;     // color of parent link
+        private int N;             // subtree count
+        private Key max;           // largest right endpoint in subtree
+
+        public Node(Key lo, Key hi, Value val, boolean color, int N) {
+            this.lo = lo;
+            this.hi = hi;
+            this.val = val;
+            this.color = color;
+            this.N = N;
+            this.max = hi;
+        }
+    }
+
+    /**
+     * Initializes an empty symbol table.
+     */
+    public RedBlackIntervalST() {
+    }
+
+   /***************************************************************************
+    *  Node helper methods.
+    ***************************************************************************/
+    // is node x red; false if x is null ?
+    private boolean isRed(Node x) {
+        if (x == null) return false;
+        return x.color == RED;
+    }
+
+    // number of node in subtree rooted at x; 0 if x is null
+    private int size(Node x) {
+        if (x == null) return 0;
+        return x.N;
+    }
+
+    // largest right endpoint in subtree rooted at x; null if x is null
+    private Key max(Node x) {
+        if (x == null) return null;
+        return x.max;
+    }
+
+    // the larger of two endpoints, either of which may be null
+    private Key larger(Key a, Key b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        return (a.compareTo(b) >= 0) ? a : b;
+    }
+
+    // recompute the subtree count and largest right endpoint of h from its children
+    private void update(Node h) {
+        h.N = size(h.left) + size(h.right) + 1;
+        h.max = larger(h.hi, larger(max(h.left), max(h.right)));
+    }
+
+    // compare the interval [lo, hi] with the interval of x
+    private int compare(Key lo, Key hi, Node x) {
+        int cmp = lo.compareTo(x.lo);
+        if (cmp != 0) return cmp;
+        return hi.compareTo(x.hi);
+    }
+
+    /**
+     * Returns the number of intervals in this symbol table.
+     * @return the number of intervals in this symbol table
+     */
+    public int size() {
+        return size(root);
+    }
+
+   /**
+     * Is this symbol table empty?
+     * @return <tt>true</tt> if this symbol table is empty and <tt>false</tt> otherwise
+     */
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+
+   /***************************************************************************
+    *  Standard BST search.
+    ***************************************************************************/
+
+    /**
+     * Returns the value associated with the interval [<tt>lo</tt>, <tt>hi</tt>].
+     * @param lo the left endpoint
+     * @param hi the right endpoint
+     * @return the value associated with the interval if it is in the symbol table
+     *     and <tt>null</tt> if it is not
+     * @throws NullPointerException if <tt>lo</tt> or <tt>hi</tt> is <tt>null</tt>
+     */
+    public Value get(Key lo, Key hi) {
+        Node x = root;
+        while (x != null) {
+            int cmp = compare(lo, hi, x);
+            if      (cmp < 0) x = x.left;
+            else if (cmp > 0) x = x.right;
+            else              return x.val;
+        }
+        return null;
+    }
+
+    /**
+     * Does this symbol table contain the interval [<tt>lo</tt>, <tt>hi</tt>]?
+     * @param lo the left endpoint
+     * @param hi the right endpoint
+     * @return <tt>true</tt> if this symbol table contains the interval and
+     *     <tt>false</tt> otherwise
+     * @throws NullPointerException if <tt>lo</tt> or <tt>hi</tt> is <tt>null</tt>
+     */
+    public boolean contains(Key lo, Key hi) {
+        return get(lo, hi) != null;
+    }
+
+   /***************************************************************************
+    *  Red-black tree insertion.
+    ***************************************************************************/
+
+    /**
+     * Inserts the interval [<tt>lo</tt>, <tt>hi</tt>] with the given value,
+     * overwriting the old value if the interval is already in the symbol table.
+     * @param lo the left endpoint
+     * @param hi the right endpoint
+     * @param val the value
+     * @throws IllegalArgumentException if <tt>lo</tt> is greater than <tt>hi</tt>
+     * @throws NullPointerException if <tt>lo</tt> or <tt>hi</tt> is <tt>null</tt>
+     */
+    public void put(Key lo, Key hi, Value val) {
+        if (lo.compareTo(hi) > 0) throw new IllegalArgumentException("lo > hi");
+        root = put(root, lo, hi, val);
+        root.color = BLACK;
+        // assert check();
+    }
+
+    // insert the interval in the subtree rooted at h
+    private Node put(Node h, Key lo, Key hi, Value val) {
+        if (h == null) return new Node(lo, hi, val, RED, 1);
+
+        int cmp = compare(lo, hi, h);
+        if      (cmp < 0) h.left  = put(h.left,  lo, hi, val);
+        else if (cmp > 0) h.right = put(h.right, lo, hi, val);
+        else              h.val   = val;
+
+        // fix-up any right-leaning links
+        if (isRed(h.right) && !isRed(h.left))      h = rotateLeft(h);
+        if (isRed(h.left)  &&  isRed(h.left.left)) h = rotateRight(h);
+        if (isRed(h.left)  &&  isRed(h.right))     flipColors(h);
+        update(h);
+
+        return h;
+    }
+
+   /***************************************************************************
+    *  Red-black tree deletion.
+    ***************************************************************************/
+
+    /**
+     * Removes the interval [<tt>lo</tt>, <tt>hi</tt>] and its value from the
+     * symbol table (if the interval is in the symbol table).
+     * @param lo the left endpoint
+     * @param hi the right endpoint
+     * @throws NullPointerException if <tt>lo</tt> or <tt>hi</tt> is <tt>null</tt>
+     */
+    public void delete(Key lo, Key hi) {
+        if (!contains(lo, hi)) return;
+
+        // if both children of root are black, set root to red
+        if (!isRed(root.left) && !isRed(root.right))
+            root.color = RED;
+
+        root = delete(root, lo, hi);
+        if (!isEmpty()) root.color = BLACK;
+        // assert check();
+    }
+
+    // delete the interval rooted at h
+    private Node delete(Node h, Key lo, Key hi) {
+        if (compare(lo, hi, h) < 0)  {
+            if (!isRed(h.left) && !isRed(h.left.left))
+                h = moveRedLeft(h);
+            h.left = delete(h.left, lo, hi);
+        }
+        else {
+            if (isRed(h.left))
+                h = rotateRight(h);
+            if (compare(lo, hi, h) == 0 && (h.right == null))
+                return null;
+            if (!isRed(h.right) && !isRed(h.right.left))
+                h = moveRedRight(h);
+            if (compare(lo, hi, h) == 0) {
+                Node x = min(h.right);
+                h.lo = x.lo;
+                h.hi = x.hi;
+                h.val = x.val;
+                h.right = deleteMin(h.right);
+            }
+            else h.right = delete(h.right, lo, hi);
+        }
+        return balance(h);
+    }
+
+    // delete the interval with the minimum key rooted at h
+    private Node deleteMin(Node h) {
+        if (h.left == null)
+            return null;
+
+        if (!isRed(h.left) && !isRed(h.left.left))
+            h = moveRedLeft(h);
+
+        h.left = deleteMin(h.left);
+        return balance(h);
+    }
+
+    // the smallest interval in subtree rooted at x
+    private Node min(Node x) {
+        while (x.left != null) x = x.left;
+        return x;
+    }
+
+   /***************************************************************************
+    *  Red-black tree helper functions.
+    ***************************************************************************/
+
+    // make a left-leaning link lean to the right
+    private Node rotateRight(Node h) {
+        Node x = h.left;
+        h.left = x.right;
+        x.right = h;
+        x.color = x.right.color;
+        x.right.color = RED;
+        x.N = h.N;
+        x.max = h.max;
+        update(h);
+        return x;
+    }
+
+    // make a right-leaning link lean to the left
+    private Node rotateLeft(Node h) {
+        Node x = h.right;
+        h.right = x.left;
+        x.left = h;
+        x.color = x.left.color;
+        x.left.color = RED;
+        x.N = h.N;
+        x.max = h.max;
+        update(h);
+        return x;
+    }
+
+    // flip the colors of a node and its two children
+    private void flipColors(Node h) {
+        h.color = !h.color;
+        h.left.color = !h.left.color;
+        h.right.color = !h.right.color;
+    }
+
+    // Assuming that h is red and both h.left and h.left.left
+    // are black, make h.left or one of its children red.
+    private Node moveRedLeft(Node h) {
+        flipColors(h);
+        if (isRed(h.right.left)) {
+            h.right = rotateRight(h.right);
+            h = rotateLeft(h);
+            flipColors(h);
+        }
+        return h;
+    }
+
+    // Assuming that h is red and both h.right and h.right.left
+    // are black, make h.right or one of its children red.
+    private Node moveRedRight(Node h) {
+        flipColors(h);
+        if (isRed(h.left.left)) {
+            h = rotateRight(h);
+            flipColors(h);
+        }
+        return h;
+    }
+
+    // restore red-black tree invariant
+    private Node balance(Node h) {
+        if (isRed(h.right))                      h = rotateLeft(h);
+        if (isRed(h.left) && isRed(h.left.left)) h = rotateRight(h);
+        if (isRed(h.left) && isRed(h.right))     flipColors(h);
+
+        update(h);
+        return h;
+    }
+
+   /***************************************************************************
+    *  Overlap queries.
+    ***************************************************************************/
+
+    /**
+     * Returns the values of all intervals that overlap [<tt>lo</tt>, <tt>hi</tt>],
+     * in order of their left endpoints. The intervals are found as the
+     * iterator advances, not up front.
+     * @param lo the left endpoint of the query
+     * @param hi the right endpoint of the query
+     * @return the values of the overlapping intervals as an <tt>Iterable</tt>
+     * @throws NullPointerException if <tt>lo</tt> or <tt>hi</tt> is <tt>null</tt>
+     */
+    public Iterable<Value> overlapping(final Key lo, final Key hi) {
+        return new Iterable<Value>() {
+            public Iterator<Value> iterator() {
+                return new OverlapIterator(lo, hi);
+            }
+        };
+    }
+
+    /**
+     * Returns the values of all intervals that contain <tt>point</tt>,
+     * in order of their left endpoints.
+     * @param point the point
+     * @return the values of the intervals containing the point as an <tt>Iterable</tt>
+     * @throws NullPointerException if <tt>point</tt> is <tt>null</tt>
+     */
+    public Iterable<Value> stabbing(Key point) {
+        return overlapping(point, point);
+    }
+
+    // an in-order traversal that skips subtrees without an overlapping interval
+    private class OverlapIterator implements Iterator<Value> {
+        private final Key lo, hi;
+        private final ArrayDeque<Node> stack = new ArrayDeque<Node>();
+        private Node next;
+
+        public OverlapIterator(Key lo, Key hi) {
+            this.lo = lo;
+            this.hi = hi;
+            pushLeft(root);
+            next = advance();
+        }
+
+        // push x and its left descendants, stopping at the first subtree
+        // whose intervals all end before lo
+        private void pushLeft(Node x) {
+            while (x != null && x.max.compareTo(lo) >= 0) {
+                stack.push(x);
+                x = x.left;
+            }
+        }
+
+        // the next node that overlaps [lo, hi]; null if there is none
+        private Node advance() {
+            while (!stack.isEmpty()) {
+                Node x = stack.pop();
+                // every interval from here on starts after hi
+                if (x.lo.compareTo(hi) > 0) {
+                    stack.clear();
+                    return null;
+                }
+                pushLeft(x.right);
+                if (x.hi.compareTo(lo) >= 0) return x;
+            }
+            return null;
+        }
+
+        public boolean hasNext()  { return next != null;                       }
+        public void remove()      { throw new UnsupportedOperationException();  }
+
+        public Value next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            Value val = next.val;
+            next = advance();
+            return val;
+        }
+    }
+
+
+    /**
+     * Unit tests the <tt>RedBlackIntervalST</tt> data type.
+     */
+    public static void main(String[] args) {
+        RedBlackIntervalST<Integer, String> st = new RedBlackIntervalST<Integer, String>();
+        st.put(15, 20, "[15, 20]");
+        st.put(10, 30, "[10, 30]");
+        st.put(17, 19, "[17, 19]");
+        st.put(5, 20, "[5, 20]");
+        st.put(12, 15, "[12, 15]");
+        st.put(30, 40, "[30, 40]");
+        System.out.print("overlapping [18, 25]:");
+        for (String s : st.overlapping(18, 25)) System.out.print(" " + s);
+        System.out.println();
+        System.out.print("stabbing 30:");
+        for (String s : st.stabbing(30)) System.out.print(" " + s);
+        System.out.println();
+    }
+}
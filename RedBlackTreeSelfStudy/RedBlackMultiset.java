@@ -0,0 +1,794 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ *  The <tt>RedBlackMultiset</tt> class represents an ordered multiset of
+ *  generic keys: each key occurs some positive number of times.
+ *  It supports <em>add</em> and <em>remove</em> of any number of occurrences,
+ *  removal of the <em>k</em> smallest or largest occurrences, <em>count</em>,
+ *  <em>contains</em>, <em>size</em>, <em>min</em>,
+ *  <em>max</em> and the distinct <em>keys</em>, plus <em>rank</em>,
+ *  <em>select</em> and <em>quantile</em>, which count every occurrence.
+ *  <p>
+ *  This implementation is the left-leaning red-black BST of {@link RedBlackBST}
+ *  with one node per distinct key. Each node holds the number of occurrences
+ *  of its key as a primitive <tt>long</tt>, and the total number of
+ *  occurrences in its subtree, maintained by the rotations and by
+ *  <em>balance</em> in the same way as the subtree count. Adding or removing
+ *  occurrences of a key that stays in the multiset changes counts on one
+ *  search path and allocates nothing. Every operation takes logarithmic time
+ *  in the number of distinct keys in the worst case, so with many repeated
+ *  values, as in latency samples, the tree stays small while <em>select</em>
+ *  and <em>quantile</em> remain exact. Removing the <em>k</em> smallest or
+ *  largest occurrences splits them off with the join of
+ *  {@link RedBlackBST#evictBefore}, in time proportional to log <em>n</em>
+ *  plus the number of keys removed.
+ */
+public class RedBlackMultiset<Key extends Comparable<Key>> {
+
+    private static final boolean RED   = true;
+    private static final boolean BLACK = false;
+
+    private Node root;     // root of the BST
+    private long removed;  // occurrences of the key unlinked by the deletion in progress
+
+    // BST helper node data type
+    private class Node {
+        private Key key;           // key
+        private long count;        // occurrences of key
+        private Node left, right;  // links to left and right subtrees
+        private boolean color;     // color of parent link
+        private int N;             // subtree count
+        private long total;        // occurrences in subtree
+
+        public Node(Key key, long count, boolean color, int N) {
+            this.key = key;
+            this.count = count;
+            this.color = color;
+            this.N = N;
+            this.total = count;
+        }
+    }
+
+    /**
+     * Initializes an empty multiset.
+     */
+    public RedBlackMultiset() {
+    }
+
+   /***************************************************************************
+    *  Node helper methods.
+    ***************************************************************************/
+    // is node x red; false if x is null ?
+    private boolean isRed(Node x) {
+        if (x == null) return false;
+        return x.color == RED;
+    }
+
+    // number of node in subtree rooted at x; 0 if x is null
+    private int size(Node x) {
+        if (x == null) return 0;
+        return x.N;
+    }
+
+    // occurrences in subtree rooted at x; 0 if x is null
+    private long total(Node x) {
+        if (x == null) return 0;
+        return x.total;
+    }
+
+    // recompute the subtree count and total of h from its children
+    private void update(Node h) {
+        h.N = size(h.left) + size(h.right) + 1;
+        h.total = h.count + total(h.left) + total(h.right);
+    }
+
+    /**
+     * Returns the number of occurrences of all keys in this multiset.
+     * @return the number of occurrences of all keys in this multiset
+     */
+    public long size() {
+        return total(root);
+    }
+
+    /**
+     * Returns the number of distinct keys in this multiset.
+     * @return the number of distinct keys in this multiset
+     */
+    public int distinct() {
+        return size(root);
+    }
+
+   /**
+     * Is this multiset empty?
+     * @return <tt>true</tt> if this multiset is empty and <tt>false</tt> otherwise
+     */
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+
+   /***************************************************************************
+    *  Standard BST search.
+    ***************************************************************************/
+
+    /**
+     * Returns the number of occurrences of the given key.
+     * @param key the key
+     * @return the number of occurrences of <tt>key</tt>; 0 if it is not in the multiset
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public long count(Key key) {
+        Node x = find(key);
+        return (x == null) ? 0 : x.count;
+    }
+
+    /**
+     * Does this multiset contain the given key?
+     * @param key the key
+     * @return <tt>true</tt> if <tt>key</tt> occurs at least once and
+     *     <tt>false</tt> otherwise
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public boolean contains(Key key) {
+        return find(key) != null;
+    }
+
+    // the node with the given key; null if there is none
+    private Node find(Key key) {
+        Node x = root;
+        while (x != null) {
+            int cmp = key.compareTo(x.key);
+            if      (cmp < 0) x = x.left;
+            else if (cmp > 0) x = x.right;
+            else              return x;
+        }
+        return null;
+    }
+
+   /***************************************************************************
+    *  Adding occurrences.
+    ***************************************************************************/
+
+    /**
+     * Adds one occurrence of the key.
+     * @param key the key
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public void add(Key key) {
+        add(key, 1);
+    }
+
+    /**
+     * Adds <tt>k</tt> occurrences of the key. Nothing is allocated unless
+     * the key is new.
+     * @param key the key
+     * @param k the number of occurrences to add
+     * @throws IllegalArgumentException if <tt>k</tt> is negative
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public void add(Key key, long k) {
+        if (k < 0) throw new IllegalArgumentException("negative count");
+        if (k == 0) return;
+        root = put(root, key, k);
+        root.color = BLACK;
+        // assert check();
+    }
+
+    // add delta to the count of key, which is in the multiset,
+    // and to the totals on its search path
+    private void changeCount(Key key, long delta) {
+        Node x = root;
+        while (true) {
+            x.total += delta;
+            int cmp = key.compareTo(x.key);
+            if      (cmp < 0) x = x.left;
+            else if (cmp > 0) x = x.right;
+            else {
+                x.count += delta;
+                return;
+            }
+        }
+    }
+
+    // add k occurrences of key in the subtree rooted at h
+    private Node put(Node h, Key key, long k) {
+        if (h == null) return new Node(key, k, RED, 1);
+
+        int cmp = key.compareTo(h.key);
+        if      (cmp < 0) h.left  = put(h.left,  key, k);
+        else if (cmp > 0) h.right = put(h.right, key, k);
+        else              h.count += k;
+
+        // fix-up any right-leaning links
+        if (isRed(h.right) && !isRed(h.left))      h = rotateLeft(h);
+        if (isRed(h.left)  &&  isRed(h.left.left)) h = rotateRight(h);
+        if (isRed(h.left)  &&  isRed(h.right))     flipColors(h);
+        update(h);
+
+        return h;
+    }
+
+   /***************************************************************************
+    *  Removing occurrences.
+    ***************************************************************************/
+
+    /**
+     * Removes one occurrence of the key, if it is in the multiset.
+     * @param key the key
+     * @return <tt>true</tt> if an occurrence was removed
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public boolean remove(Key key) {
+        return remove(key, 1) == 1;
+    }
+
+    /**
+     * Removes <tt>k</tt> occurrences of the key, or all of them if there are
+     * fewer. The key leaves the multiset when its last occurrence is removed.
+     * @param key the key
+     * @param k the number of occurrences to remove
+     * @return the number of occurrences removed
+     * @throws IllegalArgumentException if <tt>k</tt> is negative
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public long remove(Key key, long k) {
+        if (k < 0) throw new IllegalArgumentException("negative count");
+        Node x = find(key);
+        if (x == null || k == 0) return 0;
+        if (k < x.count) {
+            changeCount(key, -k);
+            return k;
+        }
+        long removed = x.count;
+        delete(key);
+        return removed;
+    }
+
+    /**
+     * Removes the smallest key and all of its occurrences.
+     * @return the number of occurrences removed
+     * @throws NoSuchElementException if the multiset is empty
+     */
+    public long deleteMin() {
+        if (isEmpty()) throw new NoSuchElementException("BST underflow");
+
+        // if both children of root are black, set root to red
+        if (!isRed(root.left) && !isRed(root.right))
+            root.color = RED;
+
+        root = deleteMin(root);
+        if (!isEmpty()) root.color = BLACK;
+        // assert check();
+        return removed;
+    }
+
+    /**
+     * Removes the largest key and all of its occurrences.
+     * @return the number of occurrences removed
+     * @throws NoSuchElementException if the multiset is empty
+     */
+    public long deleteMax() {
+        if (isEmpty()) throw new NoSuchElementException("BST underflow");
+
+        // if both children of root are black, set root to red
+        if (!isRed(root.left) && !isRed(root.right))
+            root.color = RED;
+
+        root = deleteMax(root);
+        if (!isEmpty()) root.color = BLACK;
+        // assert check();
+        return removed;
+    }
+
+    // delete the key-value pair with the minimum key rooted at h
+    private Node deleteMin(Node h) {
+        if (h.left == null) {
+            removed = h.count;
+            return null;
+        }
+
+        if (!isRed(h.left) && !isRed(h.left.left))
+            h = moveRedLeft(h);
+
+        h.left = deleteMin(h.left);
+        return balance(h);
+    }
+
+    // delete the key-value pair with the maximum key rooted at h
+    private Node deleteMax(Node h) {
+        if (isRed(h.left))
+            h = rotateRight(h);
+
+        if (h.right == null) {
+            removed = h.count;
+            return null;
+        }
+
+        if (!isRed(h.right) && !isRed(h.right.left))
+            h = moveRedRight(h);
+
+        h.right = deleteMax(h.right);
+
+        return balance(h);
+    }
+
+    // remove the key, which is in the multiset, and all of its occurrences
+    private void delete(Key key) {
+        // if both children of root are black, set root to red
+        if (!isRed(root.left) && !isRed(root.right))
+            root.color = RED;
+
+        root = delete(root, key);
+        if (!isEmpty()) root.color = BLACK;
+        // assert check();
+    }
+
+    // delete the key with the given key rooted at h
+    private Node delete(Node h, Key key) {
+        if (key.compareTo(h.key) < 0)  {
+            if (!isRed(h.left) && !isRed(h.left.left))
+                h = moveRedLeft(h);
+            h.left = delete(h.left, key);
+        }
+        else {
+            if (isRed(h.left))
+                h = rotateRight(h);
+            if (key.compareTo(h.key) == 0 && (h.right == null))
+                return null;
+            if (!isRed(h.right) && !isRed(h.right.left))
+                h = moveRedRight(h);
+            if (key.compareTo(h.key) == 0) {
+                Node x = min(h.right);
+                h.key = x.key;
+                h.count = x.count;
+                h.right = deleteMin(h.right);
+            }
+            else h.right = delete(h.right, key);
+        }
+        return balance(h);
+    }
+
+   /***************************************************************************
+    *  Removing the smallest or largest occurrences.
+    ***************************************************************************/
+
+    /**
+     * Removes the <tt>k</tt> smallest occurrences, or all of them if there are
+     * fewer, and appends them to <tt>list</tt> in ascending order.
+     * @param k the number of occurrences to remove
+     * @param list the list to append the removed keys to
+     * @return the number of occurrences removed
+     * @throws IllegalArgumentException if <tt>k</tt> is negative
+     */
+    public long removeFirst(long k, List<? super Key> list) {
+        if (k < 0) throw new IllegalArgumentException("negative count");
+        if (k >= size()) return removeAll(list, true);
+        if (k == 0) return 0;
+        // every occurrence before the first one kept goes
+        Key first = select(k);
+        long partial = k - rank(first);
+        collect(root, first, false, list);
+        for (long i = 0; i < partial; i++) list.add(first);
+        root = split(first, false);
+        if (partial > 0) changeCount(first, -partial);
+        // assert check();
+        return k;
+    }
+
+    /**
+     * Removes the <tt>k</tt> largest occurrences, or all of them if there are
+     * fewer, and appends them to <tt>list</tt> in descending order.
+     * @param k the number of occurrences to remove
+     * @param list the list to append the removed keys to
+     * @return the number of occurrences removed
+     * @throws IllegalArgumentException if <tt>k</tt> is negative
+     */
+    public long removeLast(long k, List<? super Key> list) {
+        if (k < 0) throw new IllegalArgumentException("negative count");
+        if (k >= size()) return removeAll(list, false);
+        if (k == 0) return 0;
+        // every occurrence after the last one kept goes
+        long kept = size() - k;
+        Key last = select(kept - 1);
+        long partial = rank(last) + count(last) - kept;
+        collect(root, last, true, list);
+        for (long i = 0; i < partial; i++) list.add(last);
+        split(last, true);
+        if (partial > 0) changeCount(last, -partial);
+        // assert check();
+        return k;
+    }
+
+    // empty the multiset, appending every occurrence to the list in ascending
+    // or descending order; returns the number of occurrences removed
+    private long removeAll(List<? super Key> list, boolean ascending) {
+        long n = size();
+        if (ascending) {
+            collect(root, null, false, list);
+        }
+        else {
+            int from = list.size();
+            collect(root, null, false, list);
+            Collections.reverse(list.subList(from, list.size()));
+        }
+        root = null;
+        return n;
+    }
+
+    // append every occurrence in subtree x less than key (greater than key if
+    // after) to the list, in ascending order (descending if after); a null key
+    // is beyond every key
+    private void collect(Node x, Key key, boolean after, List<? super Key> list) {
+        if (x == null) return;
+        int cmp = (key == null) ? (after ? 1 : -1) : x.key.compareTo(key);
+        Node first = after ? x.right : x.left, second = after ? x.left : x.right;
+        collect(first, key, after, list);
+        if (after ? cmp > 0 : cmp < 0) {
+            for (long i = 0; i < x.count; i++) list.add(x.key);
+            collect(second, key, after, list);
+        }
+    }
+
+    // cut the tree in two: root becomes the keys less than key (or equal, if
+    // orEqual), and the root of the other keys is returned
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Node split(Key key, boolean orEqual) {
+        // walk the search path of key, remembering each node with the subtree
+        // that goes with it on its side of the cut, and that subtree's black height
+        int bh = blackHeight(root);
+        Node[] lower = (Node[]) new RedBlackMultiset.Node[2 * bh + 1];
+        Node[] upper = (Node[]) new RedBlackMultiset.Node[2 * bh + 1];
+        int[] lowerHeights = new int[lower.length], upperHeights = new int[upper.length];
+        int nl = 0, nu = 0;
+        Node x = root;
+        while (x != null) {
+            if (!isRed(x)) bh--;
+            int cmp = x.key.compareTo(key);
+            if (cmp < 0 || (cmp == 0 && orEqual)) {
+                lower[nl] = x;
+                lowerHeights[nl++] = bh;
+                x = x.right;
+            }
+            else {
+                upper[nu] = x;
+                upperHeights[nu++] = bh;
+                x = x.left;
+            }
+        }
+
+        // join each side back together, bottom-up
+        Node t = null;
+        int ht = 0;
+        for (int i = nu - 1; i >= 0; i--) {
+            // right links are black
+            t = join(t, ht, upper[i], upper[i].right, upperHeights[i]);
+            ht = Math.max(ht, upperHeights[i]);
+            if (isRed(t)) {
+                t.color = BLACK;
+                ht++;
+            }
+        }
+        Node other = t;
+
+        t = null;
+        ht = 0;
+        for (int i = nl - 1; i >= 0; i--) {
+            // a red left child becomes a black root one level higher
+            Node l = lower[i].left;
+            int hl = lowerHeights[i];
+            if (isRed(l)) {
+                l.color = BLACK;
+                hl++;
+            }
+            t = join(l, hl, lower[i], t, ht);
+            ht = Math.max(ht, hl);
+            if (isRed(t)) {
+                t.color = BLACK;
+                ht++;
+            }
+        }
+        root = t;
+        return other;
+    }
+
+    // number of black nodes on any path from x down to a null link, counting x
+    private int blackHeight(Node x) {
+        int black = 0;
+        for (; x != null; x = x.left)
+            if (!isRed(x)) black++;
+        return black;
+    }
+
+    // join the trees l and r, whose roots are black and whose black heights are
+    // hl and hr, using m as the node between them
+    private Node join(Node l, int hl, Node m, Node r, int hr) {
+        if (hl > hr) {
+            // right links are black, so each step down the right spine of l
+            // lowers the black height by one
+            l.right = join(l.right, hl - 1, m, r, hr);
+            return balance(l);
+        }
+        if (hl < hr || isRed(r)) {
+            r.left = join(l, hl, m, r.left, isRed(r) ? hr : hr - 1);
+            return balance(r);
+        }
+        m.left = l;
+        m.right = r;
+        m.color = RED;
+        update(m);
+        return m;
+    }
+
+   /***************************************************************************
+    *  Red-black tree helper functions.
+    ***************************************************************************/
+
+    // make a left-leaning link lean to the right
+    private Node rotateRight(Node h) {
+        Node x = h.left;
+        h.left = x.right;
+        x.right = h;
+        x.color = x.right.color;
+        x.right.color = RED;
+        x.N = h.N;
+        x.total = h.total;
+        update(h);
+        return x;
+    }
+
+    // make a right-leaning link lean to the left
+    private Node rotateLeft(Node h) {
+        Node x = h.right;
+        h.right = x.left;
+        x.left = h;
+        x.color = x.left.color;
+        x.left.color = RED;
+        x.N = h.N;
+        x.total = h.total;
+        update(h);
+        return x;
+    }
+
+    // flip the colors of a node and its two children
+    private void flipColors(Node h) {
+        h.color = !h.color;
+        h.left.color = !h.left.color;
+        h.right.color = !h.right.color;
+    }
+
+    // Assuming that h is red and both h.left and h.left.left
+    // are black, make h.left or one of its children red.
+    private Node moveRedLeft(Node h) {
+        flipColors(h);
+        if (isRed(h.right.left)) {
+            h.right = rotateRight(h.right);
+            h = rotateLeft(h);
+            flipColors(h);
+        }
+        return h;
+    }
+
+    // Assuming that h is red and both h.right and h.right.left
+    // are black, make h.right or one of its children red.
+    private Node moveRedRight(Node h) {
+        flipColors(h);
+        if (isRed(h.left.left)) {
+            h = rotateRight(h);
+            flipColors(h);
+        }
+        return h;
+    }
+
+    // restore red-black tree invariant
+    private Node balance(Node h) {
+        if (isRed(h.right))                      h = rotateLeft(h);
+        if (isRed(h.left) && isRed(h.left.left)) h = rotateRight(h);
+        if (isRed(h.left) && isRed(h.right))     flipColors(h);
+
+        update(h);
+        return h;
+    }
+
+   /***************************************************************************
+    *  Ordered multiset methods.
+    ***************************************************************************/
+
+    /**
+     * Returns the smallest key in the multiset.
+     * @return the smallest key in the multiset
+     * @throws NoSuchElementException if the multiset is empty
+     */
+    public Key min() {
+        if (isEmpty()) throw new NoSuchElementException("called min() with empty multiset");
+        return min(root).key;
+    }
+
+    // the smallest key in subtree rooted at x
+    private Node min(Node x) {
+        while (x.left != null) x = x.left;
+        return x;
+    }
+
+    /**
+     * Returns the largest key in the multiset.
+     * @return the largest key in the multiset
+     * @throws NoSuchElementException if the multiset is empty
+     */
+    public Key max() {
+        if (isEmpty()) throw new NoSuchElementException("called max() with empty multiset");
+        return max(root).key;
+    }
+
+    // the largest key in subtree rooted at x
+    private Node max(Node x) {
+        while (x.right != null) x = x.right;
+        return x;
+    }
+
+    /**
+     * Returns the number of occurrences of keys strictly less than <tt>key</tt>.
+     * @param key the key
+     * @return the number of occurrences of keys strictly less than <tt>key</tt>
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public long rank(Key key) {
+        long rank = 0;
+        Node x = root;
+        while (x != null) {
+            int cmp = key.compareTo(x.key);
+            if      (cmp < 0) x = x.left;
+            else if (cmp > 0) {
+                rank += total(x.left) + x.count;
+                x = x.right;
+            }
+            else return rank + total(x.left);
+        }
+        return rank;
+    }
+
+    /**
+     * Returns the key of the occurrence at position <tt>k</tt> when all
+     * occurrences are listed in order, starting from 0.
+     * @param k the position
+     * @return the key at position <tt>k</tt>
+     * @throws IllegalArgumentException unless <tt>k</tt> is between 0 and
+     *     <tt>size()</tt> &minus; 1
+     */
+    public Key select(long k) {
+        if (k < 0 || k >= size()) throw new IllegalArgumentException();
+        Node x = root;
+        while (true) {
+            long t = total(x.left);
+            if      (k < t)           x = x.left;
+            else if (k < t + x.count) return x.key;
+            else {
+                k -= t + x.count;
+                x = x.right;
+            }
+        }
+    }
+
+    /**
+     * Returns the <tt>q</tt>-quantile by the nearest-rank method: the smallest
+     * key such that at least a fraction <tt>q</tt> of the occurrences are
+     * less than or equal to it. The 0-quantile is the smallest key.
+     * @param q the fraction, from 0 to 1
+     * @return the <tt>q</tt>-quantile
+     * @throws IllegalArgumentException unless <tt>q</tt> is between 0 and 1
+     * @throws NoSuchElementException if the multiset is empty
+     */
+    public Key quantile(double q) {
+        if (!(q >= 0 && q <= 1)) throw new IllegalArgumentException("q must be between 0 and 1");
+        if (isEmpty()) throw new NoSuchElementException("called quantile() with empty multiset");
+        long k = (long) Math.ceil(q * size()) - 1;
+        return select(Math.min(Math.max(k, 0), size() - 1));
+    }
+
+    /**
+     * Returns the distinct keys in the multiset in order, as an <tt>Iterable</tt>.
+     * @return the distinct keys in the multiset as an <tt>Iterable</tt>
+     */
+    public Iterable<Key> keys() {
+        ArrayList<Key> list = new ArrayList<Key>(distinct());
+        keys(root, list);
+        return list;
+    }
+
+    // add the keys of subtree x to the list in order
+    private void keys(Node x, ArrayList<Key> list) {
+        if (x == null) return;
+        keys(x.left, list);
+        list.add(x.key);
+        keys(x.right, list);
+    }
+
+
+   /***************************************************************************
+    *  Check integrity of red-black tree data structure.
+    ***************************************************************************/
+    private boolean check() {
+        if (!isBST())             System.out.println("Not in symmetric order");
+        if (!isSizeConsistent())  System.out.println("Subtree counts not consistent");
+        if (!isTotalConsistent()) System.out.println("Subtree totals not consistent");
+        if (!is23())              System.out.println("Not a 2-3 tree");
+        if (!isBalanced())        System.out.println("Not balanced");
+        return isBST() && isSizeConsistent() && isTotalConsistent() && is23() && isBalanced();
+    }
+
+    // does this binary tree satisfy symmetric order?
+    private boolean isBST() {
+        return isBST(root, null, null);
+    }
+
+    // is the tree rooted at x a BST with all keys strictly between min and max
+    private boolean isBST(Node x, Key min, Key max) {
+        if (x == null) return true;
+        if (min != null && x.key.compareTo(min) <= 0) return false;
+        if (max != null && x.key.compareTo(max) >= 0) return false;
+        return isBST(x.left, min, x.key) && isBST(x.right, x.key, max);
+    }
+
+    // are the size fields correct?
+    private boolean isSizeConsistent() { return isSizeConsistent(root); }
+    private boolean isSizeConsistent(Node x) {
+        if (x == null) return true;
+        if (x.N != size(x.left) + size(x.right) + 1) return false;
+        return isSizeConsistent(x.left) && isSizeConsistent(x.right);
+    }
+
+    // are the counts positive and the total fields correct?
+    private boolean isTotalConsistent() { return isTotalConsistent(root); }
+    private boolean isTotalConsistent(Node x) {
+        if (x == null) return true;
+        if (x.count <= 0 || x.total != x.count + total(x.left) + total(x.right)) return false;
+        return isTotalConsistent(x.left) && isTotalConsistent(x.right);
+    }
+
+    // Does the tree have no red right links, and at most one (left)
+    // red links in a row on any path?
+    private boolean is23() { return is23(root); }
+    private boolean is23(Node x) {
+        if (x == null) return true;
+        if (isRed(x.right)) return false;
+        if (x != root && isRed(x) && isRed(x.left))
+            return false;
+        return is23(x.left) && is23(x.right);
+    }
+
+    // do all paths from root to leaf have same number of black edges?
+    private boolean isBalanced() {
+        int black = 0;     // number of black links on path from root to min
+        Node x = root;
+        while (x != null) {
+            if (!isRed(x)) black++;
+            x = x.left;
+        }
+        return isBalanced(root, black);
+    }
+
+    // does every path from the root to a leaf have the given number of black links?
+    private boolean isBalanced(Node x, int black) {
+        if (x == null) return black == 0;
+        if (!isRed(x)) black--;
+        return isBalanced(x.left, black) && isBalanced(x.right, black);
+    }
+
+
+    /**
+     * Unit tests the <tt>RedBlackMultiset</tt> data type.
+     */
+    public static void main(String[] args) {
+        RedBlackMultiset<Integer> latencies = new RedBlackMultiset<Integer>();
+        int[] samples = { 12, 15, 12, 11, 12, 250, 13, 15, 12, 11, 14, 900 };
+        for (int sample : samples) latencies.add(sample);
+        latencies.add(13, 5);
+        latencies.remove(900);
+        System.out.println(latencies.size() + " samples, " + latencies.distinct() + " distinct, "
+                + "count(12) " + latencies.count(12) + ", rank(13) " + latencies.rank(13));
+        System.out.println("p50 " + latencies.quantile(0.5) + ", p90 " + latencies.quantile(0.9)
+                + ", p99 " + latencies.quantile(0.99) + ", consistent " + latencies.check());
+    }
+}
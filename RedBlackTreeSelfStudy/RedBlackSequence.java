@@ -0,0 +1,547 @@
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ *  The <tt>RedBlackSequence</tt> class represents a list of items indexed
+ *  by position, like a rope.
+ *  It supports <em>get</em>, <em>set</em>, <em>add</em>, <em>insert-at</em>
+ *  and <em>remove-at</em> by index, <em>size</em>, iteration in order,
+ *  <em>split-at</em>, which cuts the list in two, and <em>concat</em>, which
+ *  appends a whole list.
+ *  <p>
+ *  This implementation is the left-leaning red-black BST of {@link RedBlackBST}
+ *  without keys. The subtree count <em>N</em> gives each node its position:
+ *  a node is preceded by the nodes in its left subtree, so a descent to index
+ *  <em>i</em> compares <em>i</em> with the size of the left subtree instead
+ *  of comparing keys. Insertions and deletions use the same rotations and
+ *  <em>balance</em>. <em>split-at</em> and <em>concat</em> use the join by
+ *  black height of {@link RedBlackBST#evictBefore}.
+ *  All operations take logarithmic time in the worst case, except iteration,
+ *  which takes constant amortized time per item.
+ */
+public class RedBlackSequence<Item> implements Iterable<Item> {
+
+    private static final boolean RED   = true;
+    private static final boolean BLACK = false;
+
+    private Node root;     // root of the BST
+
+    // BST helper node data type
+    private class Node {
+        private Item val;          // associated data
+        private Node left, right;  // links to left and right subtrees
+        private boolean color;     // color of parent link
+        private int N;             // subtree count
+
+        public Node(Item val, boolean color, int N) {
+            this.val = val;
+            this.color = color;
+            this.N = N;
+        }
+    }
+
+    /**
+     * Initializes an empty sequence.
+     */
+    public RedBlackSequence() {
+    }
+
+   /***************************************************************************
+    *  Node helper methods.
+    ***************************************************************************/
+    // is node x red; false if x is null ?
+    private boolean isRed(Node x) {
+        if (x == null) return false;
+        return x.color == RED;
+    }
+
+    // number of node in subtree rooted at x; 0 if x is null
+    private int size(Node x) {
+        if (x == null) return 0;
+        return x.N;
+    }
+
+    /**
+     * Returns the number of items in this sequence.
+     * @return the number of items in this sequence
+     */
+    public int size() {
+        return size(root);
+    }
+
+   /**
+     * Is this sequence empty?
+     * @return <tt>true</tt> if this sequence is empty and <tt>false</tt> otherwise
+     */
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    // throw unless 0 <= index < bound
+    private void checkIndex(int index, int bound) {
+        if (index < 0 || index >= bound)
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size());
+    }
+
+   /***************************************************************************
+    *  Positional search.
+    ***************************************************************************/
+
+    /**
+     * Returns the item at the given index.
+     * @param index the index
+     * @return the item at the given index
+     * @throws IndexOutOfBoundsException unless 0 &le; <tt>index</tt> &lt; <em>N</em>
+     */
+    public Item get(int index) {
+        checkIndex(index, size());
+        return node(index).val;
+    }
+
+    /**
+     * Replaces the item at the given index.
+     * @param index the index
+     * @param item the new item
+     * @return the item that was at the given index
+     * @throws IndexOutOfBoundsException unless 0 &le; <tt>index</tt> &lt; <em>N</em>
+     */
+    public Item set(int index, Item item) {
+        checkIndex(index, size());
+        Node x = node(index);
+        Item old = x.val;
+        x.val = item;
+        return old;
+    }
+
+    // the node at index i; 0 <= i < size()
+    private Node node(int i) {
+        Node x = root;
+        while (true) {
+            int t = size(x.left);
+            if      (i < t) x = x.left;
+            else if (i > t) { i -= t + 1; x = x.right; }
+            else            return x;
+        }
+    }
+
+   /***************************************************************************
+    *  Red-black tree insertion.
+    ***************************************************************************/
+
+    /**
+     * Appends the item to the end of this sequence.
+     * @param item the item
+     */
+    public void add(Item item) {
+        insertAt(size(), item);
+    }
+
+    /**
+     * Inserts the item at the given index, shifting the item there and every
+     * item after it one position to the right.
+     * @param index the index, from 0 to <em>N</em>
+     * @param item the item
+     * @throws IndexOutOfBoundsException unless 0 &le; <tt>index</tt> &le; <em>N</em>
+     */
+    public void insertAt(int index, Item item) {
+        checkIndex(index, size() + 1);
+        root = insert(root, index, item);
+        root.color = BLACK;
+        // assert check();
+    }
+
+    // insert the item at index i of the subtree rooted at h
+    private Node insert(Node h, int i, Item item) {
+        if (h == null) return new Node(item, RED, 1);
+
+        int t = size(h.left);
+        if (i <= t) h.left  = insert(h.left,  i, item);
+        else        h.right = insert(h.right, i - t - 1, item);
+
+        // fix-up any right-leaning links
+        if (isRed(h.right) && !isRed(h.left))      h = rotateLeft(h);
+        if (isRed(h.left)  &&  isRed(h.left.left)) h = rotateRight(h);
+        if (isRed(h.left)  &&  isRed(h.right))     flipColors(h);
+        h.N = size(h.left) + size(h.right) + 1;
+
+        return h;
+    }
+
+   /***************************************************************************
+    *  Red-black tree deletion.
+    ***************************************************************************/
+
+    /**
+     * Removes the item at the given index, shifting every item after it one
+     * position to the left.
+     * @param index the index
+     * @return the item that was removed
+     * @throws IndexOutOfBoundsException unless 0 &le; <tt>index</tt> &lt; <em>N</em>
+     */
+    public Item removeAt(int index) {
+        checkIndex(index, size());
+        Item item = node(index).val;
+
+        // if both children of root are black, set root to red
+        if (!isRed(root.left) && !isRed(root.right))
+            root.color = RED;
+
+        root = delete(root, index);
+        if (!isEmpty()) root.color = BLACK;
+        // assert check();
+        return item;
+    }
+
+    // delete the node at index i of the subtree rooted at h
+    private Node delete(Node h, int i) {
+        if (i < size(h.left))  {
+            if (!isRed(h.left) && !isRed(h.left.left))
+                h = moveRedLeft(h);
+            h.left = delete(h.left, i);
+        }
+        else {
+            if (isRed(h.left))
+                h = rotateRight(h);
+            if (i == size(h.left) && (h.right == null))
+                return null;
+            if (!isRed(h.right) && !isRed(h.right.left))
+                h = moveRedRight(h);
+            if (i == size(h.left)) {
+                Node x = min(h.right);
+                h.val = x.val;
+                h.right = deleteMin(h.right);
+            }
+            else h.right = delete(h.right, i - size(h.left) - 1);
+        }
+        return balance(h);
+    }
+
+    // delete the first node of the subtree rooted at h
+    private Node deleteMin(Node h) {
+        if (h.left == null)
+            return null;
+
+        if (!isRed(h.left) && !isRed(h.left.left))
+            h = moveRedLeft(h);
+
+        h.left = deleteMin(h.left);
+        return balance(h);
+    }
+
+    // the first node of the subtree rooted at x
+    private Node min(Node x) {
+        while (x.left != null) x = x.left;
+        return x;
+    }
+
+   /***************************************************************************
+    *  Split and concatenation.
+    ***************************************************************************/
+
+    /**
+     * Splits this sequence in two: this sequence keeps the items before
+     * <tt>index</tt>, and the rest are moved, in order, to a new sequence.
+     * @param index the index of the first item to move
+     * @return a sequence of the items from <tt>index</tt> on
+     * @throws IndexOutOfBoundsException unless 0 &le; <tt>index</tt> &le; <em>N</em>
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public RedBlackSequence<Item> splitAt(int index) {
+        checkIndex(index, size() + 1);
+        RedBlackSequence<Item> that = new RedBlackSequence<Item>();
+        if (isEmpty()) return that;
+
+        // walk down to index, remembering each node with the subtree that goes
+        // with it on its side of the cut, and the black height of that subtree
+        int bh = blackHeight(root);
+        Node[] before = (Node[]) new RedBlackSequence.Node[2 * bh + 1];
+        Node[] after  = (Node[]) new RedBlackSequence.Node[2 * bh + 1];
+        int[] beforeHeights = new int[before.length], afterHeights = new int[after.length];
+        int nb = 0, na = 0;
+        Node x = root;
+        int i = index;
+        while (x != null) {
+            if (!isRed(x)) bh--;
+            int t = size(x.left);
+            if (i <= t) {
+                after[na] = x;
+                afterHeights[na++] = bh;
+                x = x.left;
+            }
+            else {
+                before[nb] = x;
+                beforeHeights[nb++] = bh;
+                i -= t + 1;
+                x = x.right;
+            }
+        }
+
+        // join each side back together, bottom-up
+        Node t = null;
+        int ht = 0;
+        for (int j = na - 1; j >= 0; j--) {
+            // right links are black
+            t = join(t, ht, after[j], after[j].right, afterHeights[j]);
+            ht = Math.max(ht, afterHeights[j]);
+            if (isRed(t)) {
+                t.color = BLACK;
+                ht++;
+            }
+        }
+        that.root = t;
+
+        t = null;
+        ht = 0;
+        for (int j = nb - 1; j >= 0; j--) {
+            // a red left child becomes a black root one level higher
+            Node l = before[j].left;
+            int hl = beforeHeights[j];
+            if (isRed(l)) {
+                l.color = BLACK;
+                hl++;
+            }
+            t = join(l, hl, before[j], t, ht);
+            ht = Math.max(ht, hl);
+            if (isRed(t)) {
+                t.color = BLACK;
+                ht++;
+            }
+        }
+        root = t;
+        // assert check() && that.check();
+        return that;
+    }
+
+    /**
+     * Appends every item of <tt>that</tt> to this sequence, in order, and
+     * leaves <tt>that</tt> empty.
+     * @param that the sequence to append
+     * @throws IllegalArgumentException if <tt>that</tt> is this sequence
+     */
+    public void concat(RedBlackSequence<Item> that) {
+        if (that == this) throw new IllegalArgumentException("cannot append a sequence to itself");
+        if (that.isEmpty()) return;
+        if (isEmpty()) {
+            root = that.root;
+            that.root = null;
+            return;
+        }
+        // the first item of that becomes the node that joins the two trees
+        Node m = new Node(that.removeAt(0), RED, 1);
+        root = join(root, blackHeight(root), m, that.root, blackHeight(that.root));
+        root.color = BLACK;
+        that.root = null;
+        // assert check();
+    }
+
+    // number of black nodes on any path from x down to a null link, counting x
+    private int blackHeight(Node x) {
+        int black = 0;
+        for (; x != null; x = x.left)
+            if (!isRed(x)) black++;
+        return black;
+    }
+
+    // join the trees l and r, whose roots are black and whose black heights are
+    // hl and hr, using m as the node between them
+    private Node join(Node l, int hl, Node m, Node r, int hr) {
+        if (hl > hr) {
+            // right links are black, so each step down the right spine of l
+            // lowers the black height by one
+            l.right = join(l.right, hl - 1, m, r, hr);
+            return balance(l);
+        }
+        if (hl < hr || isRed(r)) {
+            r.left = join(l, hl, m, r.left, isRed(r) ? hr : hr - 1);
+            return balance(r);
+        }
+        m.left = l;
+        m.right = r;
+        m.color = RED;
+        m.N = size(l) + size(r) + 1;
+        return m;
+    }
+
+   /***************************************************************************
+    *  Red-black tree helper functions.
+    ***************************************************************************/
+
+    // make a left-leaning link lean to the right
+    private Node rotateRight(Node h) {
+        Node x = h.left;
+        h.left = x.right;
+        x.right = h;
+        x.color = x.right.color;
+        x.right.color = RED;
+        x.N = h.N;
+        h.N = size(h.left) + size(h.right) + 1;
+        return x;
+    }
+
+    // make a right-leaning link lean to the left
+    private Node rotateLeft(Node h) {
+        Node x = h.right;
+        h.right = x.left;
+        x.left = h;
+        x.color = x.left.color;
+        x.left.color = RED;
+        x.N = h.N;
+        h.N = size(h.left) + size(h.right) + 1;
+        return x;
+    }
+
+    // flip the colors of a node and its two children
+    private void flipColors(Node h) {
+        h.color = !h.color;
+        h.left.color = !h.left.color;
+        h.right.color = !h.right.color;
+    }
+
+    // Assuming that h is red and both h.left and h.left.left
+    // are black, make h.left or one of its children red.
+    private Node moveRedLeft(Node h) {
+        flipColors(h);
+        if (isRed(h.right.left)) {
+            h.right = rotateRight(h.right);
+            h = rotateLeft(h);
+            flipColors(h);
+        }
+        return h;
+    }
+
+    // Assuming that h is red and both h.right and h.right.left
+    // are black, make h.right or one of its children red.
+    private Node moveRedRight(Node h) {
+        flipColors(h);
+        if (isRed(h.left.left)) {
+            h = rotateRight(h);
+            flipColors(h);
+        }
+        return h;
+    }
+
+    // restore red-black tree invariant
+    private Node balance(Node h) {
+        if (isRed(h.right))                      h = rotateLeft(h);
+        if (isRed(h.left) && isRed(h.left.left)) h = rotateRight(h);
+        if (isRed(h.left) && isRed(h.right))     flipColors(h);
+
+        h.N = size(h.left) + size(h.right) + 1;
+        return h;
+    }
+
+   /***************************************************************************
+    *  Iteration.
+    ***************************************************************************/
+
+    /**
+     * Returns an iterator over the items of this sequence, in order.
+     * The sequence must not be modified while the iterator is in use.
+     * @return an iterator over the items of this sequence
+     */
+    public Iterator<Item> iterator() {
+        return new InOrderIterator();
+    }
+
+    // an in-order traversal with an explicit stack
+    private class InOrderIterator implements Iterator<Item> {
+        private final ArrayDeque<Node> stack = new ArrayDeque<Node>();
+
+        public InOrderIterator() {
+            pushLeft(root);
+        }
+
+        // push x and its left descendants
+        private void pushLeft(Node x) {
+            for (; x != null; x = x.left) stack.push(x);
+        }
+
+        public boolean hasNext()  { return !stack.isEmpty();                   }
+        public void remove()      { throw new UnsupportedOperationException();  }
+
+        public Item next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            Node x = stack.pop();
+            pushLeft(x.right);
+            return x.val;
+        }
+    }
+
+    /**
+     * Returns the height of the BST (for debugging).
+     * @return the height of the BST (a 1-node tree has height 0)
+     */
+    public int height() {
+        return height(root);
+    }
+    private int height(Node x) {
+        if (x == null) return -1;
+        return 1 + Math.max(height(x.left), height(x.right));
+    }
+
+
+   /***************************************************************************
+    *  Check integrity of red-black tree data structure.
+    ***************************************************************************/
+    private boolean check() {
+        if (!isSizeConsistent()) System.out.println("Subtree counts not consistent");
+        if (!is23())             System.out.println("Not a 2-3 tree");
+        if (!isBalanced())       System.out.println("Not balanced");
+        return isSizeConsistent() && is23() && isBalanced();
+    }
+
+    // are the size fields correct?
+    private boolean isSizeConsistent() { return isSizeConsistent(root); }
+    private boolean isSizeConsistent(Node x) {
+        if (x == null) return true;
+        if (x.N != size(x.left) + size(x.right) + 1) return false;
+        return isSizeConsistent(x.left) && isSizeConsistent(x.right);
+    }
+
+    // Does the tree have no red right links, and at most one (left)
+    // red links in a row on any path?
+    private boolean is23() { return is23(root); }
+    private boolean is23(Node x) {
+        if (x == null) return true;
+        if (isRed(x.right)) return false;
+        if (x != root && isRed(x) && isRed(x.left))
+            return false;
+        return is23(x.left) && is23(x.right);
+    }
+
+    // do all paths from root to leaf have same number of black edges?
+    private boolean isBalanced() {
+        int black = 0;     // number of black links on path from root to min
+        Node x = root;
+        while (x != null) {
+            if (!isRed(x)) black++;
+            x = x.left;
+        }
+        return isBalanced(root, black);
+    }
+
+    // does every path from the root to a leaf have the given number of black links?
+    private boolean isBalanced(Node x, int black) {
+        if (x == null) return black == 0;
+        if (!isRed(x)) black--;
+        return isBalanced(x.left, black) && isBalanced(x.right, black);
+    }
+
+
+    /**
+     * Unit tests the <tt>RedBlackSequence</tt> data type.
+     */
+    public static void main(String[] args) {
+        RedBlackSequence<String> seq = new RedBlackSequence<String>();
+        for (String s : "the quick fox jumps over the dog".split(" ")) seq.add(s);
+        seq.insertAt(2, "brown");
+        seq.insertAt(7, "lazy");
+        RedBlackSequence<String> tail = seq.splitAt(4);
+        tail.removeAt(0);
+        tail.insertAt(0, "leaps");
+        seq.concat(tail);
+        for (String s : seq) System.out.print(s + " ");
+        System.out.println("(" + seq.size() + " words, consistent " + seq.check() + ")");
+    }
+}
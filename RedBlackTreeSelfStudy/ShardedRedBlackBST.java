@@ -0,0 +1,452 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ *  The <tt>ShardedRedBlackBST</tt> class represents a thread-safe ordered symbol
+ *  table whose key space is split into <em>K</em> ranges. Each range is held by
+ *  its own {@link RedBlackBST} behind its own read-write lock, so writers to
+ *  different ranges never wait for each other.
+ *  <p>
+ *  <em>put</em>, <em>get</em>, <em>contains</em> and <em>delete</em> lock a
+ *  single shard and write nothing shared with other shards. The boundaries and
+ *  the shards are an immutable snapshot in a volatile field; an operation
+ *  reads it, locks its shard and retries if the snapshot has been replaced
+ *  in the meantime. Each shard counts its own keys, and <em>size</em> adds
+ *  up the counts. <em>rank</em>, <em>select</em>, <em>min</em>, <em>max</em>,
+ *  <em>floor</em>, <em>ceiling</em> and <em>keys</em> read-lock every shard and
+ *  combine the per-shard answers, so they see one consistent state.
+ *  <p>
+ *  When one shard grows past <tt>SKEW</tt> times the average shard size, the
+ *  boundaries are recomputed so that every shard holds the same number of keys.
+ *  Rebalancing copies the pairs out in order and builds the new shards
+ *  bottom-up, in linear time. It blocks every other operation, but it only
+ *  happens after the shards have drifted far apart.
+ */
+public class ShardedRedBlackBST<Key extends Comparable<Key>, Value> {
+
+    private static final int SKEW = 2;            // largest shard / average shard before rebalancing
+    private static final int MIN_REBALANCE = 1024; // no rebalancing below this many keys
+    private static final int CHECK_EVERY = 64;     // a growing shard checks for skew every this many keys
+
+    private volatile Layout layout;                // replaced as a whole when the boundaries move
+    private final ReentrantLock rebalancing = new ReentrantLock();
+
+    // the boundaries and the shards between them; never changed once published
+    private class Layout {
+        private final Key[] splitters;   // shard i holds the keys in [splitters[i-1], splitters[i])
+        private final Shard[] shards;
+
+        public Layout(Key[] splitters, Shard[] shards) {
+            this.splitters = splitters;
+            this.shards = shards;
+        }
+    }
+
+    // one range of the key space
+    private class Shard {
+        private final RedBlackBST<Key, Value> st;
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private volatile int size;       // keys in st; written under the write lock
+
+        public Shard(RedBlackBST<Key, Value> st) {
+            this.st = st;
+            this.size = st.size();
+        }
+    }
+
+    /**
+     * Initializes an empty symbol table with one shard per range between the
+     * given boundaries, that is <tt>splitters.length + 1</tt> shards.
+     * @param splitters the initial boundaries, in strictly increasing order
+     * @throws IllegalArgumentException if the boundaries are not strictly increasing
+     */
+    public ShardedRedBlackBST(Key[] splitters) {
+        for (int i = 1; i < splitters.length; i++)
+            if (splitters[i-1].compareTo(splitters[i]) >= 0)
+                throw new IllegalArgumentException("splitters must be strictly increasing");
+        Shard[] shards = newShards(splitters.length + 1);
+        for (int i = 0; i < shards.length; i++) shards[i] = new Shard(new RedBlackBST<Key, Value>());
+        this.layout = new Layout(splitters.clone(), shards);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Shard[] newShards(int k) {
+        return (Shard[]) new ShardedRedBlackBST.Shard[k];
+    }
+
+    /**
+     * Returns the number of shards.
+     * @return the number of shards
+     */
+    public int shards() {
+        return layout.shards.length;
+    }
+
+    /**
+     * Returns the number of key-value pairs in this symbol table. The shard
+     * counts are added up without locking, so while other threads write this
+     * may mix counts from slightly different moments.
+     * @return the number of key-value pairs in this symbol table
+     */
+    public int size() {
+        return size(layout);
+    }
+
+    // sum of the shard counts of the layout
+    private int size(Layout l) {
+        int n = 0;
+        for (Shard s : l.shards) n += s.size;
+        return n;
+    }
+
+    /**
+     * Is this symbol table empty?
+     * @return <tt>true</tt> if this symbol table is empty and <tt>false</tt> otherwise
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    // index of the shard responsible for key
+    private int shardFor(Layout l, Key key) {
+        Key[] splitters = l.splitters;
+        int lo = 0, hi = splitters.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (key.compareTo(splitters[mid]) < 0) hi = mid;
+            else                                   lo = mid + 1;
+        }
+        return lo;
+    }
+
+   /***************************************************************************
+    *  Single-shard operations.
+    ***************************************************************************/
+
+    /**
+     * Returns the value associated with the given key.
+     * @param key the key
+     * @return the value associated with the given key if the key is in the symbol table
+     *     and <tt>null</tt> if the key is not in the symbol table
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public Value get(Key key) {
+        while (true) {
+            Layout l = layout;
+            Shard s = l.shards[shardFor(l, key)];
+            s.lock.readLock().lock();
+            try {
+                // a rebalance may have replaced the shard before it was locked
+                if (layout == l) return s.st.get(key);
+            } finally {
+                s.lock.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Does this symbol table contain the given key?
+     * @param key the key
+     * @return <tt>true</tt> if this symbol table contains <tt>key</tt> and
+     *     <tt>false</tt> otherwise
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public boolean contains(Key key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Inserts the key-value pair into the symbol table, overwriting the old value
+     * with the new value if the key is already in the symbol table.
+     * @param key the key
+     * @param val the value
+     * @throws NullPointerException if <tt>key</tt> or <tt>val</tt> is <tt>null</tt>
+     */
+    public void put(Key key, Value val) {
+        if (val == null) throw new NullPointerException("value is null");
+        boolean skewed = false;
+        while (true) {
+            Layout l = layout;
+            Shard s = l.shards[shardFor(l, key)];
+            s.lock.writeLock().lock();
+            try {
+                if (layout != l) continue;
+                int before = s.st.size();
+                s.st.put(key, val);
+                if (s.st.size() > before) {
+                    s.size = before + 1;
+                    // adding up every shard is only worth it once in a while
+                    if (s.size % CHECK_EVERY == 0) skewed = isSkewed(l, s.size);
+                }
+                break;
+            } finally {
+                s.lock.writeLock().unlock();
+            }
+        }
+        if (skewed) rebalance();
+    }
+
+    /**
+     * Removes the key and associated value from the symbol table
+     * (if the key is in the symbol table).
+     * @param key the key
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public void delete(Key key) {
+        while (true) {
+            Layout l = layout;
+            Shard s = l.shards[shardFor(l, key)];
+            s.lock.writeLock().lock();
+            try {
+                if (layout != l) continue;
+                if (s.st.contains(key)) {
+                    s.st.delete(key);
+                    s.size--;
+                }
+                return;
+            } finally {
+                s.lock.writeLock().unlock();
+            }
+        }
+    }
+
+   /***************************************************************************
+    *  Ordered operations across all shards.
+    ***************************************************************************/
+
+    // read-lock every shard of the current layout in index order, retrying
+    // if the layout is replaced meanwhile; returns the layout locked
+    private Layout lockAll() {
+        while (true) {
+            Layout l = layout;
+            for (Shard s : l.shards) s.lock.readLock().lock();
+            if (layout == l) return l;
+            unlockAll(l);
+        }
+    }
+
+    private void unlockAll(Layout l) {
+        for (Shard s : l.shards) s.lock.readLock().unlock();
+    }
+
+    /**
+     * Returns the smallest key in the symbol table.
+     * @return the smallest key in the symbol table
+     * @throws NoSuchElementException if the symbol table is empty
+     */
+    public Key min() {
+        Layout l = lockAll();
+        Shard[] shards = l.shards;
+        try {
+            for (Shard s : shards)
+                if (!s.st.isEmpty()) return s.st.min();
+            throw new NoSuchElementException("called min() with empty symbol table");
+        } finally {
+            unlockAll(l);
+        }
+    }
+
+    /**
+     * Returns the largest key in the symbol table.
+     * @return the largest key in the symbol table
+     * @throws NoSuchElementException if the symbol table is empty
+     */
+    public Key max() {
+        Layout l = lockAll();
+        Shard[] shards = l.shards;
+        try {
+            for (int i = shards.length - 1; i >= 0; i--)
+                if (!shards[i].st.isEmpty()) return shards[i].st.max();
+            throw new NoSuchElementException("called max() with empty symbol table");
+        } finally {
+            unlockAll(l);
+        }
+    }
+
+    /**
+     * Returns the largest key in the symbol table less than or equal to <tt>key</tt>.
+     * @param key the key
+     * @return the largest key in the symbol table less than or equal to <tt>key</tt>,
+     *     or <tt>null</tt> if there is no such key
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public Key floor(Key key) {
+        Layout l = lockAll();
+        Shard[] shards = l.shards;
+        try {
+            int i = shardFor(l, key);
+            RedBlackBST<Key, Value> st = shards[i].st;
+            Key x = st.isEmpty() ? null : st.floor(key);
+            if (x != null) return x;
+            // every key of an earlier shard is smaller than key
+            for (i--; i >= 0; i--)
+                if (!shards[i].st.isEmpty()) return shards[i].st.max();
+            return null;
+        } finally {
+            unlockAll(l);
+        }
+    }
+
+    /**
+     * Returns the smallest key in the symbol table greater than or equal to <tt>key</tt>.
+     * @param key the key
+     * @return the smallest key in the symbol table greater than or equal to <tt>key</tt>,
+     *     or <tt>null</tt> if there is no such key
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public Key ceiling(Key key) {
+        Layout l = lockAll();
+        Shard[] shards = l.shards;
+        try {
+            int i = shardFor(l, key);
+            RedBlackBST<Key, Value> st = shards[i].st;
+            Key x = st.isEmpty() ? null : st.ceiling(key);
+            if (x != null) return x;
+            // every key of a later shard is larger than key
+            for (i++; i < shards.length; i++)
+                if (!shards[i].st.isEmpty()) return shards[i].st.min();
+            return null;
+        } finally {
+            unlockAll(l);
+        }
+    }
+
+    /**
+     * Return the number of keys in the symbol table strictly less than <tt>key</tt>.
+     * @param key the key
+     * @return the number of keys in the symbol table strictly less than <tt>key</tt>
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public int rank(Key key) {
+        Layout l = lockAll();
+        Shard[] shards = l.shards;
+        try {
+            int i = shardFor(l, key);
+            int rank = shards[i].st.rank(key);
+            for (int j = 0; j < i; j++) rank += shards[j].st.size();
+            return rank;
+        } finally {
+            unlockAll(l);
+        }
+    }
+
+    /**
+     * Return the kth smallest key in the symbol table.
+     * @param k the order statistic
+     * @return the kth smallest key in the symbol table
+     * @throws IllegalArgumentException unless <tt>k</tt> is between 0 and
+     *     <em>N</em> &minus; 1
+     */
+    public Key select(int k) {
+        Layout l = lockAll();
+        Shard[] shards = l.shards;
+        try {
+            if (k < 0) throw new IllegalArgumentException();
+            for (Shard s : shards) {
+                if (k < s.st.size()) return s.st.select(k);
+                k -= s.st.size();
+            }
+            throw new IllegalArgumentException();
+        } finally {
+            unlockAll(l);
+        }
+    }
+
+    /**
+     * Returns all keys in the symbol table between <tt>lo</tt> and <tt>hi</tt>
+     * (both inclusive), in ascending order.
+     * @param lo the smallest key to return
+     * @param hi the largest key to return
+     * @return the keys in the given range as an <tt>Iterable</tt>
+     * @throws NullPointerException if either <tt>lo</tt> or <tt>hi</tt>
+     *    is <tt>null</tt>
+     */
+    public Iterable<Key> keys(Key lo, Key hi) {
+        List<Key> list = new ArrayList<Key>();
+        if (lo.compareTo(hi) > 0) return list;
+        Layout l = lockAll();
+        Shard[] shards = l.shards;
+        try {
+            for (int i = shardFor(l, lo), last = shardFor(l, hi); i <= last; i++)
+                for (Key key : shards[i].st.keys(lo, hi)) list.add(key);
+            return list;
+        } finally {
+            unlockAll(l);
+        }
+    }
+
+   /***************************************************************************
+    *  Rebalancing.
+    ***************************************************************************/
+
+    // is a shard of the given size too large compared with the average? Never
+    // while there are fewer keys than shards, since every new shard needs a key
+    private boolean isSkewed(Layout l, int shardSize) {
+        int total = size(l);
+        if (total < MIN_REBALANCE || total < l.shards.length) return false;
+        return (long) shardSize * l.shards.length > (long) SKEW * total;
+    }
+
+    /**
+     * Moves the shard boundaries so that every shard holds the same number of
+     * keys. This is done automatically when the shards become skewed.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void rebalance() {
+        rebalancing.lock();
+        try {
+            Layout l = layout;
+            Shard[] shards = l.shards;
+            for (Shard s : shards) s.lock.writeLock().lock();
+            try {
+                int largest = 0;
+                for (Shard s : shards) largest = Math.max(largest, s.size);
+                if (!isSkewed(l, largest)) return;
+
+                // copy every pair out in order; the old shards are already sorted relative to each other
+                int n = size(l);
+                Key[] keys = (Key[]) new Comparable[n];
+                Value[] vals = (Value[]) new Object[n];
+                int offset = 0;
+                for (Shard s : shards) {
+                    s.st.toArrays(keys, vals, offset);
+                    offset += s.size;
+                }
+
+                // shard i gets keys[ceil(i n / k)] up to the next shard's first key;
+                // n >= k, so every shard gets at least one key and the splitters increase
+                int k = shards.length;
+                Shard[] fresh = newShards(k);
+                Key[] splitters = (Key[]) new Comparable[k - 1];
+                for (int i = 0; i < k; i++) {
+                    int lo = (int) (((long) i * n + k - 1) / k);
+                    int hi = (int) (((long) (i + 1) * n + k - 1) / k);
+                    fresh[i] = new Shard(new RedBlackBST<Key, Value>(keys, vals, lo, hi));
+                    if (i > 0) splitters[i-1] = keys[lo];
+                }
+                // operations waiting on an old shard find the layout replaced and retry
+                layout = new Layout(splitters, fresh);
+            } finally {
+                for (Shard s : shards) s.lock.writeLock().unlock();
+            }
+        } finally {
+            rebalancing.unlock();
+        }
+    }
+
+
+    /**
+     * Unit tests the <tt>ShardedRedBlackBST</tt> data type.
+     */
+    public static void main(String[] args) {
+        ShardedRedBlackBST<Integer, Integer> st = new ShardedRedBlackBST<Integer, Integer>(new Integer[] { 100, 200, 300 });
+        // all keys land in the first shard until the boundaries move
+        for (int i = 0; i < 4000; i++) st.put(i % 100 * 40 + i / 100, i);
+        System.out.println("size " + st.size() + " min " + st.min() + " max " + st.max());
+        System.out.println("rank(2000) " + st.rank(2000) + " select(2000) " + st.select(2000));
+        System.out.println("keys(1995, 2005) " + st.keys(1995, 2005));
+    }
+}
@@ -0,0 +1,620 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ *  The <tt>StringRedBlackBST</tt> class represents an ordered symbol table
+ *  of <tt>String</tt> keys and generic values. Its keys are meant to be long
+ *  and to share long prefixes, like URLs or file paths.
+ *  It supports <em>put</em>, <em>get</em>, <em>contains</em>, <em>delete</em>,
+ *  <em>deleteMin</em>, <em>size</em>, <em>min</em>, <em>max</em>,
+ *  <em>floor</em>, <em>ceiling</em>, <em>rank</em> and <em>keys</em>.
+ *  Keys are ordered by {@link String#compareTo}.
+ *  <p>
+ *  This implementation is the left-leaning red-black BST of {@link RedBlackBST}
+ *  whose nodes also hold a <em>partial key</em>. That is the offset at which the
+ *  key of the node first differs from the key of its parent, together with the
+ *  8 characters of the key from that offset, one per byte in a <tt>long</tt>.
+ *  A search carries down the length of the common prefix of the search key and
+ *  the key of the parent. Comparing that length with the offset of the node
+ *  decides the comparison outright, unless the two are equal. Then the 8 cached
+ *  characters decide it, unless they are equal too. Only then does the search
+ *  read the key of the node, and it starts at the offset. So most steps down
+ *  the tree read the node and nothing else, and no step rescans the prefix
+ *  that all the keys share.
+ *  <p>
+ *  The cached characters compare as unsigned numbers in the same order as the
+ *  keys. A character above 254 is cached as the byte 255 and ends the window,
+ *  and a key that ends inside the window is padded with 0.
+ *  Every change to a link refreshes the partial key of the child.
+ *  The <em>get</em>, <em>floor</em>, <em>ceiling</em>, <em>rank</em> and
+ *  <em>put</em> operations use partial keys. <em>delete</em> compares whole
+ *  keys, since it restructures the tree on the way down.
+ *  None of the comparisons allocate.
+ */
+public class StringRedBlackBST<Value> {
+
+    private static final boolean RED   = true;
+    private static final boolean BLACK = false;
+    private static final int WINDOW = 8;   // characters cached per node
+    private static final int STALE = -1;   // offset of a node rotated up, until it is linked again
+
+    private Node root;     // root of the BST
+
+    // BST helper node data type
+    private class Node {
+        private String key;        // key
+        private Value val;         // associated data
+        private Node left, right;  // links to left and right subtrees
+        private boolean color;     // color of parent link
+        private int N;             // subtree count
+        private int length;        // length of the key
+        private int offset;        // length of the common prefix with the key of the parent, 0 at the root
+        private long window;       // characters of the key from offset, see window()
+
+        public Node(String key, Value val, boolean color, int N) {
+            this.key = key;
+            this.val = val;
+            this.color = color;
+            this.N = N;
+            this.length = key.length();
+        }
+    }
+
+    /**
+     * Initializes an empty symbol table.
+     */
+    public StringRedBlackBST() {
+    }
+
+   /***************************************************************************
+    *  Partial keys.
+    ***************************************************************************/
+
+    // the 8 chars of s from offset, one per byte from the most significant down and
+    // padded with 0; a char above 254 becomes 255 and ends the window, so unsigned
+    // order of two different windows at the same offset is the order of their strings
+    private static long window(String s, int offset) {
+        long w = 0;
+        int n = Math.min(WINDOW, s.length() - offset);
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(offset + i);
+            if (c >= 255) return w | 255L << (56 - 8 * i);
+            w |= (long) c << (56 - 8 * i);
+        }
+        return w;
+    }
+
+    // length of the common prefix of a and b, knowing they agree on the first from chars
+    private static int common(String a, String b, int from) {
+        int n = Math.min(a.length(), b.length());
+        int i = from;
+        while (i < n && a.charAt(i) == b.charAt(i)) i++;
+        return i;
+    }
+
+    // compare a and b, whose common prefix has the given length
+    private static int compare(String a, String b, int common) {
+        if (common == a.length() || common == b.length()) return Integer.signum(a.length() - b.length());
+        return Integer.signum(a.charAt(common) - b.charAt(common));
+    }
+
+    // make the partial key of x relative to its parent, or to the empty string at the root
+    private void refresh(Node parent, Node x) {
+        if (x == null) return;
+        x.offset = (parent == null) ? 0 : common(x.key, parent.key, 0);
+        x.window = window(x.key, x.offset);
+    }
+
+    // compare key with the key of x, given the length of the common prefix of key
+    // and the parent of x, and the sign of the comparison of key with the parent;
+    // returns the length of the common prefix of key and x, times 4, plus the sign
+    // of the comparison of key with x, plus 1
+    private int step(String key, Node x, int common, int cmp) {
+        // key leaves the parent before x does: it compares with x as with the parent
+        if (common < x.offset) return common << 2 | (cmp + 1);
+        // x leaves the parent first, while key still follows it: the other way round
+        if (common > x.offset) return x.offset << 2 | (-cmp + 1);
+
+        long w = window(key, common);
+        if (w != x.window) {
+            int same = common + (Long.numberOfLeadingZeros(w ^ x.window) >>> 3);
+            same = Math.min(same, Math.min(key.length(), x.length));
+            return same << 2 | (Long.compareUnsigned(w, x.window) < 0 ? 0 : 2);
+        }
+        common = common(key, x.key, common);
+        return common << 2 | (compare(key, x.key, common) + 1);
+    }
+
+   /***************************************************************************
+    *  Node helper methods.
+    ***************************************************************************/
+    // is node x red; false if x is null ?
+    private boolean isRed(Node x) {
+        if (x == null) return false;
+        return x.color == RED;
+    }
+
+    // number of node in subtree rooted at x; 0 if x is null
+    private int size(Node x) {
+        if (x == null) return 0;
+        return x.N;
+    }
+
+    /**
+     * Returns the number of key-value pairs in this symbol table.
+     * @return the number of key-value pairs in this symbol table
+     */
+    public int size() {
+        return size(root);
+    }
+
+   /**
+     * Is this symbol table empty?
+     * @return <tt>true</tt> if this symbol table is empty and <tt>false</tt> otherwise
+     */
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+   /***************************************************************************
+    *  Search.
+    ***************************************************************************/
+
+    /**
+     * Returns the value associated with the given key.
+     * @param key the key
+     * @return the value associated with the given key if the key is in the symbol table
+     *     and <tt>null</tt> if the key is not in the symbol table
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public Value get(String key) {
+        int common = 0, cmp = 0;   // with the parent of x
+        Node x = root;
+        while (x != null) {
+            int step = step(key, x, common, cmp);
+            cmp = (step & 3) - 1;
+            if (cmp == 0) return x.val;
+            common = step >>> 2;
+            x = (cmp < 0) ? x.left : x.right;
+        }
+        return null;
+    }
+
+    /**
+     * Does this symbol table contain the given key?
+     * @param key the key
+     * @return <tt>true</tt> if this symbol table contains <tt>key</tt> and
+     *     <tt>false</tt> otherwise
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public boolean contains(String key) {
+        return get(key) != null;
+    }
+
+   /***************************************************************************
+    *  Red-black tree insertion.
+    ***************************************************************************/
+
+    /**
+     * Inserts the key-value pair into the symbol table, overwriting the old value
+     * with the new value if the key is already in the symbol table.
+     * @param key the key
+     * @param val the value
+     * @throws NullPointerException if <tt>key</tt> or <tt>val</tt> is <tt>null</tt>
+     */
+    public void put(String key, Value val) {
+        if (val == null) throw new NullPointerException("value is null");
+        root = put(root, key, 0, 0, val);
+        root.color = BLACK;
+        refresh(null, root);
+        // assert check();
+    }
+
+    // insert the key-value pair in the subtree rooted at h, given the common prefix
+    // of key and the parent of h and the comparison of key with the parent
+    private Node put(Node h, String key, int common, int cmp, Value val) {
+        if (h == null) return new Node(key, val, RED, 1);
+
+        int step = step(key, h, common, cmp);
+        cmp = (step & 3) - 1;
+        common = step >>> 2;
+        if      (cmp < 0) setLeft(h,  put(h.left,  key, common, cmp, val));
+        else if (cmp > 0) setRight(h, put(h.right, key, common, cmp, val));
+        else              h.val = val;
+
+        // fix-up any right-leaning links
+        if (isRed(h.right) && !isRed(h.left))      h = rotateLeft(h);
+        if (isRed(h.left)  &&  isRed(h.left.left)) h = rotateRight(h);
+        if (isRed(h.left)  &&  isRed(h.right))     flipColors(h);
+        h.N = size(h.left) + size(h.right) + 1;
+
+        return h;
+    }
+
+   /***************************************************************************
+    *  Red-black tree deletion.
+    ***************************************************************************/
+
+    /**
+     * Removes the smallest key and associated value from the symbol table.
+     * @throws NoSuchElementException if the symbol table is empty
+     */
+    public void deleteMin() {
+        if (isEmpty()) throw new NoSuchElementException("BST underflow");
+
+        // if both children of root are black, set root to red
+        if (!isRed(root.left) && !isRed(root.right))
+            root.color = RED;
+
+        root = deleteMin(root);
+        if (!isEmpty()) root.color = BLACK;
+        refresh(null, root);
+        // assert check();
+    }
+
+    // delete the key-value pair with the minimum key rooted at h
+    private Node deleteMin(Node h) {
+        if (h.left == null)
+            return null;
+
+        if (!isRed(h.left) && !isRed(h.left.left))
+            h = moveRedLeft(h);
+
+        setLeft(h, deleteMin(h.left));
+        return balance(h);
+    }
+
+    /**
+     * Removes the key and associated value from the symbol table
+     * (if the key is in the symbol table).
+     * @param key the key
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public void delete(String key) {
+        if (!contains(key)) return;
+
+        // if both children of root are black, set root to red
+        if (!isRed(root.left) && !isRed(root.right))
+            root.color = RED;
+
+        root = delete(root, key);
+        if (!isEmpty()) root.color = BLACK;
+        refresh(null, root);
+        // assert check();
+    }
+
+    // delete the key-value pair with the given key rooted at h
+    private Node delete(Node h, String key) {
+        if (key.compareTo(h.key) < 0)  {
+            if (!isRed(h.left) && !isRed(h.left.left))
+                h = moveRedLeft(h);
+            // the key of a node below may change, so refresh the link either way
+            h.left = delete(h.left, key);
+            refresh(h, h.left);
+        }
+        else {
+            if (isRed(h.left))
+                h = rotateRight(h);
+            if (key.compareTo(h.key) == 0 && (h.right == null))
+                return null;
+            if (!isRed(h.right) && !isRed(h.right.left))
+                h = moveRedRight(h);
+            if (key.compareTo(h.key) == 0) {
+                Node x = min(h.right);
+                h.key = x.key;
+                h.length = x.length;
+                h.val = x.val;
+                refresh(h, h.left);
+                h.right = deleteMin(h.right);
+            }
+            else h.right = delete(h.right, key);
+            refresh(h, h.right);
+        }
+        return balance(h);
+    }
+
+   /***************************************************************************
+    *  Red-black tree helper functions.
+    ***************************************************************************/
+
+    // link x as the left child of h, refreshing its partial key unless it was
+    // already the left child and has not been rotated up since
+    private void setLeft(Node h, Node x) {
+        if (x == h.left && (x == null || x.offset >= 0)) return;
+        h.left = x;
+        refresh(h, x);
+    }
+
+    // link x as the right child of h, refreshing its partial key unless it was
+    // already the right child and has not been rotated up since
+    private void setRight(Node h, Node x) {
+        if (x == h.right && (x == null || x.offset >= 0)) return;
+        h.right = x;
+        refresh(h, x);
+    }
+
+    // make a left-leaning link lean to the right
+    private Node rotateRight(Node h) {
+        Node x = h.left;
+        setLeft(h, x.right);
+        x.right = h;
+        refresh(x, h);
+        x.offset = STALE;
+        x.color = x.right.color;
+        x.right.color = RED;
+        x.N = h.N;
+        h.N = size(h.left) + size(h.right) + 1;
+        return x;
+    }
+
+    // make a right-leaning link lean to the left
+    private Node rotateLeft(Node h) {
+        Node x = h.right;
+        setRight(h, x.left);
+        x.left = h;
+        refresh(x, h);
+        x.offset = STALE;
+        x.color = x.left.color;
+        x.left.color = RED;
+        x.N = h.N;
+        h.N = size(h.left) + size(h.right) + 1;
+        return x;
+    }
+
+    // flip the colors of a node and its two children
+    private void flipColors(Node h) {
+        h.color = !h.color;
+        h.left.color = !h.left.color;
+        h.right.color = !h.right.color;
+    }
+
+    // Assuming that h is red and both h.left and h.left.left
+    // are black, make h.left or one of its children red.
+    private Node moveRedLeft(Node h) {
+        flipColors(h);
+        if (isRed(h.right.left)) {
+            setRight(h, rotateRight(h.right));
+            h = rotateLeft(h);
+            flipColors(h);
+        }
+        return h;
+    }
+
+    // Assuming that h is red and both h.right and h.right.left
+    // are black, make h.right or one of its children red.
+    private Node moveRedRight(Node h) {
+        flipColors(h);
+        if (isRed(h.left.left)) {
+            h = rotateRight(h);
+            flipColors(h);
+        }
+        return h;
+    }
+
+    // restore red-black tree invariant
+    private Node balance(Node h) {
+        if (isRed(h.right))                      h = rotateLeft(h);
+        if (isRed(h.left) && isRed(h.left.left)) h = rotateRight(h);
+        if (isRed(h.left) && isRed(h.right))     flipColors(h);
+
+        h.N = size(h.left) + size(h.right) + 1;
+        return h;
+    }
+
+   /***************************************************************************
+    *  Utility functions.
+    ***************************************************************************/
+
+    /**
+     * Returns the height of the BST (for debugging).
+     * @return the height of the BST (a 1-node tree has height 0)
+     */
+    public int height() {
+        return height(root);
+    }
+    private int height(Node x) {
+        if (x == null) return -1;
+        return 1 + Math.max(height(x.left), height(x.right));
+    }
+
+   /***************************************************************************
+    *  Ordered symbol table methods.
+    ***************************************************************************/
+
+    /**
+     * Returns the smallest key in the symbol table.
+     * @return the smallest key in the symbol table
+     * @throws NoSuchElementException if the symbol table is empty
+     */
+    public String min() {
+        if (isEmpty()) throw new NoSuchElementException("called min() with empty symbol table");
+        return min(root).key;
+    }
+
+    // the smallest key in subtree rooted at x
+    private Node min(Node x) {
+        while (x.left != null) x = x.left;
+        return x;
+    }
+
+    /**
+     * Returns the largest key in the symbol table.
+     * @return the largest key in the symbol table
+     * @throws NoSuchElementException if the symbol table is empty
+     */
+    public String max() {
+        if (isEmpty()) throw new NoSuchElementException("called max() with empty symbol table");
+        Node x = root;
+        while (x.right != null) x = x.right;
+        return x.key;
+    }
+
+    /**
+     * Returns the largest key in the symbol table less than or equal to <tt>key</tt>.
+     * @param key the key
+     * @return the largest key in the symbol table less than or equal to <tt>key</tt>,
+     *     or <tt>null</tt> if there is none
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public String floor(String key) {
+        int common = 0, cmp = 0;   // with the parent of x
+        Node x = root, best = null;
+        while (x != null) {
+            int step = step(key, x, common, cmp);
+            cmp = (step & 3) - 1;
+            if (cmp == 0) return x.key;
+            common = step >>> 2;
+            if (cmp > 0) best = x;
+            x = (cmp < 0) ? x.left : x.right;
+        }
+        return (best == null) ? null : best.key;
+    }
+
+    /**
+     * Returns the smallest key in the symbol table greater than or equal to <tt>key</tt>.
+     * @param key the key
+     * @return the smallest key in the symbol table greater than or equal to <tt>key</tt>,
+     *     or <tt>null</tt> if there is none
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public String ceiling(String key) {
+        int common = 0, cmp = 0;   // with the parent of x
+        Node x = root, best = null;
+        while (x != null) {
+            int step = step(key, x, common, cmp);
+            cmp = (step & 3) - 1;
+            if (cmp == 0) return x.key;
+            common = step >>> 2;
+            if (cmp < 0) best = x;
+            x = (cmp < 0) ? x.left : x.right;
+        }
+        return (best == null) ? null : best.key;
+    }
+
+    /**
+     * Return the number of keys in the symbol table strictly less than <tt>key</tt>.
+     * @param key the key
+     * @return the number of keys in the symbol table strictly less than <tt>key</tt>
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public int rank(String key) {
+        int common = 0, cmp = 0;   // with the parent of x
+        int rank = 0;
+        Node x = root;
+        while (x != null) {
+            int step = step(key, x, common, cmp);
+            cmp = (step & 3) - 1;
+            if (cmp == 0) return rank + size(x.left);
+            common = step >>> 2;
+            if (cmp > 0) {
+                rank += 1 + size(x.left);
+                x = x.right;
+            }
+            else x = x.left;
+        }
+        return rank;
+    }
+
+    /**
+     * Returns all keys in the symbol table, in ascending order.
+     * @return all keys in the symbol table, in ascending order
+     */
+    public Iterable<String> keys() {
+        List<String> keys = new ArrayList<String>(size());
+        keys(root, keys);
+        return keys;
+    }
+
+    private void keys(Node x, List<String> keys) {
+        if (x == null) return;
+        keys(x.left, keys);
+        keys.add(x.key);
+        keys(x.right, keys);
+    }
+
+   /***************************************************************************
+    *  Check integrity of red-black tree data structure.
+    ***************************************************************************/
+    private boolean check() {
+        if (!isBST())            System.out.println("Not in symmetric order");
+        if (!isSizeConsistent()) System.out.println("Subtree counts not consistent");
+        if (!arePartialKeysConsistent()) System.out.println("Partial keys not consistent");
+        if (!is23())             System.out.println("Not a 2-3 tree");
+        if (!isBalanced())       System.out.println("Not balanced");
+        return isBST() && isSizeConsistent() && arePartialKeysConsistent() && is23() && isBalanced();
+    }
+
+    // is the tree rooted at x a BST with all keys strictly between min and max
+    // (if min or max is null, treat as empty constraint)
+    private boolean isBST() {
+        return isBST(root, null, null);
+    }
+    private boolean isBST(Node x, String min, String max) {
+        if (x == null) return true;
+        if (min != null && x.key.compareTo(min) <= 0) return false;
+        if (max != null && x.key.compareTo(max) >= 0) return false;
+        return isBST(x.left, min, x.key) && isBST(x.right, x.key, max);
+    }
+
+    // are the size fields correct?
+    private boolean isSizeConsistent() { return isSizeConsistent(root); }
+    private boolean isSizeConsistent(Node x) {
+        if (x == null) return true;
+        if (x.N != size(x.left) + size(x.right) + 1) return false;
+        return isSizeConsistent(x.left) && isSizeConsistent(x.right);
+    }
+
+    // is the partial key of every node relative to its parent?
+    private boolean arePartialKeysConsistent() { return arePartialKeysConsistent(null, root); }
+    private boolean arePartialKeysConsistent(Node parent, Node x) {
+        if (x == null) return true;
+        int offset = (parent == null) ? 0 : common(x.key, parent.key, 0);
+        if (x.offset != offset || x.window != window(x.key, offset) || x.length != x.key.length()) return false;
+        return arePartialKeysConsistent(x, x.left) && arePartialKeysConsistent(x, x.right);
+    }
+
+    // Does the tree have no red right links, and at most one (left)
+    // red links in a row on any path?
+    private boolean is23() { return is23(root); }
+    private boolean is23(Node x) {
+        if (x == null) return true;
+        if (isRed(x.right)) return false;
+        if (x != root && isRed(x) && isRed(x.left))
+            return false;
+        return is23(x.left) && is23(x.right);
+    }
+
+    // do all paths from root to leaf have same number of black edges?
+    private boolean isBalanced() {
+        int black = 0;     // number of black links on path from root to min
+        Node x = root;
+        while (x != null) {
+            if (!isRed(x)) black++;
+            x = x.left;
+        }
+        return isBalanced(root, black);
+    }
+
+    // does every path from the root to a leaf have the given number of black links?
+    private boolean isBalanced(Node x, int black) {
+        if (x == null) return black == 0;
+        if (!isRed(x)) black--;
+        return isBalanced(x.left, black) && isBalanced(x.right, black);
+    }
+
+
+    /**
+     * Unit tests the <tt>StringRedBlackBST</tt> data type.
+     */
+    public static void main(String[] args) {
+        StringRedBlackBST<Integer> st = new StringRedBlackBST<Integer>();
+        String[] urls = { "https://example.com/docs/a", "https://example.com/docs/b",
+                          "https://example.com/", "https://example.org/", "http://example.com/" };
+        for (int i = 0; i < urls.length; i++) st.put(urls[i], i);
+        st.delete("https://example.org/");
+        for (String key : st.keys()) System.out.println(key + " " + st.get(key));
+        System.out.println("floor(https://example.com/docs/c) = " + st.floor("https://example.com/docs/c"));
+        System.out.println("check " + st.check());
+    }
+}
@@ -0,0 +1,1579 @@
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Simple benchmarks for the trees in this project.
+ * Run with the name of a benchmark, e.g. <tt>java TreeBenchmark window</tt>.
+ * Each benchmark warms up before it measures and prints its results to standard output.
+ * @author HuyNguyen
+ *
+ */
+public class TreeBenchmark {
+
+	public static void main(String[] args) {
+		String name = (args.length == 0) ? "window" : args[0];
+		switch (name) {
+		case "window":
+			slidingWindow(1 << 16, 2000000);
+			break;
+		case "evict":
+			evictPrefix(1000000, 100000);
+			break;
+		case "cache":
+			boundedCache(100000, 3000000);
+			break;
+		case "finger":
+			fingerInsert(1000000);
+			break;
+		case "mvcc":
+			versionedWrites(100000, 0, 2000);
+			versionedWrites(100000, 8, 2000);
+			break;
+		case "lockfree":
+			for (int threads = 1; threads <= 64; threads *= 2) concurrentSets(threads, 1 << 20, 500, false);
+			for (int threads = 1; threads <= 64; threads *= 2) concurrentSets(threads, 1 << 20, 500, true);
+			break;
+		case "sharded":
+			for (int threads = 1; threads <= 8; threads *= 2) {
+				shardedWrites(1, threads, 500000);
+				shardedWrites(threads * 4, threads, 500000);
+			}
+			break;
+		case "pipeline":
+			for (int threads = 1; threads <= 16; threads *= 4) pipelineWrites(threads, 200000);
+			break;
+		case "compact":
+			compactMemory(1000000);
+			break;
+		case "btree":
+			wideNodes(1000000, 100);
+			break;
+		case "batch":
+			batchLookups(1000000, 4096, 256);
+			break;
+		case "stats":
+			statistics(1000000);
+			break;
+		case "hash":
+			for (int n = 1 << 10; n <= 1 << 20; n <<= 5) hashIndex(n, 4000000);
+			break;
+		case "modes":
+			treeModes(1000000);
+			break;
+		case "strings":
+			urlKeys(500000, 2000000);
+			break;
+		case "lsm":
+			storageEngine(4000000, 1 << 16);
+			break;
+		case "defrag":
+			defragment(1 << 22, 1000);
+			break;
+		case "range":
+			for (int width = 16; width <= 1 << 16; width <<= 6) rangeUpdates(1000000, width);
+			break;
+		case "sequence":
+			sequenceEdits(10000000);
+			break;
+		case "quantile":
+			latencyQuantiles(10000000, 100000);
+			break;
+		case "depq":
+			for (int n = 1 << 10; n <= 1 << 20; n <<= 10) doubleEndedQueues(n, 2000000, 64);
+			break;
+		case "merkle":
+			replicaSync(1000000, new int[] { 1, 10, 100, 1000, 10000 });
+			break;
+		default:
+			System.out.println("Unknown benchmark " + name);
+		}
+	}
+
+	/**
+	 * Keep a window of consecutive keys in an <tt>RBTree</tt>: every operation inserts the
+	 * next key and deletes the oldest one. Reports the throughput and the bytes allocated
+	 * per operation once the tree has reached its steady size.
+	 * @param window the number of keys in the tree.
+	 * @param operations the number of measured insert/delete pairs.
+	 */
+	static void slidingWindow(int window, int operations) {
+		RBTree tree = new RBTree();
+		int next = 0;
+		for (; next < window; next++) tree.insert(next);
+		// warm up
+		for (int i = 0; i < operations; i++, next++) {
+			tree.insert(next);
+			tree.delete(next - window);
+		}
+
+		long bytes = allocatedBytes();
+		long start = System.nanoTime();
+		for (int i = 0; i < operations; i++, next++) {
+			tree.insert(next);
+			tree.delete(next - window);
+		}
+		long elapsed = System.nanoTime() - start;
+		bytes = allocatedBytes() - bytes;
+
+		report("RBTree sliding window", operations, elapsed);
+		System.out.printf("  %.2f bytes allocated per op%n", (double) bytes / operations);
+	}
+
+	/**
+	 * Drop the oldest keys of a <tt>RedBlackBST</tt> keyed by timestamp, once with
+	 * <tt>evictBefore</tt> and once with a <tt>deleteMin</tt> loop.
+	 * @param size the number of keys in the table.
+	 * @param stale the number of keys to drop.
+	 */
+	static void evictPrefix(int size, int stale) {
+		for (int round = 0; round < 5; round++) {
+			RedBlackBST<Integer, Integer> st = timestamps(size);
+			long start = System.nanoTime();
+			st.evictBefore(stale);
+			long split = System.nanoTime() - start;
+
+			st = timestamps(size);
+			start = System.nanoTime();
+			for (int i = 0; i < stale; i++) st.deleteMin();
+			long loop = System.nanoTime() - start;
+
+			System.out.printf("evict %d of %d: evictBefore %8.1f us, deleteMin loop %10.1f us%n",
+					stale, size, split / 1e3, loop / 1e3);
+		}
+	}
+
+	/**
+	 * Build a table mapping the keys 0 to size - 1 to themselves.
+	 * @param size the number of keys.
+	 * @return the table.
+	 */
+	static RedBlackBST<Integer, Integer> timestamps(int size) {
+		RedBlackBST<Integer, Integer> st = new RedBlackBST<Integer, Integer>();
+		for (int i = 0; i < size; i++) st.put(i, i);
+		return st;
+	}
+
+	/**
+	 * Run a read-through LRU cache workload on a <tt>BoundedRedBlackBST</tt> and on a
+	 * <tt>TreeMap</tt> paired with an access-ordered <tt>LinkedHashMap</tt>.
+	 * Keys are drawn uniformly from twice the capacity, so about half the lookups miss.
+	 * @param capacity the cache capacity.
+	 * @param operations the number of lookups.
+	 */
+	static void boundedCache(int capacity, int operations) {
+		int[] keys = new int[operations];
+		Random random = new Random(42);
+		for (int i = 0; i < operations; i++) keys[i] = random.nextInt(2 * capacity);
+
+		for (int round = 0; round < 3; round++) {
+			BoundedRedBlackBST<Integer, Integer> cache =
+					new BoundedRedBlackBST<Integer, Integer>(capacity, BoundedRedBlackBST.Policy.LRU);
+			long start = System.nanoTime();
+			for (int key : keys)
+				if (cache.get(key) == null) cache.put(key, key);
+			report("BoundedRedBlackBST LRU", operations, System.nanoTime() - start);
+
+			TreeMap<Integer, Integer> sorted = new TreeMap<Integer, Integer>();
+			LinkedHashMap<Integer, Integer> recency = new LinkedHashMap<Integer, Integer>(16, 0.75f, true);
+			start = System.nanoTime();
+			for (int key : keys) {
+				if (recency.get(key) != null) continue;
+				if (recency.size() == capacity) {
+					Iterator<Map.Entry<Integer, Integer>> eldest = recency.entrySet().iterator();
+					sorted.remove(eldest.next().getKey());
+					eldest.remove();
+				}
+				recency.put(key, key);
+				sorted.put(key, key);
+			}
+			report("TreeMap + LinkedHashMap LRU", operations, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Insert keys that are close to each other into an <tt>RBTree</tt>, from the root with
+	 * <tt>insert</tt> and from the previous key with a cursor. The keys are first ascending,
+	 * then a random walk with small steps.
+	 * @param n the number of keys.
+	 */
+	static void fingerInsert(int n) {
+		int[] walk = new int[n];
+		Random random = new Random(42);
+		for (int i = 1; i < n; i++) walk[i] = walk[i - 1] + random.nextInt(21) - 10;
+
+		for (int round = 0; round < 3; round++) {
+			RBTree tree = new RBTree();
+			long start = System.nanoTime();
+			for (int i = 0; i < n; i++) tree.insert(i);
+			report("sequential, root insert", n, System.nanoTime() - start);
+
+			tree = new RBTree();
+			RBTree.Cursor cursor = tree.cursor();
+			start = System.nanoTime();
+			for (int i = 0; i < n; i++) cursor.insert(i);
+			report("sequential, cursor insert", n, System.nanoTime() - start);
+
+			tree = new RBTree();
+			start = System.nanoTime();
+			for (int i = 0; i < n; i++)
+				if (!tree.cursor().seek(walk[i])) tree.insert(walk[i]);
+			report("random walk, root seek + insert", n, System.nanoTime() - start);
+
+			tree = new RBTree();
+			cursor = tree.cursor();
+			start = System.nanoTime();
+			for (int i = 0; i < n; i++) cursor.insert(walk[i]);
+			report("random walk, cursor insert", n, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Measure the write throughput of a <tt>VersionedRedBlackBST</tt> while other threads
+	 * scan every key of a snapshot over and over.
+	 * @param size the number of keys.
+	 * @param scanners the number of scanning threads.
+	 * @param millis how long to run.
+	 */
+	static void versionedWrites(final int size, int scanners, long millis) {
+		final VersionedRedBlackBST<Integer, Integer> st = new VersionedRedBlackBST<Integer, Integer>();
+		for (int i = 0; i < size; i++) st.put(i, i);
+
+		final AtomicBoolean stop = new AtomicBoolean();
+		final long[] scanned = new long[scanners];
+		Thread[] threads = new Thread[scanners];
+		for (int t = 0; t < scanners; t++) {
+			final int id = t;
+			threads[t] = new Thread() {
+				public void run() {
+					while (!stop.get()) {
+						try (VersionedRedBlackBST<Integer, Integer>.Snapshot snapshot = st.snapshot()) {
+							for (int key : snapshot.keys(0, size)) scanned[id]++;
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+
+		Random random = new Random(42);
+		long writes = 0;
+		long start = System.nanoTime(), end = start + millis * 1000000;
+		while (System.nanoTime() < end) {
+			int key = random.nextInt(size);
+			if (random.nextBoolean()) st.put(key, key);
+			else st.delete(key);
+			writes++;
+		}
+		long elapsed = System.nanoTime() - start;
+		stop.set(true);
+		long keys = 0;
+		for (int t = 0; t < scanners; t++) {
+			join(threads[t]);
+			keys += scanned[t];
+		}
+		report("versioned writes, " + scanners + " scanners", writes, elapsed);
+		System.out.printf("  %.0f keys scanned per second%n", keys * 1e9 / elapsed);
+	}
+
+	/**
+	 * Run a mix of 50% lookups, 25% insertions and 25% deletions of random keys on a
+	 * <tt>LockFreeBST</tt> and on a <tt>ConcurrentSkipListSet</tt>, both half full.
+	 * @param threads the number of threads.
+	 * @param range keys are drawn from 0 to range - 1.
+	 * @param millis how long to run each set.
+	 * @param sorted fill the sets with every other key in increasing order, rather than
+	 *     with random keys.
+	 */
+	static void concurrentSets(int threads, final int range, long millis, boolean sorted) {
+		final LockFreeBST tree = new LockFreeBST();
+		final ConcurrentSkipListSet<Integer> skipList = new ConcurrentSkipListSet<Integer>();
+		Random random = new Random(42);
+		for (int i = 0; i < range / 2; i++) {
+			int key = sorted ? 2 * i : random.nextInt(range);
+			tree.insert(key);
+			skipList.add(key);
+		}
+		System.out.println((sorted ? "sorted" : "random") + " fill, tree height " + tree.height());
+
+		for (int set = 0; set < 2; set++) {
+			final boolean useTree = (set == 0);
+			final AtomicBoolean stop = new AtomicBoolean();
+			final AtomicLong operations = new AtomicLong();
+			Thread[] workers = new Thread[threads];
+			for (int t = 0; t < threads; t++) {
+				final long seed = t;
+				workers[t] = new Thread() {
+					public void run() {
+						Random random = new Random(seed);
+						long done = 0;
+						while (!stop.get()) {
+							int key = random.nextInt(range), op = random.nextInt(4);
+							if (useTree) {
+								if (op == 0) tree.insert(key);
+								else if (op == 1) tree.delete(key);
+								else tree.contains(key);
+							}
+							else {
+								if (op == 0) skipList.add(key);
+								else if (op == 1) skipList.remove(key);
+								else skipList.contains(key);
+							}
+							done++;
+						}
+						operations.addAndGet(done);
+					}
+				};
+			}
+			long start = System.nanoTime();
+			for (Thread worker : workers) worker.start();
+			sleep(millis);
+			stop.set(true);
+			for (Thread worker : workers) join(worker);
+			report((useTree ? "LockFreeBST, " : "ConcurrentSkipListSet, ") + threads + " threads",
+					operations.get(), System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Sleep, giving up early if interrupted.
+	 * @param millis the time to sleep in milliseconds.
+	 */
+	static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Insert uniformly random keys into a <tt>ShardedRedBlackBST</tt> from several threads.
+	 * @param shards the number of shards, with boundaries evenly spaced over the key space.
+	 * @param threads the number of writer threads.
+	 * @param perThread the number of puts done by each thread.
+	 */
+	static void shardedWrites(int shards, int threads, final int perThread) {
+		Integer[] splitters = new Integer[shards - 1];
+		for (int i = 1; i < shards; i++) splitters[i - 1] = (int) ((long) i * Integer.MAX_VALUE / shards);
+		final ShardedRedBlackBST<Integer, Integer> st = new ShardedRedBlackBST<Integer, Integer>(splitters);
+
+		Thread[] writers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			final long seed = t;
+			writers[t] = new Thread() {
+				public void run() {
+					Random random = new Random(seed);
+					for (int i = 0; i < perThread; i++) {
+						int key = random.nextInt(Integer.MAX_VALUE);
+						st.put(key, key);
+					}
+				}
+			};
+		}
+		long start = System.nanoTime();
+		for (Thread writer : writers) writer.start();
+		for (Thread writer : writers) join(writer);
+		report("sharded put, " + shards + " shards, " + threads + " threads",
+				(long) threads * perThread, System.nanoTime() - start);
+	}
+
+	/**
+	 * Insert distinct scrambled keys from several threads, then delete every other one,
+	 * three ways: an <tt>RBTree</tt> behind one lock, a <tt>VersionedRedBlackBST</tt> whose
+	 * writes are serialized per operation, and a <tt>WritePipeline</tt> in front of a
+	 * <tt>VersionedRedBlackBST</tt>. Pipeline producers wait only for their last future.
+	 * @param threads the number of writer threads.
+	 * @param perThread the number of keys each thread inserts.
+	 */
+	static void pipelineWrites(final int threads, final int perThread) {
+		for (int way = 0; way < 3; way++) {
+			final int kind = way;
+			final RBTree tree = new RBTree();
+			final ReentrantLock lock = new ReentrantLock();
+			final VersionedRedBlackBST<Integer, Integer> st = new VersionedRedBlackBST<Integer, Integer>();
+			final WritePipeline<Integer, Integer> pipeline = (kind == 2) ? new WritePipeline<Integer, Integer>(st) : null;
+			Thread[] writers = new Thread[threads];
+			for (int t = 0; t < threads; t++) {
+				final int id = t;
+				writers[t] = new Thread() {
+					public void run() {
+						CompletableFuture<Void> last = null;
+						for (int i = 0; i < perThread + perThread / 2; i++) {
+							boolean insert = i < perThread;
+							// odd multipliers permute the ints, so keys never repeat
+							int key = ((insert ? i : 2 * (i - perThread)) * threads + id) * 0x9E3779B1;
+							if (kind == 0) {
+								lock.lock();
+								try {
+									if (insert) tree.insert(key);
+									else tree.delete(key);
+								} finally {
+									lock.unlock();
+								}
+							}
+							else if (kind == 1) {
+								if (insert) st.put(key, key);
+								else st.delete(key);
+							}
+							else last = insert ? pipeline.put(key, key) : pipeline.delete(key);
+						}
+						if (last != null) last.join();
+					}
+				};
+			}
+			long start = System.nanoTime();
+			for (Thread writer : writers) writer.start();
+			for (Thread writer : writers) join(writer);
+			long elapsed = System.nanoTime() - start;
+			String[] labels = { "RBTree, lock per op, ", "versioned, lock per op, ", "write pipeline, " };
+			report(labels[kind] + threads + " threads", (long) threads * (perThread + perThread / 2), elapsed);
+			if (pipeline != null) {
+				System.out.printf("  %.1f commands per batch%n", pipeline.averageBatch());
+				pipeline.close();
+			}
+		}
+	}
+
+	/**
+	 * Compare a <tt>RedBlackBST&lt;Integer, Integer&gt;</tt> with a <tt>CompactRedBlackBST</tt>
+	 * holding the same random keys: heap retained per entry, then put and get throughput.
+	 * @param n the number of keys.
+	 */
+	static void compactMemory(int n) {
+		int[] keys = new int[n];
+		Random random = new Random(42);
+		for (int i = 0; i < n; i++) keys[i] = random.nextInt();
+
+		long before = usedHeap();
+		RedBlackBST<Integer, Integer> boxed = new RedBlackBST<Integer, Integer>();
+		long start = System.nanoTime();
+		for (int key : keys) boxed.put(key, key);
+		long putBoxed = System.nanoTime() - start;
+		long boxedBytes = usedHeap() - before;
+
+		before = usedHeap();
+		CompactRedBlackBST compact = new CompactRedBlackBST();
+		start = System.nanoTime();
+		for (int key : keys) compact.put(key, key);
+		long putCompact = System.nanoTime() - start;
+		long compactBytes = usedHeap() - before;
+
+		System.out.printf("RedBlackBST        %6.1f bytes per entry%n", (double) boxedBytes / boxed.size());
+		System.out.printf("CompactRedBlackBST %6.1f bytes per entry (arrays %.1f)%n",
+				(double) compactBytes / compact.size(), (double) compact.arrayBytes() / compact.size());
+		report("RedBlackBST put", n, putBoxed);
+		report("CompactRedBlackBST put", n, putCompact);
+
+		long sum = 0;
+		for (int round = 0; round < 3; round++) {
+			start = System.nanoTime();
+			for (int key : keys) sum += boxed.get(key);
+			long getBoxed = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int key : keys) sum += compact.get(key, 0);
+			long getCompact = System.nanoTime() - start;
+			if (round == 2) {
+				report("RedBlackBST get", n, getBoxed);
+				report("CompactRedBlackBST get", n, getCompact);
+			}
+		}
+		if (sum == 42) System.out.println();
+	}
+
+	/**
+	 * Insert the same random keys into a <tt>BPlusTree</tt>, a <tt>CompactRedBlackBST</tt>,
+	 * a <tt>RedBlackBST</tt> and an <tt>RBTree</tt>, then look every key up, compute every
+	 * key's rank, and scan ranges. <tt>RBTree</tt> has no lookup or rank of its own, so its
+	 * lookups seek a cursor and its scans walk the cursor forward.
+	 * @param n the number of keys.
+	 * @param scan the number of keys in each scanned range.
+	 */
+	static void wideNodes(int n, int scan) {
+		// i * a mod (2^31 - 1) never repeats, since 2^31 - 1 is prime
+		int[] keys = new int[n];
+		for (int i = 0; i < n; i++) keys[i] = (int) ((i + 1) * 2654435761L % Integer.MAX_VALUE);
+		// consecutive multiples are correlated, so shuffle them
+		Random random = new Random(42);
+		for (int i = n - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1), t = keys[i];
+			keys[i] = keys[j];
+			keys[j] = t;
+		}
+		int step = (int) ((long) Integer.MAX_VALUE / n * scan);   // ranges of about scan keys
+
+		for (int round = 0; round < 2; round++) {
+			boolean measure = (round == 1);
+			long sum = 0;
+
+			BPlusTree bplus = new BPlusTree();
+			long start = System.nanoTime();
+			for (int key : keys) bplus.put(key, key);
+			if (measure) report("BPlusTree put", n, System.nanoTime() - start);
+			start = System.nanoTime();
+			for (int key : keys) sum += bplus.get(key, 0);
+			if (measure) report("BPlusTree get", n, System.nanoTime() - start);
+			start = System.nanoTime();
+			for (int key : keys) sum += bplus.rank(key);
+			if (measure) report("BPlusTree rank", n, System.nanoTime() - start);
+			start = System.nanoTime();
+			for (int i = 0; i < n / scan; i++) sum += bplus.keys(keys[i], keys[i] + step).length;
+			if (measure) report("BPlusTree keys(lo, hi), per range", n / scan, System.nanoTime() - start);
+
+			CompactRedBlackBST compact = new CompactRedBlackBST();
+			start = System.nanoTime();
+			for (int key : keys) compact.put(key, key);
+			if (measure) report("CompactRedBlackBST put", n, System.nanoTime() - start);
+			start = System.nanoTime();
+			for (int key : keys) sum += compact.get(key, 0);
+			if (measure) report("CompactRedBlackBST get", n, System.nanoTime() - start);
+			start = System.nanoTime();
+			for (int key : keys) sum += compact.rank(key);
+			if (measure) report("CompactRedBlackBST rank", n, System.nanoTime() - start);
+			compact = null;
+
+			RedBlackBST<Integer, Integer> boxed = new RedBlackBST<Integer, Integer>();
+			start = System.nanoTime();
+			for (int key : keys) boxed.put(key, key);
+			if (measure) report("RedBlackBST put", n, System.nanoTime() - start);
+			start = System.nanoTime();
+			for (int key : keys) sum += boxed.get(key);
+			if (measure) report("RedBlackBST get", n, System.nanoTime() - start);
+			start = System.nanoTime();
+			for (int key : keys) sum += boxed.rank(key);
+			if (measure) report("RedBlackBST rank", n, System.nanoTime() - start);
+			start = System.nanoTime();
+			for (int i = 0; i < n / scan; i++)
+				for (int key : boxed.keys(keys[i], keys[i] + step)) sum += key;
+			if (measure) report("RedBlackBST keys(lo, hi), per range", n / scan, System.nanoTime() - start);
+			boxed = null;
+
+			RBTree tree = new RBTree();
+			start = System.nanoTime();
+			for (int key : keys) tree.insert(key);
+			if (measure) report("RBTree insert", n, System.nanoTime() - start);
+			RBTree.Cursor cursor = tree.cursor();
+			start = System.nanoTime();
+			for (int key : keys) sum += cursor.seek(key) ? 1 : 0;
+			if (measure) report("RBTree cursor seek", n, System.nanoTime() - start);
+			start = System.nanoTime();
+			for (int i = 0; i < n / scan; i++) {
+				cursor.seek(keys[i]);
+				for (int v = cursor.value(); v <= keys[i] + step && cursor.hasNext(); v = cursor.next()) sum += v;
+			}
+			if (measure) report("RBTree cursor scan, per range", n / scan, System.nanoTime() - start);
+			if (sum == 42) System.out.println();
+		}
+	}
+
+	/**
+	 * Compare per-key <tt>get</tt> with <tt>getAll</tt> on a <tt>RedBlackBST</tt> and a
+	 * <tt>CompactRedBlackBST</tt> holding the same random keys. Half of the probes hit.
+	 * @param n the number of keys.
+	 * @param batch the number of probes per batch.
+	 * @param batches the number of batches per measurement.
+	 */
+	static void batchLookups(int n, int batch, int batches) {
+		Random random = new Random(42);
+		int[] keys = new int[n];
+		RedBlackBST<Integer, Integer> boxed = new RedBlackBST<Integer, Integer>();
+		CompactRedBlackBST compact = new CompactRedBlackBST();
+		for (int i = 0; i < n; i++) {
+			keys[i] = random.nextInt();
+			boxed.put(keys[i], i);
+			compact.put(keys[i], i);
+		}
+		int[][] probes = new int[batches][batch];
+		Integer[][] boxedProbes = new Integer[batches][batch];
+		for (int b = 0; b < batches; b++)
+			for (int i = 0; i < batch; i++) {
+				probes[b][i] = random.nextBoolean() ? keys[random.nextInt(n)] : random.nextInt();
+				boxedProbes[b][i] = probes[b][i];
+			}
+		Integer[] boxedResults = new Integer[batch];
+		int[] results = new int[batch];
+		long probed = (long) batch * batches, sum = 0;
+
+		for (int round = 0; round < 3; round++) {
+			long start = System.nanoTime();
+			for (Integer[] p : boxedProbes)
+				for (int i = 0; i < batch; i++) boxedResults[i] = boxed.get(p[i]);
+			long boxedGet = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (Integer[] p : boxedProbes) boxed.getAll(p, boxedResults);
+			long boxedGetAll = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int[] p : probes)
+				for (int i = 0; i < batch; i++) results[i] = compact.get(p[i], -1);
+			long compactGet = System.nanoTime() - start;
+			sum += results[0];
+			start = System.nanoTime();
+			for (int[] p : probes) compact.getAll(p, results, -1);
+			long compactGetAll = System.nanoTime() - start;
+			sum += results[0];
+			if (round == 2) {
+				report("RedBlackBST get", probed, boxedGet);
+				report("RedBlackBST getAll", probed, boxedGetAll);
+				report("CompactRedBlackBST get", probed, compactGet);
+				report("CompactRedBlackBST getAll", probed, compactGetAll);
+			}
+		}
+		if (sum == 42) System.out.println();
+	}
+
+	/**
+	 * Compare the cost of <tt>height()</tt>, which walks the whole tree, with the statistics
+	 * kept by every update and with one sampled validation step, on a <tt>RedBlackBST</tt>.
+	 * Also prints the rotation rates of a <tt>RedBlackBST</tt> and an <tt>RBTree</tt>.
+	 * @param n the number of keys.
+	 */
+	static void statistics(int n) {
+		RedBlackBST<Integer, Integer> st = new RedBlackBST<Integer, Integer>();
+		RBTree tree = new RBTree();
+		Random random = new Random(42);
+		for (int i = 0; i < n; i++) {
+			st.put(random.nextInt(n), i);
+			tree.cursor().insert(random.nextInt(n));
+		}
+		for (int i = 0; i < n / 2; i++) {
+			int key = random.nextInt(n);
+			if (st.contains(key)) st.delete(key);
+		}
+		RBTree.Cursor cursor = tree.cursor();
+		for (int i = 0; i < n / 2; i++) {
+			int value = random.nextInt(n);
+			if (cursor.seek(value)) tree.delete(value);
+		}
+
+		long sum = 0;
+		for (int round = 0; round < 2; round++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < 10; i++) sum += st.height();
+			long height = (System.nanoTime() - start) / 10;
+			start = System.nanoTime();
+			for (int i = 0; i < 1000000; i++) sum += st.heightBound() + st.redCount() + st.blackHeight();
+			long stats = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int i = 0; i < 1000; i++) sum += st.validate(100) ? 1 : 0;
+			long validate = System.nanoTime() - start;
+			if (round == 1) {
+				report("RedBlackBST height()", 1, height);
+				report("RedBlackBST O(1) statistics", 1000000, stats);
+				report("RedBlackBST validate(100)", 1000, validate);
+			}
+		}
+		System.out.printf("  size %d, height %d, bound %d, black height %d, %d red%n", st.size(),
+				st.height(), st.heightBound(), st.blackHeight(), st.redCount());
+		System.out.printf("  RedBlackBST %.2f rotations per update%n", st.rotationRate());
+		System.out.printf("  RBTree %.2f rotations per insertion, %.2f per deletion%n",
+				tree.insertRotationRate(), tree.deleteRotationRate());
+		if (sum == 42) System.out.println();
+	}
+
+	/**
+	 * Compare a <tt>StringRedBlackBST</tt> with a <tt>RedBlackBST</tt> and a <tt>TreeMap</tt>
+	 * keyed by URLs that share long prefixes, on building the table and on looking up keys
+	 * that are present. The first round is a warm-up.
+	 * @param n the number of URLs.
+	 * @param lookups the number of measured lookups.
+	 */
+	static void urlKeys(int n, int lookups) {
+		String[] sections = { "docs", "downloads", "products", "support", "blog", "community", "api", "news" };
+		Random random = new Random(42);
+		String[] urls = new String[n];
+		for (int i = 0; i < n; i++)
+			urls[i] = "https://www.example.com/" + sections[random.nextInt(sections.length)] + "/en-us/"
+					+ "category-" + random.nextInt(64) + "/item-" + random.nextInt(1 << 30) + ".html";
+		String[] probes = new String[1 << 16];
+		for (int i = 0; i < probes.length; i++) probes[i] = urls[random.nextInt(n)];
+
+		long sum = 0;
+		for (int round = 0; round < 2; round++) {
+			long start = System.nanoTime();
+			StringRedBlackBST<Integer> prefixed = new StringRedBlackBST<Integer>();
+			for (int i = 0; i < n; i++) prefixed.put(urls[i], i);
+			long build = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int i = 0; i < lookups; i++) sum += prefixed.get(probes[i & (probes.length - 1)]);
+			long get = System.nanoTime() - start;
+			if (round == 1) {
+				report("StringRedBlackBST put", n, build);
+				report("StringRedBlackBST get", lookups, get);
+			}
+			prefixed = null;
+
+			start = System.nanoTime();
+			RedBlackBST<String, Integer> st = new RedBlackBST<String, Integer>();
+			for (int i = 0; i < n; i++) st.put(urls[i], i);
+			build = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int i = 0; i < lookups; i++) sum += st.get(probes[i & (probes.length - 1)]);
+			get = System.nanoTime() - start;
+			if (round == 1) {
+				report("RedBlackBST<String> put", n, build);
+				report("RedBlackBST<String> get", lookups, get);
+			}
+			st = null;
+
+			start = System.nanoTime();
+			TreeMap<String, Integer> map = new TreeMap<String, Integer>();
+			for (int i = 0; i < n; i++) map.put(urls[i], i);
+			build = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int i = 0; i < lookups; i++) sum += map.get(probes[i & (probes.length - 1)]);
+			get = System.nanoTime() - start;
+			if (round == 1) {
+				report("TreeMap<String> put", n, build);
+				report("TreeMap<String> get", lookups, get);
+			}
+		}
+		if (sum == 42) System.out.println();
+	}
+
+	/**
+	 * Compare the top-down and bottom-up modes of <tt>RBTree</tt> on random and on
+	 * sequential keys: the time, rotations and node writes per insertion when the keys
+	 * are inserted, and per deletion when they are all deleted again. The first round
+	 * is a warm-up.
+	 * @param n the number of keys.
+	 */
+	static void treeModes(int n) {
+		int[] shuffled = new int[n], again = new int[n], sequential = new int[n];
+		for (int i = 0; i < n; i++) shuffled[i] = again[i] = sequential[i] = i;
+		Random random = new Random(42);
+		for (int i = n - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1), t = shuffled[i];
+			shuffled[i] = shuffled[j];
+			shuffled[j] = t;
+			j = random.nextInt(i + 1);
+			t = again[i];
+			again[i] = again[j];
+			again[j] = t;
+		}
+		for (int round = 0; round < 2; round++) {
+			for (boolean mode : new boolean[] { RBTree.TOP_DOWN, RBTree.BOTTOM_UP }) {
+				String name = (mode == RBTree.BOTTOM_UP) ? "bottom-up" : "top-down";
+				modeRun(name + " random", mode, shuffled, again, round == 1);
+				modeRun(name + " sequential", mode, sequential, sequential, round == 1);
+			}
+		}
+	}
+
+	/**
+	 * Insert keys into an empty <tt>RBTree</tt> in the specified mode, then delete them.
+	 * @param label the name of the run.
+	 * @param mode <tt>RBTree.TOP_DOWN</tt> or <tt>RBTree.BOTTOM_UP</tt>.
+	 * @param inserts the keys in insertion order.
+	 * @param deletes the same keys in deletion order.
+	 * @param print whether to print the results.
+	 */
+	static void modeRun(String label, boolean mode, int[] inserts, int[] deletes, boolean print) {
+		RBTree tree = new RBTree(mode);
+		long start = System.nanoTime();
+		for (int key : inserts) tree.insert(key);
+		long insert = System.nanoTime() - start;
+		long writes = tree.writes();
+		start = System.nanoTime();
+		for (int key : deletes) tree.delete(key);
+		long delete = System.nanoTime() - start;
+		if (!print) return;
+		report(label + " insert", inserts.length, insert);
+		System.out.printf("  %.2f rotations, %.2f writes per insertion%n",
+				tree.insertRotationRate(), (double) writes / inserts.length);
+		report(label + " delete", deletes.length, delete);
+		System.out.printf("  %.2f rotations, %.2f writes per deletion%n",
+				tree.deleteRotationRate(), (double) (tree.writes() - writes) / deletes.length);
+	}
+
+	/**
+	 * Compare a plain <tt>RedBlackBST</tt> with one that keeps a hash index: the time to
+	 * build each, the time of <tt>get</tt> for keys that are present and absent, the
+	 * memory the index adds, and the time to evict the smaller half of the keys, which
+	 * the index makes linear instead of logarithmic. The first round is a warm-up.
+	 * @param n the number of keys.
+	 * @param lookups the number of measured lookups of each kind.
+	 */
+	static void hashIndex(int n, int lookups) {
+		int[] keys = new int[n];
+		for (int i = 0; i < n; i++) keys[i] = 2 * i;
+		Random random = new Random(42);
+		for (int i = n - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int t = keys[i];
+			keys[i] = keys[j];
+			keys[j] = t;
+		}
+		Integer[] probes = new Integer[1 << 16];
+		for (int i = 0; i < probes.length; i++) probes[i] = keys[random.nextInt(n)];
+
+		long sum = 0;
+		for (int round = 0; round < 2; round++) {
+			for (boolean indexed : new boolean[] { false, true }) {
+				long heap = usedHeap();
+				long start = System.nanoTime();
+				RedBlackBST<Integer, Integer> st = new RedBlackBST<Integer, Integer>(indexed);
+				for (int i = 0; i < n; i++) st.put(keys[i], i);
+				long build = System.nanoTime() - start;
+				heap = usedHeap() - heap;
+
+				start = System.nanoTime();
+				for (int i = 0; i < lookups; i++) sum += st.get(probes[i & (probes.length - 1)]);
+				long hits = System.nanoTime() - start;
+				start = System.nanoTime();
+				for (int i = 0; i < lookups; i++) if (st.contains(probes[i & (probes.length - 1)] + 1)) sum++;
+				long misses = System.nanoTime() - start;
+				start = System.nanoTime();
+				st.evictOldest(n / 2);
+				long evict = System.nanoTime() - start;
+
+				if (round == 1) {
+					String label = "RedBlackBST " + (indexed ? "hash index" : "plain") + " n=" + n;
+					report(label + " put", n, build);
+					report(label + " get hit", lookups, hits);
+					report(label + " get miss", lookups, misses);
+					// the heap in use is too noisy to measure small tables
+					if (n >= 1 << 20) System.out.printf("  %.1f bytes per key in all%n", (double) heap / n);
+					System.out.printf("  %.1f bytes per key in the index%n", (double) st.indexBytes() / n);
+					System.out.printf("  evict %d keys %10.1f us%n", n / 2, evict / 1e3);
+				}
+			}
+		}
+		if (sum == 42) System.out.println();
+	}
+
+	/**
+	 * Run <tt>db_bench</tt> style workloads on an <tt>LSMStore</tt> in a temporary directory.
+	 * <em>fillseq</em> and <em>fillrandom</em> write n entries into an empty store, each
+	 * ending with a flush, and <em>readrandom</em> looks up n random keys in the randomly
+	 * filled store. Each entry is 12 bytes, a key and a value. The fill workloads also report
+	 * the write amplification and the longest time a single put waited. The first round is
+	 * a warm-up.
+	 * @param n the number of entries written and read.
+	 * @param memtable the number of keys at which the memtable is frozen.
+	 */
+	static void storageEngine(int n, int memtable) {
+		try {
+			for (int round = 0; round < 2; round++) {
+				Path dir = Files.createTempDirectory("lsm");
+				LSMStore store = new LSMStore(dir.resolve("seq"), memtable, 4);
+				long start = System.nanoTime(), stall = 0;
+				for (int i = 0; i < n; i++) {
+					long t = System.nanoTime();
+					store.put(i, i);
+					stall = Math.max(stall, System.nanoTime() - t);
+				}
+				store.flush();
+				long elapsed = System.nanoTime() - start;
+				if (round == 1) dbBench("fillseq", store, n, elapsed, writeNote(store, n, stall));
+				store.close();
+
+				store = new LSMStore(dir.resolve("random"), memtable, 4);
+				Random random = new Random(42);
+				start = System.nanoTime();
+				stall = 0;
+				for (int i = 0; i < n; i++) {
+					long t = System.nanoTime();
+					store.put(random.nextInt(n), i);
+					stall = Math.max(stall, System.nanoTime() - t);
+				}
+				store.flush();
+				elapsed = System.nanoTime() - start;
+				if (round == 1) dbBench("fillrandom", store, n, elapsed, writeNote(store, n, stall));
+
+				int found = 0;
+				start = System.nanoTime();
+				for (int i = 0; i < n; i++) if (store.get(random.nextInt(n)) != null) found++;
+				elapsed = System.nanoTime() - start;
+				if (round == 1) dbBench("readrandom", store, n, elapsed, " (" + found + " of " + n + " found)");
+				store.close();
+				delete(dir);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Describe the cost of the writes to a store for the end of a <tt>db_bench</tt> line.
+	 * @param store the store written to.
+	 * @param writes the number of writes.
+	 * @param stall the longest time a single write took, in nanoseconds.
+	 * @return the write amplification and the longest write.
+	 */
+	static String writeNote(LSMStore store, int writes, long stall) {
+		return String.format(" (write amplification %.1f, longest put %.1f ms)",
+				(double) store.entriesWritten() / writes, stall / 1e6);
+	}
+
+	/**
+	 * Print one line in the format of <tt>db_bench</tt>.
+	 * @param name the name of the workload.
+	 * @param store the store it ran on.
+	 * @param operations the number of operations performed.
+	 * @param elapsed the elapsed time in nanoseconds.
+	 * @param note extra text for the end of the line.
+	 */
+	static void dbBench(String name, LSMStore store, int operations, long elapsed, String note) {
+		System.out.printf("%-12s : %10.3f micros/op; %6.1f MB/s; %d flushes, %d compactions, %d runs%s%n",
+				name, elapsed / 1e3 / operations, operations * 12.0 / 1048576 / (elapsed / 1e9),
+				store.flushes(), store.compactions(), store.runs(), note);
+	}
+
+	/**
+	 * Delete a file, or a directory and everything in it.
+	 * @param path the file or directory.
+	 * @throws IOException if something cannot be deleted.
+	 */
+	static void delete(Path path) throws IOException {
+		if (Files.isDirectory(path)) {
+			try (DirectoryStream<Path> entries = Files.newDirectoryStream(path)) {
+				for (Path entry : entries) delete(entry);
+			}
+		}
+		Files.delete(path);
+	}
+
+	/**
+	 * Use a <tt>RedBlackDEPQ</tt>, a <tt>RedBlackBST</tt> through <tt>min</tt>, <tt>max</tt>,
+	 * <tt>deleteMin</tt> and <tt>deleteMax</tt>, and a pair of <tt>PriorityQueue</tt>s as
+	 * double-ended priority queues of about n random keys. Each step of the single workload
+	 * inserts a key, peeks at both ends and deletes from one end, alternately. Each step of
+	 * the batch workload inserts a batch of keys, then removes half of a batch from each
+	 * end. The first round is a warm-up.
+	 * @param n the number of keys in each queue.
+	 * @param steps the number of measured single steps.
+	 * @param batch the number of keys per batch step.
+	 */
+	static void doubleEndedQueues(int n, int steps, int batch) {
+		Random random = new Random(42);
+		// boxed up front, so that only the queues allocate
+		Integer[] keys = new Integer[1 << 20];
+		for (int i = 0; i < keys.length; i++) keys[i] = random.nextInt();
+		int mask = keys.length - 1, batches = steps / batch;
+
+		long sum = 0;
+		for (int round = 0; round < 2; round++) {
+			boolean print = round == 1;
+			RedBlackDEPQ<Integer> depq = new RedBlackDEPQ<Integer>();
+			for (int i = 0; i < n; i++) depq.insert(keys[i & mask]);
+			long start = System.nanoTime();
+			for (int i = 0; i < steps; i++) {
+				depq.insert(keys[(n + i) & mask]);
+				sum += depq.min() + depq.max();
+				sum += ((i & 1) == 0) ? depq.delMin() : depq.delMax();
+			}
+			if (print) report("RedBlackDEPQ step n=" + n, steps, System.nanoTime() - start);
+			start = System.nanoTime();
+			for (int i = 0; i < batches; i++) {
+				for (int j = 0; j < batch; j++) depq.insert(keys[(i * batch + j) & mask]);
+				sum += depq.pollMin(batch / 2).size() + depq.pollMax(batch / 2).size();
+			}
+			if (print) report("RedBlackDEPQ batch key n=" + n, batches * batch, System.nanoTime() - start);
+			depq = null;
+
+			RedBlackBST<Integer, Integer> st = new RedBlackBST<Integer, Integer>();
+			for (int i = 0; i < n; i++) st.put(keys[i & mask], i);
+			start = System.nanoTime();
+			for (int i = 0; i < steps; i++) {
+				st.put(keys[(n + i) & mask], i);
+				sum += st.min() + st.max();
+				if ((i & 1) == 0) st.deleteMin();
+				else              st.deleteMax();
+			}
+			if (print) report("RedBlackBST step n=" + n, steps, System.nanoTime() - start);
+			start = System.nanoTime();
+			for (int i = 0; i < batches; i++) {
+				for (int j = 0; j < batch; j++) st.put(keys[(i * batch + j) & mask], j);
+				for (int j = 0; j < batch / 2; j++) {
+					sum += st.min() + st.max();
+					st.deleteMin();
+					st.deleteMax();
+				}
+			}
+			if (print) report("RedBlackBST batch key n=" + n, batches * batch, System.nanoTime() - start);
+			st = null;
+
+			TwoHeaps heaps = new TwoHeaps();
+			for (int i = 0; i < n; i++) heaps.insert(keys[i & mask]);
+			start = System.nanoTime();
+			for (int i = 0; i < steps; i++) {
+				heaps.insert(keys[(n + i) & mask]);
+				sum += heaps.min() + heaps.max();
+				sum += ((i & 1) == 0) ? heaps.delMin() : heaps.delMax();
+			}
+			if (print) report("two PriorityQueues step n=" + n, steps, System.nanoTime() - start);
+			start = System.nanoTime();
+			for (int i = 0; i < batches; i++) {
+				for (int j = 0; j < batch; j++) heaps.insert(keys[(i * batch + j) & mask]);
+				for (int j = 0; j < batch / 2; j++) sum += heaps.delMin() + heaps.delMax();
+			}
+			if (print) report("two PriorityQueues batch key n=" + n, batches * batch, System.nanoTime() - start);
+		}
+		if (sum == 42) System.out.println();
+	}
+
+	/**
+	 * Record latency samples, whole microseconds from a log-normal distribution with a
+	 * median of 200, in a <tt>RedBlackMultiset</tt> and in a <tt>RedBlackBST</tt> of boxed
+	 * counters, then ask each for quantiles. The counters give no weighted rank, so the
+	 * quantiles walk their keys in order. Reports the time and bytes allocated per sample
+	 * and the time per quantile. The first round is a warm-up.
+	 * @param samples the number of samples recorded.
+	 * @param queries the number of quantiles asked of the multiset.
+	 */
+	static void latencyQuantiles(int samples, int queries) {
+		Random random = new Random(42);
+		// boxed up front, so that only the tables allocate
+		Integer[] latencies = new Integer[1 << 20];
+		for (int i = 0; i < latencies.length; i++)
+			latencies[i] = (int) Math.round(200 * Math.exp(0.5 * random.nextGaussian()));
+		double[] qs = { 0.5, 0.9, 0.99, 0.999 };
+
+		long sum = 0;
+		for (int round = 0; round < 2; round++) {
+			boolean print = round == 1;
+			RedBlackMultiset<Integer> multiset = new RedBlackMultiset<Integer>();
+			long bytes = allocatedBytes(), start = System.nanoTime();
+			for (int i = 0; i < samples; i++) multiset.add(latencies[i & (latencies.length - 1)]);
+			long elapsed = System.nanoTime() - start;
+			bytes = allocatedBytes() - bytes;
+			if (print) {
+				report("RedBlackMultiset add", samples, elapsed);
+				System.out.printf("  %.2f bytes allocated per sample, %d distinct values%n",
+						(double) bytes / samples, multiset.distinct());
+			}
+			start = System.nanoTime();
+			for (int i = 0; i < queries; i++) sum += multiset.quantile(qs[i & 3]);
+			if (print) report("RedBlackMultiset quantile", queries, System.nanoTime() - start);
+
+			RedBlackBST<Integer, Integer> counters = new RedBlackBST<Integer, Integer>();
+			bytes = allocatedBytes();
+			start = System.nanoTime();
+			for (int i = 0; i < samples; i++) {
+				Integer latency = latencies[i & (latencies.length - 1)];
+				Integer count = counters.get(latency);
+				counters.put(latency, (count == null) ? 1 : count + 1);
+			}
+			elapsed = System.nanoTime() - start;
+			bytes = allocatedBytes() - bytes;
+			if (print) {
+				report("RedBlackBST counters add", samples, elapsed);
+				System.out.printf("  %.2f bytes allocated per sample%n", (double) bytes / samples);
+			}
+			int scans = queries / 100;
+			start = System.nanoTime();
+			for (int i = 0; i < scans; i++) {
+				long target = (long) Math.ceil(qs[i & 3] * samples), seen = 0;
+				for (Integer latency : counters.keys()) {
+					seen += counters.get(latency);
+					if (seen >= target) {
+						sum += latency;
+						break;
+					}
+				}
+			}
+			if (print) report("RedBlackBST counters quantile by scan", scans, System.nanoTime() - start);
+			if (print) System.out.println("  p50 " + multiset.quantile(0.5) + ", p99 " + multiset.quantile(0.99)
+					+ ", p99.9 " + multiset.quantile(0.999) + " us");
+		}
+		if (sum == 42) System.out.println();
+	}
+
+	/**
+	 * Edit a sequence of n items held in a <tt>RedBlackSequence</tt>, an <tt>ArrayList</tt>
+	 * and a gap buffer. Each edit inserts an item and removes one, so the size stays n.
+	 * The random workload edits at random positions. The local workload edits near a
+	 * cursor that moves a few positions each time, as in a text editor. Also reports
+	 * <tt>get</tt> at random positions. The slow cases run fewer edits, and the first
+	 * round is a warm-up.
+	 * @param n the number of items.
+	 */
+	static void sequenceEdits(int n) {
+		int fast = 1000000, slow = 1000;
+		Integer item = 42;
+		long sum = 0;
+		for (int round = 0; round < 2; round++) {
+			boolean print = round == 1;
+			RedBlackSequence<Integer> seq = new RedBlackSequence<Integer>();
+			for (int i = 0; i < n; i++) seq.add(item);
+			Random random = new Random(42);
+			long start = System.nanoTime();
+			for (int i = 0; i < fast; i++) {
+				seq.insertAt(random.nextInt(n + 1), item);
+				seq.removeAt(random.nextInt(n + 1));
+			}
+			if (print) report("RedBlackSequence random edit", fast, System.nanoTime() - start);
+			int cursor = n / 2;
+			start = System.nanoTime();
+			for (int i = 0; i < fast; i++) {
+				cursor = Math.min(Math.max(cursor + random.nextInt(33) - 16, 0), n - 1);
+				seq.insertAt(cursor, item);
+				seq.removeAt(cursor + 1);
+			}
+			if (print) report("RedBlackSequence local edit", fast, System.nanoTime() - start);
+			start = System.nanoTime();
+			for (int i = 0; i < fast; i++) sum += seq.get(random.nextInt(n));
+			if (print) report("RedBlackSequence get", fast, System.nanoTime() - start);
+			seq = null;
+
+			ArrayList<Integer> list = new ArrayList<Integer>(n + 1);
+			for (int i = 0; i < n; i++) list.add(item);
+			start = System.nanoTime();
+			for (int i = 0; i < slow; i++) {
+				list.add(random.nextInt(n + 1), item);
+				list.remove(random.nextInt(n + 1));
+			}
+			if (print) report("ArrayList random edit", slow, System.nanoTime() - start);
+			start = System.nanoTime();
+			for (int i = 0; i < slow; i++) {
+				cursor = Math.min(Math.max(cursor + random.nextInt(33) - 16, 0), n - 1);
+				list.add(cursor, item);
+				list.remove(cursor + 1);
+			}
+			if (print) report("ArrayList local edit", slow, System.nanoTime() - start);
+			start = System.nanoTime();
+			for (int i = 0; i < fast; i++) sum += list.get(random.nextInt(n));
+			if (print) report("ArrayList get", fast, System.nanoTime() - start);
+			list = null;
+
+			GapBuffer<Integer> buffer = new GapBuffer<Integer>(n + 1);
+			for (int i = 0; i < n; i++) buffer.insertAt(i, item);
+			start = System.nanoTime();
+			for (int i = 0; i < slow; i++) {
+				buffer.insertAt(random.nextInt(n + 1), item);
+				buffer.removeAt(random.nextInt(n + 1));
+			}
+			if (print) report("gap buffer random edit", slow, System.nanoTime() - start);
+			start = System.nanoTime();
+			for (int i = 0; i < fast; i++) {
+				cursor = Math.min(Math.max(cursor + random.nextInt(33) - 16, 0), n - 1);
+				buffer.insertAt(cursor, item);
+				buffer.removeAt(cursor + 1);
+			}
+			if (print) report("gap buffer local edit", fast, System.nanoTime() - start);
+			start = System.nanoTime();
+			for (int i = 0; i < fast; i++) sum += buffer.get(random.nextInt(n));
+			if (print) report("gap buffer get", fast, System.nanoTime() - start);
+		}
+		if (sum == 42) System.out.println();
+	}
+
+	/**
+	 * Add a delta to every value in random key ranges and sum random key ranges, with
+	 * <tt>addToRange</tt> and <tt>rangeSum</tt> of a <tt>RangeRedBlackBST</tt>, and with
+	 * <tt>keys(lo, hi)</tt> followed by one <tt>get</tt> and <tt>put</tt> per key in a
+	 * <tt>RedBlackBST</tt>. The first round is a warm-up.
+	 * @param n the number of keys.
+	 * @param width the number of keys in each range.
+	 */
+	static void rangeUpdates(int n, int width) {
+		RangeRedBlackBST<Integer> lazy = new RangeRedBlackBST<Integer>();
+		RedBlackBST<Integer, Long> st = new RedBlackBST<Integer, Long>();
+		Random random = new Random(42);
+		for (int i = 0; i < n; i++) {
+			int key = random.nextInt(n);
+			lazy.put(key, i);
+			st.put(key, (long) i);
+		}
+		// the per-key updates take time in proportion to the width
+		int operations = Math.max(100, (1 << 22) / width);
+		int[] los = new int[operations];
+		for (int i = 0; i < operations; i++) los[i] = random.nextInt(n - width);
+
+		long sum = 0;
+		for (int round = 0; round < 2; round++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < operations; i++) lazy.addToRange(los[i], los[i] + width - 1, 1);
+			long add = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int i = 0; i < operations; i++) sum += lazy.rangeSum(los[i], los[i] + width - 1);
+			long query = System.nanoTime() - start;
+			if (round == 1) {
+				report("RangeRedBlackBST addToRange width=" + width, operations, add);
+				report("RangeRedBlackBST rangeSum width=" + width, operations, query);
+			}
+
+			start = System.nanoTime();
+			for (int i = 0; i < operations; i++)
+				for (int key : st.keys(los[i], los[i] + width - 1)) st.put(key, st.get(key) + 1);
+			add = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int i = 0; i < operations; i++)
+				for (int key : st.keys(los[i], los[i] + width - 1)) sum += st.get(key);
+			query = System.nanoTime() - start;
+			if (round == 1) {
+				report("RedBlackBST put per key width=" + width, operations, add);
+				report("RedBlackBST get per key width=" + width, operations, query);
+			}
+		}
+		if (sum == 42) System.out.println();
+	}
+
+	/**
+	 * Scatter the nodes of a <tt>CompactRedBlackBST</tt> with random insertions and
+	 * deletions, then defragment it in bounded steps while the churn goes on between the
+	 * steps. Reports the scan locality and the time per key of range scans before and
+	 * after, and the time per step and the longest step of <tt>defragment</tt>.
+	 * @param n the number of keys.
+	 * @param steps the number of steps per call of <tt>defragment</tt>.
+	 */
+	static void defragment(int n, int steps) {
+		Random random = new Random(42);
+		CompactRedBlackBST st = new CompactRedBlackBST(n);
+		for (int i = 0; i < n; i++) st.put(2 * i, i);
+		for (int i = 0; i < n; i++) {
+			st.delete(2 * random.nextInt(n));
+			st.put(2 * random.nextInt(n), i);
+		}
+		int[] dst = new int[1024];
+		for (int round = 0; round < 2; round++) rangeScans(st, n, dst, round == 1 ? "churned" : null);
+
+		long start = System.nanoTime(), longest = 0, calls = 0;
+		boolean done = false;
+		while (!done) {
+			long call = System.nanoTime();
+			done = st.defragment(steps);
+			longest = Math.max(longest, System.nanoTime() - call);
+			calls++;
+			// a little churn at the high end, so that it undoes little of the work
+			if (!done) {
+				int key = 2 * (n - 1 - random.nextInt(16));
+				st.delete(key);
+				st.put(key, 0);
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		report("defragment per step", calls * steps, elapsed);
+		System.out.printf("  %d calls of %d steps, longest call %.3f ms%n", calls, steps, longest / 1e6);
+		for (int round = 0; round < 2; round++) rangeScans(st, n, dst, round == 1 ? "defragmented" : null);
+	}
+
+	/**
+	 * Scan random ranges of about 1,000 keys of a <tt>CompactRedBlackBST</tt> of even keys.
+	 * @param st the table.
+	 * @param n the number of keys it was built with.
+	 * @param dst the buffer to scan into.
+	 * @param label the name to report the results under, or <tt>null</tt> for a warm-up.
+	 */
+	static void rangeScans(CompactRedBlackBST st, int n, int[] dst, String label) {
+		Random random = new Random(7);
+		long keys = 0, start = System.nanoTime();
+		for (int i = 0; i < 4000; i++) {
+			int lo = 2 * random.nextInt(n);
+			keys += st.keys(lo, lo + 2048, dst);
+		}
+		long elapsed = System.nanoTime() - start;
+		if (label == null) return;
+		report(label + " range scan per key", keys, elapsed);
+		System.out.printf("  scan locality %.3f%n", st.scanLocality());
+	}
+
+	/**
+	 * Keep two replicas of a <tt>MerkleRedBlackBST</tt>, built in different orders so that
+	 * their trees have different shapes. For each count of differences, change that many
+	 * random keys of one replica, then find the differences with <tt>diff</tt> and with a
+	 * full scan, and sync the other replica over a pipe. Reports the times, the ranges
+	 * sent and the bytes sent in each direction, and finally the bytes of a sync into an
+	 * empty replica. The first count is also run once as a warm-up.
+	 * @param n the number of keys in each replica.
+	 * @param diffs the counts of differences.
+	 */
+	static void replicaSync(int n, int[] diffs) {
+		int[] keys = new int[n];
+		for (int i = 0; i < n; i++) keys[i] = i;
+		Random random = new Random(42);
+		for (int i = n - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int t = keys[i];
+			keys[i] = keys[j];
+			keys[j] = t;
+		}
+		MerkleRedBlackBST<Integer, Integer> primary = new MerkleRedBlackBST<Integer, Integer>();
+		MerkleRedBlackBST<Integer, Integer> replica = new MerkleRedBlackBST<Integer, Integer>();
+		long build = System.nanoTime();
+		for (int i = 0; i < n; i++) primary.put(keys[i], i);
+		build = System.nanoTime() - build;
+		for (int i = 0; i < n; i++) replica.put(i, primary.get(i));
+		System.out.printf("same hash: %b, build %.0f ns/put%n", primary.hash() == replica.hash(), (double) build / n);
+
+		long[] bytes = new long[2];
+		for (int round = 0; round < diffs.length + 1; round++) {
+			int d = diffs[Math.max(round - 1, 0)];
+			// a third of the changes each delete, insert and update a key
+			for (int i = 0; i < d; i++) {
+				int key = random.nextInt(n + n / 2);
+				if (i % 3 == 0) primary.delete(key);
+				else primary.put(key, -i);
+			}
+
+			long start = System.nanoTime();
+			int found = 0;
+			for (Integer key : replica.diff(primary)) found++;
+			long diff = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			int scanned = 0;
+			for (Integer key : replica.keys()) if (!replica.get(key).equals(primary.get(key))) scanned++;
+			for (Integer key : primary.keys()) if (!replica.contains(key)) scanned++;
+			long scan = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			int ranges = sync(primary, replica, bytes);
+			long sync = System.nanoTime() - start;
+			if (round == 0) continue;
+			System.out.printf("%d differences (%d found, %d by full scan), same hash after sync: %b%n",
+					d, found, scanned, primary.hash() == replica.hash());
+			System.out.printf("  diff %8.3f ms, full scan %8.3f ms%n", diff / 1e6, scan / 1e6);
+			System.out.printf("  sync %8.3f ms, %d ranges, %d bytes sent, %d bytes received%n",
+					sync / 1e6, ranges, bytes[0], bytes[1]);
+		}
+
+		long start = System.nanoTime();
+		sync(primary, new MerkleRedBlackBST<Integer, Integer>(), bytes);
+		long full = System.nanoTime() - start;
+		System.out.printf("full copy: sync %8.3f ms, %d bytes sent, %d bytes received%n",
+				full / 1e6, bytes[0], bytes[1]);
+	}
+
+	/**
+	 * Pull a replica up to date from a primary served by another thread over pipes.
+	 * @param primary the table to copy.
+	 * @param replica the table to bring up to date.
+	 * @param bytes receives the bytes sent by the replica and by the primary.
+	 * @return the number of ranges the replica sent.
+	 */
+	static int sync(final MerkleRedBlackBST<Integer, Integer> primary,
+			MerkleRedBlackBST<Integer, Integer> replica, final long[] bytes) {
+		try {
+			final PipedInputStream toPrimary = new PipedInputStream(1 << 16);
+			PipedInputStream toReplica = new PipedInputStream(1 << 16);
+			final OutputStream primaryOut = counting(new PipedOutputStream(toReplica), bytes, 1);
+			OutputStream replicaOut = counting(new PipedOutputStream(toPrimary), bytes, 0);
+			bytes[0] = bytes[1] = 0;
+			Thread server = new Thread() {
+				public void run() {
+					try {
+						primary.serve(toPrimary, primaryOut);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}
+			};
+			server.start();
+			int ranges = replica.pull(toReplica, replicaOut);
+			join(server);
+			return ranges;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Wrap a stream so that it adds the bytes written to a counter.
+	 * @param out the stream.
+	 * @param counters the counters.
+	 * @param index the index of the counter to add to.
+	 * @return the wrapped stream.
+	 */
+	static OutputStream counting(OutputStream out, final long[] counters, final int index) {
+		return new FilterOutputStream(out) {
+			public void write(int b) throws IOException {
+				out.write(b);
+				counters[index]++;
+			}
+
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+				counters[index] += len;
+			}
+		};
+	}
+
+	/**
+	 * Get the heap in use after collecting garbage.
+	 * @return the bytes of heap in use.
+	 */
+	static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Wait for a thread to finish.
+	 * @param thread the thread.
+	 */
+	static void join(Thread thread) {
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Print the throughput of a benchmark.
+	 * @param label the name of the benchmark.
+	 * @param operations the number of operations performed.
+	 * @param elapsed the elapsed time in nanoseconds.
+	 */
+	static void report(String label, long operations, long elapsed) {
+		System.out.printf("%-40s %10.1f ns/op %12.0f ops/s%n", label,
+				(double) elapsed / operations, operations * 1e9 / elapsed);
+	}
+
+	/**
+	 * Get the number of bytes allocated so far by the current thread.
+	 * @return the allocated bytes.
+	 */
+	static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * A list stored in an array with a gap at the last edit position. An edit first
+	 * moves the gap to its position, which copies the items in between, so edits near
+	 * the previous one are cheap and edits far from it cost time in proportion to the
+	 * distance.
+	 */
+	static class GapBuffer<Item> {
+		private Object[] items;
+		private int start, end;    // the gap is items[start] to items[end - 1]
+
+		GapBuffer(int capacity) {
+			items = new Object[Math.max(capacity, 1)];
+			end = items.length;
+		}
+
+		int size() {
+			return items.length - (end - start);
+		}
+
+		@SuppressWarnings("unchecked")
+		Item get(int index) {
+			return (Item) items[index < start ? index : index + end - start];
+		}
+
+		void insertAt(int index, Item item) {
+			if (start == end) grow();
+			moveGap(index);
+			items[start++] = item;
+		}
+
+		@SuppressWarnings("unchecked")
+		Item removeAt(int index) {
+			moveGap(index);
+			Item item = (Item) items[end];
+			items[end++] = null;
+			return item;
+		}
+
+		// move the gap so that it starts at index
+		private void moveGap(int index) {
+			if (index < start) {
+				int count = start - index;
+				System.arraycopy(items, index, items, end - count, count);
+				start -= count;
+				end -= count;
+			}
+			else if (index > start) {
+				int count = index - start;
+				System.arraycopy(items, end, items, start, count);
+				start += count;
+				end += count;
+			}
+		}
+
+		// double the capacity, keeping the gap where it is
+		private void grow() {
+			int tail = items.length - end;
+			Object[] bigger = Arrays.copyOf(items, 2 * items.length);
+			System.arraycopy(items, end, bigger, bigger.length - tail, tail);
+			end = bigger.length - tail;
+			items = bigger;
+		}
+	}
+
+	/**
+	 * A double-ended priority queue made of a min-heap and a max-heap that hold the same
+	 * entries. An entry removed through one heap is marked, and the other heap discards it
+	 * when it comes to the top.
+	 */
+	static class TwoHeaps {
+		private static class Entry {
+			private final int key;
+			private boolean removed;
+
+			Entry(int key) {
+				this.key = key;
+			}
+		}
+
+		private final PriorityQueue<Entry> mins = new PriorityQueue<Entry>(11, new Comparator<Entry>() {
+			public int compare(Entry a, Entry b) {
+				return Integer.compare(a.key, b.key);
+			}
+		});
+		private final PriorityQueue<Entry> maxs = new PriorityQueue<Entry>(11, new Comparator<Entry>() {
+			public int compare(Entry a, Entry b) {
+				return Integer.compare(b.key, a.key);
+			}
+		});
+
+		void insert(int key) {
+			Entry entry = new Entry(key);
+			mins.add(entry);
+			maxs.add(entry);
+		}
+
+		int min() {
+			return top(mins).key;
+		}
+
+		int max() {
+			return top(maxs).key;
+		}
+
+		int delMin() {
+			Entry entry = top(mins);
+			mins.poll();
+			entry.removed = true;
+			return entry.key;
+		}
+
+		int delMax() {
+			Entry entry = top(maxs);
+			maxs.poll();
+			entry.removed = true;
+			return entry.key;
+		}
+
+		// the top entry of the heap that has not been removed through the other heap
+		private static Entry top(PriorityQueue<Entry> heap) {
+			while (heap.peek().removed) heap.poll();
+			return heap.peek();
+		}
+	}
+}
@@ -0,0 +1,260 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ *  The <tt>TreeServer</tt> class serves a {@link RedBlackBST} of <tt>int</tt>
+ *  keys and values as a key-value service on localhost.
+ *  <p>
+ *  Every request is 9 bytes: an operation code, then two big-endian ints
+ *  <em>a</em> and <em>b</em>. Every response starts with a status byte,
+ *  <tt>OK</tt> or <tt>NONE</tt>, followed by one int, except for <tt>RANGE</tt>.
+ *  <ul>
+ *  <li><tt>PUT a b</tt> maps key <em>a</em> to value <em>b</em>; the int is unused.
+ *  <li><tt>GET a</tt> returns the value of key <em>a</em>.
+ *  <li><tt>DELETE a</tt> removes key <em>a</em>; the int is unused.
+ *  <li><tt>FLOOR a</tt> and <tt>CEILING a</tt> return the nearest key.
+ *  <li><tt>RANK a</tt> returns the number of keys less than <em>a</em>.
+ *  <li><tt>RANGE a b</tt> returns a count <em>n</em> and then the <em>n</em>
+ *      smallest keys between <em>a</em> and <em>b</em> inclusive, at most
+ *      <tt>MAX_RANGE</tt> of them. A client that gets <tt>MAX_RANGE</tt> keys
+ *      asks again from the last key + 1 for the rest.
+ *  </ul>
+ *  Clients may pipeline: they can send any number of requests without waiting,
+ *  and the responses come back in order.
+ *  <p>
+ *  One thread runs a selector loop and owns the tree, so the tree needs no
+ *  locks. Each time the selector wakes up, the complete requests on every
+ *  ready connection are applied in a single pass, as one batch of tree
+ *  mutations. Only then are the responses of every connection in the batch
+ *  written, one write per connection.
+ *  <p>
+ *  A client that sends requests without reading the responses is not allowed
+ *  to fill the heap. Once a connection has <tt>HIGH_WATER</tt> bytes of unsent
+ *  responses, the server stops applying its requests and stops reading from
+ *  it until the responses drain, so TCP flow control pushes back on the client.
+ */
+public class TreeServer implements Runnable {
+
+    public static final byte PUT = 1, GET = 2, DELETE = 3, FLOOR = 4, CEILING = 5, RANK = 6, RANGE = 7;
+    public static final byte OK = 0, NONE = 1;
+    public static final int REQUEST_BYTES = 9;
+    public static final int MAX_RANGE = 1024;          // most keys in one RANGE response
+    private static final int HIGH_WATER = 64 * 1024;   // unsent bytes at which a connection stops being read
+
+    private final RedBlackBST<Integer, Integer> st = new RedBlackBST<Integer, Integer>();
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final List<SelectionKey> batch = new ArrayList<SelectionKey>();   // connections to write after this pass
+
+    // buffers of one client connection
+    private static class Connection {
+        private final ByteBuffer in = ByteBuffer.allocate(4096);
+        // in write mode between passes; grows up to HIGH_WATER plus one response
+        private ByteBuffer out = ByteBuffer.allocate(4096);
+    }
+
+    /**
+     * Opens a server on the given port of the loopback interface.
+     * @param port the port, or 0 for any free port
+     * @throws IOException if the port cannot be bound
+     */
+    public TreeServer(int port) throws IOException {
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("127.0.0.1", port), 1024);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Returns the port the server is listening on.
+     * @return the port
+     */
+    public int port() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Serves requests until the thread is interrupted or the selector is closed.
+     */
+    public void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted() && selector.isOpen()) {
+                selector.select();
+                // apply the requests of every ready connection first
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    try {
+                        if (!key.isValid()) continue;
+                        if (key.isAcceptable()) accept();
+                        // read() puts the connection in the batch itself
+                        if (key.isValid() && key.isReadable()) read(key);
+                        else if (key.isValid() && key.isWritable()) batch.add(key);
+                    } catch (IOException e) {
+                        // a failed accept, e.g. out of file descriptors, must not close the server
+                        if (key.channel() == server) continue;
+                        drop(key);
+                    }
+                }
+                // then send the responses of the whole batch
+                for (SelectionKey key : batch) {
+                    try {
+                        if (key.isValid()) write(key);
+                    } catch (IOException e) {
+                        drop(key);
+                    }
+                }
+                batch.clear();
+            }
+        } catch (ClosedSelectorException e) {
+            // closed by close()
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Stops the server and closes every connection.
+     * @throws IOException if closing fails
+     */
+    public void close() throws IOException {
+        for (SelectionKey key : selector.keys()) key.channel().close();
+        selector.close();
+    }
+
+    private void drop(SelectionKey key) throws IOException {
+        key.cancel();
+        key.channel().close();
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.register(selector, SelectionKey.OP_READ, new Connection());
+        }
+    }
+
+    // take what has arrived and apply the complete requests; the responses
+    // are sent after the pass
+    private void read(SelectionKey key) throws IOException {
+        Connection c = (Connection) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+        if (channel.read(c.in) < 0) {
+            drop(key);
+            return;
+        }
+        serve(c);
+        batch.add(key);
+    }
+
+    // apply the complete requests in the input buffer until the unsent
+    // responses reach the high-water mark; the rest wait in the buffer
+    private void serve(Connection c) {
+        c.in.flip();
+        while (c.in.remaining() >= REQUEST_BYTES && c.out.position() < HIGH_WATER)
+            apply(c, c.in.get(), c.in.getInt(), c.in.getInt());
+        c.in.compact();
+    }
+
+    // send as much output as the socket takes. While it drains below the
+    // high-water mark, apply the requests held back; read again only below
+    // the mark, and wait to write while output is left
+    private void write(SelectionKey key) throws IOException {
+        Connection c = (Connection) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+        while (true) {
+            c.out.flip();
+            channel.write(c.out);
+            boolean full = c.out.hasRemaining();
+            c.out.compact();
+            if (full || c.in.position() < REQUEST_BYTES) break;
+            serve(c);
+        }
+        int ops = 0;
+        if (c.out.position() < HIGH_WATER) ops |= SelectionKey.OP_READ;
+        if (c.out.position() > 0)          ops |= SelectionKey.OP_WRITE;
+        key.interestOps(ops);
+    }
+
+    // apply one request to the tree and append its response
+    private void apply(Connection c, byte op, int a, int b) {
+        Integer result = null;
+        switch (op) {
+            case PUT:
+                st.put(a, b);
+                result = 0;
+                break;
+            case GET:
+                result = st.get(a);
+                break;
+            case DELETE:
+                if (st.contains(a)) {
+                    st.delete(a);
+                    result = 0;
+                }
+                break;
+            case FLOOR:
+                if (!st.isEmpty()) result = st.floor(a);
+                break;
+            case CEILING:
+                if (!st.isEmpty()) result = st.ceiling(a);
+                break;
+            case RANK:
+                result = st.rank(a);
+                break;
+            case RANGE:
+                range(c, a, b);
+                return;
+            default:
+                break;
+        }
+        ensure(c, 5);
+        c.out.put(result == null ? NONE : OK);
+        c.out.putInt(result == null ? 0 : result);
+    }
+
+    // the first MAX_RANGE keys between lo and hi, found by rank so that only
+    // the keys sent are visited
+    private void range(Connection c, int lo, int hi) {
+        int n = (lo > hi || st.isEmpty()) ? 0 : st.size(lo, hi);
+        n = Math.min(n, MAX_RANGE);
+        ensure(c, 5 + 4 * n);
+        c.out.put(OK);
+        c.out.putInt(n);
+        if (n > 0)
+            for (int key : st.keys(lo, st.select(st.rank(lo) + n - 1))) c.out.putInt(key);
+    }
+
+    // make room in the output buffer for the given number of bytes; serve()
+    // stops at HIGH_WATER, so the buffer never grows much past it
+    private void ensure(Connection c, int bytes) {
+        if (c.out.remaining() >= bytes) return;
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(2 * c.out.capacity(), c.out.position() + bytes));
+        c.out.flip();
+        bigger.put(c.out);
+        c.out = bigger;
+    }
+
+    /**
+     * Runs a server on the port given as the first argument, 7070 by default.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = (args.length > 0) ? Integer.parseInt(args[0]) : 7070;
+        TreeServer server = new TreeServer(port);
+        System.out.println("Serving on 127.0.0.1:" + server.port());
+        server.run();
+    }
+}
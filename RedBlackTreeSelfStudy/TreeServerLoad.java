@@ -0,0 +1,157 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ *  The <tt>TreeServerLoad</tt> class is a load generator for {@link TreeServer}.
+ *  It opens many connections and keeps a fixed number of requests in flight
+ *  on each one, with a mix of 50% <tt>GET</tt>, 30% <tt>PUT</tt>,
+ *  10% <tt>FLOOR</tt> and 10% <tt>RANK</tt> on random keys.
+ *  After the run it prints the throughput and the latency percentiles.
+ *  <p>
+ *  Usage: <tt>java TreeServerLoad [connections] [depth] [seconds] [port]</tt>.
+ *  Without a port it starts a server in the same process.
+ */
+public class TreeServerLoad {
+
+    private static final int KEYS = 1 << 20;
+    // latencies are recorded to the microsecond below 100 ms and to the millisecond up to a minute
+    private static final int FINE = 100000, COARSE = 60000;
+
+    private final Random random = new Random(42);
+    private final long[] histogram = new long[FINE + COARSE + 1];
+    private long completed;
+
+    // one connection and the send times of its requests in flight
+    private static class Client {
+        private final SocketChannel channel;
+        private final ByteBuffer in, out;
+        private final long[] sent;
+        private int head, inFlight;
+
+        public Client(SocketChannel channel, int depth) {
+            this.channel = channel;
+            this.in = ByteBuffer.allocate(5 * depth);
+            this.out = ByteBuffer.allocate(TreeServer.REQUEST_BYTES * depth);
+            this.sent = new long[depth];
+            out.flip();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int connections = (args.length > 0) ? Integer.parseInt(args[0]) : 1000;
+        int depth = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+        int seconds = (args.length > 2) ? Integer.parseInt(args[2]) : 10;
+        int port;
+        TreeServer server = null;
+        if (args.length > 3) port = Integer.parseInt(args[3]);
+        else {
+            server = new TreeServer(0);
+            port = server.port();
+            Thread thread = new Thread(server, "tree-server");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        new TreeServerLoad().run(port, connections, depth, seconds);
+        if (server != null) server.close();
+    }
+
+    /**
+     * Runs the load against a server.
+     * @param port the server's port on localhost
+     * @param connections the number of connections
+     * @param depth the number of requests in flight on each connection
+     * @param seconds how long to run
+     * @throws IOException if a connection fails
+     */
+    public void run(int port, int connections, int depth, int seconds) throws IOException {
+        Selector selector = Selector.open();
+        for (int i = 0; i < connections; i++) {
+            SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", port));
+            channel.socket().setTcpNoDelay(true);
+            channel.configureBlocking(false);
+            Client c = new Client(channel, depth);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ, c);
+            for (int j = 0; j < depth; j++) send(c);
+            flush(key);
+        }
+
+        long start = System.nanoTime(), end = start + seconds * 1000000000L;
+        while (System.nanoTime() < end) {
+            selector.select(100);
+            Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove();
+                if (key.isReadable()) receive(key);
+                if (key.isValid() && key.isWritable()) flush(key);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        for (SelectionKey key : selector.keys()) key.channel().close();
+        selector.close();
+
+        System.out.printf("%d connections, %d in flight each: %.0f requests/s%n",
+                connections, depth, completed * 1e9 / elapsed);
+        System.out.printf("latency p50 %d us, p99 %d us, p99.9 %d us, max %d us%n",
+                percentile(0.5), percentile(0.99), percentile(0.999), percentile(1.0));
+    }
+
+    // queue one random request on the client
+    private void send(Client c) {
+        int r = random.nextInt(10);
+        byte op = (r < 5) ? TreeServer.GET : (r < 8) ? TreeServer.PUT : (r < 9) ? TreeServer.FLOOR : TreeServer.RANK;
+        int key = random.nextInt(KEYS);
+        c.out.compact();
+        c.out.put(op).putInt(key).putInt(key);
+        c.out.flip();
+        c.sent[(c.head + c.inFlight) % c.sent.length] = System.nanoTime();
+        c.inFlight++;
+    }
+
+    // read responses, record their latencies and replace each with a new request
+    private void receive(SelectionKey key) throws IOException {
+        Client c = (Client) key.attachment();
+        if (c.channel.read(c.in) < 0) {
+            key.cancel();
+            c.channel.close();
+            return;
+        }
+        c.in.flip();
+        long now = System.nanoTime();
+        while (c.in.remaining() >= 5) {
+            c.in.get();
+            c.in.getInt();
+            long micros = (now - c.sent[c.head]) / 1000;
+            histogram[(micros < FINE) ? (int) micros : (int) Math.min(FINE + micros / 1000, FINE + COARSE)]++;
+            completed++;
+            c.head = (c.head + 1) % c.sent.length;
+            c.inFlight--;
+            send(c);
+        }
+        c.in.compact();
+        flush(key);
+    }
+
+    // write queued requests, waiting for the socket to drain if needed
+    private void flush(SelectionKey key) throws IOException {
+        Client c = (Client) key.attachment();
+        c.channel.write(c.out);
+        key.interestOps(c.out.hasRemaining() ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    // the latency in microseconds below which the given fraction of requests completed
+    private long percentile(double fraction) {
+        long target = (long) Math.ceil(fraction * completed), seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= target && seen > 0) return (i < FINE) ? i : (i - FINE) * 1000L;
+        }
+        return COARSE * 1000L;
+    }
+}
@@ -0,0 +1,509 @@
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *  The <tt>VersionedRedBlackBST</tt> class represents an ordered symbol table
+ *  with multi-version concurrency control: readers work on immutable versions
+ *  of the table and are never blocked by writers, and writers are never
+ *  blocked by readers.
+ *  <p>
+ *  This implementation is the left-leaning red-black BST of {@link RedBlackBST}
+ *  made persistent by path copying. A write copies only the nodes it changes,
+ *  which are the nodes on the search path and their siblings touched by
+ *  rotations and color flips. Every node records the version that created it.
+ *  A write changes in place the nodes it has already copied, and copies any
+ *  node from an earlier version before changing it. When the write finishes,
+ *  its root is published as the next version.
+ *  <p>
+ *  Writers are serialized with each other. <em>get</em> and <em>contains</em>
+ *  read the latest version. Long scans should pin a version with
+ *  {@link #snapshot()} and read from it for as long as they need to. A version
+ *  is reclaimed by the garbage collector once no snapshot refers to it.
+ *  <em>put</em> and <em>delete</em> take logarithmic time and allocate
+ *  logarithmic space. Taking a snapshot takes constant time.
+ */
+public class VersionedRedBlackBST<Key extends Comparable<Key>, Value> {
+
+    private static final boolean RED   = true;
+    private static final boolean BLACK = false;
+
+    private volatile Version latest = new Version(null, 0);   // the last published version
+    private long writing;                                     // version of the write in progress
+    private final AtomicInteger snapshots = new AtomicInteger();
+
+    // BST helper node data type
+    private class Node {
+        private Key key;           // key
+        private Value val;         // associated data
+        private Node left, right;  // links to left and right subtrees
+        private boolean color;     // color of parent link
+        private int N;             // subtree count
+        private final long version; // the write that created this node
+
+        public Node(Key key, Value val, boolean color, int N, long version) {
+            this.key = key;
+            this.val = val;
+            this.color = color;
+            this.N = N;
+            this.version = version;
+        }
+    }
+
+    // a published, immutable tree
+    private class Version {
+        private final Node root;
+        private final long number;
+
+        public Version(Node root, long number) {
+            this.root = root;
+            this.number = number;
+        }
+    }
+
+    /**
+     * Initializes an empty symbol table.
+     */
+    public VersionedRedBlackBST() {
+    }
+
+   /***************************************************************************
+    *  Node helper methods.
+    ***************************************************************************/
+    // is node x red; false if x is null ?
+    private boolean isRed(Node x) {
+        if (x == null) return false;
+        return x.color == RED;
+    }
+
+    // number of node in subtree rooted at x; 0 if x is null
+    private int size(Node x) {
+        if (x == null) return 0;
+        return x.N;
+    }
+
+    // x if the write in progress created it, and a copy of x created by that write otherwise
+    private Node own(Node x) {
+        if (x.version == writing) return x;
+        Node copy = new Node(x.key, x.val, x.color, x.N, writing);
+        copy.left = x.left;
+        copy.right = x.right;
+        return copy;
+    }
+
+   /***************************************************************************
+    *  Reading the latest version.
+    ***************************************************************************/
+
+    /**
+     * Returns the number of key-value pairs in the latest version.
+     * @return the number of key-value pairs in the latest version
+     */
+    public int size() {
+        return size(latest.root);
+    }
+
+    /**
+     * Is the latest version empty?
+     * @return <tt>true</tt> if the latest version is empty and <tt>false</tt> otherwise
+     */
+    public boolean isEmpty() {
+        return latest.root == null;
+    }
+
+    /**
+     * Returns the number of the latest version; every write adds one.
+     * @return the number of the latest version
+     */
+    public long version() {
+        return latest.number;
+    }
+
+    /**
+     * Returns the value associated with the given key in the latest version.
+     * @param key the key
+     * @return the value associated with the given key if the key is in the symbol table
+     *     and <tt>null</tt> if the key is not in the symbol table
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public Value get(Key key) {
+        return get(latest.root, key);
+    }
+
+    // value associated with the given key in subtree rooted at x; null if no such key
+    private Value get(Node x, Key key) {
+        while (x != null) {
+            int cmp = key.compareTo(x.key);
+            if      (cmp < 0) x = x.left;
+            else if (cmp > 0) x = x.right;
+            else              return x.val;
+        }
+        return null;
+    }
+
+    /**
+     * Does the latest version contain the given key?
+     * @param key the key
+     * @return <tt>true</tt> if the latest version contains <tt>key</tt> and
+     *     <tt>false</tt> otherwise
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public boolean contains(Key key) {
+        return get(key) != null;
+    }
+
+   /***************************************************************************
+    *  Snapshots.
+    ***************************************************************************/
+
+    /**
+     * Pins the latest version for reading. The snapshot keeps seeing that
+     * version however many writes follow, until it is closed.
+     * @return a snapshot of the latest version
+     */
+    public Snapshot snapshot() {
+        snapshots.incrementAndGet();
+        return new Snapshot(latest);
+    }
+
+    /**
+     * Returns the number of snapshots that have not been closed yet.
+     * @return the number of open snapshots
+     */
+    public int openSnapshots() {
+        return snapshots.get();
+    }
+
+    /**
+     * A pinned version of the symbol table. Closing the snapshot releases the version,
+     * so that its nodes can be reclaimed once no newer version shares them.
+     */
+    public class Snapshot implements AutoCloseable {
+        private Version version;
+
+        private Snapshot(Version version) {
+            this.version = version;
+        }
+
+        // the pinned root
+        private Node root() {
+            if (version == null) throw new IllegalStateException("snapshot is closed");
+            return version.root;
+        }
+
+        /**
+         * Returns the number of the pinned version.
+         * @return the number of the pinned version
+         */
+        public long version() {
+            root();
+            return version.number;
+        }
+
+        /**
+         * Returns the number of key-value pairs in the pinned version.
+         * @return the number of key-value pairs in the pinned version
+         */
+        public int size() {
+            return VersionedRedBlackBST.this.size(root());
+        }
+
+        /**
+         * Returns the value associated with the given key in the pinned version.
+         * @param key the key
+         * @return the value associated with the given key, or <tt>null</tt> if there is none
+         * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+         */
+        public Value get(Key key) {
+            return VersionedRedBlackBST.this.get(root(), key);
+        }
+
+        /**
+         * Returns the keys of the pinned version between <tt>lo</tt> and <tt>hi</tt>
+         * (both inclusive) in ascending order. The keys are read as the iterator advances.
+         * @param lo the smallest key to return
+         * @param hi the largest key to return
+         * @return the keys in the given range as an <tt>Iterable</tt>
+         * @throws NullPointerException if either <tt>lo</tt> or <tt>hi</tt> is <tt>null</tt>
+         */
+        public Iterable<Key> keys(final Key lo, final Key hi) {
+            final Node root = root();
+            return new Iterable<Key>() {
+                public Iterator<Key> iterator() {
+                    return new RangeIterator(root, lo, hi);
+                }
+            };
+        }
+
+        /**
+         * Releases the pinned version. Closing a snapshot twice has no effect.
+         */
+        public void close() {
+            if (version == null) return;
+            version = null;
+            snapshots.decrementAndGet();
+        }
+    }
+
+    // an in-order traversal of the keys between lo and hi
+    private class RangeIterator implements Iterator<Key> {
+        private final Key lo, hi;
+        private final ArrayDeque<Node> stack = new ArrayDeque<Node>();
+
+        public RangeIterator(Node root, Key lo, Key hi) {
+            this.lo = lo;
+            this.hi = hi;
+            pushLeft(root);
+        }
+
+        // push x and its left descendants that are not below lo
+        private void pushLeft(Node x) {
+            while (x != null) {
+                if (x.key.compareTo(lo) < 0) x = x.right;
+                else {
+                    stack.push(x);
+                    x = x.left;
+                }
+            }
+        }
+
+        public boolean hasNext() {
+            return !stack.isEmpty() && stack.peek().key.compareTo(hi) <= 0;
+        }
+
+        public void remove() { throw new UnsupportedOperationException(); }
+
+        public Key next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            Node x = stack.pop();
+            pushLeft(x.right);
+            return x.key;
+        }
+    }
+
+   /***************************************************************************
+    *  Red-black tree insertion.
+    ***************************************************************************/
+
+    /**
+     * Inserts the key-value pair into the symbol table, overwriting the old value
+     * with the new value if the key is already in the symbol table,
+     * and publishes the result as a new version.
+     * @param key the key
+     * @param val the value
+     * @throws NullPointerException if <tt>key</tt> or <tt>val</tt> is <tt>null</tt>
+     */
+    public synchronized void put(Key key, Value val) {
+        if (val == null) throw new NullPointerException("value is null");
+        writing = latest.number + 1;
+        Node root = put(latest.root, key, val);
+        root.color = BLACK;
+        latest = new Version(root, writing);
+    }
+
+    // insert the key-value pair in the subtree rooted at h
+    private Node put(Node h, Key key, Value val) {
+        if (h == null) return new Node(key, val, RED, 1, writing);
+
+        h = own(h);
+        int cmp = key.compareTo(h.key);
+        if      (cmp < 0) h.left  = put(h.left,  key, val);
+        else if (cmp > 0) h.right = put(h.right, key, val);
+        else              h.val   = val;
+
+        // fix-up any right-leaning links
+        if (isRed(h.right) && !isRed(h.left))      h = rotateLeft(h);
+        if (isRed(h.left)  &&  isRed(h.left.left)) h = rotateRight(h);
+        if (isRed(h.left)  &&  isRed(h.right))     flipColors(h);
+        h.N = size(h.left) + size(h.right) + 1;
+
+        return h;
+    }
+
+   /***************************************************************************
+    *  Red-black tree deletion.
+    ***************************************************************************/
+
+    /**
+     * Removes the key and associated value from the symbol table
+     * (if the key is in the symbol table) and publishes the result as a new version.
+     * @param key the key
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     */
+    public synchronized void delete(Key key) {
+        Node root = latest.root;
+        if (get(root, key) == null) return;
+        writing = latest.number + 1;
+
+        // if both children of root are black, set root to red
+        if (!isRed(root.left) && !isRed(root.right)) {
+            root = own(root);
+            root.color = RED;
+        }
+
+        root = delete(root, key);
+        if (root != null) root.color = BLACK;
+        latest = new Version(root, writing);
+    }
+
+    /**
+     * Applies the first <tt>n</tt> writes of a batch in order and publishes the
+     * result as a single new version; a <tt>null</tt> value deletes its key.
+     * Every write of the batch shares the version, so a node copied by one write is
+     * changed in place by the later ones. With sorted keys, consecutive writes
+     * mostly walk down the path the previous write has already copied.
+     * @param keys the keys
+     * @param vals the values, <tt>null</tt> for a deletion
+     * @param n the number of writes
+     * @throws NullPointerException if any of the keys is <tt>null</tt>
+     */
+    public synchronized void apply(Key[] keys, Value[] vals, int n) {
+        writing = latest.number + 1;
+        Node root = latest.root;
+        for (int i = 0; i < n; i++) {
+            if (vals[i] != null) {
+                root = put(root, keys[i], vals[i]);
+                root.color = BLACK;
+            }
+            else if (get(root, keys[i]) != null) {
+                if (!isRed(root.left) && !isRed(root.right)) {
+                    root = own(root);
+                    root.color = RED;
+                }
+                root = delete(root, keys[i]);
+                if (root != null) root.color = BLACK;
+            }
+        }
+        latest = new Version(root, writing);
+    }
+
+    // delete the key-value pair with the minimum key rooted at h
+    private Node deleteMin(Node h) {
+        if (h.left == null)
+            return null;
+
+        h = own(h);
+        if (!isRed(h.left) && !isRed(h.left.left))
+            h = moveRedLeft(h);
+
+        h.left = deleteMin(h.left);
+        return balance(h);
+    }
+
+    // delete the key-value pair with the given key rooted at h
+    private Node delete(Node h, Key key) {
+        h = own(h);
+        if (key.compareTo(h.key) < 0)  {
+            if (!isRed(h.left) && !isRed(h.left.left))
+                h = moveRedLeft(h);
+            h.left = delete(h.left, key);
+        }
+        else {
+            if (isRed(h.left))
+                h = rotateRight(h);
+            if (key.compareTo(h.key) == 0 && (h.right == null))
+                return null;
+            if (!isRed(h.right) && !isRed(h.right.left))
+                h = moveRedRight(h);
+            if (key.compareTo(h.key) == 0) {
+                Node x = h.right;
+                while (x.left != null) x = x.left;
+                h.key = x.key;
+                h.val = x.val;
+                h.right = deleteMin(h.right);
+            }
+            else h.right = delete(h.right, key);
+        }
+        return balance(h);
+    }
+
+   /***************************************************************************
+    *  Red-black tree helper functions. Each takes a node owned by the
+    *  write in progress and owns every other node it changes.
+    ***************************************************************************/
+
+    // make a left-leaning link lean to the right
+    private Node rotateRight(Node h) {
+        Node x = own(h.left);
+        h.left = x.right;
+        x.right = h;
+        x.color = x.right.color;
+        x.right.color = RED;
+        x.N = h.N;
+        h.N = size(h.left) + size(h.right) + 1;
+        return x;
+    }
+
+    // make a right-leaning link lean to the left
+    private Node rotateLeft(Node h) {
+        Node x = own(h.right);
+        h.right = x.left;
+        x.left = h;
+        x.color = x.left.color;
+        x.left.color = RED;
+        x.N = h.N;
+        h.N = size(h.left) + size(h.right) + 1;
+        return x;
+    }
+
+    // flip the colors of a node and its two children
+    private void flipColors(Node h) {
+        h.left = own(h.left);
+        h.right = own(h.right);
+        h.color = !h.color;
+        h.left.color = !h.left.color;
+        h.right.color = !h.right.color;
+    }
+
+    // Assuming that h is red and both h.left and h.left.left
+    // are black, make h.left or one of its children red.
+    private Node moveRedLeft(Node h) {
+        flipColors(h);
+        if (isRed(h.right.left)) {
+            h.right = rotateRight(h.right);
+            h = rotateLeft(h);
+            flipColors(h);
+        }
+        return h;
+    }
+
+    // Assuming that h is red and both h.right and h.right.left
+    // are black, make h.right or one of its children red.
+    private Node moveRedRight(Node h) {
+        flipColors(h);
+        if (isRed(h.left.left)) {
+            h = rotateRight(h);
+            flipColors(h);
+        }
+        return h;
+    }
+
+    // restore red-black tree invariant
+    private Node balance(Node h) {
+        if (isRed(h.right))                      h = rotateLeft(h);
+        if (isRed(h.left) && isRed(h.left.left)) h = rotateRight(h);
+        if (isRed(h.left) && isRed(h.right))     flipColors(h);
+
+        h.N = size(h.left) + size(h.right) + 1;
+        return h;
+    }
+
+
+    /**
+     * Unit tests the <tt>VersionedRedBlackBST</tt> data type.
+     */
+    public static void main(String[] args) {
+        VersionedRedBlackBST<Integer, String> st = new VersionedRedBlackBST<Integer, String>();
+        for (int i = 0; i < 10; i++) st.put(i, "v" + i);
+        VersionedRedBlackBST<Integer, String>.Snapshot snapshot = st.snapshot();
+        for (int i = 0; i < 10; i += 2) st.delete(i);
+        st.put(3, "changed");
+
+        System.out.print("snapshot " + snapshot.version() + ":");
+        for (int key : snapshot.keys(0, 9)) System.out.print(" " + key + "=" + snapshot.get(key));
+        System.out.println();
+        System.out.println("latest " + st.version() + ": size " + st.size() + ", 3=" + st.get(3));
+        snapshot.close();
+    }
+}
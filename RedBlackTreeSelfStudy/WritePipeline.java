@@ -0,0 +1,257 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ *  The <tt>WritePipeline</tt> class is an asynchronous write path for a
+ *  {@link VersionedRedBlackBST}. Any number of threads enqueue <em>put</em> and
+ *  <em>delete</em> commands, and one applier thread makes every change to the
+ *  table.
+ *  <p>
+ *  Commands go into a bounded ring buffer. Each slot has a sequence number that
+ *  says whose turn it is. A producer claims a slot with one compare-and-set on
+ *  the tail, fills it, and then publishes it by advancing the slot's sequence
+ *  number, so producers never take a lock. The applier drains up to a batch of
+ *  published commands. It sorts them by key with a stable sort, so two commands
+ *  on the same key keep their order. It then applies the whole batch with
+ *  {@link VersionedRedBlackBST#apply} as one new version. Runs of nearby keys
+ *  share the nodes already copied near the top of the tree, and readers see
+ *  every batch appear at once.
+ *  <p>
+ *  Each command returns a future that completes once its batch has been
+ *  published. Readers use {@link #table()} directly: they read published
+ *  versions and never wait for the applier.
+ */
+public class WritePipeline<Key extends Comparable<Key>, Value> implements AutoCloseable {
+
+    // an enqueued write; a null value is a deletion
+    private static class Command<Key, Value> {
+        private final Key key;
+        private final Value val;
+        private final CompletableFuture<Void> done = new CompletableFuture<Void>();
+
+        public Command(Key key, Value val) {
+            this.key = key;
+            this.val = val;
+        }
+    }
+
+    private final VersionedRedBlackBST<Key, Value> st;
+    private final Object[] slots;
+    private final AtomicLongArray sequence;   // slot i is free for position p when it holds p, full when it holds p + 1
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();   // next position to claim
+    private long head;                                  // next position to drain; only the applier uses it
+    private final int maxBatch;
+
+    private final Thread applier;
+    private volatile boolean sleeping;   // the applier found the buffer empty and is about to park
+    private volatile boolean closed;
+    private volatile long batches, applied;   // written only by the applier
+
+    /**
+     * Starts a pipeline with a buffer of 65536 commands and batches of up to 1024.
+     * @param st the table to write to; all other writers must go through this pipeline
+     */
+    public WritePipeline(VersionedRedBlackBST<Key, Value> st) {
+        this(st, 1 << 16, 1024);
+    }
+
+    /**
+     * Starts a pipeline.
+     * @param st the table to write to; all other writers must go through this pipeline
+     * @param capacity the number of commands the buffer holds, a power of 2
+     * @param maxBatch the largest number of commands applied as one version
+     * @throws IllegalArgumentException unless <tt>capacity</tt> is a power of 2
+     *     and <tt>maxBatch</tt> is positive
+     */
+    public WritePipeline(VersionedRedBlackBST<Key, Value> st, int capacity, int maxBatch) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0)
+            throw new IllegalArgumentException("capacity must be a power of 2");
+        if (maxBatch <= 0) throw new IllegalArgumentException("maxBatch must be positive");
+        this.st = st;
+        this.slots = new Object[capacity];
+        this.sequence = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) sequence.set(i, i);
+        this.mask = capacity - 1;
+        this.maxBatch = maxBatch;
+        this.applier = new Thread(new Runnable() {
+            public void run() {
+                applyAll();
+            }
+        }, "write-pipeline");
+        applier.setDaemon(true);
+        applier.start();
+    }
+
+    /**
+     * Returns the table, for reading.
+     * @return the table
+     */
+    public VersionedRedBlackBST<Key, Value> table() {
+        return st;
+    }
+
+    /**
+     * Enqueues a put, waiting for room if the buffer is full.
+     * @param key the key
+     * @param val the value
+     * @return a future that completes when the put is visible to readers, or
+     *     exceptionally if applying its batch fails
+     * @throws NullPointerException if <tt>key</tt> or <tt>val</tt> is <tt>null</tt>
+     * @throws IllegalStateException if the pipeline is closed
+     */
+    public CompletableFuture<Void> put(Key key, Value val) {
+        if (val == null) throw new NullPointerException("value is null");
+        return enqueue(key, val);
+    }
+
+    /**
+     * Enqueues a deletion, waiting for room if the buffer is full.
+     * @param key the key
+     * @return a future that completes when the deletion is visible to readers, or
+     *     exceptionally if applying its batch fails
+     * @throws NullPointerException if <tt>key</tt> is <tt>null</tt>
+     * @throws IllegalStateException if the pipeline is closed
+     */
+    public CompletableFuture<Void> delete(Key key) {
+        return enqueue(key, null);
+    }
+
+    private CompletableFuture<Void> enqueue(Key key, Value val) {
+        if (key == null) throw new NullPointerException("key is null");
+        if (closed) throw new IllegalStateException("pipeline is closed");
+        Command<Key, Value> command = new Command<Key, Value>(key, val);
+        long position;
+        while (true) {
+            position = tail.get();
+            long available = sequence.get((int) position & mask) - position;
+            if (available == 0 && tail.compareAndSet(position, position + 1)) break;
+            if (available < 0) {
+                // full: let the applier catch up
+                if (sleeping) LockSupport.unpark(applier);
+                Thread.yield();
+            }
+        }
+        slots[(int) position & mask] = command;
+        sequence.set((int) position & mask, position + 1);   // publish
+        if (sleeping) LockSupport.unpark(applier);
+        return command.done;
+    }
+
+    /**
+     * Returns the number of batches applied so far.
+     * @return the number of batches applied so far
+     */
+    public long batches() {
+        return batches;
+    }
+
+    /**
+     * Returns the average number of commands per batch so far.
+     * @return the average number of commands per batch, or 0 if there was no batch
+     */
+    public double averageBatch() {
+        long b = batches;
+        return (b == 0) ? 0 : (double) applied / b;
+    }
+
+    /**
+     * Stops accepting commands, applies the ones already enqueued and stops the applier.
+     * Producers must stop before the pipeline is closed; a command enqueued while
+     * <tt>close</tt> runs may never be applied.
+     */
+    public void close() {
+        closed = true;
+        LockSupport.unpark(applier);
+        try {
+            applier.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+   /***************************************************************************
+    *  The applier.
+    ***************************************************************************/
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void applyAll() {
+        Command<Key, Value>[] batch = (Command<Key, Value>[]) new Command[maxBatch];
+        Command<Key, Value>[] sorted = (Command<Key, Value>[]) new Command[maxBatch];
+        Key[] keys = (Key[]) new Comparable[maxBatch];
+        Value[] vals = (Value[]) new Object[maxBatch];
+        Comparator<Command<Key, Value>> byKey = new Comparator<Command<Key, Value>>() {
+            public int compare(Command<Key, Value> a, Command<Key, Value> b) {
+                return a.key.compareTo(b.key);
+            }
+        };
+
+        while (true) {
+            int n = drain(batch);
+            if (n == 0) {
+                if (closed && tail.get() == head) return;
+                // park until a producer sees the flag, rechecking after it is set
+                sleeping = true;
+                if (sequence.get((int) head & mask) != head + 1 && !closed) LockSupport.park(this);
+                sleeping = false;
+                continue;
+            }
+
+            // a failure anywhere in the batch, including a compareTo that throws
+            // while sorting, fails every command in it and keeps the applier alive;
+            // the sort works on a copy, since a sort cut short can lose elements
+            try {
+                System.arraycopy(batch, 0, sorted, 0, n);
+                Arrays.sort(sorted, 0, n, byKey);
+                for (int i = 0; i < n; i++) {
+                    keys[i] = sorted[i].key;
+                    vals[i] = sorted[i].val;
+                }
+                st.apply(keys, vals, n);
+                for (int i = 0; i < n; i++) batch[i].done.complete(null);
+            } catch (RuntimeException e) {
+                for (int i = 0; i < n; i++) batch[i].done.completeExceptionally(e);
+            }
+            Arrays.fill(batch, 0, n, null);
+            Arrays.fill(sorted, 0, n, null);
+            Arrays.fill(keys, 0, n, null);
+            Arrays.fill(vals, 0, n, null);
+            applied += n;
+            batches++;
+        }
+    }
+
+    // take the published commands at the head of the buffer, up to a full batch
+    @SuppressWarnings("unchecked")
+    private int drain(Command<Key, Value>[] batch) {
+        int n = 0;
+        while (n < batch.length) {
+            int slot = (int) head & mask;
+            if (sequence.get(slot) != head + 1) break;
+            batch[n++] = (Command<Key, Value>) slots[slot];
+            slots[slot] = null;
+            sequence.set(slot, head + slots.length);   // free the slot for the next lap
+            head++;
+        }
+        return n;
+    }
+
+
+    /**
+     * Unit tests the <tt>WritePipeline</tt> data type.
+     */
+    public static void main(String[] args) throws Exception {
+        VersionedRedBlackBST<Integer, String> st = new VersionedRedBlackBST<Integer, String>();
+        try (WritePipeline<Integer, String> pipeline = new WritePipeline<Integer, String>(st)) {
+            for (int i = 9; i >= 0; i--) pipeline.put(i, "v" + i);
+            pipeline.delete(4);
+            pipeline.put(3, "changed").get();
+            System.out.println("size " + st.size() + ", 3=" + st.get(3) + ", 4=" + st.get(4)
+                    + ", " + pipeline.batches() + " batches");
+        }
+    }
+}